@@ -135,6 +135,11 @@ public abstract class UIComponentBase extends UIComponent
     private transient FacesContext _facesContext;
     private transient Boolean _cachedIsRendered;
     private transient Renderer _cachedRenderer;
+
+    /**
+     * Index of the components inside this naming container, see _ComponentIdIndex.
+     */
+    transient Map<String, UIComponent> _idIndex;
     
     public UIComponentBase()
     {
@@ -172,6 +177,10 @@ public abstract class UIComponentBase extends UIComponent
     public void setId(String id)
     {
         isIdValid(id);
+        if (_parent != null && (id == null ? _id != null : !id.equals(_id)))
+        {
+            _ComponentIdIndex.invalidate(_parent);
+        }
         _id = id;
         _clientId = null;
     }
@@ -186,6 +195,12 @@ public abstract class UIComponentBase extends UIComponent
     @Override
     public void setParent(UIComponent parent)
     {
+        _ComponentIdIndex.invalidate(_parent);
+        if (parent != _parent)
+        {
+            _ComponentIdIndex.invalidate(parent);
+        }
+
         // removing kids OR this is UIViewRoot
         if (parent == null)
         {
@@ -720,7 +735,9 @@ public abstract class UIComponentBase extends UIComponent
             return null;
         }
 
-        char separatorChar = getFacesContext().getNamingContainerSeparatorChar();
+        FacesContext facesContext = getFacesContext();
+        char separatorChar = facesContext.getNamingContainerSeparatorChar();
+        boolean useIdIndex = _ComponentIdIndex.isEnabled(facesContext);
         UIComponent findBase;
         if (expr.charAt(0) == separatorChar)
         {
@@ -742,11 +759,13 @@ public abstract class UIComponentBase extends UIComponent
         int separator = expr.indexOf(separatorChar);
         if (separator == -1)
         {
-            return _ComponentUtils.findComponent(findBase, expr, separatorChar);
+            return useIdIndex ? _ComponentIdIndex.findComponent(findBase, expr, separatorChar)
+                    : _ComponentUtils.findComponent(findBase, expr, separatorChar);
         }
 
         String id = expr.substring(0, separator);
-        findBase = _ComponentUtils.findComponent(findBase, id, separatorChar);
+        findBase = useIdIndex ? _ComponentIdIndex.findComponent(findBase, id, separatorChar)
+                : _ComponentUtils.findComponent(findBase, id, separatorChar);
         if (findBase == null)
         {
             return null;
@@ -1161,14 +1180,14 @@ public abstract class UIComponentBase extends UIComponent
     {
         if (isCachedFacesContext())
         {
-            return super.invokeOnComponent(context, clientId, callback);
+            return _invokeOnComponent(context, clientId, callback);
         }
         else
         {
             try
             {
                 setCachedFacesContext(context);
-                return super.invokeOnComponent(context, clientId, callback);
+                return _invokeOnComponent(context, clientId, callback);
             }
             finally
             {
@@ -1177,6 +1196,19 @@ public abstract class UIComponentBase extends UIComponent
         }
     }
 
+    private boolean _invokeOnComponent(FacesContext context, String clientId, ContextCallback callback)
+            throws FacesException
+    {
+        if ((this instanceof NamingContainer || this instanceof UIViewRoot)
+                && context != null && clientId != null && callback != null
+                && _ComponentIdIndex.isEnabled(context)
+                && _ComponentIdIndex.invokeOnComponent(this, context, clientId, callback))
+        {
+            return true;
+        }
+        return super.invokeOnComponent(context, clientId, callback);
+    }
+
     @Override
     public boolean visitTree(VisitContext context, VisitCallback callback)
     {
@@ -2113,6 +2145,10 @@ public abstract class UIComponentBase extends UIComponent
         
         if (values.length == FULL_STATE_ARRAY_SIZE)
         {
+            if (_parent != null && (values[4] == null ? _id != null : !values[4].equals(_id)))
+            {
+                _ComponentIdIndex.invalidate(_parent);
+            }
             _id = (String) values[4];
             _clientId = (String) values[5];
             _markCreated = (String) values[6];
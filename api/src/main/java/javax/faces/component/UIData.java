@@ -322,6 +322,15 @@ public class UIData extends UIComponentBase implements NamingContainer, UniqueId
             evh.setValid(_valid);
             evh.setSubmittedValue(_submittedValue);
         }
+
+        /**
+         * Tells if restoreState would leave the component as it is. Values are compared by identity.
+         */
+        public boolean isRestored(EditableValueHolder evh)
+        {
+            return _value == evh.getLocalValue() && _localValueSet == evh.isLocalValueSet()
+                    && _valid == evh.isValid() && _submittedValue == evh.getSubmittedValue();
+        }
     }
 
     /**
@@ -554,6 +563,9 @@ public class UIData extends UIComponentBase implements NamingContainer, UniqueId
 
         FacesContext facesContext = getFacesContext();
 
+        // Whether the child components have the initial state, so restoring it can be skipped
+        boolean pristine = false;
+
         if (_rowIndex == -1)
         {
             if (_initialDescendantComponentState == null)
@@ -563,6 +575,11 @@ public class UIData extends UIComponentBase implements NamingContainer, UniqueId
                 // be pushed to the "restoreState" method of all the child
                 // components to set them up to represent a clean row.
                 _initialDescendantComponentState = saveDescendantComponentStates(this, false, false);
+                pristine = true;
+            }
+            else
+            {
+                pristine = isDescendantComponentStateRestored(this, false, _initialDescendantComponentState, false);
             }
         }
         else
@@ -572,14 +589,26 @@ public class UIData extends UIComponentBase implements NamingContainer, UniqueId
             // skip row state saving code safely.
             if (_initialDescendantComponentState != null)
             {
-                // We are currently positioned on some row, and are about to
-                // move off it, so save the (partial) state of the components
-                // representing the current row. Later if this row is revisited
-                // then we can restore this state.
-                Collection<Object[]> savedRowState = saveDescendantComponentStates(this, false, false);
-                if (savedRowState != null)
+                pristine = isDescendantComponentStateRestored(this, false, _initialDescendantComponentState, false);
+                if (pristine)
                 {
-                    _rowStates.put(getContainerClientId(facesContext), savedRowState);
+                    // The row is the same as one never visited, so there is nothing to keep for it
+                    if (!_rowStates.isEmpty())
+                    {
+                        _rowStates.remove(getContainerClientId(facesContext));
+                    }
+                }
+                else
+                {
+                    // We are currently positioned on some row, and are about to
+                    // move off it, so save the (partial) state of the components
+                    // representing the current row. Later if this row is revisited
+                    // then we can restore this state.
+                    Collection<Object[]> savedRowState = saveDescendantComponentStates(this, false, false);
+                    if (savedRowState != null)
+                    {
+                        _rowStates.put(getContainerClientId(facesContext), savedRowState);
+                    }
                 }
             }
         }
@@ -617,7 +646,7 @@ public class UIData extends UIComponentBase implements NamingContainer, UniqueId
         {
             // reset components to initial state
             // If no initial state, skip row restore state code
-            if (_initialDescendantComponentState != null)
+            if (_initialDescendantComponentState != null && !pristine)
             {
                 restoreDescendantComponentStates(this, false, _initialDescendantComponentState, false);
             }
@@ -628,14 +657,14 @@ public class UIData extends UIComponentBase implements NamingContainer, UniqueId
         }
         else
         {
-            Object rowState = _rowStates.get(getContainerClientId(facesContext));
+            Object rowState = _rowStates.isEmpty() ? null : _rowStates.get(getContainerClientId(facesContext));
             if (rowState == null)
             {
                 // We haven't been positioned on this row before, so just
                 // configure the child components of this component with
                 // the standard "initial" state
                 // If no initial state, skip row restore state code
-                if (_initialDescendantComponentState != null)
+                if (_initialDescendantComponentState != null && !pristine)
                 {
                     restoreDescendantComponentStates(this, false, _initialDescendantComponentState, false);
                 }
@@ -853,6 +882,67 @@ public class UIData extends UIComponentBase implements NamingContainer, UniqueId
         }
     }
 
+    /**
+     * Tell if the child components of this component already have the state that restoreDescendantComponentStates
+     * would set from the given state, without saving their state. The state of a component that is not in the saved
+     * state (or a null state) only matches when it is not an EditableValueHolder.
+     */
+    @SuppressWarnings("unchecked")
+    private boolean isDescendantComponentStateRestored(UIComponent parent, boolean iterateFacets, Object state,
+                                                       boolean checkChildFacets)
+    {
+        List<? extends Object[]> stateCollection = (List<? extends Object[]>) state;
+        int descendantStateIndex = 0;
+
+        if (iterateFacets && parent.getFacetCount() > 0)
+        {
+            for (UIComponent component : parent.getFacets().values())
+            {
+                if (!component.isTransient())
+                {
+                    if (!isComponentStateRestored(component, stateCollection, descendantStateIndex,
+                            checkChildFacets))
+                    {
+                        return false;
+                    }
+                    descendantStateIndex++;
+                }
+            }
+        }
+
+        for (int i = 0, childCount = parent.getChildCount(); i < childCount; i++)
+        {
+            UIComponent component = parent.getChildren().get(i);
+            if (!component.isTransient())
+            {
+                if (!isComponentStateRestored(component, stateCollection, descendantStateIndex, checkChildFacets))
+                {
+                    return false;
+                }
+                descendantStateIndex++;
+            }
+        }
+        return true;
+    }
+
+    private boolean isComponentStateRestored(UIComponent component, List<? extends Object[]> stateCollection,
+                                             int descendantStateIndex, boolean checkChildFacets)
+    {
+        Object[] object = stateCollection != null && descendantStateIndex < stateCollection.size()
+                ? stateCollection.get(descendantStateIndex) : null;
+        if (component instanceof EditableValueHolder && (object == null || object[0] == null
+                || !((EditableValueHolderState) object[0]).isRestored((EditableValueHolder) component)))
+        {
+            return false;
+        }
+        if (component.getChildCount() == 0 && (!checkChildFacets || component.getFacetCount() == 0))
+        {
+            return true;
+        }
+        return isDescendantComponentStateRestored(component, checkChildFacets, object == null ? null : object[1],
+                true);
+    }
+
     /**
      * Just call component.setId(component.getId()) to reset all client ids and 
      * ensure they will be calculated for the current row, but do not waste time
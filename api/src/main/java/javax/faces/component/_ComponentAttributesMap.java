@@ -23,6 +23,8 @@ import java.beans.IntrospectionException;
 import java.beans.Introspector;
 import java.beans.PropertyDescriptor;
 import java.io.Serializable;
+import java.lang.invoke.MethodHandle;
+import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
 import java.util.Collection;
 import java.util.Collections;
@@ -698,6 +700,19 @@ class _ComponentAttributesMap implements Map<String, Object>, Serializable
         }
         try
         {
+            MethodHandle readHandle = propertyDescriptor.getReadHandle();
+            if (readHandle != null)
+            {
+                try
+                {
+                    return (Object) readHandle.invokeExact((Object) _component);
+                }
+                catch (Throwable e)
+                {
+                    // Same cause as the one thrown by Method.invoke
+                    throw new InvocationTargetException(e);
+                }
+            }
             return readMethod.invoke(_component, EMPTY_ARGS);
         }
         catch (Exception e)
@@ -727,7 +742,23 @@ class _ComponentAttributesMap implements Map<String, Object>, Serializable
         }
         try
         {
-            writeMethod.invoke(_component, new Object[]{value});
+            MethodHandle writeHandle = propertyDescriptor.getWriteHandle(value);
+            if (writeHandle != null)
+            {
+                try
+                {
+                    writeHandle.invokeExact((Object) _component, value);
+                }
+                catch (Throwable e)
+                {
+                    // Same cause as the one thrown by Method.invoke
+                    throw new InvocationTargetException(e);
+                }
+            }
+            else
+            {
+                writeMethod.invoke(_component, new Object[]{value});
+            }
         }
         catch (Exception e)
         {
@@ -113,11 +113,19 @@ class _ComponentChildrenList extends ArrayList<UIComponent> implements Serializa
     private void childRemoved(UIComponent child)
     {
         child.setParent(null);
+        if (!(child instanceof UIComponentBase))
+        {
+            _ComponentIdIndex.invalidate(_component);
+        }
     }
 
     private void updateParent(UIComponent child)
     {
         child.setParent(_component);
+        if (!(child instanceof UIComponentBase))
+        {
+            _ComponentIdIndex.invalidate(_component);
+        }
     }
     
     private void removeChildrenFromParent(UIComponent child)
@@ -156,6 +156,8 @@ class _ComponentFacetMap<V extends UIComponent> implements Map<String, V>, Seria
         {
             previousValue.setParent(null);
         }
+        // setNewParent() runs before the facet is in the map, so drop any index built in between
+        _ComponentIdIndex.invalidate(_component);
         return previousValue; 
     }
 
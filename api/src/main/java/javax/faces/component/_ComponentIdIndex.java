@@ -0,0 +1,256 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package javax.faces.component;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.faces.FacesException;
+import javax.faces.context.ExternalContext;
+import javax.faces.context.FacesContext;
+
+import org.apache.myfaces.buildtools.maven2.plugin.builder.annotation.JSFWebConfigParam;
+
+/**
+ * Index by id of the components inside a NamingContainer (or the UIViewRoot), that is, the ones findComponent
+ * looks for without descending into other naming containers. The index is kept by the container and built on
+ * the first lookup. Adding or removing a component or changing its id discards the index of its container,
+ * so the next lookup scans the tree again.
+ * 
+ * <p>The index is not used when the container has inside components not extending UIComponentBase, because
+ * their children could be changed without notice.</p>
+ */
+final class _ComponentIdIndex
+{
+    /**
+     * Keep an index by id of the components inside each naming container, so findComponent and 
+     * invokeOnComponent find them without scanning the tree. It helps on big views with many ajax render
+     * targets. Components overriding getId() to return a value different from the one set with setId() are
+     * not supported.
+     */
+    @JSFWebConfigParam(since = "2.3.3", defaultValue = "false", expectedValues = "true, false", 
+            tags = "performance")
+    static final String COMPONENT_ID_INDEX_ENABLED_PARAM_NAME = "org.apache.myfaces.COMPONENT_ID_INDEX_ENABLED";
+
+    /**
+     * Stored in place of the index when the container can't be indexed.
+     */
+    private static final Map<String, UIComponent> NOT_INDEXABLE = new HashMap<String, UIComponent>(1);
+
+    /**
+     * Set once an application enables the index. Until then no index can exist, so invalidate returns
+     * without looking for the container, which is the common case because setParent and setId call it
+     * for every component.
+     */
+    private static volatile boolean used = false;
+
+    private _ComponentIdIndex()
+    {
+    }
+
+    static boolean isEnabled(FacesContext facesContext)
+    {
+        if (facesContext == null)
+        {
+            return false;
+        }
+        ExternalContext ec = facesContext.getExternalContext();
+        Boolean enabled = (Boolean) ec.getApplicationMap().get(COMPONENT_ID_INDEX_ENABLED_PARAM_NAME);
+        if (enabled == null)
+        {
+            enabled = "true".equalsIgnoreCase(ec.getInitParameter(COMPONENT_ID_INDEX_ENABLED_PARAM_NAME));
+            ec.getApplicationMap().put(COMPONENT_ID_INDEX_ENABLED_PARAM_NAME, enabled);
+        }
+        if (enabled && !used)
+        {
+            used = true;
+        }
+        return enabled;
+    }
+
+    /**
+     * Discards the index of the container of the component, called when the component is added or removed, or
+     * its id changes.
+     */
+    static void invalidate(UIComponent component)
+    {
+        if (!used)
+        {
+            return;
+        }
+        for (UIComponent c = component; c != null; c = c.getParent())
+        {
+            if (c instanceof NamingContainer || c instanceof UIViewRoot)
+            {
+                if (c instanceof UIComponentBase)
+                {
+                    ((UIComponentBase) c)._idIndex = null;
+                }
+                return;
+            }
+        }
+    }
+
+    /**
+     * Same as _ComponentUtils.findComponent, but using the index of findBase when it is possible.
+     */
+    static UIComponent findComponent(UIComponent findBase, String id, char separatorChar)
+    {
+        Map<String, UIComponent> index = getIndex(findBase);
+        if (index == null)
+        {
+            return _ComponentUtils.findComponent(findBase, id, separatorChar);
+        }
+        if (!(findBase instanceof NamingContainer) && id.equals(findBase.getId()))
+        {
+            return findBase;
+        }
+        return index.get(id);
+    }
+
+    /**
+     * Invokes the callback on the component with the clientId, going directly to the component inside the
+     * container whose id is the next segment of the clientId. Returns false if the component is not found in
+     * this way, for example because the container can't be indexed or because the clientId doesn't follow
+     * the structure of naming containers, so the caller has to scan the tree.
+     */
+    static boolean invokeOnComponent(UIComponentBase container, FacesContext context, String clientId,
+            ContextCallback callback) throws FacesException
+    {
+        Map<String, UIComponent> index = getIndex(container);
+        if (index == null)
+        {
+            return false;
+        }
+
+        char separatorChar = context.getNamingContainerSeparatorChar();
+        int start = 0;
+        String prefix = container instanceof UIViewRoot ? null : container.getContainerClientId(context);
+        if (prefix != null)
+        {
+            if (clientId.length() <= prefix.length() || clientId.charAt(prefix.length()) != separatorChar
+                    || !clientId.startsWith(prefix))
+            {
+                return false;
+            }
+            start = prefix.length() + 1;
+        }
+        int end = clientId.indexOf(separatorChar, start);
+        UIComponent target = index.get(end == -1 ? clientId.substring(start) : clientId.substring(start, end));
+        if (target == null)
+        {
+            return false;
+        }
+
+        // The components between the container and the target are pushed as the tree traversal does
+        List<UIComponent> path = new ArrayList<UIComponent>();
+        for (UIComponent c = target.getParent(); c != container; c = c.getParent())
+        {
+            if (c == null)
+            {
+                return false;
+            }
+            path.add(c);
+        }
+
+        container.pushComponentToEL(context, container);
+        for (int i = path.size() - 1; i >= 0; i--)
+        {
+            path.get(i).pushComponentToEL(context, path.get(i));
+        }
+        try
+        {
+            return target.invokeOnComponent(context, clientId, callback);
+        }
+        finally
+        {
+            for (int i = 0; i < path.size(); i++)
+            {
+                path.get(i).popComponentFromEL(context);
+            }
+            container.popComponentFromEL(context);
+        }
+    }
+
+    /**
+     * Returns the index of the container, building it if required, or null if it can't be indexed.
+     */
+    private static Map<String, UIComponent> getIndex(UIComponent container)
+    {
+        if (!(container instanceof UIComponentBase)
+                || !(container instanceof NamingContainer || container instanceof UIViewRoot))
+        {
+            return null;
+        }
+        UIComponentBase base = (UIComponentBase) container;
+        Map<String, UIComponent> index = base._idIndex;
+        if (index == null)
+        {
+            index = new HashMap<String, UIComponent>();
+            if (!addDescendants(container, index))
+            {
+                index = NOT_INDEXABLE;
+            }
+            base._idIndex = index;
+        }
+        return index == NOT_INDEXABLE ? null : index;
+    }
+
+    /**
+     * Adds the facets and children in the same order _ComponentUtils.findComponent visits them, so the first
+     * component found with an id is the same.
+     */
+    private static boolean addDescendants(UIComponent component, Map<String, UIComponent> index)
+    {
+        if (component.getFacetCount() > 0)
+        {
+            for (UIComponent facet : component.getFacets().values())
+            {
+                if (!add(facet, index))
+                {
+                    return false;
+                }
+            }
+        }
+        for (int i = 0, childCount = component.getChildCount(); i < childCount; i++)
+        {
+            if (!add(component.getChildren().get(i), index))
+            {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean add(UIComponent component, Map<String, UIComponent> index)
+    {
+        if (!(component instanceof UIComponentBase))
+        {
+            return false;
+        }
+        String id = component.getId();
+        if (id != null && !index.containsKey(id))
+        {
+            index.put(id, component);
+        }
+        return component instanceof NamingContainer || addDescendants(component, index);
+    }
+}
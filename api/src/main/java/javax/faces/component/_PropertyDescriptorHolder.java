@@ -19,15 +19,28 @@
 package javax.faces.component;
 
 import java.beans.PropertyDescriptor;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
 import java.lang.ref.Reference;
 import java.lang.ref.SoftReference;
 import java.lang.reflect.Method;
 
 class _PropertyDescriptorHolder
 {
+    private static final MethodType READ_TYPE = MethodType.methodType(Object.class, Object.class);
+    private static final MethodType WRITE_TYPE = MethodType.methodType(void.class, Object.class, Object.class);
+
     private final PropertyDescriptor _descriptor;
     private Reference<Method> _readMethodRef;
     private Reference<Method> _writeMethodRef;
+    
+    // The handles are soft references like the methods, so the cache of holders by class
+    // does not keep the component classes (and their class loader) from being collected.
+    private Reference<MethodHandle> _readHandleRef;
+    private Reference<WriteHandle> _writeHandleRef;
+    private boolean _readHandleUnavailable;
+    private boolean _writeHandleUnavailable;
 
     public _PropertyDescriptorHolder(PropertyDescriptor descriptor)
     {
@@ -72,8 +85,96 @@ class _PropertyDescriptorHolder
         return _writeMethodRef.get();
     }
     
+    /**
+     * Return a handle to the read method, with type (Object)Object, or null if the method
+     * can't be accessed through a public lookup and has to be invoked by reflection.
+     */
+    public MethodHandle getReadHandle()
+    {
+        MethodHandle readHandle = _readHandleRef == null ? null : _readHandleRef.get();
+        if (readHandle == null && !_readHandleUnavailable)
+        {
+            readHandle = unreflect(getReadMethod(), READ_TYPE);
+            if (readHandle == null)
+            {
+                _readHandleUnavailable = true;
+            }
+            else
+            {
+                _readHandleRef = new SoftReference<MethodHandle>(readHandle);
+            }
+        }
+        return readHandle;
+    }
+    
+    /**
+     * Return a handle to the write method, with type (Object,Object)void, or null if the method
+     * can't be accessed through a public lookup or the value is not an instance of the parameter type.
+     * In both cases the method has to be invoked by reflection, which also reports a wrong value
+     * or converts a primitive one.
+     */
+    public MethodHandle getWriteHandle(Object value)
+    {
+        WriteHandle writeHandle = _writeHandleRef == null ? null : _writeHandleRef.get();
+        if (writeHandle == null && !_writeHandleUnavailable)
+        {
+            Method writeMethod = getWriteMethod();
+            MethodHandle handle = unreflect(writeMethod, WRITE_TYPE);
+            if (handle == null)
+            {
+                _writeHandleUnavailable = true;
+            }
+            else
+            {
+                writeHandle = new WriteHandle(handle, writeMethod.getParameterTypes()[0]);
+                _writeHandleRef = new SoftReference<WriteHandle>(writeHandle);
+            }
+        }
+        if (writeHandle == null)
+        {
+            return null;
+        }
+        if (value == null ? writeHandle.primitive : value.getClass() != writeHandle.valueType
+                && (writeHandle.primitive || !writeHandle.valueType.isInstance(value)))
+        {
+            return null;
+        }
+        return writeHandle.handle;
+    }
+    
     public PropertyDescriptor getPropertyDescriptor()
     {
         return _descriptor;
     }
+    
+    private static MethodHandle unreflect(Method method, MethodType type)
+    {
+        if (method == null)
+        {
+            return null;
+        }
+        try
+        {
+            // A public lookup, because the handle is shared by every application using this class
+            return MethodHandles.publicLookup().unreflect(method).asType(type);
+        }
+        catch (IllegalAccessException e)
+        {
+            return null;
+        }
+    }
+
+    private static final class WriteHandle
+    {
+        private final MethodHandle handle;
+        private final Class<?> valueType;
+        private final boolean primitive;
+
+        WriteHandle(MethodHandle handle, Class<?> parameterType)
+        {
+            this.handle = handle;
+            this.primitive = parameterType.isPrimitive();
+            this.valueType = primitive ? MethodType.methodType(parameterType).wrap().returnType() : parameterType;
+        }
+    }
 }
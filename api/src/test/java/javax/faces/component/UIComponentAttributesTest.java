@@ -18,6 +18,9 @@
  */
 package javax.faces.component;
 
+import java.lang.reflect.InvocationTargetException;
+
+import javax.faces.FacesException;
 import javax.faces.component.html.HtmlInputText;
 
 import org.apache.myfaces.test.base.AbstractJsfTestCase;
@@ -51,6 +54,133 @@ public class UIComponentAttributesTest extends AbstractJsfTestCase
     {
         input.getAttributes().put("style", null);
     }
+
+    public void testGetAndSetProperties()
+    {
+        input.getAttributes().put("style", "color:red");
+        input.getAttributes().put("maxlength", 10);
+        input.getAttributes().put("disabled", Boolean.TRUE);
+        assertEquals("color:red", input.getStyle());
+        assertEquals(10, input.getMaxlength());
+        assertTrue(input.isDisabled());
+        assertEquals("color:red", input.getAttributes().get("style"));
+        assertEquals(10, input.getAttributes().get("maxlength"));
+        assertEquals(Boolean.TRUE, input.getAttributes().get("disabled"));
+    }
+
+    public void testSetPropertyWithWrongType()
+    {
+        try
+        {
+            input.getAttributes().put("maxlength", "ten");
+            fail("Should have thrown FacesException");
+        }
+        catch (FacesException e)
+        {
+            // reported by Method.invoke, as before the method handles
+            assertTrue(e.getCause() instanceof IllegalArgumentException);
+        }
+    }
+
+    public void testSetPropertyWithWideningConversion()
+    {
+        // A value that is not of the parameter type is set by reflection, that converts it
+        WideningComponent component = new WideningComponent();
+        component.getAttributes().put("size", 10);
+        assertEquals(10L, component.getSize());
+    }
+
+    public void testPropertyExceptionIsWrapped()
+    {
+        BrokenComponent component = new BrokenComponent();
+        component.setId("broken");
+        try
+        {
+            component.getAttributes().get("broken");
+            fail("Should have thrown FacesException");
+        }
+        catch (FacesException e)
+        {
+            assertTrue(e.getCause() instanceof InvocationTargetException);
+            assertEquals("get", e.getCause().getCause().getMessage());
+        }
+        try
+        {
+            component.getAttributes().put("broken", "value");
+            fail("Should have thrown FacesException");
+        }
+        catch (FacesException e)
+        {
+            assertTrue(e.getCause() instanceof InvocationTargetException);
+            assertEquals("set", e.getCause().getCause().getMessage());
+        }
+    }
+
+    public void testPropertyErrorIsWrapped()
+    {
+        BrokenComponent component = new BrokenComponent();
+        component.setId("broken");
+        try
+        {
+            component.getAttributes().get("fatal");
+            fail("Should have thrown FacesException");
+        }
+        catch (FacesException e)
+        {
+            assertTrue(e.getCause() instanceof InvocationTargetException);
+            assertTrue(e.getCause().getCause() instanceof LinkageError);
+            assertEquals("get", e.getCause().getCause().getMessage());
+        }
+        try
+        {
+            component.getAttributes().put("fatal", "value");
+            fail("Should have thrown FacesException");
+        }
+        catch (FacesException e)
+        {
+            assertTrue(e.getCause() instanceof InvocationTargetException);
+            assertTrue(e.getCause().getCause() instanceof LinkageError);
+            assertEquals("set", e.getCause().getCause().getMessage());
+        }
+    }
+
+    public static class WideningComponent extends UIOutput
+    {
+        private long size;
+
+        public long getSize()
+        {
+            return size;
+        }
+
+        public void setSize(long size)
+        {
+            this.size = size;
+        }
+    }
+
+    public static class BrokenComponent extends UIOutput
+    {
+        public String getBroken()
+        {
+            throw new IllegalStateException("get");
+        }
+
+        public void setBroken(String value)
+        {
+            throw new IllegalStateException("set");
+        }
+
+        public String getFatal()
+        {
+            throw new LinkageError("get");
+        }
+
+        public void setFatal(String value)
+        {
+            throw new LinkageError("set");
+        }
+    }
 /*
     public void testSetNullAttributeOnInvalidProperty()
     {
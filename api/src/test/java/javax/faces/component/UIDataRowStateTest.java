@@ -15,8 +15,10 @@
  */
 package javax.faces.component;
 
+import java.lang.reflect.Field;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
 import javax.faces.component.html.HtmlColumn;
 import javax.faces.component.html.HtmlDataTable;
 import javax.faces.component.html.HtmlInputText;
@@ -275,4 +277,67 @@ public class UIDataRowStateTest extends AbstractJsfTestCase
             Assert.assertEquals("someString"+i, inputText.getSubmittedValue());
         }
     }
+
+    /**
+     * Check only the rows whose EditableValueHolder state differs from the initial one are stored.
+     */
+    @Test
+    public void testPristineRowsAreNotStored() throws Exception
+    {
+        List<Item> list = new ArrayList<Item>();
+        int rowCount = 10;
+        for (int i = 0; i < rowCount; i++)
+        {
+            list.add(new Item(i, "name"+i, "lastName"+i));
+        }
+
+        UIViewRoot root = facesContext.getViewRoot();
+        UIData data = new HtmlDataTable();
+        data.setId("table");
+        root.getChildren().add(data);
+        data.setValue(new ListDataModel(list));
+        data.setVar("item");
+        data.setRows(rowCount);
+
+        UIColumn col = new HtmlColumn();
+        data.getChildren().add(col);
+
+        UIInput inputText = new HtmlInputText();
+        inputText.setId("text");
+        col.getChildren().add(inputText);
+
+        for (int i = 0; i < rowCount ; i++)
+        {
+            data.setRowIndex(i);
+            if (i == 2 || i == 5)
+            {
+                inputText.setSubmittedValue("someString"+i);
+            }
+        }
+        data.setRowIndex(-1);
+        Assert.assertNull(inputText.getSubmittedValue());
+
+        Field field = UIData.class.getDeclaredField("_rowStates");
+        field.setAccessible(true);
+        Map<?, ?> rowStates = (Map<?, ?>) field.get(data);
+        Assert.assertEquals(2, rowStates.size());
+
+        for (int i = 0; i < rowCount ; i++)
+        {
+            data.setRowIndex(i);
+            Assert.assertEquals(i == 2 || i == 5 ? "someString"+i : null, inputText.getSubmittedValue());
+            if (i == 5)
+            {
+                inputText.setSubmittedValue(null);
+            }
+        }
+        data.setRowIndex(-1);
+        Assert.assertEquals(1, rowStates.size());
+
+        data.setRowIndex(5);
+        Assert.assertNull(inputText.getSubmittedValue());
+        data.setRowIndex(2);
+        Assert.assertEquals("someString2", inputText.getSubmittedValue());
+        data.setRowIndex(-1);
+    }
 }
@@ -0,0 +1,116 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package javax.faces.component;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.faces.context.FacesContext;
+
+import org.apache.myfaces.test.base.junit4.AbstractJsfTestCase;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class _ComponentIdIndexTest extends AbstractJsfTestCase
+{
+    private UIViewRoot _root;
+    private UIForm _form;
+    private UIPanel _panel;
+    private UIInput _input;
+
+    @Override
+    protected void setUpServletObjects() throws Exception
+    {
+        super.setUpServletObjects();
+        servletContext.addInitParameter(_ComponentIdIndex.COMPONENT_ID_INDEX_ENABLED_PARAM_NAME, "true");
+    }
+
+    @Override
+    public void setUp() throws Exception
+    {
+        super.setUp();
+        _root = new UIViewRoot();
+        _root.setId("root");
+        _form = new UIForm();
+        _form.setId("form");
+        _panel = new UIPanel();
+        _panel.setId("panel");
+        _input = new UIInput();
+        _input.setId("input");
+        _root.getChildren().add(_form);
+        _form.getChildren().add(_panel);
+        _panel.getChildren().add(_input);
+        facesContext.setViewRoot(_root);
+    }
+
+    @Test
+    public void testFindComponent()
+    {
+        Assert.assertTrue(_ComponentIdIndex.isEnabled(facesContext));
+        Assert.assertSame(_form, _root.findComponent("form"));
+        Assert.assertSame(_input, _root.findComponent("form:input"));
+        Assert.assertSame(_panel, _form.findComponent("panel"));
+        Assert.assertNull(_root.findComponent("input"));
+        Assert.assertNotNull(_form._idIndex);
+    }
+
+    @Test
+    public void testIndexIsUpdated()
+    {
+        Assert.assertSame(_input, _form.findComponent("input"));
+
+        _input.setId("renamed");
+        Assert.assertNull(_form.findComponent("input"));
+        Assert.assertSame(_input, _form.findComponent("renamed"));
+
+        UIOutput output = new UIOutput();
+        output.setId("output");
+        _panel.getFacets().put("header", output);
+        Assert.assertSame(output, _form.findComponent("output"));
+
+        _panel.getChildren().remove(_input);
+        Assert.assertNull(_form.findComponent("renamed"));
+
+        _root.getChildren().add(_input);
+        Assert.assertSame(_input, _root.findComponent("renamed"));
+    }
+
+    @Test
+    public void testInvokeOnComponent()
+    {
+        final List<UIComponent> invoked = new ArrayList<UIComponent>();
+        ContextCallback callback = new ContextCallback()
+        {
+            @Override
+            public void invokeContextCallback(FacesContext context, UIComponent target)
+            {
+                Assert.assertSame(target, UIComponent.getCurrentComponent(context));
+                invoked.add(target);
+            }
+        };
+
+        Assert.assertTrue(_root.invokeOnComponent(facesContext, "form:input", callback));
+        Assert.assertTrue(_form.invokeOnComponent(facesContext, "form:panel", callback));
+        Assert.assertFalse(_root.invokeOnComponent(facesContext, "form:missing", callback));
+        Assert.assertEquals(2, invoked.size());
+        Assert.assertSame(_input, invoked.get(0));
+        Assert.assertSame(_panel, invoked.get(1));
+        Assert.assertNull(UIComponent.getCurrentComponent(facesContext));
+    }
+}
@@ -20,10 +20,12 @@ package org.apache.myfaces.application;
 
 import org.apache.myfaces.buildtools.maven2.plugin.builder.annotation.JSFWebConfigParam;
 import org.apache.myfaces.shared.resource.ResourceHandlerCache;
+import org.apache.myfaces.shared.resource.ResourceHandlerCache.BundledResourceValue;
 import org.apache.myfaces.shared.resource.ResourceHandlerCache.ResourceValue;
 import org.apache.myfaces.shared.resource.ResourceHandlerSupport;
 import org.apache.myfaces.shared.resource.ResourceImpl;
 import org.apache.myfaces.shared.resource.ResourceLoader;
+import org.apache.myfaces.shared.resource.ResourceLoaderUtils;
 import org.apache.myfaces.shared.resource.ResourceMeta;
 import org.apache.myfaces.shared.resource.ResourceValidationUtils;
 import org.apache.myfaces.shared.util.ClassUtils;
@@ -31,15 +33,19 @@ import org.apache.myfaces.shared.util.ExternalContextUtils;
 import org.apache.myfaces.shared.util.StringUtils;
 import org.apache.myfaces.shared.util.WebConfigParamUtils;
 
+import javax.faces.application.ProjectStage;
 import javax.faces.application.Resource;
 import javax.faces.application.ResourceHandler;
 import javax.faces.application.ResourceWrapper;
 import javax.faces.context.ExternalContext;
 import javax.faces.context.FacesContext;
 import javax.servlet.http.HttpServletResponse;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
@@ -64,7 +70,12 @@ import org.apache.myfaces.shared.renderkit.html.util.SharedStringBuilder;
 import org.apache.myfaces.shared.resource.ContractResource;
 import org.apache.myfaces.shared.resource.ContractResourceLoader;
 import org.apache.myfaces.shared.resource.ResourceCachedInfo;
+import org.apache.myfaces.resource.BundledResource;
+import org.apache.myfaces.resource.PrecompressedResourceCache;
+import org.apache.myfaces.resource.ResourceContentCache;
 import org.apache.myfaces.util.SkipMatchIterator;
+import org.apache.myfaces.util.CacheMetrics;
+import org.apache.myfaces.util.MetricsRegistry;
 
 /**
  * DOCUMENT ME!
@@ -102,11 +113,71 @@ public class ResourceHandlerImpl extends ResourceHandler
     public static final String INIT_PARAM_RESOURCE_BUFFER_SIZE = "org.apache.myfaces.RESOURCE_BUFFER_SIZE";
     public static final int INIT_PARAM_RESOURCE_BUFFER_SIZE_DEFAULT = 2048;
     
+    /**
+     * Store the content of compressible resources, together with their gzip and deflate versions, in a
+     * temporal directory. The version accepted by the client (Accept-Encoding) is sent from the file with
+     * a strong ETag, so the resource is not read and compressed on every request. When the container
+     * supports it, the file is sent with sendfile. In Production stage the stored content is not
+     * revalidated until the application is restarted.
+     */
+    @JSFWebConfigParam(since="2.3.3", defaultValue="false", expectedValues="true, false", group="resources",
+            tags="performance")
+    public static final String INIT_PARAM_RESOURCE_COMPRESSION_ENABLED =
+            "org.apache.myfaces.RESOURCE_COMPRESSION_ENABLED";
+    public static final boolean INIT_PARAM_RESOURCE_COMPRESSION_ENABLED_DEFAULT = false;
+
+    /**
+     * Comma separated list of the content types handled by org.apache.myfaces.RESOURCE_COMPRESSION_ENABLED.
+     */
+    @JSFWebConfigParam(since="2.3.3", group="resources",
+            defaultValue="text/css, text/javascript, application/javascript, application/json, image/svg+xml")
+    public static final String INIT_PARAM_RESOURCE_COMPRESSION_CONTENT_TYPES =
+            "org.apache.myfaces.RESOURCE_COMPRESSION_CONTENT_TYPES";
+    public static final String INIT_PARAM_RESOURCE_COMPRESSION_CONTENT_TYPES_DEFAULT =
+            "text/css, text/javascript, application/javascript, application/json, image/svg+xml";
+
+    /**
+     * Max total size in bytes of the content of resources kept in memory. The content is stored as it is
+     * sent, after evaluating value expressions, so it is not read from the resource on every request. The
+     * least recently used resources are evicted first. Outside Production stage the stored content is
+     * revalidated against the last modified time of the resource. Disabled by default, since value
+     * expressions in resources that depend on the request would be evaluated only once.
+     */
+    @JSFWebConfigParam(since="2.3.3", defaultValue="0", classType="java.lang.Long", group="resources",
+            tags="performance")
+    public static final String INIT_PARAM_RESOURCE_CONTENT_CACHE_SIZE =
+            "org.apache.myfaces.RESOURCE_CONTENT_CACHE_SIZE";
+    public static final long INIT_PARAM_RESOURCE_CONTENT_CACHE_SIZE_DEFAULT = 0;
+
+    /**
+     * Max size in bytes of a resource to be kept in memory by org.apache.myfaces.RESOURCE_CONTENT_CACHE_SIZE.
+     */
+    @JSFWebConfigParam(since="2.3.3", defaultValue="32768", classType="java.lang.Integer", group="resources",
+            tags="performance")
+    public static final String INIT_PARAM_RESOURCE_CONTENT_CACHE_MAX_RESOURCE_SIZE =
+            "org.apache.myfaces.RESOURCE_CONTENT_CACHE_MAX_RESOURCE_SIZE";
+    public static final int INIT_PARAM_RESOURCE_CONTENT_CACHE_MAX_RESOURCE_SIZE_DEFAULT = 32768;
+
+    /**
+     * Subdir of the ServletContext tmp dir to store compressed resources.
+     */
+    private static final String COMPRESSED_RESOURCES_DIR = "oam-rh-compressed/";
+
+    /**
+     * Library name of the resources created by bundling other resources.
+     */
+    public static final String BUNDLE_LIBRARY_NAME = "oam.bundle";
+
     public static final Pattern LIBRARY_VERSION_CHECKER = Pattern.compile("\\p{Digit}+(_\\p{Digit}*)*");
     public static final Pattern RESOURCE_VERSION_CHECKER = Pattern.compile("\\p{Digit}+(_\\p{Digit}*)*\\..*");    
     
     private Boolean _allowSlashLibraryName;
     private int _resourceBufferSize = -1;
+    private Set<String> _compressionContentTypes;
+    private volatile PrecompressedResourceCache _precompressedResourceCache;
+    private volatile boolean _precompressedResourceCacheInitialized;
+    private volatile ResourceContentCache _resourceContentCache;
+    private volatile boolean _resourceContentCacheInitialized;
     
     private String[] _excludedResourceExtensions;
     
@@ -164,6 +235,10 @@ public class ResourceHandlerImpl extends ResourceHandler
         {
             return null;
         }
+        if (BUNDLE_LIBRARY_NAME.equals(libraryName))
+        {
+            return createBundledResource(resourceName);
+        }
         FacesContext facesContext = FacesContext.getCurrentInstance();
         if (contentType == null)
         {
@@ -293,6 +368,156 @@ public class ResourceHandlerImpl extends ResourceHandler
         return resource;
     }
 
+    /**
+     * Creates a resource with the content of the resources, in the same order. The bundle is built once
+     * and stored in the resource cache. Returns null if the resources cannot be bundled.
+     * 
+     * @since 2.3.3
+     */
+    public Resource createBundledResource(FacesContext facesContext, List<Resource> resources)
+    {
+        // Without the members in the url the bundle could not be built again once evicted
+        String members = BundledResource.encodeMembers(resources);
+        if (members == null)
+        {
+            return null;
+        }
+
+        StringBuilder sb = new StringBuilder(resources.size() * 64);
+        for (int i = 0, size = resources.size(); i < size; i++)
+        {
+            sb.append('|').append(resources.get(i).getRequestPath());
+        }
+        String key = sb.toString();
+
+        ResourceHandlerCache cache = getResourceLoaderCache();
+        BundledResourceValue value = cache.getBundledResource(key);
+        if (value == null)
+        {
+            try
+            {
+                value = BundledResource.createValue(resources, getResourceBufferSize());
+            }
+            catch (IOException e)
+            {
+                log.log(Level.WARNING, "Resources " + key + " could not be bundled: " + e.getMessage(), e);
+                value = BundledResource.getNotBundledValue();
+            }
+            cache.putBundledResource(key, value);
+        }
+        if (!value.isBundled())
+        {
+            return null;
+        }
+        if (cache.getBundledResource(value.getName()) == null)
+        {
+            cache.putBundledResource(value.getName(), value);
+        }
+        if (cache.getBundleMembers(value.getName()) == null)
+        {
+            cache.putBundleMembers(value.getName(), members);
+        }
+        return new BundledResource(value, BUNDLE_LIBRARY_NAME, members, getResourceHandlerSupport());
+    }
+
+    /**
+     * Returns the bundle with the name. If it is not in the cache, it is built again from its members,
+     * registered when the bundle was created or, after a restart, taken from the request.
+     */
+    private Resource createBundledResource(String bundleName)
+    {
+        ResourceHandlerCache cache = getResourceLoaderCache();
+        String members = cache.getBundleMembers(bundleName);
+        if (members == null)
+        {
+            FacesContext facesContext = FacesContext.getCurrentInstance();
+            if (facesContext == null)
+            {
+                return null;
+            }
+            members = facesContext.getExternalContext().getRequestParameterMap().get(BundledResource.MEMBERS_PARAM);
+            if (members == null)
+            {
+                return null;
+            }
+        }
+
+        BundledResourceValue value = cache.getBundledResource(bundleName);
+        if (value == null)
+        {
+            // A url that cannot be built is remembered with its members, so it is not built on every request
+            String notBundledKey = bundleName + '?' + members;
+            if (cache.getBundledResource(notBundledKey) != null)
+            {
+                return null;
+            }
+            value = buildBundledResourceValue(bundleName, members);
+            if (value == null)
+            {
+                cache.putBundledResource(notBundledKey, BundledResource.getNotBundledValue());
+                return null;
+            }
+            // Only the bundles rendered by this application are registered, the members taken from a request
+            // are not kept, so requests cannot grow the registry
+            cache.putBundledResource(bundleName, value);
+        }
+        return bundleName.equals(value.getName()) ?
+                new BundledResource(value, BUNDLE_LIBRARY_NAME, members, getResourceHandlerSupport()) : null;
+    }
+
+    /**
+     * Builds the bundle from its members. Returns null if a member does not exist or the content does not
+     * match the name anymore.
+     */
+    private BundledResourceValue buildBundledResourceValue(String bundleName, String members)
+    {
+        List<String[]> names = BundledResource.decodeMembers(members);
+        if (names == null)
+        {
+            return null;
+        }
+        List<Resource> resources = new ArrayList<Resource>(names.size());
+        for (int i = 0, size = names.size(); i < size; i++)
+        {
+            if (BUNDLE_LIBRARY_NAME.equals(names.get(i)[0]))
+            {
+                return null;
+            }
+            Resource resource = createBundleMemberResource(names.get(i)[0], names.get(i)[1]);
+            if (resource == null)
+            {
+                return null;
+            }
+            resources.add(resource);
+        }
+        BundledResourceValue value;
+        try
+        {
+            value = BundledResource.createValue(resources, getResourceBufferSize());
+        }
+        catch (IOException e)
+        {
+            log.log(Level.WARNING, "Bundle " + bundleName + " could not be built: " + e.getMessage(), e);
+            return null;
+        }
+        // The content has changed since the url was rendered, so that url has no content anymore
+        if (!value.isBundled() || !bundleName.equals(value.getName()))
+        {
+            return null;
+        }
+        return value;
+    }
+
+    /**
+     * Creates a resource to be included in a bundle built again from its url.
+     * 
+     * @since 2.3.3
+     */
+    protected Resource createBundleMemberResource(String libraryName, String resourceName)
+    {
+        return libraryName == null ? createResource(resourceName) : createResource(resourceName, libraryName);
+    }
+
     protected ResourceMeta deriveResourceMeta(ContractResourceLoader resourceLoader,
             String resourceName, String libraryName, String localePrefix, String contractName)
     {
@@ -613,7 +838,8 @@ public class ResourceHandlerImpl extends ResourceHandler
                 return;
             }
     
-            httpServletResponse.setContentType(_getContentType(resource, facesContext.getExternalContext()));
+            String contentType = _getContentType(resource, facesContext.getExternalContext());
+            httpServletResponse.setContentType(contentType);
     
             Map<String, String> headers = resource.getResponseHeaders();
     
@@ -628,6 +854,17 @@ public class ResourceHandlerImpl extends ResourceHandler
             //serve up the bytes (taken from trinidad ResourceServlet)
             try
             {
+                if (isCompressibleContentType(facesContext, contentType) &&
+                    handleCompressibleResourceRequest(facesContext, resource, httpServletResponse))
+                {
+                    return;
+                }
+                if (getResourceContentCache(facesContext) != null &&
+                    handleCachedResourceRequest(facesContext, resource, httpServletResponse))
+                {
+                    return;
+                }
+
                 InputStream in = resource.getInputStream();
                 OutputStream out = httpServletResponse.getOutputStream();
                 //byte[] buffer = new byte[_BUFFER_SIZE];
@@ -675,6 +912,255 @@ public class ResourceHandlerImpl extends ResourceHandler
         //}
     }
 
+    /**
+     * Sends the stored version of the resource accepted by the client. Returns false if the resource
+     * cannot be stored, so it has to be sent as usual.
+     */
+    private boolean handleCompressibleResourceRequest(FacesContext facesContext, Resource resource,
+            HttpServletResponse httpServletResponse) throws IOException
+    {
+        PrecompressedResourceCache cache = getPrecompressedResourceCache(facesContext);
+        if (cache == null)
+        {
+            return false;
+        }
+
+        ExternalContext extContext = facesContext.getExternalContext();
+        PrecompressedResourceCache.Entry entry = cache.getEntry(getResourceCacheKey(facesContext, resource),
+                resource, getResourceCacheLastModified(facesContext, resource));
+        if (entry == null)
+        {
+            return false;
+        }
+
+        Map<String, String> requestHeaders = extContext.getRequestHeaderMap();
+        String encoding = PrecompressedResourceCache.negotiate(requestHeaders.get("Accept-Encoding"), entry);
+        httpServletResponse.setHeader("Vary", "Accept-Encoding");
+        httpServletResponse.setHeader("ETag", entry.getETag(encoding));
+        if (entry.matches(requestHeaders.get("If-None-Match")))
+        {
+            httpServletResponse.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+            return true;
+        }
+
+        if (!PrecompressedResourceCache.IDENTITY.equals(encoding))
+        {
+            httpServletResponse.setHeader("Content-Encoding", encoding);
+        }
+        File file = entry.getFile(encoding);
+        httpServletResponse.setContentLength((int) file.length());
+        PrecompressedResourceCache.send(file, extContext.getRequestMap(), httpServletResponse.getOutputStream());
+        return true;
+    }
+
+    /**
+     * Sends the content of the resource kept in memory, reading and storing it first if required. Returns
+     * false if the resource is too big to be stored, so it has to be sent as usual.
+     */
+    private boolean handleCachedResourceRequest(FacesContext facesContext, Resource resource,
+            HttpServletResponse httpServletResponse) throws IOException
+    {
+        ResourceContentCache cache = getResourceContentCache(facesContext);
+        String key = getResourceCacheKey(facesContext, resource);
+        long lastModified = getResourceCacheLastModified(facesContext, resource);
+
+        ResourceContentCache.Entry entry = cache.get(key, lastModified);
+        if (entry == null)
+        {
+            InputStream in = resource.getInputStream();
+            try
+            {
+                byte[] buffer = new byte[this.getResourceBufferSize()];
+                ByteArrayOutputStream content = new ByteArrayOutputStream(buffer.length);
+                int length;
+                while ((length = in.read(buffer)) >= 0)
+                {
+                    content.write(buffer, 0, length);
+                    if (content.size() > cache.getMaxResourceSize())
+                    {
+                        // Too big, send what has been read and the rest
+                        cache.put(key, null, lastModified);
+                        OutputStream out = httpServletResponse.getOutputStream();
+                        try
+                        {
+                            content.writeTo(out);
+                            int count = content.size() + pipeBytes(in, out, buffer);
+                            if (!httpServletResponse.isCommitted())
+                            {
+                                httpServletResponse.setContentLength(count);
+                            }
+                        }
+                        finally
+                        {
+                            out.close();
+                        }
+                        return true;
+                    }
+                }
+                entry = cache.put(key, content.toByteArray(), lastModified);
+            }
+            finally
+            {
+                in.close();
+            }
+        }
+        if (entry.getContent() == null)
+        {
+            return false;
+        }
+
+        byte[] content = entry.getContent();
+        httpServletResponse.setContentLength(content.length);
+        OutputStream out = httpServletResponse.getOutputStream();
+        try
+        {
+            out.write(content);
+        }
+        finally
+        {
+            out.close();
+        }
+        return true;
+    }
+
+    /**
+     * The key of the content of a resource. The content of resources with value expressions could depend on
+     * the servlet mapping, so it is part of the key.
+     */
+    private static String getResourceCacheKey(FacesContext facesContext, Resource resource)
+    {
+        ExternalContext extContext = facesContext.getExternalContext();
+        Map<String, String> requestParameters = extContext.getRequestParameterMap();
+        StringBuilder key = new StringBuilder(64);
+        key.append(extContext.getRequestServletPath());
+        key.append('|').append(resource.getLibraryName());
+        key.append('|').append(resource.getResourceName());
+        key.append('|').append(requestParameters.get("loc"));
+        key.append('|').append(requestParameters.get("con"));
+        return key.toString();
+    }
+
+    /**
+     * In Production the stored content is not revalidated, so 0 is returned.
+     */
+    private static long getResourceCacheLastModified(FacesContext facesContext, Resource resource)
+    {
+        if (facesContext.isProjectStage(ProjectStage.Production) || resource.getURL() == null)
+        {
+            return 0;
+        }
+        try
+        {
+            return ResourceLoaderUtils.getResourceLastModified(resource.getURL());
+        }
+        catch (IOException e)
+        {
+            return -1;
+        }
+    }
+
+    private ResourceContentCache getResourceContentCache(FacesContext facesContext)
+    {
+        if (!_resourceContentCacheInitialized)
+        {
+            synchronized (this)
+            {
+                if (!_resourceContentCacheInitialized)
+                {
+                    ExternalContext extContext = facesContext.getExternalContext();
+                    long maxSize = WebConfigParamUtils.getLongInitParameter(extContext,
+                            INIT_PARAM_RESOURCE_CONTENT_CACHE_SIZE, INIT_PARAM_RESOURCE_CONTENT_CACHE_SIZE_DEFAULT);
+                    if (maxSize > 0)
+                    {
+                        _resourceContentCache = new ResourceContentCache(maxSize,
+                                WebConfigParamUtils.getIntegerInitParameter(extContext,
+                                        INIT_PARAM_RESOURCE_CONTENT_CACHE_MAX_RESOURCE_SIZE,
+                                        INIT_PARAM_RESOURCE_CONTENT_CACHE_MAX_RESOURCE_SIZE_DEFAULT));
+                        MetricsRegistry.getInstance(extContext).register("ResourceContentCache",
+                                _resourceContentCache.getMetrics());
+                    }
+                    _resourceContentCacheInitialized = true;
+                }
+            }
+        }
+        return _resourceContentCache;
+    }
+
+    private PrecompressedResourceCache getPrecompressedResourceCache(FacesContext facesContext)
+    {
+        if (!_precompressedResourceCacheInitialized)
+        {
+            synchronized (this)
+            {
+                if (!_precompressedResourceCacheInitialized)
+                {
+                    _precompressedResourceCache = createPrecompressedResourceCache(facesContext);
+                    _precompressedResourceCacheInitialized = true;
+                }
+            }
+        }
+        return _precompressedResourceCache;
+    }
+
+    /**
+     * Returns null if there is no temporal directory to store the files.
+     */
+    private PrecompressedResourceCache createPrecompressedResourceCache(FacesContext facesContext)
+    {
+        File tempdir = (File) facesContext.getExternalContext().getApplicationMap().get(
+                "javax.servlet.context.tempdir");
+        if (tempdir == null)
+        {
+            return null;
+        }
+        File dir = new File(tempdir, COMPRESSED_RESOURCES_DIR);
+        if (dir.exists())
+        {
+            // Clear the files of a previous run
+            File[] files = dir.listFiles();
+            for (int i = 0; files != null && i < files.length; i++)
+            {
+                files[i].delete();
+            }
+        }
+        else if (!dir.mkdirs())
+        {
+            return null;
+        }
+        return new PrecompressedResourceCache(dir, getResourceBufferSize());
+    }
+
+    private boolean isCompressibleContentType(FacesContext facesContext, String contentType)
+    {
+        if (_compressionContentTypes == null)
+        {
+            Set<String> contentTypes = new HashSet<String>();
+            ExternalContext extContext = facesContext.getExternalContext();
+            if (WebConfigParamUtils.getBooleanInitParameter(extContext,
+                    INIT_PARAM_RESOURCE_COMPRESSION_ENABLED, INIT_PARAM_RESOURCE_COMPRESSION_ENABLED_DEFAULT))
+            {
+                String value = WebConfigParamUtils.getStringInitParameter(extContext,
+                        INIT_PARAM_RESOURCE_COMPRESSION_CONTENT_TYPES,
+                        INIT_PARAM_RESOURCE_COMPRESSION_CONTENT_TYPES_DEFAULT);
+                for (String type : StringUtils.splitShortString(value, ','))
+                {
+                    if (type.trim().length() > 0)
+                    {
+                        contentTypes.add(type.trim());
+                    }
+                }
+            }
+            _compressionContentTypes = contentTypes;
+        }
+        if (contentType == null || _compressionContentTypes.isEmpty())
+        {
+            return false;
+        }
+        int semicolon = contentType.indexOf(';');
+        return _compressionContentTypes.contains(semicolon >= 0 ?
+                contentType.substring(0, semicolon).trim() : contentType);
+    }
+
     /**
      * Reads the specified input stream into the provided byte array storage and
      * writes it to the output stream.
@@ -949,7 +1435,18 @@ public class ResourceHandlerImpl extends ResourceHandler
     {
         if (_resourceHandlerCache == null)
         {
-            _resourceHandlerCache = new ResourceHandlerCache();
+            final ResourceHandlerCache cache = new ResourceHandlerCache();
+            FacesContext facesContext = FacesContext.getCurrentInstance();
+            if (facesContext != null)
+            {
+                MetricsRegistry registry = MetricsRegistry.getInstance(facesContext.getExternalContext());
+                registry.register("ResourceHandlerCache.resources", CacheMetrics.of(cache::getResourceCache));
+                registry.register("ResourceHandlerCache.viewResources",
+                        CacheMetrics.of(cache::getViewResourceCache));
+                registry.register("ResourceHandlerCache.libraries", CacheMetrics.of(cache::getLibraryExistsCache));
+                registry.register("ResourceHandlerCache.bundles", CacheMetrics.of(cache::getBundledResourceCache));
+            }
+            _resourceHandlerCache = cache;
         }
         return _resourceHandlerCache;
     }
@@ -349,10 +349,29 @@ public class ViewHandlerImpl extends ViewHandler
         }
 
         ResponseStateManager responseStateManager = context.getRenderKit().getResponseStateManager();
+        StateManager stateManager = context.getApplication().getStateManager();
+
+        StateWriter stateWriter = StateWriter.getCurrentInstance(context);
+        if (stateWriter != null && stateWriter.isSaveStateOnFirstForm() &&
+            isWriteStateAfterRenderViewRequired(context, responseStateManager))
+        {
+            // Save the state now, so the rest of the view can be written directly to the
+            // response instead of being buffered until the state marker can be replaced.
+            if (!stateWriter.isStateSaved())
+            {
+                stateWriter.setSavedState(stateManager.saveView(context));
+            }
+            stateWriter.writingStateWithoutWrapper();
+
+            Object state = stateWriter.getSavedState();
+            if (state != null || context.getViewRoot().isTransient())
+            {
+                stateManager.writeState(context, state);
+            }
+            return;
+        }
         
         setWritingState(context, responseStateManager);
-
-        StateManager stateManager = context.getApplication().getStateManager();
         
         // By the spec, it is necessary to use a writer to write FORM_STATE_MARKER, 
         // after the view is rendered, to preserve changes done on the component tree
@@ -399,6 +418,15 @@ public class ViewHandlerImpl extends ViewHandler
         return _unmodifiableProtectedViewsSet;
     }
     
+    private boolean isWriteStateAfterRenderViewRequired(FacesContext context, ResponseStateManager rsm)
+    {
+        if (StateCacheUtils.isMyFacesResponseStateManager(rsm))
+        {
+            return StateCacheUtils.getMyFacesResponseStateManager(rsm).isWriteStateAfterRenderViewRequired(context);
+        }
+        return true;
+    }
+    
     private void setWritingState(FacesContext context, ResponseStateManager rsm)
     {
         // Facelets specific hack:
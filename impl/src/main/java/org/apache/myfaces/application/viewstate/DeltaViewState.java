@@ -0,0 +1,216 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.myfaces.application.viewstate;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * State of a view stored as the changes over the state of a previous view (the base).
+ *
+ * <p>Only the state produced by partial state saving is stored as delta: an Object[] with a
+ * Map&lt;String,Object&gt; of component states by clientId at index 1. The delta contains the
+ * entries of the map that are not equal to the ones of the base and the clientIds that are no
+ * longer present. The delta is always relative to the base, never to other delta, and it keeps
+ * a reference to the base, so the view can be restored even if the view of the base has been
+ * discarded from the session.</p>
+ */
+class DeltaViewState implements Serializable
+{
+    private static final long serialVersionUID = 2812640139420517343L;
+
+    /**
+     * The base as stored in session (byte[] if the state is serialized).
+     */
+    private final Object _base;
+
+    /**
+     * Object[]{header, changes, removed} as stored in session.
+     */
+    private final Object _delta;
+
+    private final int _count;
+
+    DeltaViewState(Object base, Object delta, int count)
+    {
+        _base = base;
+        _delta = delta;
+        _count = count;
+    }
+
+    Object getBase()
+    {
+        return _base;
+    }
+
+    Object getDelta()
+    {
+        return _delta;
+    }
+
+    /**
+     * Number of delta stored since the base was stored.
+     */
+    int getCount()
+    {
+        return _count;
+    }
+
+    /**
+     * Returns true if the state contains the component states by clientId, so a delta can be
+     * calculated.
+     */
+    static boolean isDeltaCapable(Object state)
+    {
+        return state instanceof Object[] && ((Object[]) state).length >= 2
+                && ((Object[]) state)[1] instanceof Map;
+    }
+
+    /**
+     * Returns Object[]{header, changes, removed} or null if the changes are too many to be worth
+     * to store a delta.
+     */
+    @SuppressWarnings("unchecked")
+    static Object[] createDelta(Object[] baseState, Object[] state)
+    {
+        Map<String, Object> baseStates = (Map<String, Object>) baseState[1];
+        Map<String, Object> states = (Map<String, Object>) state[1];
+
+        Map<String, Object> changes = new HashMap<String, Object>();
+        for (Map.Entry<String, Object> entry : states.entrySet())
+        {
+            Object value = entry.getValue();
+            Object baseValue = baseStates.get(entry.getKey());
+            if ((baseValue == null && !baseStates.containsKey(entry.getKey())) || !valueEquals(baseValue, value))
+            {
+                changes.put(entry.getKey(), value);
+            }
+        }
+        if (changes.size() > states.size() / 2)
+        {
+            return null;
+        }
+
+        List<String> removed = null;
+        if (baseStates.size() + changes.size() > states.size())
+        {
+            removed = new ArrayList<String>();
+            for (String clientId : baseStates.keySet())
+            {
+                if (!states.containsKey(clientId))
+                {
+                    removed.add(clientId);
+                }
+            }
+        }
+
+        Object[] header = state.clone();
+        header[1] = null;
+        return new Object[] {header, changes,
+            removed == null ? null : removed.toArray(new String[removed.size()])};
+    }
+
+    /**
+     * Creates the state of the view applying the delta to the state of the base. The state of
+     * the base is not modified.
+     */
+    @SuppressWarnings("unchecked")
+    static Object[] applyDelta(Object[] baseState, Object[] delta)
+    {
+        Object[] header = (Object[]) delta[0];
+        Map<String, Object> changes = (Map<String, Object>) delta[1];
+        String[] removed = (String[]) delta[2];
+
+        Map<String, Object> states = new HashMap<String, Object>((Map<String, Object>) baseState[1]);
+        if (removed != null)
+        {
+            for (String clientId : removed)
+            {
+                states.remove(clientId);
+            }
+        }
+        states.putAll(changes);
+
+        Object[] state = header.clone();
+        state[1] = states;
+        return state;
+    }
+
+    private static boolean valueEquals(Object o1, Object o2)
+    {
+        if (o1 == o2)
+        {
+            return true;
+        }
+        if (o1 == null || o2 == null)
+        {
+            return false;
+        }
+        if (o1 instanceof Object[] && o2 instanceof Object[])
+        {
+            return Arrays.deepEquals((Object[]) o1, (Object[]) o2);
+        }
+        // Most state holders do not implement equals, so they are considered changed
+        return o1.equals(o2);
+    }
+
+    /**
+     * Information about the base of the restored view, kept as request attribute so the next
+     * state of the view can be stored as delta without deserialize the base again.
+     */
+    static final class Base
+    {
+        private final String _viewId;
+        private final Object _storedBase;
+        private final Object[] _baseState;
+        private final int _count;
+
+        Base(String viewId, Object storedBase, Object[] baseState, int count)
+        {
+            _viewId = viewId;
+            _storedBase = storedBase;
+            _baseState = baseState;
+            _count = count;
+        }
+
+        String getViewId()
+        {
+            return _viewId;
+        }
+
+        Object getStoredBase()
+        {
+            return _storedBase;
+        }
+
+        Object[] getBaseState()
+        {
+            return _baseState;
+        }
+
+        int getCount()
+        {
+            return _count;
+        }
+    }
+}
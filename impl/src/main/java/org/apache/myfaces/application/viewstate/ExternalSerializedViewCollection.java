@@ -0,0 +1,149 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.myfaces.application.viewstate;
+
+import java.io.Serializable;
+import javax.faces.context.FacesContext;
+import javax.servlet.http.HttpSessionBindingEvent;
+import javax.servlet.http.HttpSessionBindingListener;
+import org.apache.myfaces.spi.ViewStateStore;
+
+/**
+ * SerializedViewCollection that keeps the serialized views into a {@link ViewStateStore}
+ * and only stores the id returned by the store in the session.
+ *
+ * <p>Unlike {@link OffHeapSerializedViewCollection}, the bytes are not written when the session
+ * is serialized, so the session can be replicated or passivated without copying the views. The
+ * node that restores the session must have access to the same store. States that are not
+ * serialized (byte[]) or that the store does not accept are kept in the session as usual.</p>
+ */
+class ExternalSerializedViewCollection extends SerializedViewCollection implements HttpSessionBindingListener
+{
+    private static final long serialVersionUID = -6127394725117648190L;
+
+    private transient ViewStateStore _store;
+
+    public ExternalSerializedViewCollection(ViewStateStore store)
+    {
+        _store = store;
+    }
+
+    @Override
+    protected Object storeState(SerializedViewKey key, Object state)
+    {
+        if (state instanceof byte[])
+        {
+            ViewStateStore store = getStore();
+            if (store != null)
+            {
+                String id = store.store(FacesContext.getCurrentInstance(), (byte[]) state);
+                if (id != null)
+                {
+                    return new ExternalViewStateHandle(id);
+                }
+            }
+        }
+        return state;
+    }
+
+    @Override
+    protected Object loadState(Object value)
+    {
+        if (value instanceof ExternalViewStateHandle)
+        {
+            ViewStateStore store = getStore();
+            return store == null ? null 
+                    : store.load(FacesContext.getCurrentInstance(), ((ExternalViewStateHandle) value).getId());
+        }
+        return value;
+    }
+
+    @Override
+    protected void discardState(Object value)
+    {
+        if (value instanceof ExternalViewStateHandle)
+        {
+            ViewStateStore store = getStore();
+            if (store != null)
+            {
+                store.remove(FacesContext.getCurrentInstance(), ((ExternalViewStateHandle) value).getId());
+            }
+        }
+    }
+
+    private ViewStateStore getStore()
+    {
+        if (_store == null)
+        {
+            // The collection was deserialized, look for the store of the current application
+            _store = ExternalServerSideStateCacheImpl.getViewStateStore(FacesContext.getCurrentInstance());
+        }
+        return _store;
+    }
+
+    @Override
+    public void valueBound(HttpSessionBindingEvent event)
+    {
+    }
+
+    @Override
+    public void valueUnbound(HttpSessionBindingEvent event)
+    {
+        try
+        {
+            if (event.getSession().getAttribute(event.getName()) == this)
+            {
+                // The attribute was replaced with the same instance, nothing to release
+                return;
+            }
+        }
+        catch (IllegalStateException e)
+        {
+            // The session was invalidated
+        }
+        if (_store == null)
+        {
+            // The collection was deserialized and the session is destroyed out of a request, for example
+            // when it expires, so there is no FacesContext to find the store
+            _store = (ViewStateStore) event.getSession().getServletContext().getAttribute(
+                    ExternalServerSideStateCacheImpl.VIEW_STATE_STORE_ATTR);
+        }
+        discardAll();
+    }
+
+    /**
+     * Id of a view stored into a ViewStateStore.
+     */
+    static final class ExternalViewStateHandle implements Serializable
+    {
+        private static final long serialVersionUID = 3851272694630416284L;
+
+        private final String _id;
+
+        ExternalViewStateHandle(String id)
+        {
+            _id = id;
+        }
+
+        String getId()
+        {
+            return _id;
+        }
+    }
+}
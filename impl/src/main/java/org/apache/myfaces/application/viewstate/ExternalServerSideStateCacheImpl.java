@@ -0,0 +1,198 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.myfaces.application.viewstate;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.faces.context.ExternalContext;
+import javax.faces.context.FacesContext;
+import org.apache.myfaces.buildtools.maven2.plugin.builder.annotation.JSFWebConfigParam;
+import org.apache.myfaces.shared.util.WebConfigParamUtils;
+import org.apache.myfaces.spi.ViewStateStore;
+
+/**
+ * Server side state cache that keeps the serialized views into a {@link ViewStateStore} instead
+ * of the session. The session only contains the collection of ids, so it stays small when it is
+ * replicated or passivated.
+ * 
+ * <p>The state is always serialized, no matter the value of javax.faces.SERIALIZE_SERVER_STATE.
+ * The rules to discard views (number of views and sequential views in session) are the same used
+ * by {@link ServerSideStateCacheImpl}.</p>
+ */
+class ExternalServerSideStateCacheImpl extends ServerSideStateCacheImpl
+{
+    private static final Logger log = Logger.getLogger(ExternalServerSideStateCacheImpl.class.getName());
+
+    /**
+     * Class name of the {@link ViewStateStore} used to store the views when 
+     * org.apache.myfaces.spi.impl.ExternalStateCacheProviderFactory is used. The class must have a
+     * public constructor without parameters. By default the views are stored in a log of memory
+     * mapped files in a local directory.
+     */
+    @JSFWebConfigParam(since="2.3.3", group="state")
+    public static final String VIEW_STATE_STORE_PARAM = "org.apache.myfaces.VIEW_STATE_STORE";
+
+    /**
+     * Directory where the default view state store keeps its files. If the directory is not
+     * changed between restarts, the views of the sessions restored by the container are still
+     * available. By default a directory inside the temporal directory of the web application.
+     */
+    @JSFWebConfigParam(since="2.3.3", group="state")
+    public static final String VIEW_STATE_STORE_DIRECTORY_PARAM = "org.apache.myfaces.VIEW_STATE_STORE_DIRECTORY";
+    public static final String VIEW_STATE_STORE_DIRECTORY_PARAM_DEFAULT = "oam-viewstate";
+
+    /**
+     * Size in bytes of each file used by the default view state store. Views bigger than this
+     * size are kept in session.
+     */
+    @JSFWebConfigParam(since="2.3.3", defaultValue="16777216", group="state", tags="performance")
+    public static final String VIEW_STATE_STORE_SEGMENT_SIZE_PARAM 
+            = "org.apache.myfaces.VIEW_STATE_STORE_SEGMENT_SIZE";
+    public static final int VIEW_STATE_STORE_SEGMENT_SIZE_PARAM_DEFAULT = 16 * 1024 * 1024;
+
+    /**
+     * Max number of files used by the default view state store. When it is reached, the views
+     * of the oldest file are discarded. The files are split between the stripes, each stripe
+     * uses at least 2 files.
+     */
+    @JSFWebConfigParam(since="2.3.3", defaultValue="16", group="state", tags="performance")
+    public static final String VIEW_STATE_STORE_MAX_SEGMENTS_PARAM 
+            = "org.apache.myfaces.VIEW_STATE_STORE_MAX_SEGMENTS";
+    public static final int VIEW_STATE_STORE_MAX_SEGMENTS_PARAM_DEFAULT = 16;
+
+    /**
+     * Percentage of the bytes of a file of the default view state store that must belong to
+     * views not discarded. Under this value, the views are copied to the current file and the
+     * file is deleted.
+     */
+    @JSFWebConfigParam(since="2.3.3", defaultValue="50", group="state", tags="performance")
+    public static final String VIEW_STATE_STORE_COMPACTION_THRESHOLD_PARAM 
+            = "org.apache.myfaces.VIEW_STATE_STORE_COMPACTION_THRESHOLD";
+    public static final int VIEW_STATE_STORE_COMPACTION_THRESHOLD_PARAM_DEFAULT = 50;
+
+    /**
+     * Number of independent logs used by the default view state store. All the views of a session
+     * go to the same log and each log has its own lock, so requests of different sessions do not
+     * wait for each other.
+     */
+    @JSFWebConfigParam(since="2.3.3", defaultValue="4", group="state", tags="performance")
+    public static final String VIEW_STATE_STORE_STRIPES_PARAM = "org.apache.myfaces.VIEW_STATE_STORE_STRIPES";
+    public static final int VIEW_STATE_STORE_STRIPES_PARAM_DEFAULT = 4;
+
+    static final String VIEW_STATE_STORE_ATTR = 
+        ExternalServerSideStateCacheImpl.class.getName() + ".VIEW_STATE_STORE";
+
+    @Override
+    protected SessionViewStorageFactory createSessionViewStorageFactory(FacesContext facesContext,
+            KeyFactory<byte[]> keyFactory)
+    {
+        ViewStateStore store = createViewStateStore(facesContext);
+        if (store == null)
+        {
+            return super.createSessionViewStorageFactory(facesContext, keyFactory);
+        }
+        facesContext.getExternalContext().getApplicationMap().put(VIEW_STATE_STORE_ATTR, store);
+        return new ExternalSessionViewStorageFactory(keyFactory, store);
+    }
+
+    private ViewStateStore createViewStateStore(FacesContext facesContext)
+    {
+        ExternalContext externalContext = facesContext.getExternalContext();
+        ViewStateStore store = WebConfigParamUtils.getInstanceInitParameter(externalContext,
+                VIEW_STATE_STORE_PARAM, null, null);
+        if (store != null)
+        {
+            return store;
+        }
+
+        String directory = WebConfigParamUtils.getStringInitParameter(externalContext,
+                VIEW_STATE_STORE_DIRECTORY_PARAM);
+        File dir;
+        if (directory == null)
+        {
+            File tempdir = (File) externalContext.getApplicationMap().get("javax.servlet.context.tempdir");
+            dir = new File(tempdir, VIEW_STATE_STORE_DIRECTORY_PARAM_DEFAULT);
+        }
+        else
+        {
+            dir = new File(directory);
+        }
+        int segmentSize = WebConfigParamUtils.getIntegerInitParameter(externalContext,
+                VIEW_STATE_STORE_SEGMENT_SIZE_PARAM, VIEW_STATE_STORE_SEGMENT_SIZE_PARAM_DEFAULT);
+        int maxSegments = WebConfigParamUtils.getIntegerInitParameter(externalContext,
+                VIEW_STATE_STORE_MAX_SEGMENTS_PARAM, VIEW_STATE_STORE_MAX_SEGMENTS_PARAM_DEFAULT);
+        int compactionThreshold = WebConfigParamUtils.getIntegerInitParameter(externalContext,
+                VIEW_STATE_STORE_COMPACTION_THRESHOLD_PARAM, VIEW_STATE_STORE_COMPACTION_THRESHOLD_PARAM_DEFAULT);
+        int stripes = Math.max(1, WebConfigParamUtils.getIntegerInitParameter(externalContext,
+                VIEW_STATE_STORE_STRIPES_PARAM, VIEW_STATE_STORE_STRIPES_PARAM_DEFAULT));
+        ViewStateStore[] stores = new ViewStateStore[stripes];
+        try
+        {
+            for (int i = 0; i < stripes; i++)
+            {
+                stores[i] = new SegmentLogViewStateStore(new File(dir, Integer.toString(i)), segmentSize,
+                        Math.max(2, maxSegments / stripes), compactionThreshold);
+            }
+            return new StripedViewStateStore(stores);
+        }
+        catch (IOException | RuntimeException e)
+        {
+            for (ViewStateStore created : stores)
+            {
+                if (created != null)
+                {
+                    created.close();
+                }
+            }
+            log.log(Level.SEVERE, "Cannot create the view state store in " + dir 
+                    + ". The views are stored in session", e);
+            return null;
+        }
+    }
+
+    /**
+     * Closes the store of the application, if any. Called when the application is destroyed.
+     */
+    static void destroy(ExternalContext externalContext)
+    {
+        ViewStateStore store = (ViewStateStore) externalContext.getApplicationMap().remove(VIEW_STATE_STORE_ATTR);
+        if (store != null)
+        {
+            store.close();
+        }
+    }
+
+    static ViewStateStore getViewStateStore(FacesContext facesContext)
+    {
+        if (facesContext == null)
+        {
+            return null;
+        }
+        return (ViewStateStore) facesContext.getExternalContext().getApplicationMap()
+                .get(VIEW_STATE_STORE_ATTR);
+    }
+
+    @Override
+    protected boolean isSerializeStateInSession(FacesContext context)
+    {
+        return true;
+    }
+}
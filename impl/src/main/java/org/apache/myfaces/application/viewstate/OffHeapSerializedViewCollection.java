@@ -0,0 +1,167 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.myfaces.application.viewstate;
+
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import javax.faces.context.FacesContext;
+import javax.servlet.http.HttpSessionBindingEvent;
+import javax.servlet.http.HttpSessionBindingListener;
+
+/**
+ * SerializedViewCollection that keeps the serialized views into an {@link OffHeapViewStateStore}
+ * and only stores a small handle per view in the session.
+ *
+ * <p>The discard rules of the parent class (number of views, sequential views and window keys)
+ * are not changed. When a view is discarded from the collection, its blocks are released from
+ * the store. States that are not serialized (byte[]) are kept in the session as usual.</p>
+ */
+class OffHeapSerializedViewCollection extends SerializedViewCollection implements HttpSessionBindingListener
+{
+    private static final long serialVersionUID = 4817329427315128592L;
+
+    private transient OffHeapViewStateStore _store;
+
+    public OffHeapSerializedViewCollection(OffHeapViewStateStore store)
+    {
+        _store = store;
+    }
+
+    @Override
+    protected Object storeState(SerializedViewKey key, Object state)
+    {
+        if (state instanceof byte[])
+        {
+            OffHeapViewStateStore store = getStore();
+            if (store != null)
+            {
+                long id = store.store(this, (byte[]) state);
+                if (id != -1)
+                {
+                    return new OffHeapViewStateHandle(store, id);
+                }
+            }
+        }
+        return state;
+    }
+
+    @Override
+    protected Object loadState(Object value)
+    {
+        if (value instanceof OffHeapViewStateHandle)
+        {
+            return ((OffHeapViewStateHandle) value).getBytes();
+        }
+        return value;
+    }
+
+    @Override
+    protected void discardState(Object value)
+    {
+        if (value instanceof OffHeapViewStateHandle)
+        {
+            ((OffHeapViewStateHandle) value).release();
+        }
+    }
+
+    private OffHeapViewStateStore getStore()
+    {
+        if (_store == null)
+        {
+            // The collection was deserialized, look for the store of the current application
+            _store = ServerSideStateCacheImpl.getOffHeapViewStateStore(FacesContext.getCurrentInstance());
+        }
+        return _store;
+    }
+
+    @Override
+    public void valueBound(HttpSessionBindingEvent event)
+    {
+    }
+
+    @Override
+    public void valueUnbound(HttpSessionBindingEvent event)
+    {
+        try
+        {
+            if (event.getSession().getAttribute(event.getName()) == this)
+            {
+                // The attribute was replaced with the same instance, nothing to release
+                return;
+            }
+        }
+        catch (IllegalStateException e)
+        {
+            // The session was invalidated
+        }
+        discardAll();
+    }
+
+    /**
+     * Reference to a view stored into an OffHeapViewStateStore. If the handle is serialized
+     * (session passivation or replication) the bytes are written inline, so they can be
+     * restored in a different jvm.
+     */
+    static final class OffHeapViewStateHandle implements Serializable
+    {
+        private static final long serialVersionUID = -2193478162750372635L;
+
+        private transient OffHeapViewStateStore _store;
+        private transient long _id;
+        private transient byte[] _bytes;
+
+        OffHeapViewStateHandle(OffHeapViewStateStore store, long id)
+        {
+            _store = store;
+            _id = id;
+        }
+
+        byte[] getBytes()
+        {
+            if (_bytes != null)
+            {
+                return _bytes;
+            }
+            return _store == null ? null : _store.load(_id);
+        }
+
+        void release()
+        {
+            if (_store != null)
+            {
+                _store.release(_id);
+            }
+            _bytes = null;
+        }
+
+        private void writeObject(ObjectOutputStream out) throws IOException
+        {
+            out.defaultWriteObject();
+            out.writeObject(getBytes());
+        }
+
+        private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException
+        {
+            in.defaultReadObject();
+            _bytes = (byte[]) in.readObject();
+        }
+    }
+}
@@ -0,0 +1,487 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.myfaces.application.viewstate;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayDeque;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Application wide store for serialized view state bytes kept outside the java heap.
+ *
+ * <p>The memory is split in blocks of a fixed size, allocated either from direct buffers or
+ * from a memory mapped file. Each stored state takes as many blocks as required and is identified
+ * by a numeric id, so the session only needs to keep a small handle
+ * (see {@link OffHeapSerializedViewCollection}).</p>
+ *
+ * <p>The blocks are divided between a number of stripes, each one with its own lock. All the
+ * entries of an owner, the collection of a session, go to the same stripe, so requests of
+ * different sessions usually do not wait for each other. A state bigger than a stripe is not
+ * stored.</p>
+ *
+ * <p>The capacity is bounded. Views are normally released by the {@link SerializedViewCollection}
+ * of each session following its own discard rules, but if a stripe is full some entries are
+ * evicted to make room for the new ones. An evicted view is handled as an expired view.</p>
+ *
+ * <p>Eviction takes the oldest entry of an owner with more than one entry, which is the oldest view
+ * of that session. The owners with more than one entry are taken in turn. The last view of a session
+ * is only evicted when every session in the stripe has just one view, and then the oldest entry of
+ * the stripe goes. It means that under memory pressure a session can keep fewer views than
+ * NUMBER_OF_VIEWS_IN_SESSION, but the views discarded in a session are still the older ones.</p>
+ */
+class OffHeapViewStateStore
+{
+    private static final Logger log = Logger.getLogger(OffHeapViewStateStore.class.getName());
+
+    /**
+     * Max size of a single buffer. Mapped buffers can't be bigger than Integer.MAX_VALUE,
+     * so the memory is split in segments.
+     */
+    private static final int MAX_SEGMENT_SIZE = 1 << 30;
+
+    private final int _blockSize;
+    private final int _blocksPerSegment;
+    private final ByteBuffer[] _segments;
+    private final File _file;
+    private final RandomAccessFile _raf;
+    private final int _blocks;
+    private final Stripe[] _stripes;
+
+    /**
+     * Creates a store backed by direct buffers.
+     *
+     * @param capacity max number of bytes to use
+     * @param blockSize size of each block
+     */
+    public OffHeapViewStateStore(long capacity, int blockSize)
+    {
+        this(capacity, blockSize, null, 1);
+    }
+
+    /**
+     * Creates a store backed by a memory mapped file, or by direct buffers if file is null.
+     *
+     * @param capacity max number of bytes to use
+     * @param blockSize size of each block
+     * @param file the file to map, or null
+     * @param stripes number of stripes the blocks are divided into
+     */
+    public OffHeapViewStateStore(long capacity, int blockSize, File file, int stripes)
+    {
+        if (blockSize <= 0)
+        {
+            throw new IllegalArgumentException("blockSize must be > 0");
+        }
+        if (capacity < blockSize)
+        {
+            throw new IllegalArgumentException("capacity must be >= blockSize");
+        }
+        if (stripes <= 0)
+        {
+            throw new IllegalArgumentException("stripes must be > 0");
+        }
+        _blockSize = blockSize;
+        _blocksPerSegment = Math.max(1, MAX_SEGMENT_SIZE / blockSize);
+        long totalBlocks = capacity / blockSize;
+        if (totalBlocks > Integer.MAX_VALUE)
+        {
+            totalBlocks = Integer.MAX_VALUE;
+        }
+        int blocks = (int) totalBlocks;
+        int segmentCount = (blocks + _blocksPerSegment - 1) / _blocksPerSegment;
+        _segments = new ByteBuffer[segmentCount];
+        _file = file;
+
+        RandomAccessFile raf = null;
+        try
+        {
+            FileChannel channel = null;
+            if (file != null)
+            {
+                raf = new RandomAccessFile(file, "rw");
+                raf.setLength(((long) blocks) * blockSize);
+                channel = raf.getChannel();
+            }
+            for (int i = 0; i < segmentCount; i++)
+            {
+                int segmentBlocks = Math.min(_blocksPerSegment, blocks - (i * _blocksPerSegment));
+                int segmentSize = segmentBlocks * blockSize;
+                if (channel != null)
+                {
+                    _segments[i] = channel.map(FileChannel.MapMode.READ_WRITE,
+                            ((long) i) * _blocksPerSegment * blockSize, segmentSize);
+                }
+                else
+                {
+                    _segments[i] = ByteBuffer.allocateDirect(segmentSize);
+                }
+            }
+        }
+        catch (IOException e)
+        {
+            closeQuietly(raf);
+            throw new IllegalStateException("Cannot create view state storage file " + file, e);
+        }
+        _raf = raf;
+        _blocks = blocks;
+
+        int stripeCount = Math.min(stripes, blocks);
+        _stripes = new Stripe[stripeCount];
+        int first = 0;
+        for (int i = 0; i < stripeCount; i++)
+        {
+            int count = blocks / stripeCount + (i < blocks % stripeCount ? 1 : 0);
+            _stripes[i] = new Stripe(first, count);
+            first += count;
+        }
+    }
+
+    /**
+     * Stores the bytes and returns the id used to retrieve them later.
+     *
+     * @param owner the owner of the entry, compared by identity
+     * @param data the bytes to store
+     * @return the id of the entry, or -1 if the data does not fit in the store
+     */
+    public long store(Object owner, byte[] data)
+    {
+        int hash = System.identityHashCode(owner);
+        int index = ((hash ^ (hash >>> 16)) & 0x7FFFFFFF) % _stripes.length;
+        long id = _stripes[index].store(owner, data);
+        return id == -1 ? -1 : id * _stripes.length + index;
+    }
+
+    /**
+     * Returns a copy of the bytes stored under the given id.
+     *
+     * @param id the id returned by {@link #store(Object, byte[])}
+     * @return the bytes, or null if the entry was released or evicted
+     */
+    public byte[] load(long id)
+    {
+        if (id <= 0)
+        {
+            return null;
+        }
+        return _stripes[(int) (id % _stripes.length)].load(id / _stripes.length);
+    }
+
+    /**
+     * Releases the blocks used by the given entry. It does nothing if the entry was already
+     * released or evicted.
+     *
+     * @param id the id returned by {@link #store(Object, byte[])}
+     */
+    public void release(long id)
+    {
+        if (id > 0)
+        {
+            _stripes[(int) (id % _stripes.length)].release(id / _stripes.length);
+        }
+    }
+
+    public int getEntryCount()
+    {
+        int count = 0;
+        for (Stripe stripe : _stripes)
+        {
+            count += stripe.getEntryCount();
+        }
+        return count;
+    }
+
+    public long getUsedBytes()
+    {
+        long used = 0;
+        for (Stripe stripe : _stripes)
+        {
+            used += stripe.getUsedBlocks();
+        }
+        return used * _blockSize;
+    }
+
+    public long getCapacity()
+    {
+        return ((long) _blocks) * _blockSize;
+    }
+
+    public long getEvictionCount()
+    {
+        long evictions = 0;
+        for (Stripe stripe : _stripes)
+        {
+            evictions += stripe.getEvictionCount();
+        }
+        return evictions;
+    }
+
+    /**
+     * Releases all entries and the backing file if any. The store can't be used after this call.
+     */
+    public void close()
+    {
+        for (Stripe stripe : _stripes)
+        {
+            stripe.close();
+        }
+        closeQuietly(_raf);
+        if (_file != null && !_file.delete())
+        {
+            _file.deleteOnExit();
+        }
+    }
+
+    private ByteBuffer blockBuffer(int block)
+    {
+        ByteBuffer buffer = _segments[block / _blocksPerSegment].duplicate();
+        buffer.position((block % _blocksPerSegment) * _blockSize);
+        return buffer;
+    }
+
+    /**
+     * A range of blocks with its own entries and lock.
+     */
+    private final class Stripe
+    {
+        private final int[] _freeBlocks;
+        private int _freeCount;
+
+        /**
+         * Entries ordered by insertion, so the first one is the oldest.
+         */
+        private final LinkedHashMap<Long, Entry> _entries = new LinkedHashMap<Long, Entry>();
+
+        private final Map<Object, Owner> _owners = new IdentityHashMap<Object, Owner>();
+
+        /**
+         * Owners with more than one entry, in the order they are taken to evict an entry.
+         */
+        private final LinkedHashSet<Owner> _crowdedOwners = new LinkedHashSet<Owner>();
+
+        private long _nextId = 1;
+        private long _evictions = 0;
+        private boolean _closed = false;
+
+        Stripe(int firstBlock, int blocks)
+        {
+            _freeBlocks = new int[blocks];
+            // Push in reverse order, so the first blocks are used first
+            for (int i = 0; i < blocks; i++)
+            {
+                _freeBlocks[i] = firstBlock + blocks - 1 - i;
+            }
+            _freeCount = blocks;
+        }
+
+        synchronized long store(Object owner, byte[] data)
+        {
+            int required = Math.max(1, (data.length + _blockSize - 1) / _blockSize);
+            if (_closed || required > _freeBlocks.length)
+            {
+                return -1;
+            }
+
+            while (_freeCount < required)
+            {
+                evict();
+            }
+
+            int[] blocks = new int[required];
+            int offset = 0;
+            for (int i = 0; i < required; i++)
+            {
+                int block = _freeBlocks[--_freeCount];
+                blocks[i] = block;
+                int len = Math.min(_blockSize, data.length - offset);
+                if (len > 0)
+                {
+                    ByteBuffer buffer = blockBuffer(block);
+                    buffer.put(data, offset, len);
+                    offset += len;
+                }
+            }
+
+            Owner entryOwner = _owners.get(owner);
+            if (entryOwner == null)
+            {
+                entryOwner = new Owner(owner);
+                _owners.put(owner, entryOwner);
+            }
+            Entry entry = new Entry(_nextId++, entryOwner, blocks, data.length);
+            _entries.put(entry.id, entry);
+            entryOwner.entries.addLast(entry);
+            if (entryOwner.entries.size() == 2)
+            {
+                _crowdedOwners.add(entryOwner);
+            }
+            return entry.id;
+        }
+
+        synchronized byte[] load(long id)
+        {
+            Entry entry = _entries.get(id);
+            if (entry == null)
+            {
+                return null;
+            }
+            int[] blocks = entry.blocks;
+            int length = entry.length;
+            byte[] data = new byte[length];
+            int offset = 0;
+            for (int i = 0; i < blocks.length && offset < length; i++)
+            {
+                int len = Math.min(_blockSize, length - offset);
+                ByteBuffer buffer = blockBuffer(blocks[i]);
+                buffer.get(data, offset, len);
+                offset += len;
+            }
+            return data;
+        }
+
+        synchronized void release(long id)
+        {
+            Entry entry = _entries.remove(id);
+            if (entry != null)
+            {
+                removed(entry);
+            }
+        }
+
+        synchronized int getEntryCount()
+        {
+            return _entries.size();
+        }
+
+        synchronized int getUsedBlocks()
+        {
+            return _freeBlocks.length - _freeCount;
+        }
+
+        synchronized long getEvictionCount()
+        {
+            return _evictions;
+        }
+
+        synchronized void close()
+        {
+            _closed = true;
+            _entries.clear();
+            _owners.clear();
+            _crowdedOwners.clear();
+            _freeCount = 0;
+        }
+
+        /**
+         * Evicts the oldest entry of the next owner with other entries, or the oldest entry if every
+         * owner has only one.
+         */
+        private void evict()
+        {
+            Entry victim;
+            Iterator<Owner> it = _crowdedOwners.iterator();
+            if (it.hasNext())
+            {
+                Owner owner = it.next();
+                victim = owner.entries.peekFirst();
+                // The next eviction takes other owner
+                it.remove();
+                _crowdedOwners.add(owner);
+            }
+            else
+            {
+                victim = _entries.values().iterator().next();
+            }
+            _entries.remove(victim.id);
+            removed(victim);
+            _evictions++;
+        }
+
+        private void removed(Entry entry)
+        {
+            for (int i = entry.blocks.length - 1; i >= 0; i--)
+            {
+                _freeBlocks[_freeCount++] = entry.blocks[i];
+            }
+            Owner owner = entry.owner;
+            // Usually the oldest entry of the owner, the first one
+            owner.entries.remove(entry);
+            int size = owner.entries.size();
+            if (size == 1)
+            {
+                _crowdedOwners.remove(owner);
+            }
+            else if (size == 0)
+            {
+                _owners.remove(owner.key);
+            }
+        }
+    }
+
+    private static final class Owner
+    {
+        final Object key;
+        final ArrayDeque<Entry> entries = new ArrayDeque<Entry>(4);
+
+        Owner(Object key)
+        {
+            this.key = key;
+        }
+    }
+
+    private static final class Entry
+    {
+        final long id;
+        final Owner owner;
+        final int[] blocks;
+        final int length;
+
+        Entry(long id, Owner owner, int[] blocks, int length)
+        {
+            this.id = id;
+            this.owner = owner;
+            this.blocks = blocks;
+            this.length = length;
+        }
+    }
+
+    private static void closeQuietly(RandomAccessFile raf)
+    {
+        if (raf != null)
+        {
+            try
+            {
+                raf.close();
+            }
+            catch (IOException e)
+            {
+                log.log(Level.FINE, "Cannot close view state storage file", e);
+            }
+        }
+    }
+}
@@ -0,0 +1,509 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.myfaces.application.viewstate;
+
+import java.io.File;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.faces.context.FacesContext;
+import org.apache.myfaces.spi.ViewStateStore;
+
+/**
+ * ViewStateStore that appends the serialized views to a log of memory mapped files (segments)
+ * in a local directory.
+ *
+ * <p>Each record is written once and never updated. When a view is removed a small tombstone
+ * record is appended, so the index can be rebuilt from the files when the application starts
+ * again and the views of sessions restored by the container are still available. Once a
+ * segment is full a new one is created. Segments where most of the records were removed are
+ * compacted, copying the records still alive to the current segment and deleting the file. If
+ * the max number of segments is reached, the oldest segment is deleted with all its views.</p>
+ *
+ * <p>Record layout: int length, long id and then the bytes of the state. A tombstone has length
+ * -1 followed by the id and the number of the segment that contains the removed record. Files
+ * are filled with zeros, so a length of 0 marks the end of the records of a segment. For that
+ * reason an empty state is never stored: it is kept in session like a state bigger than a segment.</p>
+ */
+class SegmentLogViewStateStore extends ViewStateStore
+{
+    private static final Logger log = Logger.getLogger(SegmentLogViewStateStore.class.getName());
+
+    private static final String SEGMENT_PREFIX = "views-";
+    private static final String SEGMENT_SUFFIX = ".log";
+
+    private static final int HEADER_SIZE = 12;
+    private static final int TOMBSTONE = -1;
+    private static final int TOMBSTONE_SIZE = HEADER_SIZE + 8;
+
+    private final File _directory;
+    private final int _segmentSize;
+    private final int _maxSegments;
+    private final int _compactionThreshold;
+
+    private final TreeMap<Long, Segment> _segments = new TreeMap<Long, Segment>();
+    private final Map<Long, Location> _index = new HashMap<Long, Location>();
+    private Segment _active;
+    private long _nextId;
+    private long _compactions = 0;
+    private long _evictions = 0;
+    private boolean _closed = false;
+
+    /**
+     * @param directory the directory of the segment files, existing segments are loaded
+     * @param segmentSize size in bytes of each segment file
+     * @param maxSegments max number of segment files
+     * @param compactionThreshold percentage of live bytes under which a segment is compacted
+     * @throws IOException if the existing segments can't be read or the directory can't be created
+     */
+    public SegmentLogViewStateStore(File directory, int segmentSize, int maxSegments, int compactionThreshold)
+        throws IOException
+    {
+        if (segmentSize <= TOMBSTONE_SIZE)
+        {
+            throw new IllegalArgumentException("segmentSize must be > " + TOMBSTONE_SIZE);
+        }
+        if (maxSegments < 2)
+        {
+            throw new IllegalArgumentException("maxSegments must be >= 2");
+        }
+        if (!directory.isDirectory() && !directory.mkdirs())
+        {
+            throw new IOException("Cannot create view state store directory " + directory);
+        }
+        _directory = directory;
+        _segmentSize = segmentSize;
+        _maxSegments = maxSegments;
+        _compactionThreshold = compactionThreshold;
+
+        recover();
+        // Ids are never reused, even if the files were deleted, so a token kept in a session
+        // restored by the container can't point to the state of other view.
+        _nextId = Math.max(_nextId, System.currentTimeMillis() << 20);
+        if (_active == null || _active.remaining() < TOMBSTONE_SIZE)
+        {
+            roll();
+        }
+    }
+
+    @Override
+    public synchronized String store(FacesContext facesContext, byte[] state)
+    {
+        int size = HEADER_SIZE + state.length;
+        if (_closed || state.length == 0 || size > _segmentSize)
+        {
+            return null;
+        }
+        if (_active.remaining() < size)
+        {
+            roll();
+        }
+        long id = _nextId++;
+        Location location = append(id, state, 0, state.length);
+        _index.put(id, location);
+        return Long.toString(id, Character.MAX_RADIX);
+    }
+
+    @Override
+    public synchronized byte[] load(FacesContext facesContext, String id)
+    {
+        Location location = _index.get(parseId(id));
+        if (location == null)
+        {
+            return null;
+        }
+        byte[] state = new byte[location.length];
+        ByteBuffer buffer = location.segment.buffer.duplicate();
+        buffer.position(location.offset + HEADER_SIZE);
+        buffer.get(state);
+        return state;
+    }
+
+    @Override
+    public synchronized void remove(FacesContext facesContext, String id)
+    {
+        long key = parseId(id);
+        Location location = _index.remove(key);
+        if (location == null)
+        {
+            return;
+        }
+        Segment segment = location.segment;
+        segment.live -= HEADER_SIZE + location.length;
+        if (_active.remaining() < TOMBSTONE_SIZE)
+        {
+            roll();
+        }
+        appendTombstone(key, segment.number);
+        if (segment != _active && segment.file != null)
+        {
+            compactIfRequired(segment);
+        }
+    }
+
+    /**
+     * Writes the segments to disk and releases them. The files are kept, so the views are
+     * loaded again when a store is created on the same directory.
+     */
+    @Override
+    public synchronized void close()
+    {
+        if (_closed)
+        {
+            return;
+        }
+        _closed = true;
+        for (Segment segment : _segments.values())
+        {
+            segment.buffer.force();
+        }
+        // There is no api to unmap a buffer, the mappings are released once they are collected
+        _segments.clear();
+        _index.clear();
+        _active = null;
+    }
+
+    public synchronized int getEntryCount()
+    {
+        return _index.size();
+    }
+
+    public synchronized int getSegmentCount()
+    {
+        return _segments.size();
+    }
+
+    public synchronized long getCompactionCount()
+    {
+        return _compactions;
+    }
+
+    public synchronized long getEvictionCount()
+    {
+        return _evictions;
+    }
+
+    private static long parseId(String id)
+    {
+        try
+        {
+            return Long.parseLong(id, Character.MAX_RADIX);
+        }
+        catch (NumberFormatException e)
+        {
+            return -1;
+        }
+    }
+
+    private Location append(long id, byte[] data, int offset, int length)
+    {
+        Segment segment = _active;
+        int position = segment.position;
+        ByteBuffer buffer = segment.buffer.duplicate();
+        buffer.position(position + 4);
+        buffer.putLong(id);
+        buffer.put(data, offset, length);
+        // The length is written at the end, so an incomplete record is never read as valid
+        segment.buffer.putInt(position, length);
+        segment.position = position + HEADER_SIZE + length;
+        segment.live += HEADER_SIZE + length;
+        return new Location(segment, position, length);
+    }
+
+    private void appendTombstone(long id, long segmentNumber)
+    {
+        Segment segment = _active;
+        int position = segment.position;
+        segment.buffer.putLong(position + 4, id);
+        segment.buffer.putLong(position + HEADER_SIZE, segmentNumber);
+        segment.buffer.putInt(position, TOMBSTONE);
+        segment.position = position + TOMBSTONE_SIZE;
+    }
+
+    /**
+     * Starts a new segment, deleting the oldest one if there are too many and compacting the
+     * segments with few live records.
+     */
+    private void roll()
+    {
+        long number = _segments.isEmpty() ? 1 : _segments.lastKey() + 1;
+        try
+        {
+            _active = openSegment(new File(_directory, SEGMENT_PREFIX + number + SEGMENT_SUFFIX), number);
+        }
+        catch (IOException e)
+        {
+            throw new IllegalStateException("Cannot create view state segment " + number, e);
+        }
+        _segments.put(number, _active);
+
+        while (_segments.size() > _maxSegments)
+        {
+            Segment oldest = _segments.firstEntry().getValue();
+            for (Iterator<Location> it = _index.values().iterator(); it.hasNext();)
+            {
+                if (it.next().segment == oldest)
+                {
+                    it.remove();
+                    _evictions++;
+                }
+            }
+            deleteSegment(oldest);
+        }
+
+        for (Segment segment : new ArrayList<Segment>(_segments.values()))
+        {
+            if (segment != _active)
+            {
+                compactIfRequired(segment);
+            }
+        }
+    }
+
+    /**
+     * Copies the live records and the tombstones still required of the segment to the active
+     * segment and deletes it. It does nothing if the segment is still used enough or if the
+     * records do not fit in the active segment; in that case it is tried again after the next roll.
+     */
+    private void compactIfRequired(Segment segment)
+    {
+        if (((long) segment.live) * 100 >= ((long) segment.position) * _compactionThreshold)
+        {
+            return;
+        }
+
+        List<Integer> tombstones = new ArrayList<Integer>();
+        int required = segment.live;
+        ByteBuffer buffer = segment.buffer;
+        int position = 0;
+        while (position < segment.position)
+        {
+            int length = buffer.getInt(position);
+            if (length == TOMBSTONE)
+            {
+                long target = buffer.getLong(position + HEADER_SIZE);
+                // The tombstone is only needed while the removed record is in other segment
+                if (target != segment.number && _segments.containsKey(target))
+                {
+                    tombstones.add(position);
+                    required += TOMBSTONE_SIZE;
+                }
+                position += TOMBSTONE_SIZE;
+            }
+            else
+            {
+                position += HEADER_SIZE + length;
+            }
+        }
+        if (required > _active.remaining())
+        {
+            return;
+        }
+
+        position = 0;
+        while (position < segment.position)
+        {
+            int length = buffer.getInt(position);
+            if (length == TOMBSTONE)
+            {
+                position += TOMBSTONE_SIZE;
+                continue;
+            }
+            long id = buffer.getLong(position + 4);
+            Location location = _index.get(id);
+            if (location != null && location.segment == segment)
+            {
+                byte[] data = new byte[length];
+                ByteBuffer source = buffer.duplicate();
+                source.position(position + HEADER_SIZE);
+                source.get(data);
+                _index.put(id, append(id, data, 0, length));
+            }
+            position += HEADER_SIZE + length;
+        }
+        for (Integer tombstone : tombstones)
+        {
+            appendTombstone(buffer.getLong(tombstone + 4), buffer.getLong(tombstone + HEADER_SIZE));
+        }
+        deleteSegment(segment);
+        _compactions++;
+    }
+
+    private void deleteSegment(Segment segment)
+    {
+        _segments.remove(segment.number);
+        File file = segment.file;
+        segment.file = null;
+        if (!file.delete())
+        {
+            // The file could still be mapped (for example on windows)
+            file.deleteOnExit();
+        }
+    }
+
+    /**
+     * Loads the existing segments and rebuilds the index.
+     */
+    private void recover() throws IOException
+    {
+        File[] files = _directory.listFiles(new FilenameFilter()
+        {
+            @Override
+            public boolean accept(File dir, String name)
+            {
+                return name.startsWith(SEGMENT_PREFIX) && name.endsWith(SEGMENT_SUFFIX);
+            }
+        });
+        if (files == null)
+        {
+            return;
+        }
+        TreeMap<Long, File> sorted = new TreeMap<Long, File>();
+        for (File file : files)
+        {
+            String name = file.getName();
+            try
+            {
+                sorted.put(Long.parseLong(name.substring(SEGMENT_PREFIX.length(),
+                        name.length() - SEGMENT_SUFFIX.length())), file);
+            }
+            catch (NumberFormatException e)
+            {
+                log.warning("Ignoring unknown file in view state store directory: " + file);
+            }
+        }
+
+        for (Map.Entry<Long, File> entry : sorted.entrySet())
+        {
+            Segment segment = openSegment(entry.getValue(), entry.getKey());
+            _segments.put(segment.number, segment);
+            scan(segment);
+            _active = segment;
+        }
+        if (log.isLoggable(Level.INFO) && !_index.isEmpty())
+        {
+            log.info("Loaded " + _index.size() + " views from " + _segments.size() 
+                    + " segments in " + _directory);
+        }
+    }
+
+    private void scan(Segment segment)
+    {
+        ByteBuffer buffer = segment.buffer;
+        int capacity = buffer.capacity();
+        int position = 0;
+        while (position + HEADER_SIZE <= capacity)
+        {
+            int length = buffer.getInt(position);
+            long id = buffer.getLong(position + 4);
+            if (length == TOMBSTONE && position + TOMBSTONE_SIZE <= capacity)
+            {
+                long target = buffer.getLong(position + HEADER_SIZE);
+                Location location = _index.get(id);
+                if (location != null && location.segment.number == target)
+                {
+                    _index.remove(id);
+                    location.segment.live -= HEADER_SIZE + location.length;
+                }
+                position += TOMBSTONE_SIZE;
+            }
+            else if (length > 0 && position + HEADER_SIZE + length <= capacity)
+            {
+                // A record copied by a compaction that was not completed replaces the old one
+                Location previous = _index.put(id, new Location(segment, position, length));
+                if (previous != null)
+                {
+                    previous.segment.live -= HEADER_SIZE + previous.length;
+                }
+                segment.live += HEADER_SIZE + length;
+                _nextId = Math.max(_nextId, id + 1);
+                position += HEADER_SIZE + length;
+            }
+            else
+            {
+                // End of the segment or a record not fully written
+                break;
+            }
+        }
+        segment.position = position;
+    }
+
+    private Segment openSegment(File file, long number) throws IOException
+    {
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try
+        {
+            long length = Math.max(raf.length(), _segmentSize);
+            raf.setLength(length);
+            // The mapping is still valid after the file is closed
+            MappedByteBuffer buffer = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, length);
+            return new Segment(number, file, buffer);
+        }
+        finally
+        {
+            raf.close();
+        }
+    }
+
+    private static final class Segment
+    {
+        final long number;
+        final MappedByteBuffer buffer;
+        File file;
+        int position;
+        int live;
+
+        Segment(long number, File file, MappedByteBuffer buffer)
+        {
+            this.number = number;
+            this.file = file;
+            this.buffer = buffer;
+        }
+
+        int remaining()
+        {
+            return buffer.capacity() - position;
+        }
+    }
+
+    private static final class Location
+    {
+        final Segment segment;
+        final int offset;
+        final int length;
+
+        Location(Segment segment, int offset, int length)
+        {
+            this.segment = segment;
+            this.offset = offset;
+            this.length = length;
+        }
+    }
+}
@@ -19,10 +19,10 @@
 package org.apache.myfaces.application.viewstate;
 
 import java.io.Serializable;
-import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.List;
+import java.util.Collections;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedDeque;
 import java.util.logging.Logger;
 import javax.faces.context.FacesContext;
 import org.apache.myfaces.shared.config.MyfacesConfig;
@@ -30,7 +30,17 @@ import org.apache.myfaces.spi.ViewScopeProvider;
 import org.apache.myfaces.shared.util.LRULinkedHashMap;
 
 /**
- *
+ * Keeps the views stored in session.
+ * 
+ * <p>Restoring and updating a view does not use a lock, so requests of the same session (for
+ * example multiple tabs or ajax polling) can store and restore views at the same time. Each view
+ * is kept in an Entry, the same instance is added to the queue used to decide which views are
+ * discarded first. Old instances left in the queue after a view is updated are just skipped.</p>
+ * 
+ * <p>Adding or removing an entry and counting its viewScopeId is done under the lock of the
+ * collection, and only the thread that removed the entry releases its state and destroys the
+ * view scope. A view scope destroyed while other request was using the view is not destroyed
+ * again when that request stores the view back.</p>
  */
 class SerializedViewCollection implements Serializable
 {
@@ -38,34 +48,45 @@ class SerializedViewCollection implements Serializable
 
     private static final Object[] EMPTY_STATES = new Object[]{null, null};
 
-    private static final long serialVersionUID = -3734849062185115847L;
-    private final List<SerializedViewKey> _keys = 
-        new ArrayList<SerializedViewKey>(
-            MyfacesConfig.INIT_PARAM_NUMBER_OF_VIEWS_IN_SESSION_DEFAULT);
-    private final Map<SerializedViewKey, Object> _serializedViews = 
-        new HashMap<SerializedViewKey, Object>();
+    private static final long serialVersionUID = -3734849062185115848L;
+    
+    /**
+     * Views in the order they should be discarded, it could contain entries no longer
+     * present in _serializedViews.
+     */
+    private final ConcurrentLinkedDeque<Entry> _keys = new ConcurrentLinkedDeque<Entry>();
+    private final ConcurrentHashMap<SerializedViewKey, Entry> _serializedViews = 
+        new ConcurrentHashMap<SerializedViewKey, Entry>();
     /**
      * The viewScopeIds can be shared between multiple entries of the same
-     * view. To store it into session, the best is use two maps, one to 
-     * associate the view key with the view scope id and other to keep track 
+     * view. The entry keeps the view scope id and this map keeps track 
      * of the number of times the id is used. In that way it is possible to
      * know when a view scope id has been discarded and destroy the view scope
      * in the right time.
      */
-    private HashMap<SerializedViewKey, String> _viewScopeIds = null;
-    private HashMap<String, Integer> _viewScopeIdCounts = null;
+    private final ConcurrentHashMap<String, Integer> _viewScopeIdCounts = new ConcurrentHashMap<String, Integer>();
 
-    private final Map<SerializedViewKey, SerializedViewKey> _precedence =
-        new HashMap<SerializedViewKey, SerializedViewKey>();
-    private Map<String, SerializedViewKey> _lastWindowKeys = null;
+    private final ConcurrentHashMap<SerializedViewKey, SerializedViewKey> _precedence =
+        new ConcurrentHashMap<SerializedViewKey, SerializedViewKey>();
+    private volatile Map<String, SerializedViewKey> _lastWindowKeys = null;
+    /**
+     * The last view scope ids destroyed. It is not kept with the session, after a restore the
+     * views stored back just own their view scope again.
+     */
+    private transient Map<String, Boolean> _destroyedViewScopeIds = null;
 
-    public void put(FacesContext context, Object state, 
+    public int put(FacesContext context, Object state, 
         SerializedViewKey key, SerializedViewKey previousRestoredKey)
     {
-        put(context, state, key, previousRestoredKey, null, null);
+        return put(context, state, key, previousRestoredKey, null, null);
     }
     
-    public synchronized void put(FacesContext context, Object state, 
+    /**
+     * Stores the view, discarding the views that exceed the limits.
+     * 
+     * @return the number of views discarded
+     */
+    public int put(FacesContext context, Object state, 
         SerializedViewKey key, SerializedViewKey previousRestoredKey,
         ViewScopeProvider viewScopeProvider, String viewScopeId)
     {
@@ -83,67 +104,73 @@ class SerializedViewCollection implements Serializable
             state = null;
         }
 
-        if (_serializedViews.containsKey(key))
+        Object value = storeState(key, state);
+        Integer maxCount = getNumberOfSequentialViewsInSession(context);
+        String entryViewScopeId = viewScopeProvider != null ? viewScopeId : null;
+        Entry entry;
+        while (true)
         {
-            // Update the state, the viewScopeId does not change.
-            _serializedViews.put(key, state);
-            // Make sure the view is at the end of the discard queue
-            while (_keys.remove(key))
+            Entry oldEntry = _serializedViews.get(key);
+            if (oldEntry != null)
             {
-                // do nothing
+                // Update the state, the viewScopeId does not change.
+                entry = new Entry(key, value, oldEntry.viewScopeId);
+                if (_serializedViews.replace(key, oldEntry, entry))
+                {
+                    // Make sure the view is at the end of the discard queue
+                    _keys.add(entry);
+                    _keys.removeFirstOccurrence(oldEntry);
+                    discardState(oldEntry.value);
+                    return 0;
+                }
+                // Updated or removed by other request at the same time, try again
+                continue;
             }
-            _keys.add(key);
-            return;
-        }
 
-        Integer maxCount = getNumberOfSequentialViewsInSession(context);
-        if (maxCount != null)
-        {
-            if (previousRestoredKey != null)
+            // Note when the session is invalidated, _serializedViews map is empty,
+            // but we could have a not null previousRestoredKey (the last one before
+            // invalidate the session), so we need to check that condition before
+            // set the precence. In that way, we ensure the precedence map will always
+            // have valid keys.
+            synchronized (this)
             {
-                if (!_serializedViews.isEmpty())
+                boolean empty = _serializedViews.isEmpty();
+                if (entryViewScopeId != null && !_viewScopeIdCounts.containsKey(entryViewScopeId)
+                        && _destroyedViewScopeIds != null && _destroyedViewScopeIds.containsKey(entryViewScopeId))
                 {
-                    _precedence.put((SerializedViewKey) key, previousRestoredKey);
+                    // The view was discarded by other request after it was restored by this one
+                    entryViewScopeId = null;
                 }
-                else
+                entry = new Entry(key, value, entryViewScopeId);
+                if (_serializedViews.putIfAbsent(key, entry) == null)
                 {
-                    // Note when the session is invalidated, _serializedViews map is empty,
-                    // but we could have a not null previousRestoredKey (the last one before
-                    // invalidate the session), so we need to check that condition before
-                    // set the precence. In that way, we ensure the precedence map will always
-                    // have valid keys.
-                    previousRestoredKey = null;
+                    if (entryViewScopeId != null)
+                    {
+                        _viewScopeIdCounts.merge(entryViewScopeId, 1, Integer::sum);
+                    }
+                    if (maxCount != null && previousRestoredKey != null)
+                    {
+                        if (!empty)
+                        {
+                            _precedence.put(key, previousRestoredKey);
+                        }
+                        else
+                        {
+                            previousRestoredKey = null;
+                        }
+                    }
+                    break;
                 }
             }
         }
-        _serializedViews.put(key, state);
-        
-        if (viewScopeProvider != null && viewScopeId != null)
-        {
-            if (_viewScopeIds == null)
-            {
-                _viewScopeIds = new HashMap<SerializedViewKey, String>();
-            }
-            _viewScopeIds.put(key, viewScopeId);
-            if (_viewScopeIdCounts == null)
-            {
-                _viewScopeIdCounts = new HashMap<String, Integer>();
-            }
-            Integer vscount = _viewScopeIdCounts.get(viewScopeId);
-            vscount = (vscount == null) ? 1 : vscount + 1;
-            _viewScopeIdCounts.put(viewScopeId, vscount);
-        }
 
-        while (_keys.remove(key))
-        {
-            // do nothing
-        }
-        _keys.add(key);
+        _keys.add(entry);
 
+        int discarded = 0;
         if (previousRestoredKey != null && maxCount != null && maxCount > 0)
         {
             int count = 0;
-            SerializedViewKey previousKey = (SerializedViewKey) key;
+            SerializedViewKey previousKey = key;
             do
             {
                 previousKey = _precedence.get(previousKey);
@@ -153,36 +180,17 @@ class SerializedViewCollection implements Serializable
 
             if (previousKey != null)
             {
-                SerializedViewKey keyToRemove = (SerializedViewKey) previousKey;
+                SerializedViewKey keyToRemove = previousKey;
                 // In theory it should be only one key but just to be sure
                 // do it in a loop, but in this case if cache old views is on,
                 // put on that map.
                 do
                 {
-                    while (_keys.remove(keyToRemove))
+                    Entry removed = discard(context, keyToRemove, null, viewScopeProvider);
+                    if (removed != null)
                     {
-                        // do nothing
-                    }
-
-                    _serializedViews.remove(keyToRemove);
-                    
-                    if (viewScopeProvider != null && _viewScopeIds != null)
-                    {
-                        String oldViewScopeId = _viewScopeIds.remove(keyToRemove);
-                        if (oldViewScopeId != null)
-                        {
-                            Integer vscount = _viewScopeIdCounts.get(oldViewScopeId);
-                            vscount = vscount - 1;
-                            if (vscount != null && vscount.intValue() < 1)
-                            {
-                                _viewScopeIdCounts.remove(oldViewScopeId);
-                                viewScopeProvider.destroyViewScopeMap(context, oldViewScopeId);
-                            }
-                            else
-                            {
-                                _viewScopeIdCounts.put(oldViewScopeId, vscount);
-                            }
-                        }
+                        _keys.removeFirstOccurrence(removed);
+                        discarded++;
                     }
 
                     keyToRemove = _precedence.remove(keyToRemove);
@@ -190,13 +198,23 @@ class SerializedViewCollection implements Serializable
                 while (keyToRemove != null);
             }
         }
+        
         int views = getNumberOfViewsInSession(context);
-        while (_keys.size() > views)
+        while (_serializedViews.size() > views)
         {
-            key = _keys.remove(0);
+            Entry oldest = _keys.pollFirst();
+            if (oldest == null)
+            {
+                break;
+            }
+            if (discard(context, oldest.key, oldest, viewScopeProvider) == null)
+            {
+                // The view was updated or already removed
+                continue;
+            }
             if (maxCount != null && maxCount > 0)
             {
-                SerializedViewKey keyToRemove = (SerializedViewKey) key;
+                SerializedViewKey keyToRemove = oldest.key;
                 // Note in this case the key to delete is the oldest one,
                 // so it could be at least one precedence, but to be safe
                 // do it with a loop.
@@ -206,28 +224,115 @@ class SerializedViewCollection implements Serializable
                 }
                 while (keyToRemove != null);
             }
+            discarded++;
+        }
+        return discarded;
+    }
 
-            _serializedViews.remove(key);
-            
-            if (viewScopeProvider != null && _viewScopeIds != null)
+    /**
+     * Removes the view and releases its state and its viewScopeId. The entry is removed and the
+     * viewScopeId counted down under the lock, so a view scope is destroyed once, by the request that
+     * removed its last entry.
+     * 
+     * @param expected the entry to remove, or null to remove any entry of the key
+     * @return the removed entry, or null if it was updated or removed by other request
+     */
+    private Entry discard(FacesContext context, SerializedViewKey key, Entry expected,
+        ViewScopeProvider viewScopeProvider)
+    {
+        Entry entry;
+        boolean destroy = false;
+        synchronized (this)
+        {
+            if (expected == null)
+            {
+                entry = _serializedViews.remove(key);
+            }
+            else
             {
-                String oldViewScopeId = _viewScopeIds.remove(key);
-                if (oldViewScopeId != null)
+                entry = _serializedViews.remove(key, expected) ? expected : null;
+            }
+            if (entry == null)
+            {
+                return null;
+            }
+            if (viewScopeProvider != null && entry.viewScopeId != null)
+            {
+                Integer vscount = _viewScopeIdCounts.get(entry.viewScopeId);
+                if (vscount != null && vscount < 2)
                 {
-                    Integer vscount = _viewScopeIdCounts.get(oldViewScopeId);
-                    vscount = vscount - 1;
-                    if (vscount != null && vscount.intValue() < 1)
-                    {
-                        _viewScopeIdCounts.remove(oldViewScopeId);
-                        viewScopeProvider.destroyViewScopeMap(context, oldViewScopeId);
-                    }
-                    else
+                    _viewScopeIdCounts.remove(entry.viewScopeId);
+                    if (_destroyedViewScopeIds == null)
                     {
-                        _viewScopeIdCounts.put(oldViewScopeId, vscount);
+                        _destroyedViewScopeIds = new LRULinkedHashMap<String, Boolean>(
+                                getNumberOfViewsInSession(context));
                     }
+                    _destroyedViewScopeIds.put(entry.viewScopeId, Boolean.TRUE);
+                    destroy = true;
                 }
+                else if (vscount != null)
+                {
+                    _viewScopeIdCounts.put(entry.viewScopeId, vscount - 1);
+                }
+            }
+        }
+        discardState(entry.value);
+        if (destroy)
+        {
+            viewScopeProvider.destroyViewScopeMap(context, entry.viewScopeId);
+        }
+        return entry;
+    }
+
+    /**
+     * Converts the state into the value kept in the internal map. By default the state is
+     * stored as is, but subclasses can move it somewhere else and keep only a reference.
+     * 
+     * @param key the key of the view
+     * @param state the state to store, it could be null
+     * @return the value to keep in the map
+     */
+    protected Object storeState(SerializedViewKey key, Object state)
+    {
+        return state;
+    }
+
+    /**
+     * Converts a value kept in the internal map back into the state stored with 
+     * {@link #storeState(SerializedViewKey, Object)}.
+     * 
+     * @param value the value from the internal map, it could be null
+     * @return the state
+     */
+    protected Object loadState(Object value)
+    {
+        return value;
+    }
+
+    /**
+     * Called when a value is removed from the internal map, so any resource associated
+     * with it can be released.
+     * 
+     * @param value the value from the internal map, it could be null
+     */
+    protected void discardState(Object value)
+    {
+    }
+
+    /**
+     * Releases all values kept in the internal map and clears the collection.
+     */
+    protected void discardAll()
+    {
+        for (Entry entry : _serializedViews.values())
+        {
+            if (_serializedViews.remove(entry.key, entry))
+            {
+                discardState(entry.value);
             }
         }
+        _keys.clear();
+        _precedence.clear();
     }
 
     protected Integer getNumberOfSequentialViewsInSession(FacesContext context)
@@ -246,42 +351,62 @@ class SerializedViewCollection implements Serializable
         return MyfacesConfig.getCurrentInstance(context.getExternalContext()).getNumberOfViewsInSession();
     }
 
-    public synchronized void putLastWindowKey(FacesContext context, String id, SerializedViewKey key)
+    public void putLastWindowKey(FacesContext context, String id, SerializedViewKey key)
     {
-        if (_lastWindowKeys == null)
+        Map<String, SerializedViewKey> lastWindowKeys = _lastWindowKeys;
+        if (lastWindowKeys == null)
         {
-            Integer i = getNumberOfSequentialViewsInSession(context);
-            int j = getNumberOfViewsInSession(context);
-            if (i != null && i> 0)
+            synchronized (this)
             {
-                _lastWindowKeys = new LRULinkedHashMap<>((j / i) + 1);
-            }
-            else
-            {
-                _lastWindowKeys = new LRULinkedHashMap(j + 1);
+                lastWindowKeys = _lastWindowKeys;
+                if (lastWindowKeys == null)
+                {
+                    Integer i = getNumberOfSequentialViewsInSession(context);
+                    int j = getNumberOfViewsInSession(context);
+                    if (i != null && i> 0)
+                    {
+                        lastWindowKeys = Collections.synchronizedMap(
+                                new LRULinkedHashMap<String, SerializedViewKey>((j / i) + 1));
+                    }
+                    else
+                    {
+                        lastWindowKeys = Collections.synchronizedMap(
+                                new LRULinkedHashMap<String, SerializedViewKey>(j + 1));
+                    }
+                    _lastWindowKeys = lastWindowKeys;
+                }
             }
         }
-        _lastWindowKeys.put(id, key);
+        lastWindowKeys.put(id, key);
     }
 
     public SerializedViewKey getLastWindowKey(FacesContext context, String id)
     {
-        if (_lastWindowKeys != null)
+        Map<String, SerializedViewKey> lastWindowKeys = _lastWindowKeys;
+        if (lastWindowKeys != null)
         {
-            return _lastWindowKeys.get(id);
+            return lastWindowKeys.get(id);
         }
         return null;
     }
 
     public Object get(SerializedViewKey key)
     {
-        Object value = _serializedViews.get(key);
+        Entry entry = _serializedViews.get(key);
+        if (entry == null)
+        {
+            return null;
+        }
+        Object value = entry.value;
         if (value == null)
         {
-            if (_serializedViews.containsKey(key))
-            {
-                return EMPTY_STATES;
-            }
+            return EMPTY_STATES;
+        }
+        value = loadState(value);
+        if (value == null)
+        {
+            // The stored state is no longer available
+            return null;
         }
         else if (value instanceof Object[] &&
             ((Object[])value).length == 2 &&
@@ -293,4 +418,24 @@ class SerializedViewCollection implements Serializable
         }
         return value;
     }
+
+    /**
+     * A stored view. Equality is identity, so an entry in the discard queue only matches the
+     * entry in the map if the view has not been updated since.
+     */
+    private static final class Entry implements Serializable
+    {
+        private static final long serialVersionUID = 1L;
+
+        private final SerializedViewKey key;
+        private final Object value;
+        private final String viewScopeId;
+
+        Entry(SerializedViewKey key, Object value, String viewScopeId)
+        {
+            this.key = key;
+            this.value = value;
+            this.viewScopeId = viewScopeId;
+        }
+    }
 }
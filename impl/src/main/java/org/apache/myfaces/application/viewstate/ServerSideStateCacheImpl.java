@@ -20,19 +20,17 @@ package org.apache.myfaces.application.viewstate;
 
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
-import java.io.OutputStream;
 import java.security.AccessController;
 import java.security.PrivilegedActionException;
 import java.security.PrivilegedExceptionAction;
 import java.util.Map;
 import java.util.logging.Level;
 import java.util.logging.Logger;
-import java.util.zip.GZIPInputStream;
-import java.util.zip.GZIPOutputStream;
 import javax.faces.FacesWrapper;
 import javax.faces.application.StateManager;
 
@@ -46,10 +44,16 @@ import org.apache.myfaces.application.viewstate.token.StateTokenProcessor;
 import org.apache.myfaces.buildtools.maven2.plugin.builder.annotation.JSFWebConfigParam;
 import org.apache.myfaces.shared.config.MyfacesConfig;
 import org.apache.myfaces.shared.renderkit.RendererUtils;
-import org.apache.myfaces.shared.util.MyFacesObjectInputStream;
+import org.apache.myfaces.shared.util.StateUtils;
 import org.apache.myfaces.shared.util.WebConfigParamUtils;
+import org.apache.myfaces.shared.util.compress.StateCompressor;
+import org.apache.myfaces.shared.util.compress.StateCompressors;
+import org.apache.myfaces.shared.util.serial.DefaultSerialFactory;
+import org.apache.myfaces.shared.util.serial.SerialFactory;
 import org.apache.myfaces.spi.ViewScopeProvider;
 import org.apache.myfaces.spi.ViewScopeProviderFactory;
+import org.apache.myfaces.util.CacheMetrics;
+import org.apache.myfaces.util.MetricsRegistry;
 import org.apache.myfaces.view.ViewScopeProxyMap;
 
 class ServerSideStateCacheImpl extends StateCache<Object, Object>
@@ -108,6 +112,19 @@ class ServerSideStateCacheImpl extends StateCache<Object, Object>
      */
     public static final boolean DEFAULT_COMPRESS_SERVER_STATE_PARAM = true;
 
+    /**
+     * Defines the algorithm used to compress the serialized state stored in session: "gzip",
+     * "deflate", "lz" (faster, but compresses less), "none" or the name of a class implementing
+     * org.apache.myfaces.shared.util.compress.StateCompressor.
+     * 
+     * Only applicable if <code>org.apache.myfaces.COMPRESS_STATE_IN_SESSION</code> is <code>true</code>.
+     */
+    @JSFWebConfigParam(since="2.3.3", defaultValue="gzip", expectedValues="gzip,deflate,lz,none",
+            group="state", tags="performance")
+    public static final String COMPRESSION_CODEC_IN_SESSION_PARAM 
+            = "org.apache.myfaces.STATE_COMPRESSION_CODEC_IN_SESSION";
+    public static final String COMPRESSION_CODEC_IN_SESSION_PARAM_DEFAULT = StateCompressors.GZIP;
+
     /**
      * Default value for <code>javax.faces.SERIALIZE_SERVER_STATE and 
      * org.apache.myfaces.SERIALIZE_STATE_IN_SESSION</code> context parameter.
@@ -172,17 +189,95 @@ class ServerSideStateCacheImpl extends StateCache<Object, Object>
             = "org.apache.myfaces.RANDOM_KEY_IN_VIEW_STATE_SESSION_TOKEN_SECURE_RANDOM_ALGORITM";
     
     
+    public static final String SERVER_STATE_STORAGE_SESSION = "session";
+    public static final String SERVER_STATE_STORAGE_OFF_HEAP = "offHeap";
+    public static final String SERVER_STATE_STORAGE_MAPPED_FILE = "mappedFile";
+
+    /**
+     * Defines where the serialized views are stored when server side state saving is used.
+     * 
+     * <p>"session" keeps the serialized views inside the session. "offHeap" keeps them in direct
+     * memory outside the java heap and "mappedFile" in a memory mapped file created in the temporal
+     * directory of the web application. In both cases only a small handle per view is stored in the
+     * session. Only applicable if javax.faces.SERIALIZE_SERVER_STATE is true.</p>
+     */
+    @JSFWebConfigParam(since="2.3.3", expectedValues="session, offHeap, mappedFile", 
+            defaultValue="session", group="state", tags="performance")
+    public static final String SERVER_STATE_STORAGE_PARAM = "org.apache.myfaces.SERVER_STATE_STORAGE";
+    public static final String SERVER_STATE_STORAGE_PARAM_DEFAULT = SERVER_STATE_STORAGE_SESSION;
+
+    /**
+     * Max number of bytes used to store serialized views when org.apache.myfaces.SERVER_STATE_STORAGE
+     * is "offHeap" or "mappedFile". If the storage is full, the oldest views are discarded. 
+     */
+    @JSFWebConfigParam(since="2.3.3", defaultValue="67108864", group="state", tags="performance")
+    public static final String SERVER_STATE_STORAGE_CAPACITY_PARAM 
+            = "org.apache.myfaces.SERVER_STATE_STORAGE_CAPACITY";
+    public static final long SERVER_STATE_STORAGE_CAPACITY_PARAM_DEFAULT = 64L * 1024L * 1024L;
+
+    /**
+     * Size in bytes of the blocks used to store serialized views when 
+     * org.apache.myfaces.SERVER_STATE_STORAGE is "offHeap" or "mappedFile".
+     */
+    @JSFWebConfigParam(since="2.3.3", defaultValue="2048", group="state", tags="performance")
+    public static final String SERVER_STATE_STORAGE_BLOCK_SIZE_PARAM 
+            = "org.apache.myfaces.SERVER_STATE_STORAGE_BLOCK_SIZE";
+    public static final int SERVER_STATE_STORAGE_BLOCK_SIZE_PARAM_DEFAULT = 2048;
+
+    /**
+     * Number of stripes the storage is divided into when org.apache.myfaces.SERVER_STATE_STORAGE is
+     * "offHeap" or "mappedFile". All the views of a session go to the same stripe and each stripe has
+     * its own lock, so requests of different sessions do not wait for each other. Each stripe gets an
+     * equal part of the capacity.
+     */
+    @JSFWebConfigParam(since="2.3.3", defaultValue="4", group="state", tags="performance")
+    public static final String SERVER_STATE_STORAGE_STRIPES_PARAM = "org.apache.myfaces.SERVER_STATE_STORAGE_STRIPES";
+    public static final int SERVER_STATE_STORAGE_STRIPES_PARAM_DEFAULT = 4;
+
+    /**
+     * Store the state of a view as the changes over the state of a previous postback of the same
+     * view, instead of the full state. The state of each component is compared by clientId, so
+     * the memory used by the views in session depends on what changes between requests.
+     * 
+     * <p>Only applicable if state saving method is "server" (= default) and partial state
+     * saving is used.</p>
+     */
+    @JSFWebConfigParam(since="2.3.3", defaultValue="false", expectedValues="true,false", 
+            group="state", tags="performance")
+    public static final String SERVER_STATE_DELTA_PARAM = "org.apache.myfaces.SERVER_STATE_DELTA";
+    public static final boolean SERVER_STATE_DELTA_PARAM_DEFAULT = false;
+
+    /**
+     * Number of consecutive states stored as delta over the same base before the full state is
+     * stored again. Only applicable if org.apache.myfaces.SERVER_STATE_DELTA is true.
+     */
+    @JSFWebConfigParam(since="2.3.3", defaultValue="8", group="state", tags="performance")
+    public static final String SERVER_STATE_DELTA_REBASE_INTERVAL_PARAM 
+            = "org.apache.myfaces.SERVER_STATE_DELTA_REBASE_INTERVAL";
+    public static final int SERVER_STATE_DELTA_REBASE_INTERVAL_PARAM_DEFAULT = 8;
+
+    private static final String DELTA_BASE_REQUEST_ATTR = 
+        ServerSideStateCacheImpl.class.getName() + ".DELTA_BASE";
+
+    private static final String OFF_HEAP_VIEW_STATE_STORE_ATTR = 
+        ServerSideStateCacheImpl.class.getName() + ".OFF_HEAP_VIEW_STATE_STORE";
+
     public static final int UNCOMPRESSED_FLAG = 0;
     public static final int COMPRESSED_FLAG = 1;
 
+    private static final SerialFactory DEFAULT_SERIAL_FACTORY = new DefaultSerialFactory();
+
     private Boolean _useFlashScopePurgeViewsInSession = null;
     
     private Integer _numberOfSequentialViewsInSession = null;
     private boolean _numberOfSequentialViewsInSessionSet = false;
 
     private SessionViewStorageFactory sessionViewStorageFactory;
+    private boolean deltaEnabled;
+    private int deltaRebaseInterval;
     private CsrfSessionTokenFactory csrfSessionTokenFactory;
     private StateTokenProcessor stateTokenProcessor;
+    private final CacheMetrics sessionViewMetrics = new CacheMetrics();
 
     public ServerSideStateCacheImpl()
     {
@@ -190,15 +285,14 @@ class ServerSideStateCacheImpl extends StateCache<Object, Object>
         String randomMode = WebConfigParamUtils.getStringInitParameter(facesContext.getExternalContext(),
                 RANDOM_KEY_IN_VIEW_STATE_SESSION_TOKEN_PARAM, 
                 RANDOM_KEY_IN_VIEW_STATE_SESSION_TOKEN_PARAM_DEFAULT);
+        KeyFactory<byte[]> keyFactory;
         if (RANDOM_KEY_IN_VIEW_STATE_SESSION_TOKEN_SECURE_RANDOM.equals(randomMode))
         {
-            sessionViewStorageFactory = new RandomSessionViewStorageFactory(
-                    new SecureRandomKeyFactory(facesContext));
+            keyFactory = new SecureRandomKeyFactory(facesContext);
         }
         else if (RANDOM_KEY_IN_VIEW_STATE_SESSION_TOKEN_RANDOM.equals(randomMode))
         {
-            sessionViewStorageFactory = new RandomSessionViewStorageFactory(
-                    new RandomKeyFactory(facesContext));
+            keyFactory = new RandomKeyFactory(facesContext);
         }
         else
         {
@@ -208,10 +302,11 @@ class ServerSideStateCacheImpl extends StateCache<Object, Object>
                         + randomMode + "\" is not supported (anymore)."
                         + " Fallback to \"random\"");
             }
-            sessionViewStorageFactory = new RandomSessionViewStorageFactory(
-                    new RandomKeyFactory(facesContext));
+            keyFactory = new RandomKeyFactory(facesContext);
         }
         
+        sessionViewStorageFactory = createSessionViewStorageFactory(facesContext, keyFactory);
+        
         String csrfRandomMode = WebConfigParamUtils.getStringInitParameter(facesContext.getExternalContext(),
                 RANDOM_KEY_IN_CSRF_SESSION_TOKEN_PARAM, 
                 RANDOM_KEY_IN_CSRF_SESSION_TOKEN_PARAM_DEFAULT);
@@ -225,6 +320,98 @@ class ServerSideStateCacheImpl extends StateCache<Object, Object>
         }
         
         stateTokenProcessor = new ServiceSideStateTokenProcessor();
+        
+        deltaEnabled = WebConfigParamUtils.getBooleanInitParameter(facesContext.getExternalContext(),
+                SERVER_STATE_DELTA_PARAM, SERVER_STATE_DELTA_PARAM_DEFAULT);
+        deltaRebaseInterval = WebConfigParamUtils.getIntegerInitParameter(facesContext.getExternalContext(),
+                SERVER_STATE_DELTA_REBASE_INTERVAL_PARAM, SERVER_STATE_DELTA_REBASE_INTERVAL_PARAM_DEFAULT);
+
+        // The views are spread over the sessions, so only the counters are known
+        MetricsRegistry.getInstance(facesContext.getExternalContext()).register("SerializedViewCollection",
+                sessionViewMetrics);
+    }
+    
+    /**
+     * Creates the factory of the collections and keys used to store the views in session. It is
+     * called from the constructor.
+     */
+    protected SessionViewStorageFactory createSessionViewStorageFactory(FacesContext facesContext,
+            KeyFactory<byte[]> keyFactory)
+    {
+        OffHeapViewStateStore offHeapStore = createOffHeapViewStateStore(facesContext);
+        if (offHeapStore != null)
+        {
+            facesContext.getExternalContext().getApplicationMap().put(OFF_HEAP_VIEW_STATE_STORE_ATTR, offHeapStore);
+            MetricsRegistry.getInstance(facesContext.getExternalContext()).register("OffHeapViewStateStore",
+                    new OffHeapViewStateStoreMetrics(offHeapStore));
+            return new OffHeapSessionViewStorageFactory(keyFactory, offHeapStore);
+        }
+        return new RandomSessionViewStorageFactory(keyFactory);
+    }
+    
+    private OffHeapViewStateStore createOffHeapViewStateStore(FacesContext facesContext)
+    {
+        ExternalContext externalContext = facesContext.getExternalContext();
+        String storage = WebConfigParamUtils.getStringInitParameter(externalContext,
+                SERVER_STATE_STORAGE_PARAM, SERVER_STATE_STORAGE_PARAM_DEFAULT);
+        if (SERVER_STATE_STORAGE_SESSION.equals(storage))
+        {
+            return null;
+        }
+        if (!SERVER_STATE_STORAGE_OFF_HEAP.equals(storage) && !SERVER_STATE_STORAGE_MAPPED_FILE.equals(storage))
+        {
+            log.warning(SERVER_STATE_STORAGE_PARAM + " \"" + storage + "\" is not supported."
+                    + " Fallback to \"" + SERVER_STATE_STORAGE_SESSION + "\"");
+            return null;
+        }
+        
+        long capacity = WebConfigParamUtils.getLongInitParameter(externalContext,
+                SERVER_STATE_STORAGE_CAPACITY_PARAM, SERVER_STATE_STORAGE_CAPACITY_PARAM_DEFAULT);
+        int blockSize = WebConfigParamUtils.getIntegerInitParameter(externalContext,
+                SERVER_STATE_STORAGE_BLOCK_SIZE_PARAM, SERVER_STATE_STORAGE_BLOCK_SIZE_PARAM_DEFAULT);
+        int stripes = Math.max(1, WebConfigParamUtils.getIntegerInitParameter(externalContext,
+                SERVER_STATE_STORAGE_STRIPES_PARAM, SERVER_STATE_STORAGE_STRIPES_PARAM_DEFAULT));
+        try
+        {
+            File file = null;
+            if (SERVER_STATE_STORAGE_MAPPED_FILE.equals(storage))
+            {
+                File tempdir = (File) externalContext.getApplicationMap().get("javax.servlet.context.tempdir");
+                file = File.createTempFile("oam-viewstate", ".dat", tempdir);
+                file.deleteOnExit();
+            }
+            return new OffHeapViewStateStore(capacity, blockSize, file, stripes);
+        }
+        catch (IOException | RuntimeException e)
+        {
+            log.log(Level.SEVERE, "Cannot create the storage for " + SERVER_STATE_STORAGE_PARAM + " \"" 
+                    + storage + "\". Fallback to \"" + SERVER_STATE_STORAGE_SESSION + "\"", e);
+            return null;
+        }
+    }
+    
+    /**
+     * Releases the memory and the file used to store the views outside the session, if any.
+     * Called when the application is destroyed.
+     */
+    static void destroy(ExternalContext externalContext)
+    {
+        OffHeapViewStateStore store = (OffHeapViewStateStore) externalContext.getApplicationMap()
+                .remove(OFF_HEAP_VIEW_STATE_STORE_ATTR);
+        if (store != null)
+        {
+            store.close();
+        }
+    }
+
+    static OffHeapViewStateStore getOffHeapViewStateStore(FacesContext facesContext)
+    {
+        if (facesContext == null)
+        {
+            return null;
+        }
+        return (OffHeapViewStateStore) facesContext.getExternalContext().getApplicationMap()
+                .get(OFF_HEAP_VIEW_STATE_STORE_ATTR);
     }
     
     //------------------------------------- METHODS COPIED FROM JspStateManagerImpl--------------------------------
@@ -300,18 +487,21 @@ class ServerSideStateCacheImpl extends StateCache<Object, Object>
             }
 
         }
+        int discarded;
         if (viewScopeProxyMap != null)
         {
             ViewScopeProviderFactory factory = ViewScopeProviderFactory.getViewScopeHandlerFactory(
                 context.getExternalContext());
             ViewScopeProvider handler = factory.getViewScopeHandler(context.getExternalContext());
-            viewCollection.put(context, serializeView(context, serializedView), nextKey, key,
+            discarded = viewCollection.put(context, storeView(context, serializedView), nextKey, key,
                     handler, viewScopeProxyMap.getViewScopeId());
         }
         else
         {
-            viewCollection.put(context, serializeView(context, serializedView), nextKey, key);
+            discarded = viewCollection.put(context, storeView(context, serializedView), nextKey, key);
         }
+        sessionViewMetrics.put();
+        sessionViewMetrics.evict(discarded);
 
         ClientWindow clientWindow = context.getExternalContext().getClientWindow();
         if (clientWindow != null)
@@ -337,17 +527,23 @@ class ServerSideStateCacheImpl extends StateCache<Object, Object>
         {
             SerializedViewCollection viewCollection = (SerializedViewCollection) externalContext
                     .getSessionMap().get(SERIALIZED_VIEW_SESSION_ATTR);
-            if (viewCollection != null)
+            if (sequence != null)
             {
-                if (sequence != null)
+                Object state = null;
+                if (viewCollection != null)
                 {
-                    Object state = viewCollection.get(
+                    state = viewCollection.get(
                             getSessionViewStorageFactory().createSerializedViewKey(
                             context, viewId, sequence));
-                    if (state != null)
-                    {
-                        serializedView = deserializeView(state);
-                    }
+                }
+                if (state != null)
+                {
+                    sessionViewMetrics.hit();
+                    serializedView = restoreView(context, viewId, state);
+                }
+                else
+                {
+                    sessionViewMetrics.miss();
                 }
             }
             attributeMap.put(RESTORED_SERIALIZED_VIEW_REQUEST_ATTR, serializedView);
@@ -422,6 +618,63 @@ class ServerSideStateCacheImpl extends StateCache<Object, Object>
         return sequence;
     }
 
+    /**
+     * Returns the value stored in session for the state of the view: the serialized state or,
+     * if org.apache.myfaces.SERVER_STATE_DELTA is true and the view was restored in this request,
+     * the changes over the state of a previous request.
+     */
+    protected Object storeView(FacesContext context, Object serializedView)
+    {
+        if (deltaEnabled && DeltaViewState.isDeltaCapable(serializedView))
+        {
+            DeltaViewState.Base base = (DeltaViewState.Base) context.getAttributes().get(DELTA_BASE_REQUEST_ATTR);
+            if (base != null && base.getCount() < deltaRebaseInterval
+                    && base.getViewId().equals(context.getViewRoot().getViewId()))
+            {
+                Object[] delta = DeltaViewState.createDelta(base.getBaseState(), (Object[]) serializedView);
+                if (delta != null)
+                {
+                    if (log.isLoggable(Level.FINEST))
+                    {
+                        log.finest("Processing storeView - store " + ((Map) delta[1]).size() + " changed states");
+                    }
+                    return new DeltaViewState(base.getStoredBase(), serializeView(context, delta),
+                            base.getCount() + 1);
+                }
+            }
+        }
+        return serializeView(context, serializedView);
+    }
+
+    /**
+     * Returns the state of the view from the value stored in session.
+     * @see #storeView(FacesContext, Object)
+     */
+    protected Object restoreView(FacesContext context, String viewId, Object state)
+    {
+        if (state instanceof DeltaViewState)
+        {
+            DeltaViewState deltaViewState = (DeltaViewState) state;
+            Object baseState = deserializeView(deltaViewState.getBase());
+            Object delta = deserializeView(deltaViewState.getDelta());
+            if (!DeltaViewState.isDeltaCapable(baseState) || !(delta instanceof Object[]))
+            {
+                return null;
+            }
+            context.getAttributes().put(DELTA_BASE_REQUEST_ATTR, new DeltaViewState.Base(viewId, 
+                    deltaViewState.getBase(), (Object[]) baseState, deltaViewState.getCount()));
+            return DeltaViewState.applyDelta((Object[]) baseState, (Object[]) delta);
+        }
+
+        Object serializedView = deserializeView(state);
+        if (deltaEnabled && DeltaViewState.isDeltaCapable(serializedView))
+        {
+            context.getAttributes().put(DELTA_BASE_REQUEST_ATTR, 
+                    new DeltaViewState.Base(viewId, state, (Object[]) serializedView, 0));
+        }
+        return serializedView;
+    }
+
     protected Object serializeView(FacesContext context, Object serializedView)
     {
         if (log.isLoggable(Level.FINEST))
@@ -439,7 +692,15 @@ class ServerSideStateCacheImpl extends StateCache<Object, Object>
             ByteArrayOutputStream baos = new ByteArrayOutputStream(1024);
             try
             {
-                OutputStream os = baos;
+                // The flag is replaced if the state is compressed
+                baos.write(UNCOMPRESSED_FLAG);
+                ObjectOutputStream out = getSerialFactory(context).getObjectOutputStream(baos);
+                
+                out.writeObject(serializedView);
+                out.close();
+                baos.close();
+
+                byte[] bytes = baos.toByteArray();
                 if(isCompressStateInSession(context))
                 {
                     if (log.isLoggable(Level.FINEST))
@@ -447,8 +708,13 @@ class ServerSideStateCacheImpl extends StateCache<Object, Object>
                         log.finest("Processing serializeView - serialize compressed");
                     }
 
-                    os.write(COMPRESSED_FLAG);
-                    os = new GZIPOutputStream(os, 1024);
+                    ByteArrayOutputStream compressed = new ByteArrayOutputStream(Math.max(64, bytes.length / 2));
+                    compressed.write(COMPRESSED_FLAG);
+                    ExternalContext externalContext = context.getExternalContext();
+                    StateCompressors.compress(getStateCompressor(context),
+                            StateCompressors.getCompressionThreshold(externalContext),
+                            bytes, 1, bytes.length - 1, compressed);
+                    bytes = compressed.toByteArray();
                 }
                 else
                 {
@@ -456,21 +722,13 @@ class ServerSideStateCacheImpl extends StateCache<Object, Object>
                     {
                         log.finest("Processing serializeView - serialize uncompressed");
                     }
-
-                    os.write(UNCOMPRESSED_FLAG);
                 }
 
-                ObjectOutputStream out = new ObjectOutputStream(os);
-                
-                out.writeObject(serializedView);
-                out.close();
-                baos.close();
-
                 if (log.isLoggable(Level.FINEST))
                 {
-                    log.finest("Exiting serializeView - serialized. Bytes : " + baos.size());
+                    log.finest("Exiting serializeView - serialized. Bytes : " + bytes.length);
                 }
-                return baos.toByteArray();
+                return bytes;
             }
             catch (IOException e)
             {
@@ -489,6 +747,21 @@ class ServerSideStateCacheImpl extends StateCache<Object, Object>
 
     }
 
+    /**
+     * Returns the SerialFactory configured with org.apache.myfaces.SERIAL_FACTORY, so the state
+     * stored in session uses the same serialization than the state stored on client side.
+     */
+    protected SerialFactory getSerialFactory(FacesContext context)
+    {
+        SerialFactory serialFactory = null;
+        if (context != null)
+        {
+            serialFactory = (SerialFactory) context.getExternalContext().getApplicationMap()
+                    .get(StateUtils.SERIAL_FACTORY);
+        }
+        return serialFactory == null ? DEFAULT_SERIAL_FACTORY : serialFactory;
+    }
+
     /**
      * Reads the value of the <code>org.apache.myfaces.SERIALIZE_STATE_IN_SESSION</code> context parameter.
      * @see #SERIALIZE_STATE_IN_SESSION_PARAM
@@ -535,6 +808,21 @@ class ServerSideStateCacheImpl extends StateCache<Object, Object>
         return compress;
     }
 
+    /**
+     * Returns the StateCompressor configured with
+     * <code>org.apache.myfaces.STATE_COMPRESSION_CODEC_IN_SESSION</code>.
+     * @see #COMPRESSION_CODEC_IN_SESSION_PARAM
+     */
+    protected StateCompressor getStateCompressor(FacesContext context)
+    {
+        if (context == null)
+        {
+            return null;
+        }
+        return StateCompressors.getStateCompressor(context.getExternalContext(),
+                COMPRESSION_CODEC_IN_SESSION_PARAM, COMPRESSION_CODEC_IN_SESSION_PARAM_DEFAULT);
+    }
+
     protected Object deserializeView(Object state)
     {
         if (log.isLoggable(Level.FINEST))
@@ -552,16 +840,23 @@ class ServerSideStateCacheImpl extends StateCache<Object, Object>
 
             try
             {
-                ByteArrayInputStream bais = new ByteArrayInputStream((byte[]) state);
-                InputStream is = bais;
-                if(is.read() == COMPRESSED_FLAG)
+                FacesContext facesContext = FacesContext.getCurrentInstance();
+                byte[] bytes = (byte[]) state;
+                InputStream is;
+                if (bytes.length > 0 && bytes[0] == COMPRESSED_FLAG)
                 {
-                    is = new GZIPInputStream(is);
+                    ByteArrayOutputStream baos = new ByteArrayOutputStream(bytes.length * 2);
+                    StateCompressors.decompress(getStateCompressor(facesContext), bytes, 1, bytes.length - 1, baos);
+                    is = new ByteArrayInputStream(baos.toByteArray());
+                }
+                else
+                {
+                    is = new ByteArrayInputStream(bytes, 1, bytes.length - 1);
                 }
                 ObjectInputStream ois = null;
                 try
                 {
-                    final ObjectInputStream in = new MyFacesObjectInputStream(is);
+                    final ObjectInputStream in = getSerialFactory(facesContext).getObjectInputStream(is);
                     ois = in;
                     Object object = null;
                     if (System.getSecurityManager() != null) 
@@ -711,4 +1006,32 @@ class ServerSideStateCacheImpl extends StateCache<Object, Object>
     {
         return stateTokenProcessor;
     }
+
+    private static final class OffHeapViewStateStoreMetrics extends CacheMetrics
+    {
+        private final OffHeapViewStateStore store;
+
+        OffHeapViewStateStoreMetrics(OffHeapViewStateStore store)
+        {
+            this.store = store;
+        }
+
+        @Override
+        public long getEvictionCount()
+        {
+            return store.getEvictionCount();
+        }
+
+        @Override
+        public long getSize()
+        {
+            return store.getEntryCount();
+        }
+
+        @Override
+        public long getEstimatedMemory()
+        {
+            return store.getUsedBytes();
+        }
+    }
 }
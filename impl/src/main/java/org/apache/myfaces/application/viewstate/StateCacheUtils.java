@@ -19,6 +19,7 @@
 package org.apache.myfaces.application.viewstate;
 
 import javax.faces.FacesWrapper;
+import javax.faces.context.ExternalContext;
 import javax.faces.render.ResponseStateManager;
 import org.apache.myfaces.renderkit.MyfacesResponseStateManager;
 
@@ -79,4 +80,13 @@ public class StateCacheUtils
             return null;
         }
     }
+
+    /**
+     * Releases the storage used by the state caches of the application, kept out of the session.
+     */
+    public static void destroy(ExternalContext externalContext)
+    {
+        ServerSideStateCacheImpl.destroy(externalContext);
+        ExternalServerSideStateCacheImpl.destroy(externalContext);
+    }
 }
@@ -0,0 +1,112 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.myfaces.application.viewstate;
+
+import javax.faces.context.FacesContext;
+import org.apache.myfaces.spi.ViewStateStore;
+
+/**
+ * ViewStateStore that spreads the views over independent stores, so requests of different
+ * sessions do not wait on the lock of a single store.
+ *
+ * <p>All the views of a session go to the same stripe, chosen by the session id. The number of
+ * the stripe is part of the id returned, so the view can be loaded or removed without a
+ * session or a FacesContext.</p>
+ */
+class StripedViewStateStore extends ViewStateStore
+{
+    private static final char SEPARATOR = '.';
+
+    private final ViewStateStore[] _stripes;
+
+    public StripedViewStateStore(ViewStateStore[] stripes)
+    {
+        if (stripes.length == 0)
+        {
+            throw new IllegalArgumentException("At least one stripe is required");
+        }
+        _stripes = stripes;
+    }
+
+    @Override
+    public String store(FacesContext facesContext, byte[] state)
+    {
+        int stripe = getStripe(facesContext);
+        String id = _stripes[stripe].store(facesContext, state);
+        return id == null ? null : Integer.toString(stripe, Character.MAX_RADIX) + SEPARATOR + id;
+    }
+
+    @Override
+    public byte[] load(FacesContext facesContext, String id)
+    {
+        int separator = id.indexOf(SEPARATOR);
+        ViewStateStore store = getStripe(id, separator);
+        return store == null ? null : store.load(facesContext, id.substring(separator + 1));
+    }
+
+    @Override
+    public void remove(FacesContext facesContext, String id)
+    {
+        int separator = id.indexOf(SEPARATOR);
+        ViewStateStore store = getStripe(id, separator);
+        if (store != null)
+        {
+            store.remove(facesContext, id.substring(separator + 1));
+        }
+    }
+
+    @Override
+    public void close()
+    {
+        for (ViewStateStore stripe : _stripes)
+        {
+            stripe.close();
+        }
+    }
+
+    ViewStateStore[] getStripes()
+    {
+        return _stripes;
+    }
+
+    private int getStripe(FacesContext facesContext)
+    {
+        String sessionId = facesContext == null ? null : facesContext.getExternalContext().getSessionId(false);
+        int hash = sessionId == null ? (int) Thread.currentThread().getId() : sessionId.hashCode();
+        return (hash & Integer.MAX_VALUE) % _stripes.length;
+    }
+
+    private ViewStateStore getStripe(String id, int separator)
+    {
+        if (separator <= 0)
+        {
+            return null;
+        }
+        try
+        {
+            int stripe = Integer.parseInt(id.substring(0, separator), Character.MAX_RADIX);
+            // The number of stripes could have changed since the id was stored
+            return stripe >= 0 && stripe < _stripes.length ? _stripes[stripe] : null;
+        }
+        catch (NumberFormatException e)
+        {
+            return null;
+        }
+    }
+}
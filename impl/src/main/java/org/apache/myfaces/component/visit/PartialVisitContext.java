@@ -96,8 +96,9 @@ public class PartialVisitContext extends VisitContext
     //    particular component is in the visit set (ie. to
     //    avoid having to compute the client id).
     // 3. subtreeClientIds: contains client ids to visit broken
-    //    out by naming container subtree.  (Needed by
-    //    getSubtreeIdsToVisit()).
+    //    out by naming container subtree, as a tree with one level
+    //    per client id segment.  getSubtreeIdsToVisit() walks it
+    //    with one lookup per segment of the container client id.
     // 4. unvisitedClientIds: contains the client ids to visit that
     //    have not yet been visited.
     //
@@ -113,7 +114,7 @@ public class PartialVisitContext extends VisitContext
     _ids = new HashSet<String>();
 
     // Intialize subtreeClientIds collection
-    _subtreeClientIds = new HashMap<String, Collection<String>>();
+    _subtreeClientIds = new SubtreeNode();
 
     // Initialize the clientIds collection.  Note that we proxy 
     // this collection so that we can trap adds/removes and sync 
@@ -176,15 +177,15 @@ public class PartialVisitContext extends VisitContext
     }
 
     String clientId = component.getClientId(getFacesContext());
-    Collection<String> ids = _subtreeClientIds.get(clientId);
+    SubtreeNode subtree = _getSubtree(clientId);
 
-    if (ids == null)
+    if (subtree == null)
     {
         return Collections.emptyList();
     }
     else
     {
-        return Collections.unmodifiableCollection(ids);
+        return Collections.unmodifiableCollection(subtree.clientIds);
     }
   }
 
@@ -314,63 +315,110 @@ public class PartialVisitContext extends VisitContext
   }
 
 
-  // Given a single client id, populate the subtree map with all possible
-  // subtree client ids
+  // Given a single client id, add it to the subtree of each ancestor
+  // NamingContainer client id
   private void _addSubtreeClientId(String clientId)
   {
-    // Loop over the client id and find the substring corresponding to
-    // each ancestor NamingContainer client id.  For each ancestor
-    // NamingContainer, add an entry into the map for the full client
-    // id.
+    // Walk down the tree one segment at a time.  Each separator ends
+    // the client id of an ancestor NamingContainer, whose node gets the
+    // client id to visit.
     final char separator = getFacesContext().getNamingContainerSeparatorChar();
-    
+
+    SubtreeNode node = _subtreeClientIds;
+    int start = 0;
+
+    for (int i = clientId.indexOf(separator); i >= 0; i = clientId.indexOf(separator, start))
+    {
+      node = node.addChild(clientId.substring(start, i));
+      node.clientIds.add(clientId);
+      start = i + 1;
+    }
+  }
+
+  // Given a single client id, remove it from the subtrees it was
+  // added to, dropping the subtrees left without client ids
+  private void _removeSubtreeClientId(String clientId)
+  {
+    final char separator = getFacesContext().getNamingContainerSeparatorChar();
+
+    SubtreeNode node = _subtreeClientIds;
+    int start = 0;
+
+    for (int i = clientId.indexOf(separator); i >= 0; i = clientId.indexOf(separator, start))
+    {
+      String segment = clientId.substring(start, i);
+      SubtreeNode child = node.getChild(segment);
+      if (child == null || !child.clientIds.remove(clientId))
+      {
+        return;
+      }
+      if (child.clientIds.isEmpty())
+      {
+        // The nodes below only hold client ids also held by this one
+        node.children.remove(segment);
+        return;
+      }
+      node = child;
+      start = i + 1;
+    }
+  }
+
+  // Returns the subtree of the NamingContainer with the given client id,
+  // or null if there are no client ids to visit inside it.  Takes one
+  // lookup per segment of the client id.
+  private SubtreeNode _getSubtree(String clientId)
+  {
+    final char separator = getFacesContext().getNamingContainerSeparatorChar();
+
+    SubtreeNode node = _subtreeClientIds;
+    int start = 0;
     int length = clientId.length();
 
-    for (int i = 0; i < length; i++)
+    while (node != null)
     {
-      if (clientId.charAt(i) == separator)
+      int end = clientId.indexOf(separator, start);
+      if (end < 0)
+      {
+        end = length;
+      }
+      node = node.getChild(clientId.substring(start, end));
+      if (end == length)
       {
-        // We found an ancestor NamingContainer client id - add 
-        // an entry to the map.
-        String namingContainerClientId = clientId.substring(0, i);
-
-        // Check to see whether we've already ids under this
-        // NamingContainer client id.  If not, create the 
-        // Collection for this NamingContainer client id and
-        // stash it away in our map
-        Collection<String> c = _subtreeClientIds.get(namingContainerClientId);
-
-        if (c == null)
-        {
-          // TODO: smarter initial size?
-          c = new ArrayList<String>();
-          _subtreeClientIds.put(namingContainerClientId, c);
-        }
-
-        // Stash away the client id
-        c.add(clientId);
+        return node;
       }
+      start = end + 1;
     }
+
+    return null;
   }
 
-  // Given a single client id, remove any entries corresponding
-  // entries from our subtree collections
-  private void _removeSubtreeClientId(String clientId)
+  // Node of the tree of client ids to visit, keyed by client id segment.
+  // The path from the root to a node spells the client id of a
+  // NamingContainer, and the node holds the client ids to visit inside it.
+  private static final class SubtreeNode
   {
-    // Loop through each entry in the map and check to see whether
-    // the client id to remove should be contained in the corresponding
-    // collection - ie. whether the key (the NamingContainer client id)
-    // is present at the start of the client id to remove.
-    for (String key : _subtreeClientIds.keySet())
+    private final Collection<String> clientIds = new ArrayList<String>(4);
+
+    private Map<String, SubtreeNode> children;
+
+    private SubtreeNode getChild(String segment)
+    {
+      return children == null ? null : children.get(segment);
+    }
+
+    private SubtreeNode addChild(String segment)
     {
-      if (clientId.startsWith(key))
+      if (children == null)
+      {
+        children = new HashMap<String, SubtreeNode>(4);
+      }
+      SubtreeNode child = children.get(segment);
+      if (child == null)
       {
-        // If the clientId starts with the key, we should
-        // have an entry for this clientId in the corresponding
-        // collection.  Remove it.
-        Collection<String> ids = _subtreeClientIds.get(key);
-        ids.remove(clientId);
+        child = new SubtreeNode();
+        children.put(segment, child);
       }
+      return child;
     }
   }
 
@@ -457,11 +505,10 @@ public class PartialVisitContext extends VisitContext
   // The client ids that have yet to be visited
   private final Collection<String> _unvisitedClientIds;
 
-  // This map contains the information needed by getIdsToVisit().
-  // The keys in this map are NamingContainer client ids.  The values
-  // are collections containing all of the client ids to visit within
-  // corresponding naming container.
-  private final Map<String,Collection<String>> _subtreeClientIds;
+  // This tree contains the information needed by getSubtreeIdsToVisit().
+  // Each node stands for a NamingContainer client id and holds all of
+  // the client ids to visit within the corresponding naming container.
+  private final SubtreeNode _subtreeClientIds;
 
   // The FacesContext for this request
   private final FacesContext _facesContext;
@@ -40,6 +40,7 @@ import javax.faces.render.RenderKitFactory;
 
 import org.apache.myfaces.context.ReleaseableExternalContext;
 import org.apache.myfaces.el.unified.FacesELContext;
+import org.apache.myfaces.shared.util.CharChunkPool;
 
 /**
  * Provides a base implementation of the FacesContext for the use
@@ -135,6 +136,8 @@ public abstract class FacesContextImplBase extends FacesContext
         // added entries before nullifying everything)
         if (_attributes != null)
         {
+            // Give back the buffers used to render the response
+            CharChunkPool.release(_attributes);
             _attributes.clear();
             _attributes = null;
         }
@@ -92,6 +92,9 @@ public class LifecycleImpl extends Lifecycle
     //private PhaseListener[] _phaseListenerArray = null;
     
     private ClientWindowFactory clientWindowFactory;
+
+    private volatile boolean _profilerInitialized = false;
+    private LifecycleProfiler _profiler;
     
     public LifecycleImpl()
     {
@@ -137,11 +140,30 @@ public class LifecycleImpl extends Lifecycle
             }
             
             PhaseListenerManager phaseListenerMgr = new PhaseListenerManager(this, facesContext, getPhaseListeners());
+            LifecycleProfiler profiler = getProfiler(facesContext);
             for (PhaseExecutor executor : lifecycleExecutors)
             {
-                if (executePhase(facesContext, executor, phaseListenerMgr))
+                if (profiler == null)
                 {
-                    return;
+                    if (executePhase(facesContext, executor, phaseListenerMgr))
+                    {
+                        return;
+                    }
+                }
+                else
+                {
+                    profiler.enterPhase(facesContext);
+                    try
+                    {
+                        if (executePhase(facesContext, executor, phaseListenerMgr))
+                        {
+                            return;
+                        }
+                    }
+                    finally
+                    {
+                        profiler.exitPhase(facesContext, executor.getPhase());
+                    }
                 }
             }
         //}
@@ -246,6 +268,11 @@ public class LifecycleImpl extends Lifecycle
     
             PhaseListenerManager phaseListenerMgr = new PhaseListenerManager(this, facesContext, getPhaseListeners());
             Flash flash = facesContext.getExternalContext().getFlash();
+            LifecycleProfiler profiler = getProfiler(facesContext);
+            if (profiler != null)
+            {
+                profiler.enterPhase(facesContext);
+            }
             
             try
             {
@@ -281,6 +308,11 @@ public class LifecycleImpl extends Lifecycle
                 // publish a field in the application map to indicate
                 // that the first request has been processed
                 requestProcessed(facesContext);
+
+                if (profiler != null)
+                {
+                    profiler.exitPhase(facesContext, renderExecutor.getPhase());
+                }
             }
             
             facesContext.getExceptionHandler().handle();
@@ -303,6 +335,19 @@ public class LifecycleImpl extends Lifecycle
         //}
     }
 
+    /**
+     * The profiler is installed on startup, so it is looked up once.
+     */
+    private LifecycleProfiler getProfiler(FacesContext facesContext)
+    {
+        if (!_profilerInitialized)
+        {
+            _profiler = LifecycleProfiler.getInstance(facesContext.getExternalContext());
+            _profilerInitialized = true;
+        }
+        return _profiler;
+    }
+
     private boolean isResponseComplete(FacesContext facesContext, PhaseId phase, boolean before)
     {
         boolean flag = false;
@@ -0,0 +1,654 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.myfaces.lifecycle;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.faces.FactoryFinder;
+import javax.faces.application.Application;
+import javax.faces.component.UIComponent;
+import javax.faces.component.UIViewRoot;
+import javax.faces.context.ExternalContext;
+import javax.faces.context.FacesContext;
+import javax.faces.event.AbortProcessingException;
+import javax.faces.event.PhaseId;
+import javax.faces.event.PostValidateEvent;
+import javax.faces.event.PreValidateEvent;
+import javax.faces.event.SystemEvent;
+import javax.faces.event.SystemEventListener;
+import javax.faces.render.RenderKit;
+import javax.faces.render.RenderKitFactory;
+import javax.faces.render.Renderer;
+import javax.faces.render.RendererWrapper;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.apache.myfaces.buildtools.maven2.plugin.builder.annotation.JSFWebConfigParam;
+import org.apache.myfaces.shared.util.WebConfigParamUtils;
+
+/**
+ * Records the time spent, and the bytes allocated when the JVM supports it, on each lifecycle phase
+ * per view and on each component per phase and component type.
+ * 
+ * <p>Phases are measured by LifecycleImpl. Components are measured by wrapping the renderers of the
+ * render kits (encode and decode) and listening to PreValidateEvent/PostValidateEvent (validation),
+ * so components without a renderer are included in the time of their parent. The update model phase
+ * is only measured per view. Besides the total time, the self time excludes the time of the nested
+ * components.</p>
+ * 
+ * <p>The aggregated timings are available through JMX, as org.apache.myfaces:type=LifecycleProfiler.
+ * When the profiler is not enabled nothing is installed.</p>
+ *
+ * @since 2.3.3
+ */
+public class LifecycleProfiler implements LifecycleProfilerMBean
+{
+    private static final Logger log = Logger.getLogger(LifecycleProfiler.class.getName());
+
+    /**
+     * Record the time spent on each lifecycle phase per view and on each component per component type. The
+     * timings are available through JMX. This has a cost on every request, so it is not intended for
+     * production use.
+     */
+    @JSFWebConfigParam(since = "2.3.3", defaultValue = "false", expectedValues = "true, false",
+            group = "lifecycle", tags = "performance")
+    public static final String INIT_PARAM_LIFECYCLE_PROFILER_ENABLED = "org.apache.myfaces.LIFECYCLE_PROFILER_ENABLED";
+
+    private static final String INSTANCE = "oam.LifecycleProfiler";
+
+    private static final String FRAMES = "oam.LifecycleProfiler.FRAMES";
+
+    private static final int PHASES = PhaseId.VALUES.size();
+
+    private final ConcurrentHashMap<Class<?>, Statistics>[] _componentStatistics;
+    private final ConcurrentHashMap<String, Statistics[]> _viewStatistics =
+            new ConcurrentHashMap<String, Statistics[]>();
+    private final LongAdder _requestCount = new LongAdder();
+    private final AllocationCounter _allocationCounter;
+    private ObjectName _objectName;
+
+    @SuppressWarnings("unchecked")
+    LifecycleProfiler()
+    {
+        _componentStatistics = new ConcurrentHashMap[PHASES];
+        for (int i = 0; i < PHASES; i++)
+        {
+            _componentStatistics[i] = new ConcurrentHashMap<Class<?>, Statistics>();
+        }
+        _allocationCounter = AllocationCounter.create();
+    }
+
+    /**
+     * Installs the profiler, if it has been enabled.
+     */
+    public static void initialize(FacesContext facesContext)
+    {
+        ExternalContext externalContext = facesContext.getExternalContext();
+        if (!WebConfigParamUtils.getBooleanInitParameter(externalContext, INIT_PARAM_LIFECYCLE_PROFILER_ENABLED,
+                false))
+        {
+            return;
+        }
+
+        LifecycleProfiler profiler = new LifecycleProfiler();
+        profiler.wrapRenderers();
+
+        Application application = facesContext.getApplication();
+        SystemEventListener listener = new ValidateListener(profiler);
+        application.subscribeToEvent(PreValidateEvent.class, listener);
+        application.subscribeToEvent(PostValidateEvent.class, listener);
+
+        profiler.register(externalContext);
+        externalContext.getApplicationMap().put(INSTANCE, profiler);
+
+        log.warning("Lifecycle profiler enabled. It has a cost on every request, " +
+                "do not use it on a live server.");
+    }
+
+    public static void destroy(ExternalContext externalContext)
+    {
+        LifecycleProfiler profiler = (LifecycleProfiler) externalContext.getApplicationMap().remove(INSTANCE);
+        if (profiler != null)
+        {
+            log.info("Lifecycle profiler timings:\n" + profiler.dump());
+            profiler.unregister();
+        }
+    }
+
+    /**
+     * Returns the profiler, or null if it is not enabled.
+     */
+    public static LifecycleProfiler getInstance(ExternalContext externalContext)
+    {
+        return (LifecycleProfiler) externalContext.getApplicationMap().get(INSTANCE);
+    }
+
+    private void wrapRenderers()
+    {
+        RenderKitFactory factory = (RenderKitFactory) FactoryFinder.getFactory(FactoryFinder.RENDER_KIT_FACTORY);
+        FacesContext facesContext = FacesContext.getCurrentInstance();
+        for (Iterator<String> ids = factory.getRenderKitIds(); ids.hasNext();)
+        {
+            RenderKit renderKit = factory.getRenderKit(facesContext, ids.next());
+            List<String> families = new ArrayList<String>();
+            for (Iterator<String> it = renderKit.getComponentFamilies(); it.hasNext();)
+            {
+                families.add(it.next());
+            }
+            for (String family : families)
+            {
+                List<String> rendererTypes = new ArrayList<String>();
+                for (Iterator<String> it = renderKit.getRendererTypes(family); it.hasNext();)
+                {
+                    rendererTypes.add(it.next());
+                }
+                for (String rendererType : rendererTypes)
+                {
+                    Renderer renderer = renderKit.getRenderer(family, rendererType);
+                    if (renderer != null && !(renderer instanceof ProfilingRenderer))
+                    {
+                        renderKit.addRenderer(family, rendererType, new ProfilingRenderer(renderer, this));
+                    }
+                }
+            }
+        }
+    }
+
+    private void register(ExternalContext externalContext)
+    {
+        try
+        {
+            String contextPath = externalContext.getApplicationContextPath();
+            ObjectName objectName = new ObjectName("org.apache.myfaces:type=LifecycleProfiler,context=" +
+                    ObjectName.quote(contextPath == null || contextPath.length() == 0 ? "/" : contextPath));
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            if (!server.isRegistered(objectName))
+            {
+                server.registerMBean(this, objectName);
+                _objectName = objectName;
+            }
+        }
+        catch (Exception e)
+        {
+            log.log(Level.WARNING, "Lifecycle profiler could not be registered in JMX", e);
+        }
+    }
+
+    private void unregister()
+    {
+        if (_objectName != null)
+        {
+            try
+            {
+                ManagementFactory.getPlatformMBeanServer().unregisterMBean(_objectName);
+            }
+            catch (Exception e)
+            {
+                log.log(Level.FINE, "Lifecycle profiler could not be unregistered from JMX", e);
+            }
+            _objectName = null;
+        }
+    }
+
+    /**
+     * Starts the measure of a phase. The measures of components left open by an exception on the previous
+     * phase are discarded.
+     */
+    public void enterPhase(FacesContext facesContext)
+    {
+        Frames frames = getFrames(facesContext);
+        frames.depth = 0;
+        frames.push(System.nanoTime(), _allocationCounter.getAllocatedBytes());
+    }
+
+    public void exitPhase(FacesContext facesContext, PhaseId phaseId)
+    {
+        Frames frames = getFrames(facesContext);
+        if (frames.depth == 0)
+        {
+            return;
+        }
+        frames.depth = 1;
+        long nanos = frames.pop(System.nanoTime());
+        long allocated = frames.allocated;
+
+        UIViewRoot viewRoot = facesContext.getViewRoot();
+        String viewId = viewRoot == null || viewRoot.getViewId() == null ? "-" : viewRoot.getViewId();
+        Statistics[] statistics = _viewStatistics.get(viewId);
+        if (statistics == null)
+        {
+            statistics = new Statistics[PHASES];
+            for (int i = 0; i < PHASES; i++)
+            {
+                statistics[i] = new Statistics();
+            }
+            Statistics[] previous = _viewStatistics.putIfAbsent(viewId, statistics);
+            if (previous != null)
+            {
+                statistics = previous;
+            }
+        }
+        statistics[phaseId.getOrdinal()].add(nanos, frames.self, _allocationCounter.getAllocatedBytes() - allocated);
+        if (phaseId == PhaseId.RENDER_RESPONSE)
+        {
+            _requestCount.increment();
+        }
+    }
+
+    /**
+     * Starts the measure of a component.
+     */
+    public void enter(FacesContext facesContext)
+    {
+        getFrames(facesContext).push(System.nanoTime(), _allocationCounter.getAllocatedBytes());
+    }
+
+    /**
+     * Ends the measure of a component, started by the last call to enter.
+     */
+    public void exit(FacesContext facesContext, UIComponent component)
+    {
+        Frames frames = getFrames(facesContext);
+        if (frames.depth <= 1)
+        {
+            // Not inside a phase, or unbalanced
+            return;
+        }
+        long nanos = frames.pop(System.nanoTime());
+        long allocated = _allocationCounter.getAllocatedBytes() - frames.allocated;
+
+        PhaseId phaseId = facesContext.getCurrentPhaseId();
+        ConcurrentHashMap<Class<?>, Statistics> map =
+                _componentStatistics[phaseId == null ? 0 : phaseId.getOrdinal()];
+        Statistics statistics = map.get(component.getClass());
+        if (statistics == null)
+        {
+            statistics = new Statistics();
+            Statistics previous = map.putIfAbsent(component.getClass(), statistics);
+            if (previous != null)
+            {
+                statistics = previous;
+            }
+        }
+        statistics.add(nanos, frames.self, allocated);
+    }
+
+    Statistics getComponentStatistics(PhaseId phaseId, Class<?> componentType)
+    {
+        return _componentStatistics[phaseId.getOrdinal()].get(componentType);
+    }
+
+    private static Frames getFrames(FacesContext facesContext)
+    {
+        Map<Object, Object> attributes = facesContext.getAttributes();
+        Frames frames = (Frames) attributes.get(FRAMES);
+        if (frames == null)
+        {
+            frames = new Frames();
+            attributes.put(FRAMES, frames);
+        }
+        return frames;
+    }
+
+    @Override
+    public String dump()
+    {
+        StringBuilder sb = new StringBuilder(4096);
+        try
+        {
+            dump(sb);
+        }
+        catch (IOException e)
+        {
+            // StringBuilder does not throw IOException
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Writes the timings sorted by self time, the most expensive first.
+     */
+    public void dump(Appendable out) throws IOException
+    {
+        List<Row> rows = new ArrayList<Row>();
+        for (int i = 0; i < PHASES; i++)
+        {
+            for (Map.Entry<Class<?>, Statistics> entry : _componentStatistics[i].entrySet())
+            {
+                rows.add(new Row(PhaseId.VALUES.get(i).getName(), entry.getKey().getName(), entry.getValue()));
+            }
+        }
+        out.append("Components (").append(Long.toString(_requestCount.sum())).append(" requests)\n");
+        appendRows(out, "Phase", "Component type", rows);
+
+        rows.clear();
+        for (Map.Entry<String, Statistics[]> entry : _viewStatistics.entrySet())
+        {
+            for (int i = 0; i < PHASES; i++)
+            {
+                if (entry.getValue()[i].count.sum() > 0)
+                {
+                    rows.add(new Row(PhaseId.VALUES.get(i).getName(), entry.getKey(), entry.getValue()[i]));
+                }
+            }
+        }
+        out.append("\nViews\n");
+        appendRows(out, "Phase", "View", rows);
+    }
+
+    private void appendRows(Appendable out, String firstTitle, String secondTitle, List<Row> rows)
+            throws IOException
+    {
+        Collections.sort(rows, Row.BY_SELF_TIME);
+        String format = "%-20s %-60s %10s %12s %12s %10s %14s%n";
+        out.append(String.format(format, firstTitle, secondTitle, "Count", "Total ms", "Self ms", "Max ms",
+                _allocationCounter.isSupported() ? "Allocated KB" : ""));
+        for (int i = 0, size = rows.size(); i < size; i++)
+        {
+            Row row = rows.get(i);
+            Statistics s = row.statistics;
+            out.append(String.format(format, row.first, row.second, s.count.sum(),
+                    millis(s.totalNanos.sum()), millis(s.selfNanos.sum()), millis(s.maxNanos.get()),
+                    _allocationCounter.isSupported() ? Long.toString(s.allocatedBytes.sum() / 1024) : ""));
+        }
+    }
+
+    private static String millis(long nanos)
+    {
+        return String.format("%.3f", nanos / 1000000.0);
+    }
+
+    @Override
+    public void reset()
+    {
+        for (int i = 0; i < PHASES; i++)
+        {
+            _componentStatistics[i].clear();
+        }
+        _viewStatistics.clear();
+        _requestCount.reset();
+    }
+
+    @Override
+    public long getRequestCount()
+    {
+        return _requestCount.sum();
+    }
+
+    @Override
+    public boolean isAllocationSupported()
+    {
+        return _allocationCounter.isSupported();
+    }
+
+    /**
+     * Aggregated measures of a phase and component type, or of a phase and view.
+     */
+    static final class Statistics
+    {
+        final LongAdder count = new LongAdder();
+        final LongAdder totalNanos = new LongAdder();
+        final LongAdder selfNanos = new LongAdder();
+        final LongAccumulator maxNanos = new LongAccumulator(Math::max, 0);
+        final LongAdder allocatedBytes = new LongAdder();
+
+        void add(long nanos, long self, long allocated)
+        {
+            count.increment();
+            totalNanos.add(nanos);
+            selfNanos.add(self);
+            maxNanos.accumulate(nanos);
+            allocatedBytes.add(allocated);
+        }
+    }
+
+    private static final class Row
+    {
+        static final Comparator<Row> BY_SELF_TIME = new Comparator<Row>()
+        {
+            @Override
+            public int compare(Row o1, Row o2)
+            {
+                return Long.compare(o2.statistics.selfNanos.sum(), o1.statistics.selfNanos.sum());
+            }
+        };
+
+        final String first;
+        final String second;
+        final Statistics statistics;
+
+        Row(String first, String second, Statistics statistics)
+        {
+            this.first = first;
+            this.second = second;
+            this.statistics = statistics;
+        }
+    }
+
+    /**
+     * The open measures of a request. The time of a nested measure is added to its parent, so the
+     * self time of the parent can be calculated when it ends.
+     */
+    static final class Frames
+    {
+        private long[] start = new long[32];
+        private long[] startAllocated = new long[32];
+        private long[] nested = new long[32];
+        private int depth;
+
+        // Results of the last pop
+        long self;
+        long allocated;
+
+        void push(long now, long allocatedBytes)
+        {
+            if (depth == start.length)
+            {
+                start = Arrays.copyOf(start, depth * 2);
+                startAllocated = Arrays.copyOf(startAllocated, depth * 2);
+                nested = Arrays.copyOf(nested, depth * 2);
+            }
+            start[depth] = now;
+            startAllocated[depth] = allocatedBytes;
+            nested[depth] = 0;
+            depth++;
+        }
+
+        /**
+         * Returns the total time of the last measure.
+         */
+        long pop(long now)
+        {
+            depth--;
+            long total = now - start[depth];
+            self = total - nested[depth];
+            allocated = startAllocated[depth];
+            if (depth > 0)
+            {
+                nested[depth - 1] += total;
+            }
+            return total;
+        }
+    }
+
+    /**
+     * Measures the encode and decode of the components rendered by a renderer.
+     */
+    static final class ProfilingRenderer extends RendererWrapper
+    {
+        private final LifecycleProfiler profiler;
+
+        ProfilingRenderer(Renderer delegate, LifecycleProfiler profiler)
+        {
+            super(delegate);
+            this.profiler = profiler;
+        }
+
+        @Override
+        public void decode(FacesContext context, UIComponent component)
+        {
+            profiler.enter(context);
+            try
+            {
+                super.decode(context, component);
+            }
+            finally
+            {
+                profiler.exit(context, component);
+            }
+        }
+
+        @Override
+        public void encodeBegin(FacesContext context, UIComponent component) throws IOException
+        {
+            profiler.enter(context);
+            boolean completed = false;
+            try
+            {
+                super.encodeBegin(context, component);
+                completed = true;
+            }
+            finally
+            {
+                // encodeEnd ends the measure, but it is not called if encodeBegin fails
+                if (!completed)
+                {
+                    profiler.exit(context, component);
+                }
+            }
+        }
+
+        @Override
+        public void encodeEnd(FacesContext context, UIComponent component) throws IOException
+        {
+            try
+            {
+                super.encodeEnd(context, component);
+            }
+            finally
+            {
+                profiler.exit(context, component);
+            }
+        }
+    }
+
+    /**
+     * Measures the validation of the components.
+     */
+    static final class ValidateListener implements SystemEventListener
+    {
+        private final LifecycleProfiler profiler;
+
+        ValidateListener(LifecycleProfiler profiler)
+        {
+            this.profiler = profiler;
+        }
+
+        @Override
+        public void processEvent(SystemEvent event) throws AbortProcessingException
+        {
+            FacesContext facesContext = FacesContext.getCurrentInstance();
+            if (event instanceof PreValidateEvent)
+            {
+                profiler.enter(facesContext);
+            }
+            else
+            {
+                profiler.exit(facesContext, (UIComponent) event.getSource());
+            }
+        }
+
+        @Override
+        public boolean isListenerForSource(Object source)
+        {
+            return source instanceof UIComponent;
+        }
+    }
+
+    /**
+     * Bytes allocated by the current thread, if the JVM supports it.
+     */
+    static class AllocationCounter
+    {
+        static AllocationCounter create()
+        {
+            try
+            {
+                java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+                if (bean instanceof com.sun.management.ThreadMXBean)
+                {
+                    com.sun.management.ThreadMXBean sunBean = (com.sun.management.ThreadMXBean) bean;
+                    if (sunBean.isThreadAllocatedMemorySupported() && sunBean.isThreadAllocatedMemoryEnabled())
+                    {
+                        return new ThreadAllocationCounter(sunBean);
+                    }
+                }
+            }
+            catch (Throwable e)
+            {
+                // com.sun.management is not available
+            }
+            return new AllocationCounter();
+        }
+
+        long getAllocatedBytes()
+        {
+            return 0;
+        }
+
+        boolean isSupported()
+        {
+            return false;
+        }
+    }
+
+    static final class ThreadAllocationCounter extends AllocationCounter
+    {
+        private final com.sun.management.ThreadMXBean bean;
+
+        ThreadAllocationCounter(com.sun.management.ThreadMXBean bean)
+        {
+            this.bean = bean;
+        }
+
+        @Override
+        long getAllocatedBytes()
+        {
+            return bean.getThreadAllocatedBytes(Thread.currentThread().getId());
+        }
+
+        @Override
+        boolean isSupported()
+        {
+            return true;
+        }
+    }
+}
@@ -95,6 +95,13 @@ public class EarlyFlushHtmlResponseWriterImpl extends HtmlResponseWriterImpl
             if (!facesContext.getPartialViewContext().isAjaxRequest() &&
                 !facesContext.getPartialViewContext().isPartialRequest())
             {
+                // The flush commits the response, so the session used to save the view
+                // state must be created before.
+                if (facesContext.getViewRoot() != null && !facesContext.getViewRoot().isTransient() &&
+                    !facesContext.getApplication().getStateManager().isSavingStateInClient(facesContext))
+                {
+                    facesContext.getExternalContext().getSession(true);
+                }
                 forceFlush();
             }
         }
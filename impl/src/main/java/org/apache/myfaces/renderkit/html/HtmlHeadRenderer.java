@@ -19,19 +19,29 @@
 package org.apache.myfaces.renderkit.html;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 import javax.faces.application.ProjectStage;
+import javax.faces.application.Resource;
+import javax.faces.application.ResourceHandler;
+import javax.faces.application.ResourceHandlerWrapper;
 import javax.faces.component.UIComponent;
 import javax.faces.component.UIViewRoot;
 import javax.faces.context.FacesContext;
 import javax.faces.context.ResponseWriter;
 import javax.faces.render.Renderer;
 
+import org.apache.myfaces.application.ResourceHandlerImpl;
 import org.apache.myfaces.buildtools.maven2.plugin.builder.annotation.JSFRenderer;
 import org.apache.myfaces.shared.config.MyfacesConfig;
+import org.apache.myfaces.shared.renderkit.JSFAttr;
 import org.apache.myfaces.shared.renderkit.html.HTML;
 import org.apache.myfaces.shared.renderkit.html.HtmlRendererUtils;
+import org.apache.myfaces.shared.renderkit.html.util.ResourceUtils;
 
 /**
  * Renderer used by h:head component
@@ -76,18 +86,171 @@ public class HtmlHeadRenderer extends Renderer
         UIViewRoot root = facesContext.getViewRoot();
         List<UIComponent> componentResources = root.getComponentResources(facesContext,
                 HEAD_TARGET);
+        MyfacesConfig config = MyfacesConfig.getCurrentInstance(facesContext.getExternalContext());
+        ResourceHandlerImpl resourceHandlerImpl = null;
+        if (config.isResourceBundlingEnabled() && facesContext.isProjectStage(ProjectStage.Production))
+        {
+            resourceHandlerImpl = getResourceHandlerImpl(facesContext);
+        }
         
         for (int i = 0, childCount = componentResources.size(); i < childCount; i++)
         {
             UIComponent child = componentResources.get(i);
+            if (resourceHandlerImpl != null && isBundleable(child, child.getRendererType()))
+            {
+                int end = i + 1;
+                while (end < childCount && isBundleable(componentResources.get(end), child.getRendererType()))
+                {
+                    end++;
+                }
+                if (end - i > 1 && encodeBundle(facesContext, resourceHandlerImpl,
+                        componentResources.subList(i, end)))
+                {
+                    i = end - 1;
+                    continue;
+                }
+            }
             child.encodeAll(facesContext);
         }
         writer.endElement(HEAD_ELEM);
 
-        if (MyfacesConfig.getCurrentInstance(facesContext.getExternalContext()).isEarlyFlushEnabled() &&
-                facesContext.isProjectStage(ProjectStage.Production))
+        if (config.isEarlyFlushEnabled() && facesContext.isProjectStage(ProjectStage.Production))
         {
             writer.flush();
         }
     }
+
+    /**
+     * Only the resources whose rendering is just a reference to the resource can be bundled.
+     */
+    private static boolean isBundleable(UIComponent component, String rendererType)
+    {
+        if (!ResourceUtils.DEFAULT_SCRIPT_RENDERER_TYPE.equals(rendererType) &&
+            !ResourceUtils.DEFAULT_STYLESHEET_RENDERER_TYPE.equals(rendererType))
+        {
+            return false;
+        }
+        if (!rendererType.equals(component.getRendererType()) || !component.isRendered() ||
+            component.getChildCount() > 0)
+        {
+            return false;
+        }
+        Map<String, Object> passThroughAttributes = component.getPassThroughAttributes(false);
+        if (passThroughAttributes != null && !passThroughAttributes.isEmpty())
+        {
+            return false;
+        }
+        Map<String, Object> attributes = component.getAttributes();
+        String resourceName = (String) attributes.get(JSFAttr.NAME_ATTR);
+        return resourceName != null && resourceName.length() > 0 && resourceName.indexOf('?') < 0
+                && attributes.get("media") == null;
+    }
+
+    /**
+     * Renders a reference to the bundle of the resources not rendered yet. Returns false if there is
+     * nothing to bundle or a resource cannot be bundled, so the components have to be rendered as usual.
+     */
+    private static boolean encodeBundle(FacesContext facesContext, ResourceHandlerImpl resourceHandlerImpl,
+            List<UIComponent> components) throws IOException
+    {
+        boolean script = ResourceUtils.DEFAULT_SCRIPT_RENDERER_TYPE.equals(components.get(0).getRendererType());
+        ResourceHandler resourceHandler = facesContext.getApplication().getResourceHandler();
+        List<Resource> resources = new ArrayList<Resource>(components.size());
+        Set<String> resourceIds = new HashSet<String>();
+        for (int i = 0, size = components.size(); i < size; i++)
+        {
+            Map<String, Object> attributes = components.get(i).getAttributes();
+            String resourceName = (String) attributes.get(JSFAttr.NAME_ATTR);
+            String libraryName = (String) attributes.get(JSFAttr.LIBRARY_ATTR);
+            if (isRendered(facesContext, script, libraryName, resourceName))
+            {
+                continue;
+            }
+            Resource resource = libraryName == null ? resourceHandler.createResource(resourceName) :
+                    resourceHandler.createResource(resourceName, libraryName);
+            if (resource == null)
+            {
+                return false;
+            }
+            if (!isRendered(facesContext, script, resource.getLibraryName(), resource.getResourceName()) &&
+                resourceIds.add(resource.getLibraryName() + '/' + resource.getResourceName()))
+            {
+                resources.add(resource);
+            }
+        }
+        if (resources.size() < 2)
+        {
+            return false;
+        }
+
+        Resource bundle = resourceHandlerImpl.createBundledResource(facesContext, resources);
+        if (bundle == null)
+        {
+            return false;
+        }
+
+        for (int i = 0, size = components.size(); i < size; i++)
+        {
+            Map<String, Object> attributes = components.get(i).getAttributes();
+            markAsRendered(facesContext, script, (String) attributes.get(JSFAttr.LIBRARY_ATTR),
+                    (String) attributes.get(JSFAttr.NAME_ATTR));
+        }
+        for (int i = 0, size = resources.size(); i < size; i++)
+        {
+            Resource resource = resources.get(i);
+            markAsRendered(facesContext, script, resource.getLibraryName(), resource.getResourceName());
+        }
+
+        ResponseWriter writer = facesContext.getResponseWriter();
+        String path = facesContext.getExternalContext().encodeResourceURL(bundle.getRequestPath());
+        if (script)
+        {
+            writer.startElement(HTML.SCRIPT_ELEM, null);
+            writer.writeAttribute(HTML.SCRIPT_TYPE_ATTR, HTML.SCRIPT_TYPE_TEXT_JAVASCRIPT, null);
+            writer.writeURIAttribute(HTML.SRC_ATTR, path, null);
+            writer.endElement(HTML.SCRIPT_ELEM);
+        }
+        else
+        {
+            writer.startElement(HTML.LINK_ELEM, null);
+            writer.writeAttribute(HTML.REL_ATTR, HTML.STYLESHEET_VALUE, null);
+            writer.writeAttribute(HTML.TYPE_ATTR, bundle.getContentType(), null);
+            writer.writeURIAttribute(HTML.HREF_ATTR, path, null);
+            writer.endElement(HTML.LINK_ELEM);
+        }
+        return true;
+    }
+
+    private static boolean isRendered(FacesContext facesContext, boolean script, String libraryName,
+            String resourceName)
+    {
+        return script ? ResourceUtils.isRenderedScript(facesContext, libraryName, resourceName) :
+                ResourceUtils.isRenderedStylesheet(facesContext, libraryName, resourceName);
+    }
+
+    private static void markAsRendered(FacesContext facesContext, boolean script, String libraryName,
+            String resourceName)
+    {
+        if (script)
+        {
+            ResourceUtils.markScriptAsRendered(facesContext, libraryName, resourceName);
+        }
+        else
+        {
+            ResourceUtils.markStylesheetAsRendered(facesContext, libraryName, resourceName);
+        }
+    }
+
+    /**
+     * Bundles are created by the default ResourceHandler, wrapped or not.
+     */
+    private static ResourceHandlerImpl getResourceHandlerImpl(FacesContext facesContext)
+    {
+        ResourceHandler resourceHandler = facesContext.getApplication().getResourceHandler();
+        while (resourceHandler instanceof ResourceHandlerWrapper)
+        {
+            resourceHandler = ((ResourceHandlerWrapper) resourceHandler).getWrapped();
+        }
+        return resourceHandler instanceof ResourceHandlerImpl ? (ResourceHandlerImpl) resourceHandler : null;
+    }
 }
@@ -0,0 +1,315 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.myfaces.resource;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.URL;
+import java.net.URLEncoder;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import javax.faces.application.Resource;
+import javax.faces.context.FacesContext;
+import org.apache.myfaces.shared.resource.ResourceHandlerCache.BundledResourceValue;
+import org.apache.myfaces.shared.resource.ResourceHandlerSupport;
+import org.apache.myfaces.shared.resource.ResourceLoaderUtils;
+
+/**
+ * A resource made of the content of other resources, named by the hash of that content. Since the
+ * content of a name never changes, it is sent with far-future expiration headers.
+ * <p>
+ * The request path carries the members of the bundle, so it can be built again if the url is requested
+ * when the bundle is no longer in memory, for example after a restart.
+ * </p>
+ */
+public class BundledResource extends Resource
+{
+    /**
+     * Request parameter with the members of the bundle.
+     */
+    public static final String MEMBERS_PARAM = "m";
+
+    /**
+     * More members than this are not read from a request.
+     */
+    public static final int MAX_MEMBERS = 64;
+
+    private static final long MAX_AGE = 365L * 24L * 60L * 60L;
+
+    private static final BundledResourceValue NOT_BUNDLED = new BundledResourceValue(null, null, null, 0);
+    private static final Charset ISO_8859_1 = Charset.forName("ISO-8859-1");
+    private static final String TEXT_CSS = "text/css";
+
+    private final BundledResourceValue _value;
+    private final String _members;
+    private final ResourceHandlerSupport _resourceHandlerSupport;
+    private String _requestPath;
+
+    public BundledResource(BundledResourceValue value, String libraryName, String members,
+            ResourceHandlerSupport resourceHandlerSupport)
+    {
+        _value = value;
+        _members = members;
+        _resourceHandlerSupport = resourceHandlerSupport;
+        setLibraryName(libraryName);
+        setResourceName(value.getName());
+        setContentType(value.getContentType());
+    }
+
+    @Override
+    public InputStream getInputStream()
+    {
+        return new ByteArrayInputStream(_value.getContent());
+    }
+
+    @Override
+    public String getRequestPath()
+    {
+        if (_requestPath == null)
+        {
+            String path;
+            if (_resourceHandlerSupport.isExtensionMapping())
+            {
+                path = _resourceHandlerSupport.getResourceIdentifier() + '/' +
+                    getResourceName() + _resourceHandlerSupport.getMapping();
+            }
+            else
+            {
+                String mapping = _resourceHandlerSupport.getMapping();
+                path = _resourceHandlerSupport.getResourceIdentifier() + '/' + getResourceName();
+                path = (mapping == null) ? path : mapping + path;
+            }
+            path = path + "?ln=" + getLibraryName();
+            try
+            {
+                path = path + '&' + MEMBERS_PARAM + '=' + URLEncoder.encode(_members, "UTF-8");
+            }
+            catch (UnsupportedEncodingException e)
+            {
+                throw new IllegalStateException(e);
+            }
+
+            FacesContext facesContext = FacesContext.getCurrentInstance();
+            _requestPath = facesContext.getApplication().getViewHandler().getResourceURL(facesContext, path);
+        }
+        return _requestPath;
+    }
+
+    @Override
+    public Map<String, String> getResponseHeaders()
+    {
+        FacesContext facesContext = FacesContext.getCurrentInstance();
+
+        if (facesContext.getApplication().getResourceHandler().isResourceRequest(facesContext))
+        {
+            Map<String, String> headers = new HashMap<String, String>();
+            headers.put("Last-Modified", ResourceLoaderUtils.formatDateHeader(_value.getLastModified()));
+            headers.put("Expires", ResourceLoaderUtils.formatDateHeader(
+                    System.currentTimeMillis() + MAX_AGE * 1000L));
+            headers.put("Cache-Control", "public, max-age=" + MAX_AGE + ", immutable");
+            return headers;
+        }
+        else
+        {
+            return Collections.emptyMap();
+        }
+    }
+
+    /**
+     * A bundle only exists in memory, so there is no URL for it.
+     */
+    @Override
+    public URL getURL()
+    {
+        return null;
+    }
+
+    @Override
+    public boolean userAgentNeedsUpdate(FacesContext context)
+    {
+        // The content of a bundle name never changes, any cached copy is valid.
+        return context.getExternalContext().getRequestHeaderMap().get("If-Modified-Since") == null;
+    }
+
+    /**
+     * Concatenates the content of the resources. The returned value has no content if the resources
+     * cannot be bundled: they do not share the content type, or a stylesheet has references that would
+     * be resolved against the path of the bundle.
+     */
+    public static BundledResourceValue createValue(List<Resource> resources, int bufferSize) throws IOException
+    {
+        String contentType = resources.get(0).getContentType();
+        String resourceName = resources.get(0).getResourceName();
+        int dot = resourceName == null ? -1 : resourceName.lastIndexOf('.');
+        if (contentType == null || dot < 0)
+        {
+            return NOT_BUNDLED;
+        }
+        boolean stylesheet = TEXT_CSS.equals(contentType);
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream(bufferSize);
+        byte[] buffer = new byte[bufferSize];
+        for (int i = 0, size = resources.size(); i < size; i++)
+        {
+            Resource resource = resources.get(i);
+            if (!contentType.equals(resource.getContentType()))
+            {
+                return NOT_BUNDLED;
+            }
+
+            ByteArrayOutputStream content = new ByteArrayOutputStream(bufferSize);
+            InputStream in = resource.getInputStream();
+            try
+            {
+                int length;
+                while ((length = in.read(buffer)) >= 0)
+                {
+                    content.write(buffer, 0, length);
+                }
+            }
+            finally
+            {
+                in.close();
+            }
+
+            if (stylesheet)
+            {
+                if (hasRelativeReferences(new String(content.toByteArray(), ISO_8859_1)))
+                {
+                    return NOT_BUNDLED;
+                }
+                content.writeTo(out);
+                out.write('\n');
+            }
+            else
+            {
+                // Guard against scripts not ending with a semicolon or ending with a line comment
+                content.writeTo(out);
+                out.write('\n');
+                out.write(';');
+                out.write('\n');
+            }
+        }
+
+        byte[] bundle = out.toByteArray();
+        return new BundledResourceValue(PrecompressedResourceCache.hash(bundle) + resourceName.substring(dot),
+                contentType, bundle, System.currentTimeMillis());
+    }
+
+    /**
+     * Encodes the library and resource names of the resources, or returns null if the names contain
+     * the characters used as separators.
+     */
+    public static String encodeMembers(List<Resource> resources)
+    {
+        StringBuilder sb = new StringBuilder(resources.size() * 32);
+        for (int i = 0, size = resources.size(); i < size; i++)
+        {
+            String libraryName = resources.get(i).getLibraryName();
+            String resourceName = resources.get(i).getResourceName();
+            if (resourceName == null || resourceName.indexOf(',') >= 0 || (libraryName != null
+                    && (libraryName.indexOf(',') >= 0 || libraryName.indexOf(':') >= 0)))
+            {
+                return null;
+            }
+            if (i > 0)
+            {
+                sb.append(',');
+            }
+            if (libraryName != null)
+            {
+                sb.append(libraryName);
+            }
+            sb.append(':').append(resourceName);
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Decodes the members encoded by encodeMembers as pairs of library name (null if there is no library)
+     * and resource name. Returns null if the members are not valid or there are more than MAX_MEMBERS.
+     */
+    public static List<String[]> decodeMembers(String members)
+    {
+        List<String[]> result = new ArrayList<String[]>();
+        int start = 0;
+        while (start <= members.length())
+        {
+            if (result.size() == MAX_MEMBERS)
+            {
+                return null;
+            }
+            int end = members.indexOf(',', start);
+            if (end < 0)
+            {
+                end = members.length();
+            }
+            int colon = members.indexOf(':', start);
+            if (colon < 0 || colon >= end - 1)
+            {
+                return null;
+            }
+            result.add(new String[] {colon == start ? null : members.substring(start, colon),
+                    members.substring(colon + 1, end)});
+            start = end + 1;
+        }
+        return result.size() < 2 ? null : result;
+    }
+
+    static boolean hasRelativeReferences(String css)
+    {
+        // @import is only valid at the beginning of a stylesheet
+        if (css.indexOf("@import") >= 0)
+        {
+            return true;
+        }
+        int index = css.indexOf("url(");
+        while (index >= 0)
+        {
+            int i = index + 4;
+            while (i < css.length() &&
+                    (css.charAt(i) == '"' || css.charAt(i) == '\'' || Character.isWhitespace(css.charAt(i))))
+            {
+                i++;
+            }
+            if (!(css.startsWith("/", i) || css.startsWith("data:", i) || css.startsWith("#", i)
+                    || css.startsWith("http:", i) || css.startsWith("https:", i)))
+            {
+                return true;
+            }
+            index = css.indexOf("url(", i);
+        }
+        return false;
+    }
+
+    /**
+     * The value stored for resources that cannot be bundled.
+     */
+    public static BundledResourceValue getNotBundledValue()
+    {
+        return NOT_BUNDLED;
+    }
+}
@@ -0,0 +1,345 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.myfaces.resource;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPOutputStream;
+import javax.faces.application.Resource;
+
+/**
+ * Stores in a temporal directory the content of compressible resources, together with their gzip and
+ * deflate versions, so the resource handler can negotiate the Content-Encoding and send the bytes of a
+ * file instead of reading and compressing the resource on every request. Each entry has a strong
+ * ETag computed from the uncompressed content.
+ */
+public class PrecompressedResourceCache
+{
+
+    public static final String IDENTITY = "identity";
+    public static final String GZIP = "gzip";
+    public static final String DEFLATE = "deflate";
+
+    /**
+     * Request attributes used by Tomcat to send a file with sendfile after the servlet returns.
+     */
+    private static final String SENDFILE_SUPPORT = "org.apache.tomcat.sendfile.support";
+    private static final String SENDFILE_FILENAME = "org.apache.tomcat.sendfile.filename";
+    private static final String SENDFILE_START = "org.apache.tomcat.sendfile.start";
+    private static final String SENDFILE_END = "org.apache.tomcat.sendfile.end";
+
+    /**
+     * Resources bigger than this are not stored.
+     */
+    private static final int MAX_RESOURCE_SIZE = 4 * 1024 * 1024;
+
+    private final File _dir;
+    private final int _bufferSize;
+    private final Map<String, Entry> _entries = new ConcurrentHashMap<String, Entry>();
+    private final AtomicLong _fileCounter = new AtomicLong();
+
+    public PrecompressedResourceCache(File dir, int bufferSize)
+    {
+        _dir = dir;
+        _bufferSize = bufferSize;
+    }
+
+    /**
+     * Returns the stored content for the key, creating it from the resource if it does not exist or
+     * lastModified changed. Returns null if the resource is too big.
+     */
+    public Entry getEntry(String key, Resource resource, long lastModified) throws IOException
+    {
+        Entry entry = _entries.get(key);
+        if (entry != null && entry.lastModified == lastModified)
+        {
+            return entry.identity == null ? null : entry;
+        }
+
+        byte[] content;
+        InputStream in = resource.getInputStream();
+        try
+        {
+            content = readFully(in);
+        }
+        finally
+        {
+            in.close();
+        }
+        if (content == null)
+        {
+            // Remember that the resource is too big, so it is not read again until it changes
+            _entries.put(key, new Entry(null, lastModified, null, null, null));
+            return null;
+        }
+
+        Entry created = createEntry(content, lastModified);
+        // The files of a replaced entry are not deleted because other requests could be sending
+        // them. They are removed with the directory on the next startup.
+        _entries.put(key, created);
+        return created;
+    }
+
+    private byte[] readFully(InputStream in) throws IOException
+    {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(_bufferSize);
+        byte[] buffer = new byte[_bufferSize];
+        int length;
+        while ((length = in.read(buffer)) >= 0)
+        {
+            out.write(buffer, 0, length);
+            if (out.size() > MAX_RESOURCE_SIZE)
+            {
+                return null;
+            }
+        }
+        return out.toByteArray();
+    }
+
+    private Entry createEntry(byte[] content, long lastModified) throws IOException
+    {
+        String hash = hash(content);
+        long id = _fileCounter.incrementAndGet();
+
+        File identity = write(new File(_dir, id + ".res"), content);
+
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream(content.length / 2 + 64);
+        OutputStream gzip = new GZIPOutputStream(buffer);
+        gzip.write(content);
+        gzip.close();
+        File gzipFile = buffer.size() < content.length ?
+                write(new File(_dir, id + ".gz"), buffer.toByteArray()) : null;
+
+        buffer.reset();
+        OutputStream deflate = new DeflaterOutputStream(buffer);
+        deflate.write(content);
+        deflate.close();
+        File deflateFile = buffer.size() < content.length ?
+                write(new File(_dir, id + ".zz"), buffer.toByteArray()) : null;
+
+        return new Entry(hash, lastModified, identity, gzipFile, deflateFile);
+    }
+
+    private static File write(File file, byte[] content) throws IOException
+    {
+        OutputStream out = new FileOutputStream(file);
+        try
+        {
+            out.write(content);
+        }
+        finally
+        {
+            out.close();
+        }
+        return file;
+    }
+
+    static String hash(byte[] content)
+    {
+        try
+        {
+            byte[] digest = MessageDigest.getInstance("SHA-1").digest(content);
+            StringBuilder sb = new StringBuilder(digest.length * 2);
+            for (byte b : digest)
+            {
+                sb.append(Character.forDigit((b >> 4) & 0xF, 16));
+                sb.append(Character.forDigit(b & 0xF, 16));
+            }
+            return sb.toString();
+        }
+        catch (NoSuchAlgorithmException e)
+        {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Returns the preferred encoding available for the Accept-Encoding header: gzip, deflate or
+     * identity.
+     */
+    public static String negotiate(String acceptEncoding, Entry entry)
+    {
+        if (acceptEncoding == null)
+        {
+            return IDENTITY;
+        }
+        if (entry.gzip != null && isAccepted(acceptEncoding, GZIP))
+        {
+            return GZIP;
+        }
+        if (entry.deflate != null && isAccepted(acceptEncoding, DEFLATE))
+        {
+            return DEFLATE;
+        }
+        return IDENTITY;
+    }
+
+    /**
+     * Checks the quality of the encoding in the Accept-Encoding header. An entry for the encoding
+     * takes precedence over "*", so "gzip;q=0, *" does not accept gzip (RFC 7231 section 5.3.4).
+     */
+    static boolean isAccepted(String acceptEncoding, String encoding)
+    {
+        float wildcard = -1f;
+        for (String token : acceptEncoding.split(","))
+        {
+            String value = token.trim();
+            String name = value;
+            float q = 1f;
+            int semicolon = value.indexOf(';');
+            if (semicolon >= 0)
+            {
+                name = value.substring(0, semicolon).trim();
+                for (String param : value.substring(semicolon + 1).split(";"))
+                {
+                    param = param.trim();
+                    if (param.startsWith("q=") || param.startsWith("Q="))
+                    {
+                        try
+                        {
+                            q = Float.parseFloat(param.substring(2).trim());
+                        }
+                        catch (NumberFormatException e)
+                        {
+                            q = 0f;
+                        }
+                    }
+                }
+            }
+            if (name.equalsIgnoreCase(encoding))
+            {
+                return q > 0f;
+            }
+            if (name.equals("*"))
+            {
+                wildcard = q;
+            }
+        }
+        return wildcard > 0f;
+    }
+
+    /**
+     * Sends the file of the encoding. If the container supports sendfile, the request attributes are
+     * set and nothing is written; otherwise the file is transferred from its channel.
+     */
+    public static void send(File file, Map<String, Object> requestMap, OutputStream out) throws IOException
+    {
+        if (Boolean.TRUE.equals(requestMap.get(SENDFILE_SUPPORT)))
+        {
+            requestMap.put(SENDFILE_FILENAME, file.getAbsolutePath());
+            requestMap.put(SENDFILE_START, Long.valueOf(0L));
+            requestMap.put(SENDFILE_END, Long.valueOf(file.length()));
+            return;
+        }
+
+        FileInputStream in = new FileInputStream(file);
+        try
+        {
+            FileChannel channel = in.getChannel();
+            WritableByteChannel target = Channels.newChannel(out);
+            long size = channel.size();
+            long position = 0;
+            while (position < size)
+            {
+                position += channel.transferTo(position, size - position, target);
+            }
+        }
+        finally
+        {
+            in.close();
+        }
+    }
+
+    /**
+     * The stored versions of a resource.
+     */
+    public static final class Entry
+    {
+        private final String hash;
+        private final long lastModified;
+        private final File identity;
+        private final File gzip;
+        private final File deflate;
+
+        Entry(String hash, long lastModified, File identity, File gzip, File deflate)
+        {
+            this.hash = hash;
+            this.lastModified = lastModified;
+            this.identity = identity;
+            this.gzip = gzip;
+            this.deflate = deflate;
+        }
+
+        /**
+         * Strong ETag of the representation sent with the encoding.
+         */
+        public String getETag(String encoding)
+        {
+            return IDENTITY.equals(encoding) ? '"' + hash + '"' : '"' + hash + '-' + encoding + '"';
+        }
+
+        public File getFile(String encoding)
+        {
+            if (GZIP.equals(encoding))
+            {
+                return gzip;
+            }
+            if (DEFLATE.equals(encoding))
+            {
+                return deflate;
+            }
+            return identity;
+        }
+
+        /**
+         * Returns true if the If-None-Match header matches the ETag of any representation.
+         */
+        public boolean matches(String ifNoneMatch)
+        {
+            if (ifNoneMatch == null)
+            {
+                return false;
+            }
+            for (String tag : ifNoneMatch.split(","))
+            {
+                String value = tag.trim();
+                if (value.equals("*") || value.equals(getETag(IDENTITY)) || value.equals(getETag(GZIP))
+                        || value.equals(getETag(DEFLATE)))
+                {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+}
@@ -0,0 +1,201 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.myfaces.resource;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.myfaces.util.CacheMetrics;
+
+/**
+ * Keeps the content of small resources in memory, as it is sent to the client (value expressions
+ * already evaluated), so the resource is not opened and filtered on every request. The least recently
+ * used resources are evicted when the total size exceeds the limit.
+ * 
+ * <p>Like ConcurrentLRUCache, the entries are kept in a ConcurrentHashMap and each access is recorded
+ * with a counter, so get does not take any lock. Only a put that exceeds the limit locks, to sort the
+ * entries by last access and evict the oldest ones.</p>
+ */
+public class ResourceContentCache
+{
+    private static final Comparator<Map.Entry<String, Entry>> LAST_ACCESSED =
+            new Comparator<Map.Entry<String, Entry>>()
+    {
+        public int compare(Map.Entry<String, Entry> o1, Map.Entry<String, Entry> o2)
+        {
+            return Long.compare(o1.getValue().lastAccessed, o2.getValue().lastAccessed);
+        }
+    };
+
+    private final long _maxSize;
+    private final int _maxResourceSize;
+    private final ConcurrentHashMap<String, Entry> _entries = new ConcurrentHashMap<String, Entry>(64);
+    private final AtomicLong _size = new AtomicLong();
+    private final AtomicLong _accessCounter = new AtomicLong();
+    private final CacheMetrics _metrics = new Metrics();
+
+    public ResourceContentCache(long maxSize, int maxResourceSize)
+    {
+        _maxSize = maxSize;
+        _maxResourceSize = maxResourceSize;
+    }
+
+    /**
+     * Returns the entry of the key, or null if there is no entry or the resource has been modified
+     * since it was stored.
+     */
+    public Entry get(String key, long lastModified)
+    {
+        Entry entry = _entries.get(key);
+        if (entry != null && entry.lastModified != lastModified)
+        {
+            remove(key, entry);
+            entry = null;
+        }
+        if (entry == null)
+        {
+            _metrics.miss();
+        }
+        else
+        {
+            entry.lastAccessed = _accessCounter.incrementAndGet();
+            _metrics.hit();
+        }
+        return entry;
+    }
+
+    /**
+     * Stores the content of the resource. A null content means the resource is too big to be stored,
+     * so it is not read again to find it out.
+     */
+    public Entry put(String key, byte[] content, long lastModified)
+    {
+        Entry entry = new Entry(content != null && content.length <= _maxResourceSize ? content : null,
+                lastModified);
+        entry.lastAccessed = _accessCounter.incrementAndGet();
+        Entry old = _entries.put(key, entry);
+        _metrics.put();
+        _size.addAndGet(old == null ? entry.getSize() : entry.getSize() - old.getSize());
+
+        if (_size.get() > _maxSize)
+        {
+            evict(key, entry);
+        }
+        return entry;
+    }
+
+    private synchronized void evict(String key, Entry added)
+    {
+        if (_size.get() <= _maxSize)
+        {
+            // evicted by another thread
+            return;
+        }
+        List<Map.Entry<String, Entry>> entries = new ArrayList<Map.Entry<String, Entry>>(_entries.entrySet());
+        Collections.sort(entries, LAST_ACCESSED);
+        for (int i = 0; i < entries.size() && _size.get() > _maxSize; i++)
+        {
+            Map.Entry<String, Entry> eldest = entries.get(i);
+            if (eldest.getValue() != added)
+            {
+                remove(eldest.getKey(), eldest.getValue());
+            }
+        }
+        if (_size.get() > _maxSize)
+        {
+            remove(key, added);
+        }
+    }
+
+    /**
+     * Removes the entry if it is still the one stored for the key, so its size is subtracted only once.
+     */
+    private void remove(String key, Entry entry)
+    {
+        if (_entries.remove(key, entry))
+        {
+            _size.addAndGet(-entry.getSize());
+            _metrics.evict();
+        }
+    }
+
+    public int getMaxResourceSize()
+    {
+        return _maxResourceSize;
+    }
+
+    public long getSize()
+    {
+        return _size.get();
+    }
+
+    public CacheMetrics getMetrics()
+    {
+        return _metrics;
+    }
+
+    private final class Metrics extends CacheMetrics
+    {
+        @Override
+        public long getSize()
+        {
+            return _entries.size();
+        }
+
+        @Override
+        public long getEstimatedMemory()
+        {
+            return ResourceContentCache.this.getSize();
+        }
+    }
+
+    /**
+     * The stored content of a resource.
+     */
+    public static final class Entry
+    {
+        private final byte[] content;
+        private final long lastModified;
+        private volatile long lastAccessed;
+
+        Entry(byte[] content, long lastModified)
+        {
+            this.content = content;
+            this.lastModified = lastModified;
+        }
+
+        /**
+         * The content of the resource, or null if it is too big to be stored.
+         */
+        public byte[] getContent()
+        {
+            return content;
+        }
+
+        int getSize()
+        {
+            return content == null ? 0 : content.length;
+        }
+    }
+}
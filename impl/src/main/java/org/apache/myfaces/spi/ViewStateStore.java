@@ -0,0 +1,69 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.myfaces.spi;
+
+import javax.faces.context.FacesContext;
+
+/**
+ * Stores the serialized state of the views outside the session when 
+ * {@link org.apache.myfaces.spi.impl.ExternalStateCacheProviderFactory} is used, so only a
+ * small token per view is kept in the session and replicated in a cluster.
+ * 
+ * <p>The state is always a byte[] already serialized (and compressed, if enabled). The store
+ * decides the ids, which should be unique over the life of the application and could be
+ * used from any node that shares the store. Views are removed following the same rules
+ * used to discard them from the session, but a store could also discard them by its own
+ * rules, in that case the view is handled as an expired view.</p>
+ */
+public abstract class ViewStateStore
+{
+    /**
+     * Stores the state of a view.
+     * 
+     * @param facesContext
+     * @param state the serialized state
+     * @return the id to retrieve the state later, or null if the state could not be stored
+     *         and should be kept in session
+     */
+    public abstract String store(FacesContext facesContext, byte[] state);
+
+    /**
+     * @param facesContext
+     * @param id the id returned by {@link #store(FacesContext, byte[])}
+     * @return the serialized state, or null if it is no longer available
+     */
+    public abstract byte[] load(FacesContext facesContext, String id);
+
+    /**
+     * Removes the state of a view. It does nothing if the state was already removed.
+     * 
+     * @param facesContext the current FacesContext, it could be null if the view is discarded
+     *                     when the session is destroyed
+     * @param id the id returned by {@link #store(FacesContext, byte[])}
+     */
+    public abstract void remove(FacesContext facesContext, String id);
+
+    /**
+     * Releases the resources of the store. Called when the application is destroyed, the store is
+     * not used after this call. By default it does nothing.
+     */
+    public void close()
+    {
+    }
+}
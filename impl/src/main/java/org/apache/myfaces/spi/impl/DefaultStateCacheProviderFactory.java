@@ -133,7 +133,17 @@ public class DefaultStateCacheProviderFactory extends StateCacheProviderFactory
                     getServiceProviderList(STATE_CACHE_PROVIDER);
             externalContext.getApplicationMap().put(STATE_CACHE_PROVIDER_LIST, classList);
         }
-        return ClassUtils.buildApplicationObject(StateCacheProvider.class, classList, new StateCacheFactoryImpl());
-    }    
+        return ClassUtils.buildApplicationObject(StateCacheProvider.class, classList,
+                createDefaultStateCacheProvider(externalContext));
+    }
+    
+    /**
+     * Creates the provider used when there is no StateCacheProvider in META-INF/services,
+     * or that is wrapped by the ones found.
+     */
+    protected StateCacheProvider createDefaultStateCacheProvider(ExternalContext externalContext)
+    {
+        return new StateCacheFactoryImpl();
+    }
     
 }
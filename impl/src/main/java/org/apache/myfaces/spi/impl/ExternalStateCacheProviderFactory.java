@@ -0,0 +1,41 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.myfaces.spi.impl;
+
+import javax.faces.context.ExternalContext;
+import org.apache.myfaces.application.viewstate.ExternalStateCacheProvider;
+import org.apache.myfaces.spi.StateCacheProvider;
+
+/**
+ * StateCacheProviderFactory that stores the views of server side state saving outside the session,
+ * into the {@link org.apache.myfaces.spi.ViewStateStore} set in org.apache.myfaces.VIEW_STATE_STORE
+ * (by default a log of files in a local directory). Only the ids of the views are kept in the
+ * session, which is useful when the session is replicated in a cluster.
+ * 
+ * <p>To use it, add a file META-INF/services/org.apache.myfaces.spi.StateCacheProviderFactory
+ * with the name of this class.</p>
+ */
+public class ExternalStateCacheProviderFactory extends DefaultStateCacheProviderFactory
+{
+    @Override
+    protected StateCacheProvider createDefaultStateCacheProvider(ExternalContext externalContext)
+    {
+        return new ExternalStateCacheProvider();
+    }
+}
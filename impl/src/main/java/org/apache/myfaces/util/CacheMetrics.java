@@ -0,0 +1,174 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.myfaces.util;
+
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+import org.apache.myfaces.shared.util.ConcurrentLRUCache;
+
+/**
+ * Counters of a cache or pool. The cache calls {@link #hit()}, {@link #miss()}, {@link #put()} and
+ * {@link #evict()} as it is used, and subclasses override the size getters when the cache can compute
+ * them. The instance is registered in {@link MetricsRegistry} to expose it through JMX.
+ *
+ * @since 2.3.3
+ */
+public class CacheMetrics implements CacheMetricsMBean
+{
+    private final LongAdder _hits = new LongAdder();
+    private final LongAdder _misses = new LongAdder();
+    private final LongAdder _puts = new LongAdder();
+    private final LongAdder _evictions = new LongAdder();
+
+    /**
+     * Metrics of a ConcurrentLRUCache, taken from its own statistics. The supplier is called every time,
+     * because the cache could be created after the metrics, so it could return null.
+     */
+    public static CacheMetrics of(final Supplier<? extends ConcurrentLRUCache<?, ?>> cache)
+    {
+        return new CacheMetrics()
+        {
+            @Override
+            public long getHitCount()
+            {
+                ConcurrentLRUCache<?, ?> c = cache.get();
+                return c == null ? 0 : c.getStats().getCumulativeHits();
+            }
+
+            @Override
+            public long getMissCount()
+            {
+                ConcurrentLRUCache<?, ?> c = cache.get();
+                return c == null ? 0 : c.getStats().getCumulativeMisses();
+            }
+
+            @Override
+            public long getPutCount()
+            {
+                ConcurrentLRUCache<?, ?> c = cache.get();
+                return c == null ? 0 : c.getStats().getCumulativePuts();
+            }
+
+            @Override
+            public long getEvictionCount()
+            {
+                ConcurrentLRUCache<?, ?> c = cache.get();
+                return c == null ? 0 : c.getStats().getCumulativeEvictions();
+            }
+
+            @Override
+            public long getSize()
+            {
+                ConcurrentLRUCache<?, ?> c = cache.get();
+                return c == null ? 0 : c.size();
+            }
+
+            @Override
+            public long getMaxSize()
+            {
+                ConcurrentLRUCache<?, ?> c = cache.get();
+                return c == null ? -1 : c.getUpperWaterMark();
+            }
+        };
+    }
+
+    public void hit()
+    {
+        _hits.increment();
+    }
+
+    public void miss()
+    {
+        _misses.increment();
+    }
+
+    public void put()
+    {
+        _puts.increment();
+    }
+
+    public void evict()
+    {
+        _evictions.increment();
+    }
+
+    public void evict(long count)
+    {
+        _evictions.add(count);
+    }
+
+    @Override
+    public long getHitCount()
+    {
+        return _hits.sum();
+    }
+
+    @Override
+    public long getMissCount()
+    {
+        return _misses.sum();
+    }
+
+    @Override
+    public double getHitRatio()
+    {
+        long hits = getHitCount();
+        long lookups = hits + getMissCount();
+        return lookups == 0 ? 0 : (double) hits / lookups;
+    }
+
+    @Override
+    public long getPutCount()
+    {
+        return _puts.sum();
+    }
+
+    @Override
+    public long getEvictionCount()
+    {
+        return _evictions.sum();
+    }
+
+    @Override
+    public long getSize()
+    {
+        return -1;
+    }
+
+    @Override
+    public long getMaxSize()
+    {
+        return -1;
+    }
+
+    @Override
+    public long getEstimatedMemory()
+    {
+        return -1;
+    }
+
+    @Override
+    public String toString()
+    {
+        return "hits=" + getHitCount() + ", misses=" + getMissCount() + ", puts=" + getPutCount()
+                + ", evictions=" + getEvictionCount() + ", size=" + getSize() + ", maxSize=" + getMaxSize()
+                + ", estimatedMemory=" + getEstimatedMemory();
+    }
+}
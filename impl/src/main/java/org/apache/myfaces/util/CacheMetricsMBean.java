@@ -0,0 +1,56 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.myfaces.util;
+
+/**
+ * JMX view of the counters of a cache or pool registered in {@link MetricsRegistry}. Values a cache
+ * does not know are -1.
+ *
+ * @since 2.3.3
+ */
+public interface CacheMetricsMBean
+{
+    long getHitCount();
+
+    long getMissCount();
+
+    /**
+     * Hits divided by lookups, or 0 if there has been no lookup yet.
+     */
+    double getHitRatio();
+
+    long getPutCount();
+
+    long getEvictionCount();
+
+    /**
+     * Number of entries currently in the cache.
+     */
+    long getSize();
+
+    /**
+     * Number of entries the cache keeps before evicting.
+     */
+    long getMaxSize();
+
+    /**
+     * Bytes used by the content of the cache. Only caches that hold raw bytes or chars can tell it.
+     */
+    long getEstimatedMemory();
+}
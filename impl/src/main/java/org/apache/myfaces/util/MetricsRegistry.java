@@ -0,0 +1,262 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.myfaces.util;
+
+import java.lang.management.ManagementFactory;
+import java.util.Collections;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.faces.context.ExternalContext;
+import javax.faces.context.FacesContext;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.apache.myfaces.buildtools.maven2.plugin.builder.annotation.JSFWebConfigParam;
+import org.apache.myfaces.shared.util.CharChunkPool;
+import org.apache.myfaces.shared.util.WebConfigParamUtils;
+
+/**
+ * Metrics of the caches and pools of the application: the resource handler caches, the facelet cache,
+ * the view pool, the views stored in session and the pool of char buffers. Each cache registers its
+ * {@link CacheMetrics} under a name when it is created.
+ * 
+ * <p>If enabled, every registered cache is exposed through JMX as
+ * org.apache.myfaces:type=CacheMetrics,context=...,name=... from the startup of the application
+ * until it is undeployed. The counters are always kept, they are cheap compared with the lookups
+ * they count.</p>
+ *
+ * @since 2.3.3
+ */
+public final class MetricsRegistry
+{
+    private static final Logger log = Logger.getLogger(MetricsRegistry.class.getName());
+
+    /**
+     * Expose the hit, miss and eviction counts, the size and the memory used by the internal caches and
+     * pools through JMX.
+     */
+    @JSFWebConfigParam(since = "2.3.3", defaultValue = "false", expectedValues = "true, false",
+            tags = "performance")
+    public static final String INIT_PARAM_CACHE_METRICS_JMX_ENABLED = "org.apache.myfaces.CACHE_METRICS_JMX_ENABLED";
+
+    private static final String INSTANCE = "oam.MetricsRegistry";
+
+    private final ConcurrentHashMap<String, CacheMetrics> _metrics = new ConcurrentHashMap<String, CacheMetrics>();
+    private final Map<String, ObjectName> _objectNames = new TreeMap<String, ObjectName>();
+    private String _contextPath;
+
+    MetricsRegistry()
+    {
+    }
+
+    /**
+     * Returns the registry of the application, creating it if it does not exist yet.
+     */
+    public static MetricsRegistry getInstance(ExternalContext externalContext)
+    {
+        Map<String, Object> applicationMap = externalContext.getApplicationMap();
+        MetricsRegistry registry = (MetricsRegistry) applicationMap.get(INSTANCE);
+        if (registry == null)
+        {
+            synchronized (MetricsRegistry.class)
+            {
+                registry = (MetricsRegistry) applicationMap.get(INSTANCE);
+                if (registry == null)
+                {
+                    registry = new MetricsRegistry();
+                    applicationMap.put(INSTANCE, registry);
+                }
+            }
+        }
+        return registry;
+    }
+
+    /**
+     * Registers the metrics not tied to a cache created by the application and, if enabled, exposes
+     * all of them through JMX.
+     */
+    public static void initialize(FacesContext facesContext)
+    {
+        ExternalContext externalContext = facesContext.getExternalContext();
+        MetricsRegistry registry = getInstance(externalContext);
+        registry.register("CharChunkPool", new CharChunkPoolMetrics(CharChunkPool.getInstance()));
+
+        if (WebConfigParamUtils.getBooleanInitParameter(externalContext, INIT_PARAM_CACHE_METRICS_JMX_ENABLED,
+                false))
+        {
+            String contextPath = externalContext.getApplicationContextPath();
+            registry.startJmx(contextPath == null || contextPath.length() == 0 ? "/" : contextPath);
+        }
+    }
+
+    public static void destroy(ExternalContext externalContext)
+    {
+        MetricsRegistry registry = (MetricsRegistry) externalContext.getApplicationMap().remove(INSTANCE);
+        if (registry != null)
+        {
+            if (log.isLoggable(Level.FINE))
+            {
+                log.fine("Cache metrics:\n" + registry.dump());
+            }
+            registry.stopJmx();
+        }
+    }
+
+    /**
+     * Registers the metrics of a cache, replacing the ones previously registered with the same name.
+     */
+    public synchronized void register(String name, CacheMetrics metrics)
+    {
+        CacheMetrics old = _metrics.put(name, metrics);
+        if (_contextPath != null)
+        {
+            if (old != null)
+            {
+                unregisterMBean(name);
+            }
+            registerMBean(name, metrics);
+        }
+    }
+
+    public CacheMetrics getMetrics(String name)
+    {
+        return _metrics.get(name);
+    }
+
+    public Map<String, CacheMetrics> getMetrics()
+    {
+        return Collections.unmodifiableMap(_metrics);
+    }
+
+    /**
+     * Text with the metrics of every registered cache, one per line.
+     */
+    public String dump()
+    {
+        StringBuilder sb = new StringBuilder();
+        for (Map.Entry<String, CacheMetrics> entry : new TreeMap<String, CacheMetrics>(_metrics).entrySet())
+        {
+            sb.append(entry.getKey()).append(": ").append(entry.getValue()).append('\n');
+        }
+        return sb.toString();
+    }
+
+    synchronized void startJmx(String contextPath)
+    {
+        _contextPath = contextPath;
+        for (Map.Entry<String, CacheMetrics> entry : _metrics.entrySet())
+        {
+            registerMBean(entry.getKey(), entry.getValue());
+        }
+    }
+
+    synchronized void stopJmx()
+    {
+        for (String name : _objectNames.keySet().toArray(new String[_objectNames.size()]))
+        {
+            unregisterMBean(name);
+        }
+        _contextPath = null;
+    }
+
+    private void registerMBean(String name, CacheMetrics metrics)
+    {
+        try
+        {
+            ObjectName objectName = new ObjectName("org.apache.myfaces:type=CacheMetrics,context=" +
+                    ObjectName.quote(_contextPath) + ",name=" + ObjectName.quote(name));
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            if (!server.isRegistered(objectName))
+            {
+                server.registerMBean(metrics, objectName);
+                _objectNames.put(name, objectName);
+            }
+        }
+        catch (Exception e)
+        {
+            log.log(Level.WARNING, "Metrics of " + name + " could not be registered in JMX", e);
+        }
+    }
+
+    private void unregisterMBean(String name)
+    {
+        ObjectName objectName = _objectNames.remove(name);
+        if (objectName != null)
+        {
+            try
+            {
+                ManagementFactory.getPlatformMBeanServer().unregisterMBean(objectName);
+            }
+            catch (Exception e)
+            {
+                log.log(Level.FINE, "Metrics of " + name + " could not be unregistered from JMX", e);
+            }
+        }
+    }
+
+    private static final class CharChunkPoolMetrics extends CacheMetrics
+    {
+        private final CharChunkPool _pool;
+
+        CharChunkPoolMetrics(CharChunkPool pool)
+        {
+            _pool = pool;
+        }
+
+        @Override
+        public long getHitCount()
+        {
+            return _pool.getHits();
+        }
+
+        @Override
+        public long getMissCount()
+        {
+            return _pool.getMisses();
+        }
+
+        @Override
+        public long getEvictionCount()
+        {
+            return _pool.getDiscarded();
+        }
+
+        @Override
+        public long getSize()
+        {
+            return _pool.getRetainedChars() / _pool.getChunkSize();
+        }
+
+        @Override
+        public long getMaxSize()
+        {
+            return _pool.getMaxRetainedChars() / _pool.getChunkSize();
+        }
+
+        @Override
+        public long getEstimatedMemory()
+        {
+            return _pool.getRetainedChars() * 2;
+        }
+    }
+}
@@ -100,6 +100,7 @@ import org.apache.myfaces.shared.application.ViewHandlerSupport;
 import org.apache.myfaces.shared.config.MyfacesConfig;
 import org.apache.myfaces.shared.util.ClassUtils;
 import org.apache.myfaces.shared.util.StringUtils;
+import org.apache.myfaces.shared.renderkit.html.util.ByteEncodingWriter;
 import org.apache.myfaces.shared.util.WebConfigParamUtils;
 import org.apache.myfaces.view.ViewDeclarationLanguageStrategy;
 import org.apache.myfaces.view.ViewMetadataBase;
@@ -214,6 +215,28 @@ public class FaceletViewDeclarationLanguage extends FaceletViewDeclarationLangua
     private final static String PARAM_MARK_INITIAL_STATE_WHEN_APPLY_BUILD_VIEW
             = "org.apache.myfaces.MARK_INITIAL_STATE_WHEN_APPLY_BUILD_VIEW";
 
+    /**
+     * Comma or space separated list of content types (for example "text/html, application/xhtml+xml")
+     * rendered encoding the markup directly to the response OutputStream, instead of using the Writer
+     * provided by the servlet container. Only UTF-8 and ISO-8859-1 encodings are written in this way,
+     * and partial requests always use the Writer. Do not enable it if some filter or listener uses the
+     * response Writer.
+     */
+    @JSFWebConfigParam(since = "2.3.3", group = "viewhandler", tags = "performance")
+    public final static String PARAM_OUTPUT_STREAM_CONTENT_TYPES = "org.apache.myfaces.OUTPUT_STREAM_CONTENT_TYPES";
+
+    /**
+     * Save the view state when the first form writes it, instead of after the whole view is rendered.
+     * With client side state saving the markup after the first form has to be buffered until the
+     * state is known. Saving it earlier allows to stream the page, but changes done to the
+     * component tree while the rest of the view is rendered are not stored in the state, so only
+     * enable it if the components used in the application do not change their state on render
+     * response. Server side state saving is always streamed.
+     */
+    @JSFWebConfigParam(since = "2.3.3", defaultValue = "false", expectedValues = "true, false",
+            group = "state", tags = "performance")
+    public final static String PARAM_SAVE_STATE_ON_FIRST_FORM = "org.apache.myfaces.SAVE_STATE_ON_FIRST_FORM";
+
     public final static String FILLED_VIEW = "org.apache.myfaces.FILLED_VIEW";
 
     //BEGIN CONSTANTS SET ON BUILD VIEW
@@ -245,6 +268,8 @@ public class FaceletViewDeclarationLanguage extends FaceletViewDeclarationLangua
     private final static String STATE_KEY = "<!--@@JSF_FORM_STATE_MARKER@@-->";
 
     private final static int STATE_KEY_LEN = STATE_KEY.length();
+
+    private final static String OUTPUT_WRITER_KEY = "oam.facelets.OUTPUT_WRITER";
     
     private static final Set<VisitHint> VISIT_HINTS_DYN_REFRESH = Collections.unmodifiableSet( 
             EnumSet.of(VisitHint.SKIP_ITERATION));
@@ -258,6 +283,10 @@ public class FaceletViewDeclarationLanguage extends FaceletViewDeclarationLangua
 
     private int _bufferSize;
 
+    private Set<String> _outputStreamContentTypes;
+
+    private boolean _saveStateOnFirstForm;
+
     // This param evolve in jsf 2.0 to partial state saving
     //private boolean _buildBeforeRestore = false;
 
@@ -1866,10 +1895,14 @@ public class FaceletViewDeclarationLanguage extends FaceletViewDeclarationLangua
             // setup writer and assign it to the context
             ResponseWriter origWriter = createResponseWriter(context);
 
-            ExternalContext extContext = context.getExternalContext();
-            Writer outputWriter = extContext.getResponseOutputWriter();
+            Writer outputWriter = (Writer) context.getAttributes().get(OUTPUT_WRITER_KEY);
+            if (outputWriter == null)
+            {
+                outputWriter = context.getExternalContext().getResponseOutputWriter();
+            }
 
             StateWriter stateWriter = new StateWriter(outputWriter, 1024, context);
+            stateWriter.setSaveStateOnFirstForm(_saveStateOnFirstForm);
             try
             {
                 ResponseWriter writer = origWriter.cloneWithWriter(stateWriter);
@@ -1971,8 +2004,11 @@ public class FaceletViewDeclarationLanguage extends FaceletViewDeclarationLangua
                     else if (stateWriter.isStateWrittenWithoutWrapper())
                     {
                         // The state token has been written but the state has not been
-                        // saved yet.
-                        stateMgr.saveView(context);
+                        // saved yet, unless it was saved when the first form was rendered.
+                        if (!stateWriter.isStateSaved())
+                        {
+                            stateMgr.saveView(context);
+                        }
                     }
                     else
                     {
@@ -2020,6 +2056,12 @@ public class FaceletViewDeclarationLanguage extends FaceletViewDeclarationLangua
             finally
             {
                 stateWriter.release(context);
+                context.getAttributes().remove(OUTPUT_WRITER_KEY);
+                if (outputWriter instanceof ByteEncodingWriter)
+                {
+                    // Write the buffered bytes and return the buffer to the pool
+                    outputWriter.close();
+                }
             }
         }
         catch (FileNotFoundException fnfe)
@@ -2309,11 +2351,46 @@ public class FaceletViewDeclarationLanguage extends FaceletViewDeclarationLangua
         // response.setCharacterEncoding(encoding);
 
         // Now, clone with the real writer
-        writer = writer.cloneWithWriter(extContext.getResponseOutputWriter());
+        writer = writer.cloneWithWriter(getResponseOutputWriter(context, contentType, encoding));
 
         return writer;
     }
 
+    /**
+     * Returns the Writer used to render the current view, encoding the markup directly to the
+     * response OutputStream if it is enabled for the content type.
+     */
+    private Writer getResponseOutputWriter(FacesContext context, String contentType, String encoding)
+            throws IOException
+    {
+        Writer outputWriter = (Writer) context.getAttributes().get(OUTPUT_WRITER_KEY);
+        if (outputWriter != null)
+        {
+            return outputWriter;
+        }
+        ExternalContext extContext = context.getExternalContext();
+        if (_outputStreamContentTypes != null && _outputStreamContentTypes.contains(contentType)
+                && ByteEncodingWriter.isSupported(encoding)
+                && !context.getPartialViewContext().isPartialRequest())
+        {
+            try
+            {
+                outputWriter = new ByteEncodingWriter(extContext.getResponseOutputStream(), encoding);
+            }
+            catch (IllegalStateException e)
+            {
+                // The Writer of the response has been used already
+                outputWriter = extContext.getResponseOutputWriter();
+            }
+        }
+        else
+        {
+            outputWriter = extContext.getResponseOutputWriter();
+        }
+        context.getAttributes().put(OUTPUT_WRITER_KEY, outputWriter);
+        return outputWriter;
+    }
+
     /**
      * @deprecated this code is not used anymore
      */
@@ -2485,6 +2562,9 @@ public class FaceletViewDeclarationLanguage extends FaceletViewDeclarationLangua
 
         ExternalContext eContext = context.getExternalContext();
         _initializeBuffer(eContext);
+        _initializeOutputStreamContentTypes(eContext);
+        _saveStateOnFirstForm = WebConfigParamUtils.getBooleanInitParameter(eContext,
+                PARAM_SAVE_STATE_ON_FIRST_FORM, false);
         _initializeMode(eContext);
         _initializeContractMappings(eContext);
         
@@ -2618,6 +2698,23 @@ public class FaceletViewDeclarationLanguage extends FaceletViewDeclarationLangua
         _bufferSize = WebConfigParamUtils.getIntegerInitParameter(context, PARAMS_BUFFER_SIZE, 1024);
     }
 
+    private void _initializeOutputStreamContentTypes(ExternalContext context)
+    {
+        String contentTypes = WebConfigParamUtils.getStringInitParameter(context, PARAM_OUTPUT_STREAM_CONTENT_TYPES);
+        if (contentTypes != null)
+        {
+            Set<String> set = new HashSet<String>();
+            for (String contentType : contentTypes.split("[\\s,]+"))
+            {
+                if (contentType.length() > 0)
+                {
+                    set.add(contentType);
+                }
+            }
+            _outputStreamContentTypes = set.isEmpty() ? null : set;
+        }
+    }
+
     private void _initializeMode(ExternalContext context)
     {
         String facesVersion = RuntimeConfig.getCurrentInstance(context).getFacesVersion();
@@ -18,6 +18,7 @@
  */
 package org.apache.myfaces.view.facelets;
 
+import org.apache.myfaces.shared.util.CharChunkPool;
 import org.apache.myfaces.view.facelets.util.FastWriter;
 
 import javax.faces.context.FacesContext;
@@ -54,6 +55,9 @@ public final class StateWriter extends Writer
     private FastWriter fast;
     private boolean writtenState;
     private boolean writtenStateWithoutWrapper;
+    private boolean saveStateOnFirstForm;
+    private boolean stateSaved;
+    private Object savedState;
 
     static public StateWriter getCurrentInstance()
     {
@@ -131,7 +135,8 @@ public final class StateWriter extends Writer
         {
             this.writtenState = true;
             this.writtenStateWithoutWrapper = false;
-            this.fast = new FastWriter(this.initialSize);
+            this.fast = new FastWriter(this.initialSize,
+                    CharChunkPool.getInstance().getLease(FacesContext.getCurrentInstance()));
             this.out = this.fast;
         }
     }
@@ -154,6 +159,36 @@ public final class StateWriter extends Writer
         return this.writtenStateWithoutWrapper;
     }
 
+    /**
+     * If true, the state is saved when the first form writes it and the same state is written on every
+     * form, so the content does not need to be buffered until the view is rendered.
+     */
+    public void setSaveStateOnFirstForm(boolean saveStateOnFirstForm)
+    {
+        this.saveStateOnFirstForm = saveStateOnFirstForm;
+    }
+
+    public boolean isSaveStateOnFirstForm()
+    {
+        return this.saveStateOnFirstForm;
+    }
+
+    public void setSavedState(Object savedState)
+    {
+        this.savedState = savedState;
+        this.stateSaved = true;
+    }
+
+    public Object getSavedState()
+    {
+        return this.savedState;
+    }
+
+    public boolean isStateSaved()
+    {
+        return this.stateSaved;
+    }
+
     public void close() throws IOException
     {
         // do nothing
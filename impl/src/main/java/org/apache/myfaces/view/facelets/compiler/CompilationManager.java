@@ -49,7 +49,7 @@ import org.apache.myfaces.view.facelets.tag.ui.UILibrary;
  * @author Jacob Hookom
  * @version $Id$
  */
-final class CompilationManager
+class CompilationManager
 {
 
     //private final static Logger log = Logger.getLogger("facelets.compiler");
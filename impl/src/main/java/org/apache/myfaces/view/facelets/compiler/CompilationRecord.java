@@ -0,0 +1,277 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.myfaces.view.facelets.compiler;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+import javax.faces.view.Location;
+import javax.faces.view.facelets.Tag;
+import javax.faces.view.facelets.TagAttribute;
+
+import org.apache.myfaces.view.facelets.tag.TagAttributeImpl;
+import org.apache.myfaces.view.facelets.tag.TagAttributesImpl;
+
+/**
+ * The calls done by the parser over a {@link CompilationManager} while a document is compiled.
+ * Replaying them over a new CompilationManager creates the same FaceletHandler tree without
+ * parsing the document again.
+ */
+final class CompilationRecord
+{
+    private static final byte PUSH_TAG = 1;
+    private static final byte POP_TAG = 2;
+    private static final byte PUSH_NAMESPACE = 3;
+    private static final byte POP_NAMESPACE = 4;
+    private static final byte WRITE_TEXT = 5;
+    private static final byte WRITE_COMMENT = 6;
+    private static final byte WRITE_WHITESPACE = 7;
+    private static final byte WRITE_INSTRUCTION = 8;
+    private static final byte WRITE_DOCTYPE = 9;
+    private static final byte END = 0;
+
+    private final ByteArrayOutputStream _bytes;
+    private final DataOutputStream _out;
+    private byte[] _events;
+    private String _encoding;
+
+    CompilationRecord()
+    {
+        _bytes = new ByteArrayOutputStream(4096);
+        _out = new DataOutputStream(_bytes);
+    }
+
+    CompilationRecord(byte[] events, String encoding)
+    {
+        _bytes = null;
+        _out = null;
+        _events = events;
+        _encoding = encoding;
+    }
+
+    String getEncoding()
+    {
+        return _encoding;
+    }
+
+    void setEncoding(String encoding)
+    {
+        _encoding = encoding;
+    }
+
+    byte[] getEvents()
+    {
+        if (_events == null)
+        {
+            write(END);
+            _events = _bytes.toByteArray();
+        }
+        return _events;
+    }
+
+    void pushTag(Tag tag)
+    {
+        try
+        {
+            _out.writeByte(PUSH_TAG);
+            writeLocation(tag.getLocation());
+            writeString(tag.getNamespace());
+            writeString(tag.getLocalName());
+            writeString(tag.getQName());
+            TagAttribute[] attributes = tag.getAttributes().getAll();
+            _out.writeInt(attributes.length);
+            for (TagAttribute attribute : attributes)
+            {
+                writeLocation(attribute.getLocation());
+                writeString(attribute.getNamespace());
+                writeString(attribute.getLocalName());
+                writeString(attribute.getQName());
+                writeString(attribute.getValue());
+            }
+        }
+        catch (IOException e)
+        {
+            // ByteArrayOutputStream does not throw IOException
+            throw new IllegalStateException(e);
+        }
+    }
+
+    void popTag()
+    {
+        write(POP_TAG);
+    }
+
+    void pushNamespace(String prefix, String uri)
+    {
+        write(PUSH_NAMESPACE, prefix, uri);
+    }
+
+    void popNamespace(String prefix)
+    {
+        write(POP_NAMESPACE, prefix);
+    }
+
+    void writeText(String value)
+    {
+        write(WRITE_TEXT, value);
+    }
+
+    void writeComment(String text)
+    {
+        write(WRITE_COMMENT, text);
+    }
+
+    void writeWhitespace(String text)
+    {
+        write(WRITE_WHITESPACE, text);
+    }
+
+    void writeInstruction(String value)
+    {
+        write(WRITE_INSTRUCTION, value);
+    }
+
+    void writeDoctype(String name, String publicId, String systemId)
+    {
+        write(WRITE_DOCTYPE, name, publicId, systemId);
+    }
+
+    /**
+     * Calls the recorded methods over the given CompilationManager.
+     * 
+     * @param mngr the manager used to create the FaceletHandler
+     * @param alias alias of the document, used for the location of the tags
+     * @throws IOException if the recorded events are not valid
+     */
+    void replay(CompilationManager mngr, String alias) throws IOException
+    {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(getEvents()));
+        while (true)
+        {
+            byte op = in.readByte();
+            switch (op)
+            {
+                case END:
+                    return;
+                case PUSH_TAG:
+                    Location location = readLocation(in, alias);
+                    String namespace = readString(in);
+                    String localName = readString(in);
+                    String qName = readString(in);
+                    TagAttribute[] attributes = new TagAttribute[in.readInt()];
+                    for (int i = 0; i < attributes.length; i++)
+                    {
+                        attributes[i] = new TagAttributeImpl(readLocation(in, alias), readString(in), 
+                                readString(in), readString(in), readString(in));
+                    }
+                    mngr.pushTag(new Tag(location, namespace, localName, qName, 
+                            new TagAttributesImpl(attributes)));
+                    break;
+                case POP_TAG:
+                    mngr.popTag();
+                    break;
+                case PUSH_NAMESPACE:
+                    mngr.pushNamespace(readString(in), readString(in));
+                    break;
+                case POP_NAMESPACE:
+                    mngr.popNamespace(readString(in));
+                    break;
+                case WRITE_TEXT:
+                    mngr.writeText(readString(in));
+                    break;
+                case WRITE_COMMENT:
+                    mngr.writeComment(readString(in));
+                    break;
+                case WRITE_WHITESPACE:
+                    mngr.writeWhitespace(readString(in));
+                    break;
+                case WRITE_INSTRUCTION:
+                    mngr.writeInstruction(readString(in));
+                    break;
+                case WRITE_DOCTYPE:
+                    mngr.writeDoctype(readString(in), readString(in), readString(in));
+                    break;
+                default:
+                    throw new IOException("Unknown compilation event " + op);
+            }
+        }
+    }
+
+    private void write(byte op, String... values)
+    {
+        try
+        {
+            _out.writeByte(op);
+            for (String value : values)
+            {
+                writeString(value);
+            }
+        }
+        catch (IOException e)
+        {
+            // ByteArrayOutputStream does not throw IOException
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private void writeLocation(Location location) throws IOException
+    {
+        _out.writeInt(location == null ? -1 : location.getLine());
+        _out.writeInt(location == null ? -1 : location.getColumn());
+    }
+
+    private static Location readLocation(DataInputStream in, String alias) throws IOException
+    {
+        return new Location(alias, in.readInt(), in.readInt());
+    }
+
+    private void writeString(String value) throws IOException
+    {
+        if (value == null)
+        {
+            _out.writeInt(-1);
+        }
+        else
+        {
+            byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+            _out.writeInt(bytes.length);
+            _out.write(bytes);
+        }
+    }
+
+    private static String readString(DataInputStream in) throws IOException
+    {
+        int length = in.readInt();
+        if (length < 0)
+        {
+            return null;
+        }
+        if (length > in.available())
+        {
+            throw new IOException("Invalid compilation event");
+        }
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,230 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.myfaces.view.facelets.compiler;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.apache.myfaces.shared.resource.ResourceLoaderUtils;
+
+/**
+ * Keeps on disk the result of parsing the facelets, so the documents are not parsed again after
+ * a restart or a redeploy.
+ * 
+ * <p>Each entry is a file with the {@link CompilationRecord} of a document and the kind of
+ * compilation (view, view metadata or composite component metadata), the url and the last
+ * modified time of the document. An entry is only used if all of them match, and also the
+ * version of the format, the version of MyFaces and the processing instructions used to parse
+ * it. Otherwise the document is parsed and the entry is written again.</p>
+ * 
+ * <p>The directory can be filled running the application once (for example, in a build step
+ * together with the pre-warm of views) and shipped with it.</p>
+ */
+public final class CompiledFaceletCache
+{
+    private static final Logger log = Logger.getLogger(CompiledFaceletCache.class.getName());
+
+    static final byte VIEW = 1;
+    static final byte VIEW_METADATA = 2;
+    static final byte COMPOSITE_COMPONENT_METADATA = 3;
+
+    private static final int MAGIC = 0x4F414D46;
+    private static final int FORMAT_VERSION = 1;
+    private static final String SUFFIX = ".facelet";
+
+    private static final String MYFACES_VERSION;
+
+    static
+    {
+        String version = CompiledFaceletCache.class.getPackage() == null ? null 
+                : CompiledFaceletCache.class.getPackage().getImplementationVersion();
+        MYFACES_VERSION = version == null ? "unknown" : version;
+    }
+
+    private final File _directory;
+
+    public CompiledFaceletCache(File directory)
+    {
+        _directory = directory;
+    }
+
+    public File getDirectory()
+    {
+        return _directory;
+    }
+
+    /**
+     * Returns the record stored for the document, or null if there is no valid entry.
+     */
+    CompilationRecord load(URL src, byte kind, FaceletsProcessingInstructions instructions)
+    {
+        File file = getFile(src, kind);
+        if (!file.isFile())
+        {
+            return null;
+        }
+        try
+        {
+            long lastModified = ResourceLoaderUtils.getResourceLastModified(src);
+            if (lastModified == 0)
+            {
+                return null;
+            }
+            DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+            try
+            {
+                if (in.readInt() != MAGIC || in.readInt() != FORMAT_VERSION 
+                        || !MYFACES_VERSION.equals(in.readUTF())
+                        || in.readByte() != kind
+                        || in.readInt() != getFlags(instructions)
+                        || in.readLong() != lastModified
+                        || !src.toExternalForm().equals(in.readUTF()))
+                {
+                    return null;
+                }
+                String encoding = in.readBoolean() ? in.readUTF() : null;
+                byte[] events = new byte[in.readInt()];
+                in.readFully(events);
+                return new CompilationRecord(events, encoding);
+            }
+            finally
+            {
+                in.close();
+            }
+        }
+        catch (IOException | RuntimeException e)
+        {
+            if (log.isLoggable(Level.FINE))
+            {
+                log.log(Level.FINE, "Cannot read compiled facelet " + file + " for " + src, e);
+            }
+            return null;
+        }
+    }
+
+    /**
+     * Writes the record of the document. Errors are logged and ignored.
+     */
+    void store(URL src, byte kind, FaceletsProcessingInstructions instructions, CompilationRecord record)
+    {
+        File file = getFile(src, kind);
+        File tmp = null;
+        try
+        {
+            long lastModified = ResourceLoaderUtils.getResourceLastModified(src);
+            if (lastModified == 0)
+            {
+                return;
+            }
+            if (!_directory.isDirectory() && !_directory.mkdirs())
+            {
+                throw new IOException("Cannot create directory " + _directory);
+            }
+            byte[] events = record.getEvents();
+            tmp = File.createTempFile("facelet", ".tmp", _directory);
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)));
+            try
+            {
+                out.writeInt(MAGIC);
+                out.writeInt(FORMAT_VERSION);
+                out.writeUTF(MYFACES_VERSION);
+                out.writeByte(kind);
+                out.writeInt(getFlags(instructions));
+                out.writeLong(lastModified);
+                out.writeUTF(src.toExternalForm());
+                out.writeBoolean(record.getEncoding() != null);
+                if (record.getEncoding() != null)
+                {
+                    out.writeUTF(record.getEncoding());
+                }
+                out.writeInt(events.length);
+                out.write(events);
+            }
+            finally
+            {
+                out.close();
+            }
+            // Other nodes or threads could be writing the same entry, the last one wins
+            if (!tmp.renameTo(file) && !(file.delete() && tmp.renameTo(file)))
+            {
+                throw new IOException("Cannot rename " + tmp + " to " + file);
+            }
+            tmp = null;
+        }
+        catch (IOException | RuntimeException e)
+        {
+            log.log(Level.WARNING, "Cannot write compiled facelet " + file + " for " + src, e);
+        }
+        finally
+        {
+            if (tmp != null)
+            {
+                tmp.delete();
+            }
+        }
+    }
+
+    private File getFile(URL src, byte kind)
+    {
+        try
+        {
+            MessageDigest digest = MessageDigest.getInstance("SHA-1");
+            byte[] hash = digest.digest(src.toExternalForm().getBytes(StandardCharsets.UTF_8));
+            StringBuilder sb = new StringBuilder(hash.length * 2 + 10);
+            for (byte b : hash)
+            {
+                sb.append(Character.forDigit((b >> 4) & 0xF, 16));
+                sb.append(Character.forDigit(b & 0xF, 16));
+            }
+            sb.append('-').append(kind).append(SUFFIX);
+            return new File(_directory, sb.toString());
+        }
+        catch (NoSuchAlgorithmException e)
+        {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * The processing instructions checked by the parser before calling the CompilationManager.
+     */
+    private static int getFlags(FaceletsProcessingInstructions instructions)
+    {
+        int flags = 0;
+        flags |= instructions.isConsumeXmlDocType() ? 1 : 0;
+        flags |= instructions.isConsumeXmlDeclaration() ? 2 : 0;
+        flags |= instructions.isConsumeProcessingInstructions() ? 4 : 0;
+        flags |= instructions.isConsumeCDataSections() ? 8 : 0;
+        flags |= instructions.isConsumeXMLComments() ? 16 : 0;
+        flags |= instructions.isSwallowCDataContent() ? 32 : 0;
+        return flags;
+    }
+}
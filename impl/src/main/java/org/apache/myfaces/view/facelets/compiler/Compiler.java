@@ -77,6 +77,8 @@ public abstract class Compiler
 
     private Collection<FaceletsProcessing> faceletsProcessingConfigurations;
 
+    private CompiledFaceletCache compiledFaceletCache;
+
     /**
      * 
      */
@@ -273,5 +275,24 @@ public abstract class Compiler
     {
         this.faceletsProcessingConfigurations = faceletsProcessingConfigurations;
     }
-}
 
+    /**
+     * 
+     * @since 2.3.3
+     * @return the cache of parsed documents, or null if the documents are always parsed
+     */
+    public CompiledFaceletCache getCompiledFaceletCache()
+    {
+        return compiledFaceletCache;
+    }
+
+    /**
+     * 
+     * @since 2.3.3
+     * @param compiledFaceletCache 
+     */
+    public void setCompiledFaceletCache(CompiledFaceletCache compiledFaceletCache)
+    {
+        this.compiledFaceletCache = compiledFaceletCache;
+    }
+}
@@ -18,6 +18,7 @@
  */
 package org.apache.myfaces.view.facelets.compiler;
 
+import java.io.File;
 import java.util.List;
 import java.util.logging.Level;
 import java.util.logging.Logger;
@@ -76,6 +77,24 @@ public class FaceletsCompilerSupport
 
     private final static String[] PARAMS_SKIP_COMMENTS = {ViewHandler.FACELETS_SKIP_COMMENTS_PARAM_NAME,
         PARAM_SKIP_COMMENTS_DEPRECATED};
+
+    /**
+     * Keep on disk the result of parsing the facelets, so the documents are not parsed again after a restart.
+     * An entry is only reused while the last modified time of the document does not change.
+     */
+    @JSFWebConfigParam(since = "2.3.3", defaultValue = "false", expectedValues = "true, false", 
+            group = "viewhandler", tags = "performance")
+    public final static String FACELETS_COMPILED_CACHE = "org.apache.myfaces.FACELETS_COMPILED_CACHE";
+
+    /**
+     * Directory used to store the parsed facelets. By default it is a directory called oam-facelets 
+     * inside the temporal directory of the web application.
+     */
+    @JSFWebConfigParam(since = "2.3.3", group = "viewhandler")
+    public final static String FACELETS_COMPILED_CACHE_DIRECTORY 
+            = "org.apache.myfaces.FACELETS_COMPILED_CACHE_DIRECTORY";
+
+    private final static String SERVLET_TEMP_DIR = "javax.servlet.context.tempdir";
     
     /**
      * Load the various tag libraries for Facelets.
@@ -204,6 +223,33 @@ public class FaceletsCompilerSupport
         compiler.setFaceletsProcessingConfigurations(
                 RuntimeConfig.getCurrentInstance(
                         context.getExternalContext()).getFaceletProcessingConfigurations());
+
+        if (WebConfigParamUtils.getBooleanInitParameter(eContext, FACELETS_COMPILED_CACHE, false))
+        {
+            File directory = null;
+            String path = WebConfigParamUtils.getStringInitParameter(eContext, FACELETS_COMPILED_CACHE_DIRECTORY);
+            if (path != null)
+            {
+                directory = new File(path);
+            }
+            else
+            {
+                Object tempDir = eContext.getApplicationMap().get(SERVLET_TEMP_DIR);
+                if (tempDir instanceof File)
+                {
+                    directory = new File((File) tempDir, "oam-facelets");
+                }
+            }
+            if (directory != null)
+            {
+                compiler.setCompiledFaceletCache(new CompiledFaceletCache(directory));
+            }
+            else
+            {
+                log.warning(FACELETS_COMPILED_CACHE + " is enabled but no directory is available, set " 
+                        + FACELETS_COMPILED_CACHE_DIRECTORY);
+            }
+        }
     }
     
     private static class LoadComponentTagDeclarationFacesContextWrapper 
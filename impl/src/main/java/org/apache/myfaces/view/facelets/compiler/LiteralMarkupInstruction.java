@@ -0,0 +1,225 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.myfaces.view.facelets.compiler;
+
+import java.io.CharArrayWriter;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import javax.el.ELContext;
+import javax.el.ExpressionFactory;
+import javax.faces.context.FacesContext;
+import javax.faces.context.ResponseWriter;
+
+import org.apache.myfaces.shared.renderkit.html.HTML;
+import org.apache.myfaces.shared.renderkit.html.HtmlResponseWriterImpl;
+
+/**
+ * A sequence of literal instructions containing complete elements, like
+ * <code>&lt;div class="a"&gt;&lt;span&gt;text&lt;/span&gt;&lt;/div&gt;</code>.
+ * 
+ * The first time it is written with a HtmlResponseWriterImpl, the instructions are rendered into a
+ * char[] using a clone of the writer, and from then on the markup is written with a single call.
+ * With any other ResponseWriter, or when the writer is inside an element that changes the way the 
+ * content is written, the instructions are written one by one.
+ * 
+ * @since 2.3.3
+ */
+final class LiteralMarkupInstruction implements Instruction
+{
+    private final Instruction[] instructions;
+
+    /**
+     * Last markup rendered, it is rendered again if the configuration of the writer changes.
+     */
+    private volatile PreRendered preRendered;
+
+    LiteralMarkupInstruction(Instruction[] instructions)
+    {
+        this.instructions = instructions;
+    }
+
+    public void write(FacesContext context) throws IOException
+    {
+        ResponseWriter rw = context.getResponseWriter();
+        if (rw.getClass() == HtmlResponseWriterImpl.class)
+        {
+            PreRendered markup = getPreRendered(context, rw);
+            if (((HtmlResponseWriterImpl) rw).writePreRendered(markup.chars, 0, markup.chars.length))
+            {
+                return;
+            }
+        }
+        for (int i = 0; i < this.instructions.length; i++)
+        {
+            this.instructions[i].write(context);
+        }
+    }
+
+    private PreRendered getPreRendered(FacesContext context, ResponseWriter rw) throws IOException
+    {
+        String key = rw.getContentType() + ';' + rw.getCharacterEncoding() + ';' 
+                + ((HtmlResponseWriterImpl) rw).getWriterContentTypeMode();
+        PreRendered markup = this.preRendered;
+        if (markup != null && markup.key.equals(key))
+        {
+            return markup;
+        }
+
+        CharArrayWriter buffer = new CharArrayWriter(256);
+        ResponseWriter clone = rw.cloneWithWriter(buffer);
+        context.setResponseWriter(clone);
+        try
+        {
+            for (int i = 0; i < this.instructions.length; i++)
+            {
+                this.instructions[i].write(context);
+            }
+            clone.flush();
+        }
+        finally
+        {
+            context.setResponseWriter(rw);
+        }
+        markup = new PreRendered(key, buffer.toCharArray());
+        this.preRendered = markup;
+        return markup;
+    }
+
+    public Instruction apply(ExpressionFactory factory, ELContext ctx)
+    {
+        return this;
+    }
+
+    public boolean isLiteral()
+    {
+        return true;
+    }
+
+    public String toString()
+    {
+        return "LiteralMarkupInstruction" + Arrays.asList(this.instructions);
+    }
+
+    /**
+     * Replaces the sequences of literal instructions containing complete elements with 
+     * a LiteralMarkupInstruction.
+     */
+    static Instruction[] merge(Instruction[] instructions)
+    {
+        List<Instruction> merged = null;
+        int i = 0;
+        while (i < instructions.length)
+        {
+            int end = findCompleteElements(instructions, i);
+            if (end - i > 1)
+            {
+                if (merged == null)
+                {
+                    merged = new ArrayList<Instruction>(instructions.length);
+                    merged.addAll(Arrays.asList(instructions).subList(0, i));
+                }
+                merged.add(new LiteralMarkupInstruction(Arrays.copyOfRange(instructions, i, end)));
+                i = end;
+            }
+            else
+            {
+                if (merged != null)
+                {
+                    merged.add(instructions[i]);
+                }
+                i++;
+            }
+        }
+        return merged == null ? instructions : merged.toArray(new Instruction[merged.size()]);
+    }
+
+    /**
+     * Returns the end of the longest sequence starting in start that contains only complete elements
+     * and literal text, or start if there is no such sequence.
+     */
+    private static int findCompleteElements(Instruction[] instructions, int start)
+    {
+        if (!(instructions[start] instanceof StartElementInstruction))
+        {
+            return start;
+        }
+        int depth = 0;
+        int end = start;
+        for (int i = start; i < instructions.length; i++)
+        {
+            Instruction ins = instructions[i];
+            if (ins instanceof StartElementInstruction)
+            {
+                String element = ((StartElementInstruction) ins).getElement();
+                // The content of script and style is buffered and post processed by the writer
+                if (HTML.SCRIPT_ELEM.equalsIgnoreCase(element) || HTML.STYLE_ELEM.equalsIgnoreCase(element))
+                {
+                    break;
+                }
+                depth++;
+            }
+            else if (ins instanceof EndElementInstruction)
+            {
+                depth--;
+                if (depth < 0)
+                {
+                    break;
+                }
+                if (depth == 0)
+                {
+                    end = i + 1;
+                }
+            }
+            else if (ins instanceof LiteralAttributeInstruction)
+            {
+                if (depth == 0)
+                {
+                    break;
+                }
+            }
+            else if (ins instanceof LiteralTextInstruction || ins instanceof LiteralNonExcapedTextInstruction)
+            {
+                if (depth == 0)
+                {
+                    end = i + 1;
+                }
+            }
+            else
+            {
+                break;
+            }
+        }
+        return end;
+    }
+
+    private static final class PreRendered
+    {
+        private final String key;
+        private final char[] chars;
+
+        PreRendered(String key, char[] chars)
+        {
+            this.key = key;
+            this.chars = chars;
+        }
+    }
+}
@@ -0,0 +1,103 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.myfaces.view.facelets.compiler;
+
+import javax.faces.view.facelets.Tag;
+
+/**
+ * CompilationManager that keeps a {@link CompilationRecord} of the calls done by the parser,
+ * so it can be stored in a {@link CompiledFaceletCache}.
+ */
+final class RecordingCompilationManager extends CompilationManager
+{
+    private final CompilationRecord record = new CompilationRecord();
+
+    public RecordingCompilationManager(String alias, Compiler compiler, FaceletsProcessingInstructions instructions)
+    {
+        super(alias, compiler, instructions);
+    }
+
+    public CompilationRecord getRecord()
+    {
+        return record;
+    }
+
+    @Override
+    public void writeInstruction(String value)
+    {
+        record.writeInstruction(value);
+        super.writeInstruction(value);
+    }
+
+    @Override
+    public void writeDoctype(String name, String publicId, String systemId)
+    {
+        record.writeDoctype(name, publicId, systemId);
+        super.writeDoctype(name, publicId, systemId);
+    }
+
+    @Override
+    public void writeText(String value)
+    {
+        record.writeText(value);
+        super.writeText(value);
+    }
+
+    @Override
+    public void writeComment(String text)
+    {
+        record.writeComment(text);
+        super.writeComment(text);
+    }
+
+    @Override
+    public void writeWhitespace(String text)
+    {
+        record.writeWhitespace(text);
+        super.writeWhitespace(text);
+    }
+
+    @Override
+    public void pushTag(Tag orig)
+    {
+        record.pushTag(orig);
+        super.pushTag(orig);
+    }
+
+    @Override
+    public void popTag()
+    {
+        record.popTag();
+        super.popTag();
+    }
+
+    @Override
+    public void pushNamespace(String prefix, String uri)
+    {
+        record.pushNamespace(prefix, uri);
+        super.pushNamespace(prefix, uri);
+    }
+
+    @Override
+    public void popNamespace(String ns)
+    {
+        record.popNamespace(ns);
+        super.popNamespace(ns);
+    }
+}
@@ -753,13 +753,19 @@ public final class SAXCompiler extends Compiler
     public FaceletHandler doCompile(URL src, String alias)
             throws IOException, FaceletException, ELException, FacesException
     {
+        FaceletsProcessingInstructions instructions = getFaceletsProcessingInstructions(src, alias);
+        FaceletHandler cached = compileFromCache(src, alias, CompiledFaceletCache.VIEW, instructions);
+        if (cached != null)
+        {
+            return cached;
+        }
         CompilationManager mngr = null;
         InputStream is = null;
         String encoding = null;
         try
         {
             is = new BufferedInputStream(src.openStream(), 1024);
-            mngr = new CompilationManager(alias, this, getFaceletsProcessingInstructions(src, alias));
+            mngr = createCompilationManager(alias, instructions);
             encoding = writeXmlDecl(is, mngr);
             CompilationHandler handler = new CompilationHandler(mngr, alias);
             SAXParser parser = this.createSAXParser(handler);
@@ -780,6 +786,7 @@ public final class SAXCompiler extends Compiler
                 is.close();
             }
         }
+        storeInCache(src, CompiledFaceletCache.VIEW, instructions, mngr, encoding);
         return new EncodingHandler(mngr.createFaceletHandler(), encoding);
     }
 
@@ -790,13 +797,19 @@ public final class SAXCompiler extends Compiler
     protected FaceletHandler doCompileViewMetadata(URL src, String alias)
             throws IOException, FaceletException, ELException, FacesException
     {
+        FaceletsProcessingInstructions instructions = getFaceletsProcessingInstructions(src, alias);
+        FaceletHandler cached = compileFromCache(src, alias, CompiledFaceletCache.VIEW_METADATA, instructions);
+        if (cached != null)
+        {
+            return cached;
+        }
         CompilationManager mngr = null;
         InputStream is = null;
         String encoding = null;
         try
         {
             is = new BufferedInputStream(src.openStream(), 1024);
-            mngr = new CompilationManager(alias, this, getFaceletsProcessingInstructions(src, alias));
+            mngr = createCompilationManager(alias, instructions);
             encoding = getXmlDecl(is, mngr);
             final ViewMetadataHandler handler = new ViewMetadataHandler(mngr, alias);
             final SAXParser parser = this.createSAXParser(handler);
@@ -848,6 +861,7 @@ public final class SAXCompiler extends Compiler
                 is.close();
             }
         }
+        storeInCache(src, CompiledFaceletCache.VIEW_METADATA, instructions, mngr, encoding);
         return new EncodingHandler(mngr.createFaceletHandler(), encoding);
     }
 
@@ -858,13 +872,20 @@ public final class SAXCompiler extends Compiler
     protected FaceletHandler doCompileCompositeComponentMetadata(URL src, String alias)
             throws IOException, FaceletException, ELException, FacesException
     {
+        FaceletsProcessingInstructions instructions = getFaceletsProcessingInstructions(src, alias);
+        FaceletHandler cached = compileFromCache(src, alias, 
+                CompiledFaceletCache.COMPOSITE_COMPONENT_METADATA, instructions);
+        if (cached != null)
+        {
+            return cached;
+        }
         CompilationManager mngr = null;
         InputStream is = null;
         String encoding = null;
         try
         {
             is = new BufferedInputStream(src.openStream(), 1024);
-            mngr = new CompilationManager(alias, this, getFaceletsProcessingInstructions(src, alias));
+            mngr = createCompilationManager(alias, instructions);
             encoding = getXmlDecl(is, mngr);
             CompositeComponentMetadataHandler handler = new CompositeComponentMetadataHandler(mngr, alias);
             SAXParser parser = this.createSAXParser(handler);
@@ -885,6 +906,7 @@ public final class SAXCompiler extends Compiler
                 is.close();
             }
         }
+        storeInCache(src, CompiledFaceletCache.COMPOSITE_COMPONENT_METADATA, instructions, mngr, encoding);
         return new EncodingHandler(mngr.createFaceletHandler(), encoding);
     }
     
@@ -970,6 +992,56 @@ public final class SAXCompiler extends Compiler
         return handler;
     }
     
+    private CompilationManager createCompilationManager(String alias, FaceletsProcessingInstructions instructions)
+    {
+        if (getCompiledFaceletCache() != null)
+        {
+            return new RecordingCompilationManager(alias, this, instructions);
+        }
+        return new CompilationManager(alias, this, instructions);
+    }
+
+    /**
+     * Creates the FaceletHandler from the events stored in the CompiledFaceletCache, or returns
+     * null if the document has to be parsed.
+     */
+    private FaceletHandler compileFromCache(URL src, String alias, byte kind, 
+            FaceletsProcessingInstructions instructions)
+    {
+        CompiledFaceletCache cache = getCompiledFaceletCache();
+        if (cache == null)
+        {
+            return null;
+        }
+        CompilationRecord record = cache.load(src, kind, instructions);
+        if (record == null)
+        {
+            return null;
+        }
+        CompilationManager mngr = new CompilationManager(alias, this, instructions);
+        try
+        {
+            record.replay(mngr, alias);
+        }
+        catch (IOException e)
+        {
+            // corrupted entry, parse the document again
+            return null;
+        }
+        return new EncodingHandler(mngr.createFaceletHandler(), record.getEncoding());
+    }
+
+    private void storeInCache(URL src, byte kind, FaceletsProcessingInstructions instructions, 
+            CompilationManager mngr, String encoding)
+    {
+        if (mngr instanceof RecordingCompilationManager)
+        {
+            CompilationRecord record = ((RecordingCompilationManager) mngr).getRecord();
+            record.setEncoding(encoding);
+            getCompiledFaceletCache().store(src, kind, instructions, record);
+        }
+    }
+    
     protected FaceletsProcessingInstructions getDefaultFaceletsProcessingInstructions()
     {
         return FaceletsProcessingInstructions.getProcessingInstructions(FaceletsProcessing.PROCESS_AS_XHTML, false);
@@ -408,6 +408,7 @@ final class TextUnit extends CompilationUnit
                     }
                     Instruction[] instructions = (Instruction[]) this.instructionBuffer
                             .toArray(new Instruction[size]);
+                    instructions = LiteralMarkupInstruction.merge(instructions);
                     this.children.add(new UIInstructionHandler(this.alias, this.id, instructions, txt));
                     this.instructionBuffer.clear();
                 }
@@ -58,6 +58,7 @@ import javax.faces.render.Renderer;
 import org.apache.myfaces.buildtools.maven2.plugin.builder.annotation.JSFComponent;
 import org.apache.myfaces.buildtools.maven2.plugin.builder.annotation.JSFProperty;
 import org.apache.myfaces.cdi.model.DataModelBuilderProxy;
+import org.apache.myfaces.shared.model.WindowedDataModel;
 import org.apache.myfaces.shared.renderkit.html.util.SharedStringBuilder;
 import org.apache.myfaces.util.ExternalSpecifications;
 
@@ -885,7 +886,13 @@ public class UIRepeat extends UIComponentBase implements NamingContainer
 
     private void _validateAttributes() throws FacesException
     {
-        
+        DataModel<?> dataModel = getDataModel();
+        if (dataModel instanceof WindowedDataModel && getBegin() == -1)
+        {
+            // load the rows between offset and offset + size at once
+            ((WindowedDataModel<?>) dataModel).setWindow(getOffset(), getSize());
+        }
+
         int begin = getBegin();
         int end = getEnd();
         int size = getSize();
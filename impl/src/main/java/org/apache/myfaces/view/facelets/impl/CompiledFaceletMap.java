@@ -0,0 +1,177 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.myfaces.view.facelets.impl;
+
+import java.io.IOException;
+import java.net.URL;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+
+import javax.faces.view.facelets.FaceletCache;
+import javax.faces.view.facelets.FaceletException;
+
+import org.apache.myfaces.util.CacheMetrics;
+
+/**
+ * Facelets compiled by URL. When a facelet is not in the map, the first thread that asks for it
+ * compiles it and the threads asking for the same URL at the same time wait for the result,
+ * instead of compiling it again. If the compilation fails, the error is thrown to all of them
+ * and the next call tries again.
+ * 
+ * @param <V> type of the facelet
+ */
+final class CompiledFaceletMap<V>
+{
+    private final ConcurrentHashMap<String, FutureTask<V>> _facelets = new ConcurrentHashMap<String, FutureTask<V>>();
+
+    private final CacheMetrics _metrics = new CacheMetrics()
+    {
+        @Override
+        public long getSize()
+        {
+            return _facelets.size();
+        }
+    };
+
+    /**
+     * Returns the facelet of the url, compiling it if it is not in the map.
+     */
+    V get(URL url, FaceletCache.MemberFactory<V> factory) throws IOException
+    {
+        String key = url.toString();
+        FutureTask<V> task = _facelets.get(key);
+        if (task == null)
+        {
+            FutureTask<V> newTask = createTask(url, factory);
+            task = _facelets.putIfAbsent(key, newTask);
+            if (task == null)
+            {
+                _metrics.miss();
+                _metrics.put();
+                task = newTask;
+                task.run();
+                return await(key, task);
+            }
+        }
+        _metrics.hit();
+        return await(key, task);
+    }
+
+    /**
+     * Compiles again the facelet of the url if the facelet in the map is still the stale one.
+     * If other thread is already doing it, waits for its result.
+     */
+    V refresh(URL url, V stale, FaceletCache.MemberFactory<V> factory) throws IOException
+    {
+        String key = url.toString();
+        while (true)
+        {
+            FutureTask<V> task = _facelets.get(key);
+            if (task == null)
+            {
+                return get(url, factory);
+            }
+            if (!task.isDone() || await(key, task) != stale)
+            {
+                return await(key, task);
+            }
+            FutureTask<V> newTask = createTask(url, factory);
+            if (_facelets.replace(key, task, newTask))
+            {
+                _metrics.evict();
+                _metrics.put();
+                newTask.run();
+                return await(key, newTask);
+            }
+        }
+    }
+
+    boolean containsKey(URL url)
+    {
+        return _facelets.containsKey(url.toString());
+    }
+
+    /**
+     * A hit is a facelet found in the map, even if it is still being compiled, and an eviction is a
+     * facelet compiled again because it was modified.
+     */
+    CacheMetrics getMetrics()
+    {
+        return _metrics;
+    }
+
+    private FutureTask<V> createTask(final URL url, final FaceletCache.MemberFactory<V> factory)
+    {
+        return new FutureTask<V>(new Callable<V>()
+        {
+            @Override
+            public V call() throws IOException
+            {
+                return factory.newInstance(url);
+            }
+        });
+    }
+
+    private V await(String key, FutureTask<V> task) throws IOException
+    {
+        boolean interrupted = false;
+        try
+        {
+            while (true)
+            {
+                try
+                {
+                    return task.get();
+                }
+                catch (InterruptedException e)
+                {
+                    // The facelet is required to continue, wait until it is compiled
+                    interrupted = true;
+                }
+            }
+        }
+        catch (ExecutionException e)
+        {
+            _facelets.remove(key, task);
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException)
+            {
+                throw (IOException) cause;
+            }
+            if (cause instanceof RuntimeException)
+            {
+                throw (RuntimeException) cause;
+            }
+            if (cause instanceof Error)
+            {
+                throw (Error) cause;
+            }
+            throw new FaceletException(cause);
+        }
+        finally
+        {
+            if (interrupted)
+            {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+}
@@ -22,8 +22,8 @@ import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.net.URL;
 import java.net.URLConnection;
-import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import java.util.regex.Pattern;
@@ -42,6 +42,7 @@ import javax.faces.view.facelets.FaceletHandler;
 import javax.faces.view.facelets.ResourceResolver;
 
 import org.apache.myfaces.shared.resource.ResourceLoaderUtils;
+import org.apache.myfaces.util.MetricsRegistry;
 import org.apache.myfaces.view.facelets.AbstractFaceletCache;
 import org.apache.myfaces.view.facelets.FaceletFactory;
 import org.apache.myfaces.view.facelets.compiler.Compiler;
@@ -69,11 +70,21 @@ public final class DefaultFaceletFactory extends FaceletFactory
     
     //private Map<String, DefaultFacelet> _viewMetadataFacelets;
     
-    private Map<String, DefaultFacelet> _compositeComponentMetadataFacelets;
+    private final CompiledFaceletMap<DefaultFacelet> _compositeComponentMetadataFacelets
+            = new CompiledFaceletMap<DefaultFacelet>();
+    
+    private final FaceletCache.MemberFactory<DefaultFacelet> _compositeComponentMetadataFaceletFactory
+            = new FaceletCache.MemberFactory<DefaultFacelet>()
+    {
+        public DefaultFacelet newInstance(URL url) throws IOException
+        {
+            return _createCompositeComponentMetadataFacelet(url);
+        }
+    };
 
     private long _refreshPeriod;
 
-    private Map<String, URL> _relativeLocations;
+    private final Map<String, URL> _relativeLocations = new ConcurrentHashMap<String, URL>();
 
     private javax.faces.view.facelets.ResourceResolver _resolver;
     private DefaultResourceResolver _defaultResolver;
@@ -97,10 +108,6 @@ public final class DefaultFaceletFactory extends FaceletFactory
         
         //_viewMetadataFacelets = new HashMap<String, DefaultFacelet>();
         
-        _compositeComponentMetadataFacelets = new HashMap<String, DefaultFacelet>();
-
-        _relativeLocations = new HashMap<String, URL>();
-
         _resolver = resolver;
         if (_resolver instanceof DefaultResourceResolver)
         {
@@ -175,6 +182,14 @@ public final class DefaultFaceletFactory extends FaceletFactory
             }            
         }
 
+        Object faceletCache = _faceletCache;
+        FacesContext facesContext = FacesContext.getCurrentInstance();
+        if (faceletCache instanceof FaceletCacheImpl && facesContext != null)
+        {
+            ((FaceletCacheImpl) faceletCache).registerMetrics(
+                    MetricsRegistry.getInstance(facesContext.getExternalContext()));
+        }
+
         if (log.isLoggable(Level.FINE))
         {
             log.fine("Using ResourceResolver: " + _resolver);
@@ -225,9 +240,7 @@ public final class DefaultFaceletFactory extends FaceletFactory
                 }
                 else
                 {
-                    Map<String, URL> newLoc = new HashMap<String, URL>(_relativeLocations);
-                    newLoc.put(uri, url);
-                    _relativeLocations = newLoc;
+                    _relativeLocations.put(uri, url);
                 }
             }
             else
@@ -487,9 +500,7 @@ public final class DefaultFaceletFactory extends FaceletFactory
                 }
                 else
                 {
-                    Map<String, URL> newLoc = new HashMap<String, URL>(_relativeLocations);
-                    newLoc.put(uri, url);
-                    _relativeLocations = newLoc;
+                    _relativeLocations.put(uri, url);
                 }
             }
             else
@@ -541,9 +552,7 @@ public final class DefaultFaceletFactory extends FaceletFactory
                 }
                 else
                 {
-                    Map<String, URL> newLoc = new HashMap<String, URL>(_relativeLocations);
-                    newLoc.put(uri, url);
-                    _relativeLocations = newLoc;
+                    _relativeLocations.put(uri, url);
                 }
             }
             else
@@ -569,20 +578,16 @@ public final class DefaultFaceletFactory extends FaceletFactory
         {
             ParameterCheck.notNull("url", url);
 
-            String key = url.toString();
-
-            DefaultFacelet f = _compositeComponentMetadataFacelets.get(key);
+            if (_refreshPeriod == NO_CACHE_DELAY)
+            {
+                return this._createCompositeComponentMetadataFacelet(url);
+            }
 
-            if (f == null || this.needsToBeRefreshed(f))
+            DefaultFacelet f = _compositeComponentMetadataFacelets.get(url, 
+                    _compositeComponentMetadataFaceletFactory);
+            if (this.needsToBeRefreshed(f))
             {
-                f = this._createCompositeComponentMetadataFacelet(url);
-                if (_refreshPeriod != NO_CACHE_DELAY)
-                {
-                    Map<String, DefaultFacelet> newLoc
-                            = new HashMap<String, DefaultFacelet>(_compositeComponentMetadataFacelets);
-                    newLoc.put(key, f);
-                    _compositeComponentMetadataFacelets = newLoc;
-                }
+                f = _compositeComponentMetadataFacelets.refresh(url, f, _compositeComponentMetadataFaceletFactory);
             }
             return f;
         }
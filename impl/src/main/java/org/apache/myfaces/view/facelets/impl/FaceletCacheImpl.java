@@ -22,13 +22,12 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.net.URL;
 import java.net.URLConnection;
-import java.util.HashMap;
-import java.util.Map;
 
 import javax.faces.view.facelets.FaceletCache;
 import javax.faces.view.facelets.FaceletException;
 
 import org.apache.myfaces.shared.resource.ResourceLoaderUtils;
+import org.apache.myfaces.util.MetricsRegistry;
 import org.apache.myfaces.view.facelets.util.ParameterCheck;
 
 /**
@@ -54,19 +53,26 @@ class FaceletCacheImpl extends FaceletCache<DefaultFacelet>
     private static final long INFINITE_DELAY = -1;
     private static final long NO_CACHE_DELAY = 0;
     
-    private Map<String, DefaultFacelet> _facelets;
+    private final CompiledFaceletMap<DefaultFacelet> _facelets = new CompiledFaceletMap<DefaultFacelet>();
     
-    private Map<String, DefaultFacelet> _viewMetadataFacelets;
+    private final CompiledFaceletMap<DefaultFacelet> _viewMetadataFacelets
+            = new CompiledFaceletMap<DefaultFacelet>();
 
     private long _refreshPeriod;
     
     FaceletCacheImpl(long refreshPeriod)
     {
         _refreshPeriod = refreshPeriod < 0 ? INFINITE_DELAY : refreshPeriod * 1000;
-        
-        _facelets = new HashMap<String, DefaultFacelet>();
-        
-        _viewMetadataFacelets = new HashMap<String, DefaultFacelet>();
+    }
+
+    /**
+     * Registers the metrics of the cached facelets, the ones used to build views and the ones used to
+     * read the view metadata.
+     */
+    void registerMetrics(MetricsRegistry registry)
+    {
+        registry.register("FaceletCache.facelets", _facelets.getMetrics());
+        registry.register("FaceletCache.viewMetadataFacelets", _viewMetadataFacelets.getMetrics());
     }
 
     @Override
@@ -74,29 +80,13 @@ class FaceletCacheImpl extends FaceletCache<DefaultFacelet>
     {
         ParameterCheck.notNull("url", url);
         
-        String key = url.toString();
-        
-        DefaultFacelet f = _facelets.get(key);
-        
-        if (f == null || this.needsToBeRefreshed(f))
-        {
-            //f = this._createFacelet(url);
-            f = getMemberFactory().newInstance(url);
-            if (_refreshPeriod != NO_CACHE_DELAY)
-            {
-                Map<String, DefaultFacelet> newLoc = new HashMap<String, DefaultFacelet>(_facelets);
-                newLoc.put(key, f);
-                _facelets = newLoc;
-            }
-        }
-        
-        return f;
+        return getFacelet(_facelets, url, getMemberFactory());
     }
     
     @Override
     public boolean isFaceletCached(URL url)
     {
-        return _facelets.containsKey(url.toString());
+        return _facelets.containsKey(url);
     }
 
     @Override
@@ -104,29 +94,29 @@ class FaceletCacheImpl extends FaceletCache<DefaultFacelet>
     {
         ParameterCheck.notNull("url", url);
         
-        String key = url.toString();
-        
-        DefaultFacelet f = _viewMetadataFacelets.get(key);
-        
-        if (f == null || this.needsToBeRefreshed(f))
-        {
-            //f = this._createViewMetadataFacelet(url);
-            f = getMetadataMemberFactory().newInstance(url);
-            if (_refreshPeriod != NO_CACHE_DELAY)
-            {
-                Map<String, DefaultFacelet> newLoc = new HashMap<String, DefaultFacelet>(_viewMetadataFacelets);
-                newLoc.put(key, f);
-                _viewMetadataFacelets = newLoc;
-            }
-        }
-        
-        return f;
+        return getFacelet(_viewMetadataFacelets, url, getMetadataMemberFactory());
     }
 
     @Override
     public boolean isViewMetadataFaceletCached(URL url)
     {
-        return _viewMetadataFacelets.containsKey(url.toString());
+        return _viewMetadataFacelets.containsKey(url);
+    }
+
+    private DefaultFacelet getFacelet(CompiledFaceletMap<DefaultFacelet> facelets, URL url,
+            MemberFactory<DefaultFacelet> factory) throws IOException
+    {
+        if (_refreshPeriod == NO_CACHE_DELAY)
+        {
+            return factory.newInstance(url);
+        }
+        
+        DefaultFacelet f = facelets.get(url, factory);
+        if (this.needsToBeRefreshed(f))
+        {
+            f = facelets.refresh(url, f, factory);
+        }
+        return f;
     }
 
     /**
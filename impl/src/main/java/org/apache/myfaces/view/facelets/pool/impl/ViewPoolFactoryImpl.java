@@ -28,6 +28,7 @@ import org.apache.myfaces.config.RuntimeConfig;
 import org.apache.myfaces.config.element.ViewPoolMapping;
 import org.apache.myfaces.config.element.ViewPoolParameter;
 import org.apache.myfaces.shared.util.ViewProtectionUtils;
+import org.apache.myfaces.util.MetricsRegistry;
 import org.apache.myfaces.view.facelets.ViewPoolProcessor;
 import org.apache.myfaces.view.facelets.pool.ViewPool;
 import org.apache.myfaces.view.facelets.pool.ViewPoolFactory;
@@ -44,10 +45,13 @@ public class ViewPoolFactoryImpl extends ViewPoolFactory
     public ViewPoolFactoryImpl(FacesContext context)
     {
         RuntimeConfig runtimeConfig = RuntimeConfig.getCurrentInstance(context.getExternalContext());
+        MetricsRegistry metricsRegistry = MetricsRegistry.getInstance(context.getExternalContext());
         // If no view pool mappings set, apply to all views.
         if (runtimeConfig.getViewPoolMappings().isEmpty())
         {
-            defaultViewPool = new ViewPoolImpl(context, new HashMap<String, String>());
+            ViewPoolImpl viewPool = new ViewPoolImpl(context, new HashMap<String, String>());
+            metricsRegistry.register("ViewPool", viewPool.getMetrics());
+            defaultViewPool = viewPool;
         }
         urlPatterns = new ArrayList<String>();
         viewPoolList = new ArrayList<ViewPool>();
@@ -59,7 +63,9 @@ public class ViewPoolFactoryImpl extends ViewPoolFactory
             {
                 parameters.put(param.getName(), param.getValue());
             }
-            viewPoolList.add(new ViewPoolImpl(context, parameters));
+            ViewPoolImpl viewPool = new ViewPoolImpl(context, parameters);
+            metricsRegistry.register("ViewPool." + vpm.getUrlPattern(), viewPool.getMetrics());
+            viewPoolList.add(viewPool);
         }
     }
     
@@ -26,6 +26,7 @@ import javax.faces.component.UIViewRoot;
 import javax.faces.context.FacesContext;
 import org.apache.myfaces.context.RequestViewContext;
 import org.apache.myfaces.shared.util.WebConfigParamUtils;
+import org.apache.myfaces.util.CacheMetrics;
 import org.apache.myfaces.view.facelets.pool.RestoreViewFromPoolResult;
 import org.apache.myfaces.view.facelets.pool.ViewPool;
 import org.apache.myfaces.view.facelets.pool.ViewEntry;
@@ -58,6 +59,20 @@ public class ViewPoolImpl extends ViewPool
     private Map<MetadataViewKey, ViewStructureMetadata> staticStructureViewMetadataMap;
     private Map<MetadataViewKey, Map<DynamicViewKey, ViewStructureMetadata>> 
             dynamicStructureViewMetadataMap;
+
+    private final CacheMetrics metrics = new CacheMetrics()
+    {
+        @Override
+        public long getSize()
+        {
+            long size = count(staticStructureViewPool) + count(partialStructureViewPool);
+            for (Map<DynamicViewKey, ViewPoolEntryHolder> map : dynamicStructureViewPool.values())
+            {
+                size += count(map);
+            }
+            return size;
+        }
+    };
     
     public ViewPoolImpl(FacesContext facesContext, Map<String, String> parameters)
     {
@@ -100,7 +115,14 @@ public class ViewPoolImpl extends ViewPool
             q = new ViewPoolEntryHolder(maxCount);
             staticStructureViewPool.put(key, q);
         }
-        q.add(entry);
+        if (q.add(entry))
+        {
+            metrics.put();
+        }
+        else
+        {
+            metrics.evict();
+        }
     }
     
     protected ViewEntry popStaticStructureView(FacesContext context, MetadataViewKey key)
@@ -121,6 +143,7 @@ public class ViewPoolImpl extends ViewPool
             {
                 return entry;
             }
+            metrics.evict();
             entry = q.poll();
         }
         while (entry != null);
@@ -135,7 +158,14 @@ public class ViewPoolImpl extends ViewPool
             q = new ViewPoolEntryHolder(maxCount);
             partialStructureViewPool.put(key, q);
         }
-        q.add(entry);
+        if (q.add(entry))
+        {
+            metrics.put();
+        }
+        else
+        {
+            metrics.evict();
+        }
     }
     
     protected ViewEntry popPartialStructureView(FacesContext context, MetadataViewKey key)
@@ -156,6 +186,7 @@ public class ViewPoolImpl extends ViewPool
             {
                 return entry;
             }
+            metrics.evict();
             entry = q.poll();
         }while (entry != null);
         return null;
@@ -215,7 +246,11 @@ public class ViewPoolImpl extends ViewPool
             q = new ViewPoolEntryHolder(maxCount);
             map.put(key, q);
         }
-        if (!q.add(entry))
+        if (q.add(entry))
+        {
+            metrics.put();
+        }
+        else
         {
             pushPartialStructureView(context, ordinaryKey, entry);
         }
@@ -241,6 +276,7 @@ public class ViewPoolImpl extends ViewPool
             {
                 return entry;
             }
+            metrics.evict();
             entry = q.poll();
         }
         return null;
@@ -303,6 +339,7 @@ public class ViewPoolImpl extends ViewPool
                                     {
                                         break;
                                     }
+                                    metrics.evict();
                                     entry = maxEntry.poll();
                                 }
                                 while (entry != null);
@@ -320,6 +357,7 @@ public class ViewPoolImpl extends ViewPool
                 }
             }
         }
+        countLookup(entry);
         return entry;
     }
 
@@ -347,6 +385,7 @@ public class ViewPoolImpl extends ViewPool
         {
             entry.setResult(RestoreViewFromPoolResult.COMPLETE);
         }
+        countLookup(entry);
         return entry;
     }
 
@@ -453,6 +492,37 @@ public class ViewPoolImpl extends ViewPool
         return null;
     }
 
+    /**
+     * Counters of the pool. An eviction is a view not kept because the pool was full, or a pooled
+     * view discarded because it was garbage collected.
+     */
+    public CacheMetrics getMetrics()
+    {
+        return metrics;
+    }
+
+    private void countLookup(ViewEntry entry)
+    {
+        if (entry != null)
+        {
+            metrics.hit();
+        }
+        else
+        {
+            metrics.miss();
+        }
+    }
+
+    private static long count(Map<?, ViewPoolEntryHolder> pool)
+    {
+        long count = 0;
+        for (ViewPoolEntryHolder holder : pool.values())
+        {
+            count += Math.max(0, holder.getCount());
+        }
+        return count;
+    }
+
     /**
      * @return the deferredNavigation
      */
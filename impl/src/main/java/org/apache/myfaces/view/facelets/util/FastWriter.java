@@ -20,6 +20,9 @@ package org.apache.myfaces.view.facelets.util;
 
 import java.io.IOException;
 import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+import org.apache.myfaces.shared.util.CharChunkPool;
 
 /**
  * @author Jacob Hookom
@@ -31,6 +34,14 @@ public final class FastWriter extends Writer
     private char[] buff;
     private int size;
 
+    /**
+     * When a lease is used the content is stored in fixed size chunks taken from the pool,
+     * instead of growing and copying a single array. full holds the filled chunks.
+     */
+    private final CharChunkPool.Lease lease;
+    private List<char[]> full;
+    private int fullSize;
+
     public FastWriter()
     {
         this(1024);
@@ -43,6 +54,21 @@ public final class FastWriter extends Writer
             throw new IllegalArgumentException("Initial Size cannot be less than 0");
         }
         this.buff = new char[initialSize];
+        this.lease = null;
+    }
+
+    /**
+     * Creates a writer that takes its buffers from the lease, so it must not be used after
+     * the request. If lease is null, it behaves as a writer with the given initial size.
+     */
+    public FastWriter(int initialSize, CharChunkPool.Lease lease)
+    {
+        if (initialSize < 0)
+        {
+            throw new IllegalArgumentException("Initial Size cannot be less than 0");
+        }
+        this.lease = lease;
+        this.buff = lease == null ? new char[initialSize] : lease.acquire();
     }
 
     public void close() throws IOException
@@ -65,8 +91,36 @@ public final class FastWriter extends Writer
         }
     }
 
+    private void nextChunk()
+    {
+        if (this.full == null)
+        {
+            this.full = new ArrayList<char[]>();
+        }
+        this.full.add(this.buff);
+        this.fullSize += this.size;
+        this.buff = this.lease.acquire();
+        this.size = 0;
+    }
+
     public void write(char[] cbuf, int off, int len) throws IOException
     {
+        if (this.lease != null)
+        {
+            while (len > 0)
+            {
+                if (this.size == this.buff.length)
+                {
+                    nextChunk();
+                }
+                int n = Math.min(len, this.buff.length - this.size);
+                System.arraycopy(cbuf, off, this.buff, this.size, n);
+                this.size += n;
+                off += n;
+                len -= n;
+            }
+            return;
+        }
         overflow(len);
         System.arraycopy(cbuf, off, this.buff, this.size, len);
         this.size += len;
@@ -79,13 +133,39 @@ public final class FastWriter extends Writer
 
     public void write(int c) throws IOException
     {
-        this.overflow(1);
+        if (this.lease != null)
+        {
+            if (this.size == this.buff.length)
+            {
+                nextChunk();
+            }
+        }
+        else
+        {
+            this.overflow(1);
+        }
         this.buff[this.size] = (char) c;
         this.size++;
     }
 
     public void write(String str, int off, int len) throws IOException
     {
+        if (this.lease != null)
+        {
+            while (len > 0)
+            {
+                if (this.size == this.buff.length)
+                {
+                    nextChunk();
+                }
+                int n = Math.min(len, this.buff.length - this.size);
+                str.getChars(off, off + n, this.buff, this.size);
+                this.size += n;
+                off += n;
+                len -= n;
+            }
+            return;
+        }
         overflow(len);
         str.getChars(off, off+len, this.buff, size);
         this.size += len;
@@ -98,11 +178,29 @@ public final class FastWriter extends Writer
 
     public void reset()
     {
+        if (this.full != null && !this.full.isEmpty())
+        {
+            // Keep the first chunk, the others stay in the lease until the request ends
+            this.buff = this.full.get(0);
+            this.full.clear();
+        }
+        this.fullSize = 0;
         this.size = 0;
     }
 
     public String toString()
     {
-        return new String(this.buff, 0, this.size);
+        if (this.full == null || this.full.isEmpty())
+        {
+            return new String(this.buff, 0, this.size);
+        }
+        StringBuilder sb = new StringBuilder(this.fullSize + this.size);
+        for (int i = 0, n = this.full.size(); i < n; i++)
+        {
+            char[] chunk = this.full.get(i);
+            sb.append(chunk, 0, chunk.length);
+        }
+        sb.append(this.buff, 0, this.size);
+        return sb.toString();
     }
 }
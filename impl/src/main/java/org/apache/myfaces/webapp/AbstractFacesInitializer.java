@@ -18,6 +18,7 @@
  */
 package org.apache.myfaces.webapp;
 
+import org.apache.myfaces.application.viewstate.StateCacheUtils;
 import org.apache.myfaces.buildtools.maven2.plugin.builder.annotation.JSFWebConfigParam;
 import org.apache.myfaces.config.FacesConfigValidator;
 import org.apache.myfaces.config.FacesConfigurator;
@@ -28,6 +29,7 @@ import org.apache.myfaces.context.ReleaseableExternalContext;
 import org.apache.myfaces.context.servlet.StartupFacesContextImpl;
 import org.apache.myfaces.context.servlet.StartupServletExternalContextImpl;
 import org.apache.myfaces.ee.MyFacesContainerInitializer;
+import org.apache.myfaces.lifecycle.LifecycleProfiler;
 import org.apache.myfaces.shared.application.FacesServletMappingUtils;
 import org.apache.myfaces.shared.context.ExceptionHandlerImpl;
 import org.apache.myfaces.shared.util.StateUtils;
@@ -41,6 +43,7 @@ import org.apache.myfaces.spi.ViewScopeProviderFactory;
 import org.apache.myfaces.spi.WebConfigProvider;
 import org.apache.myfaces.spi.WebConfigProviderFactory;
 import org.apache.myfaces.util.ExternalSpecifications;
+import org.apache.myfaces.util.MetricsRegistry;
 import org.apache.myfaces.view.facelets.tag.MetaRulesetImpl;
 
 import javax.el.ExpressionFactory;
@@ -237,6 +240,15 @@ public abstract class AbstractFacesInitializer implements FacesInitializer
             //Start ViewPoolProcessor if necessary
             ViewPoolProcessor.initialize(facesContext);
             
+            //Compile facelets in background if necessary
+            FaceletsPrewarmer.initialize(this, facesContext, servletContext);
+
+            //Install the lifecycle profiler if necessary
+            LifecycleProfiler.initialize(facesContext);
+
+            //Expose the metrics of the caches through JMX if necessary
+            MetricsRegistry.initialize(facesContext);
+            
             Boolean automaticExtensionlessMapping = WebConfigParamUtils.getBooleanInitParameter(
                     externalContext, INIT_PARAM_AUTOMATIC_EXTENSIONLESS_MAPPING, 
                     INIT_PARAM_AUTOMATIC_EXTENSIONLESS_MAPPING_DEFAULT);
@@ -405,6 +417,14 @@ public abstract class AbstractFacesInitializer implements FacesInitializer
             }
         }
 
+        FaceletsPrewarmer.destroy(facesContext.getExternalContext());
+
+        LifecycleProfiler.destroy(facesContext.getExternalContext());
+
+        MetricsRegistry.destroy(facesContext.getExternalContext());
+
+        StateCacheUtils.destroy(facesContext.getExternalContext());
+
         _dispatchApplicationEvent(servletContext, PreDestroyApplicationEvent.class);
 
         _callPreDestroyOnInjectedJSFArtifacts(facesContext);
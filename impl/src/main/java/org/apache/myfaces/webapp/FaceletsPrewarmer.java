@@ -0,0 +1,346 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.myfaces.webapp;
+
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.faces.application.Resource;
+import javax.faces.application.ResourceHandler;
+import javax.faces.application.ViewResource;
+import javax.faces.context.ExternalContext;
+import javax.faces.context.FacesContext;
+import javax.faces.view.ViewDeclarationLanguage;
+import javax.faces.view.ViewDeclarationLanguageWrapper;
+import javax.servlet.ServletContext;
+
+import org.apache.myfaces.buildtools.maven2.plugin.builder.annotation.JSFWebConfigParam;
+import org.apache.myfaces.shared.util.WebConfigParamUtils;
+import org.apache.myfaces.view.facelets.FaceletFactory;
+import org.apache.myfaces.view.facelets.FaceletViewDeclarationLanguage;
+
+/**
+ * Compiles the views and composite components of the web application in background when
+ * the application starts, so the first requests do not pay the cost of parsing them.
+ * 
+ * The documents are found on the startup thread, using ResourceHandler.getViewResources(...),
+ * and compiled on a fixed number of threads into the same caches used by FaceletFactory.
+ * A request that needs a facelet being compiled just waits for the result. When all documents
+ * has been compiled, the time spent on each one is logged.
+ * 
+ * Only the documents of the web application are compiled: the composite components packaged in
+ * jars (META-INF/resources) and the ones declared by a tag library (composite-library-name) are
+ * not listed by getViewResources(...), so they are still compiled on their first use.
+ *
+ * @since 2.3.3
+ */
+public class FaceletsPrewarmer
+{
+    private static final Logger log = Logger.getLogger(FaceletsPrewarmer.class.getName());
+
+    /**
+     * Compile in background the views and composite components of the web application when it starts.
+     */
+    @JSFWebConfigParam(since = "2.3.3", defaultValue = "false", expectedValues = "true, false", 
+            group = "viewhandler", tags = "performance")
+    public static final String INIT_PARAM_FACELETS_PREWARM = "org.apache.myfaces.FACELETS_PREWARM";
+
+    /**
+     * Number of threads used to compile the facelets when the application starts. By default it is 
+     * the number of available processors, up to 4.
+     */
+    @JSFWebConfigParam(since = "2.3.3", classType = "java.lang.Integer", group = "viewhandler", 
+            tags = "performance")
+    public static final String INIT_PARAM_FACELETS_PREWARM_THREADS = "org.apache.myfaces.FACELETS_PREWARM_THREADS";
+
+    static final String INSTANCE = "oam.FaceletsPrewarmer";
+
+    private static final String WEBAPP_RESOURCES_DIRECTORY = "resources";
+
+    private static final long DESTROY_TIMEOUT = 5;
+
+    private final FacesInitializer _initializer;
+    private final ServletContext _servletContext;
+    private final ClassLoader _classLoader;
+    private final Map<String, Long> _timings = new ConcurrentHashMap<String, Long>();
+    private final AtomicInteger _pending = new AtomicInteger();
+    private final AtomicInteger _failed = new AtomicInteger();
+    private ExecutorService _executor;
+    private int _threads;
+    private long _start;
+
+    FaceletsPrewarmer(FacesInitializer initializer, ServletContext servletContext, ClassLoader classLoader)
+    {
+        _initializer = initializer;
+        _servletContext = servletContext;
+        _classLoader = classLoader;
+    }
+
+    /**
+     * Starts the compilation of the facelets, if it has been enabled.
+     */
+    public static void initialize(FacesInitializer initializer, FacesContext facesContext, 
+            ServletContext servletContext)
+    {
+        ExternalContext externalContext = facesContext.getExternalContext();
+        if (!WebConfigParamUtils.getBooleanInitParameter(externalContext, INIT_PARAM_FACELETS_PREWARM, false))
+        {
+            return;
+        }
+
+        FaceletsPrewarmer prewarmer = new FaceletsPrewarmer(initializer, servletContext, 
+                Thread.currentThread().getContextClassLoader());
+        List<Task> tasks = prewarmer.collectTasks(facesContext);
+        if (tasks.isEmpty())
+        {
+            return;
+        }
+
+        int threads = WebConfigParamUtils.getIntegerInitParameter(externalContext, 
+                INIT_PARAM_FACELETS_PREWARM_THREADS, Math.min(4, Runtime.getRuntime().availableProcessors()));
+        externalContext.getApplicationMap().put(INSTANCE, prewarmer);
+        prewarmer.start(tasks, Math.max(1, threads));
+    }
+
+    /**
+     * Stops the compilation of the facelets that has not been started yet, and waits for the ones
+     * being compiled, so they do not use the application while it is destroyed.
+     */
+    public static void destroy(ExternalContext externalContext)
+    {
+        FaceletsPrewarmer prewarmer = (FaceletsPrewarmer) externalContext.getApplicationMap().remove(INSTANCE);
+        if (prewarmer != null && prewarmer._executor != null)
+        {
+            prewarmer._executor.shutdownNow();
+            try
+            {
+                if (!prewarmer.awaitTermination(DESTROY_TIMEOUT, TimeUnit.SECONDS))
+                {
+                    log.warning("Facelets still being compiled after " + DESTROY_TIMEOUT + " seconds");
+                }
+            }
+            catch (InterruptedException e)
+            {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * Resolves the documents to compile. This is done on the startup thread, because the tag libraries are
+     * loaded when the ViewDeclarationLanguage is created and the resource lookup needs the startup context.
+     */
+    List<Task> collectTasks(FacesContext facesContext)
+    {
+        List<Task> tasks = new ArrayList<Task>();
+        ResourceHandler resourceHandler = facesContext.getApplication().getResourceHandler();
+        String resourcesPrefix = "/" + WebConfigParamUtils.getStringInitParameter(facesContext.getExternalContext(),
+                ResourceHandler.WEBAPP_RESOURCES_DIRECTORY_PARAM_NAME, WEBAPP_RESOURCES_DIRECTORY) + "/";
+
+        Iterator<String> it = resourceHandler.getViewResources(facesContext, "/", Integer.MAX_VALUE).iterator();
+        while (it.hasNext())
+        {
+            String path = it.next();
+            try
+            {
+                FaceletFactory factory = getFaceletFactory(facesContext, path);
+                if (factory == null)
+                {
+                    continue;
+                }
+                if (path.startsWith(resourcesPrefix))
+                {
+                    // resources/<library>/<name>, a composite component
+                    String libraryAndName = path.substring(resourcesPrefix.length());
+                    int slash = libraryAndName.indexOf('/');
+                    if (slash > 0)
+                    {
+                        Resource resource = resourceHandler.createResource(
+                                libraryAndName.substring(slash + 1), libraryAndName.substring(0, slash));
+                        if (resource != null && resource.getURL() != null)
+                        {
+                            tasks.add(new Task(path, factory, resource.getURL(), true));
+                        }
+                    }
+                }
+                else
+                {
+                    ViewResource resource = resourceHandler.createViewResource(facesContext, path);
+                    if (resource != null && resource.getURL() != null)
+                    {
+                        tasks.add(new Task(path, factory, resource.getURL(), false));
+                    }
+                }
+            }
+            catch (RuntimeException e)
+            {
+                log.log(Level.FINE, "Cannot resolve " + path, e);
+            }
+        }
+        return tasks;
+    }
+
+    private static FaceletFactory getFaceletFactory(FacesContext facesContext, String viewId)
+    {
+        ViewDeclarationLanguage vdl = facesContext.getApplication().getViewHandler()
+                .getViewDeclarationLanguage(facesContext, viewId);
+        while (vdl instanceof ViewDeclarationLanguageWrapper)
+        {
+            vdl = ((ViewDeclarationLanguageWrapper) vdl).getWrapped();
+        }
+        if (vdl instanceof FaceletViewDeclarationLanguage)
+        {
+            return ((FaceletViewDeclarationLanguage) vdl).getFaceletFactory();
+        }
+        return null;
+    }
+
+    void start(List<Task> tasks, int threads)
+    {
+        _threads = threads;
+        _pending.set(tasks.size());
+        _start = System.nanoTime();
+        _executor = Executors.newFixedThreadPool(threads, new PrewarmThreadFactory());
+        for (Task task : tasks)
+        {
+            _executor.execute(task);
+        }
+        _executor.shutdown();
+    }
+
+    /**
+     * Wait until all documents has been compiled.
+     */
+    boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException
+    {
+        return _executor.awaitTermination(timeout, unit);
+    }
+
+    private void compile(Task task)
+    {
+        FacesContext facesContext = _initializer.initStartupFacesContext(_servletContext);
+        FaceletFactory.setInstance(task.factory);
+        long start = System.nanoTime();
+        try
+        {
+            if (task.compositeComponent)
+            {
+                task.factory.getCompositeComponentMetadataFacelet(task.url);
+                task.factory.getFacelet(task.url);
+            }
+            else
+            {
+                task.factory.getFacelet(task.url);
+                task.factory.getViewMetadataFacelet(task.url);
+            }
+            _timings.put(task.path, System.nanoTime() - start);
+        }
+        catch (Exception e)
+        {
+            _failed.incrementAndGet();
+            // The error will be reported again when the document is used
+            log.log(Level.WARNING, "Cannot compile " + task.path + ": " + e.getMessage());
+            log.log(Level.FINE, "Cannot compile " + task.path, e);
+        }
+        finally
+        {
+            FaceletFactory.setInstance(null);
+            _initializer.destroyStartupFacesContext(facesContext);
+        }
+    }
+
+    private void completed()
+    {
+        if (_pending.decrementAndGet() == 0 && log.isLoggable(Level.INFO))
+        {
+            List<Map.Entry<String, Long>> entries = new ArrayList<Map.Entry<String, Long>>(_timings.entrySet());
+            entries.sort((a, b) -> Long.compare(b.getValue(), a.getValue()));
+
+            StringBuilder message = new StringBuilder(64 + entries.size() * 48);
+            message.append("Compiled ").append(entries.size()).append(" facelets in ");
+            message.append(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - _start));
+            message.append(" ms using ").append(_threads).append(" threads");
+            if (_failed.get() > 0)
+            {
+                message.append(", ").append(_failed.get()).append(" failed");
+            }
+            for (Map.Entry<String, Long> entry : entries)
+            {
+                message.append("\n  ");
+                message.append(String.format("%8.2f", entry.getValue() / 1000000.0));
+                message.append(" ms  ").append(entry.getKey());
+            }
+            log.info(message.toString());
+        }
+    }
+
+    final class Task implements Runnable
+    {
+        final String path;
+        final FaceletFactory factory;
+        final URL url;
+        final boolean compositeComponent;
+
+        Task(String path, FaceletFactory factory, URL url, boolean compositeComponent)
+        {
+            this.path = path;
+            this.factory = factory;
+            this.url = url;
+            this.compositeComponent = compositeComponent;
+        }
+
+        @Override
+        public void run()
+        {
+            try
+            {
+                compile(this);
+            }
+            finally
+            {
+                completed();
+            }
+        }
+    }
+
+    private final class PrewarmThreadFactory implements ThreadFactory
+    {
+        private final AtomicInteger _count = new AtomicInteger();
+
+        @Override
+        public Thread newThread(Runnable r)
+        {
+            Thread thread = new Thread(r, "myfaces-facelets-prewarm-" + _count.incrementAndGet());
+            thread.setDaemon(true);
+            // FactoryFinder and the resource loaders depend on the web application class loader
+            thread.setContextClassLoader(_classLoader);
+            return thread;
+        }
+    }
+}
@@ -18,9 +18,13 @@
  */
 package org.apache.myfaces.application;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileNotFoundException;
+import java.io.IOException;
 import java.io.InputStream;
+import java.lang.reflect.Field;
 import java.net.MalformedURLException;
 import java.net.URI;
 import org.apache.myfaces.test.base.AbstractJsfTestCase;
@@ -28,11 +32,20 @@ import org.junit.Assert;
 import org.junit.Test;
 
 import javax.faces.application.Resource;
+import javax.faces.context.FacesContext;
 import java.net.URL;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
 import java.util.Locale;
+import java.util.Map;
 import java.util.logging.Level;
 import java.util.logging.Logger;
+import org.apache.myfaces.resource.BundledResource;
 import org.apache.myfaces.shared.resource.ExternalContextResourceLoader;
+import org.apache.myfaces.shared.resource.ResourceHandlerCache;
 import org.apache.myfaces.shared.resource.ResourceLoader;
 import org.apache.myfaces.shared.resource.ResourceMeta;
 import org.apache.myfaces.shared.resource.ResourceMetaImpl;
@@ -236,4 +249,217 @@ public class ResourceHandlerImplTest extends AbstractJsfTestCase
         
         Assert.assertTrue(didNPEOccur);
     }
+
+    @Test
+    public void testCreateBundledResource() throws Exception
+    {
+        Resource bundle = resourceHandler.createBundledResource(facesContext, Arrays.asList(
+                new BundleMemberResource("a.js", "application/javascript", "var a = 1"),
+                new BundleMemberResource("b.js", "application/javascript", "var b = 2;")));
+
+        Assert.assertNotNull(bundle);
+        Assert.assertEquals(ResourceHandlerImpl.BUNDLE_LIBRARY_NAME, bundle.getLibraryName());
+        Assert.assertTrue(bundle.getResourceName().endsWith(".js"));
+        Assert.assertEquals("var a = 1\n;\nvar b = 2;\n;\n", read(bundle));
+
+        // The bundle is served from the cache
+        Resource served = resourceHandler.createResource(bundle.getResourceName(),
+                ResourceHandlerImpl.BUNDLE_LIBRARY_NAME);
+        Assert.assertNotNull(served);
+        Assert.assertEquals(read(bundle), read(served));
+        Assert.assertNull(resourceHandler.createResource("unknown.js", ResourceHandlerImpl.BUNDLE_LIBRARY_NAME));
+
+        // Same members, same bundle
+        Resource again = resourceHandler.createBundledResource(facesContext, Arrays.asList(
+                new BundleMemberResource("a.js", "application/javascript", "var a = 1"),
+                new BundleMemberResource("b.js", "application/javascript", "var b = 2;")));
+        Assert.assertEquals(bundle.getResourceName(), again.getResourceName());
+    }
+
+    @Test
+    public void testCreateBundledResourceNotBundleable() throws Exception
+    {
+        // Relative references would be resolved against the bundle path
+        Assert.assertNull(resourceHandler.createBundledResource(facesContext, Arrays.asList(
+                new BundleMemberResource("a.css", "text/css", ".a { background: url('img/a.png'); }"),
+                new BundleMemberResource("b.css", "text/css", ".b { color: red; }"))));
+
+        Assert.assertNotNull(resourceHandler.createBundledResource(facesContext, Arrays.asList(
+                new BundleMemberResource("c.css", "text/css", ".c { background: url(/ctx/img/c.png); }"),
+                new BundleMemberResource("d.css", "text/css", ".d { color: red; }"))));
+
+        // Different content types
+        Assert.assertNull(resourceHandler.createBundledResource(facesContext, Arrays.asList(
+                new BundleMemberResource("e.css", "text/css", ".e { color: red; }"),
+                new BundleMemberResource("f.js", "application/javascript", "var f;"))));
+    }
+
+    @Test
+    public void testCreateBundledResourceAfterEviction() throws Exception
+    {
+        MemberResourceHandler handler = new MemberResourceHandler();
+        handler.members.put("a.js", new BundleMemberResource("a.js", "application/javascript", "var a = 1;"));
+        handler.members.put("b.js", new BundleMemberResource("b.js", "application/javascript", "var b = 2;"));
+        Resource bundle = handler.createBundledResource(facesContext, Arrays.asList(
+                handler.members.get("a.js"), handler.members.get("b.js")));
+        Assert.assertNotNull(bundle);
+        Assert.assertTrue(bundle.getRequestPath().contains("&m=%3Aa.js%2C%3Ab.js"));
+
+        // Evict the bundle, the registered members build it again
+        Field field = ResourceHandlerImpl.class.getDeclaredField("_resourceHandlerCache");
+        field.setAccessible(true);
+        ((ResourceHandlerCache) field.get(handler)).getBundledResourceCache().clear();
+
+        Resource served = handler.createResource(bundle.getResourceName(), ResourceHandlerImpl.BUNDLE_LIBRARY_NAME);
+        Assert.assertNotNull(served);
+        Assert.assertEquals(read(bundle), read(served));
+    }
+
+    @Test
+    public void testCreateBundledResourceAfterRestart() throws Exception
+    {
+        MemberResourceHandler handler = new MemberResourceHandler();
+        handler.members.put("a.js", new BundleMemberResource("a.js", "application/javascript", "var a = 1;"));
+        handler.members.put("b.js", new BundleMemberResource("b.js", "application/javascript", "var b = 2;"));
+        Resource bundle = handler.createBundledResource(facesContext, Arrays.asList(
+                handler.members.get("a.js"), handler.members.get("b.js")));
+
+        // A new handler knows nothing about the bundle but the members in the url
+        MemberResourceHandler restarted = new MemberResourceHandler();
+        restarted.members.putAll(handler.members);
+        Assert.assertNull(restarted.createResource(bundle.getResourceName(), ResourceHandlerImpl.BUNDLE_LIBRARY_NAME));
+
+        request.addParameter(BundledResource.MEMBERS_PARAM, ":a.js,:b.js");
+        Resource served = restarted.createResource(bundle.getResourceName(), ResourceHandlerImpl.BUNDLE_LIBRARY_NAME);
+        Assert.assertNotNull(served);
+        Assert.assertEquals(read(bundle), read(served));
+
+        // Once the content of a member changes, the old name has no content anymore
+        MemberResourceHandler changed = new MemberResourceHandler();
+        changed.members.putAll(handler.members);
+        changed.members.put("b.js", new BundleMemberResource("b.js", "application/javascript", "var b = 3;"));
+        Assert.assertNull(changed.createResource(bundle.getResourceName(), ResourceHandlerImpl.BUNDLE_LIBRARY_NAME));
+
+        // The failure is remembered, the members are not built again on the next request
+        changed.requested.clear();
+        Assert.assertNull(changed.createResource(bundle.getResourceName(), ResourceHandlerImpl.BUNDLE_LIBRARY_NAME));
+        Assert.assertTrue(changed.requested.isEmpty());
+    }
+
+    @Test
+    public void testCreateBundledResourceRejectsNestedBundles() throws Exception
+    {
+        MemberResourceHandler handler = new MemberResourceHandler();
+        request.addParameter(BundledResource.MEMBERS_PARAM,
+                ResourceHandlerImpl.BUNDLE_LIBRARY_NAME + ":x.js,:a.js");
+        Assert.assertNull(handler.createResource("x.js", ResourceHandlerImpl.BUNDLE_LIBRARY_NAME));
+        Assert.assertTrue(handler.requested.isEmpty());
+    }
+
+    @Test
+    public void testEncodeDecodeMembers() throws Exception
+    {
+        BundleMemberResource a = new BundleMemberResource("a.js", "application/javascript", "");
+        BundleMemberResource b = new BundleMemberResource("b.js", "application/javascript", "");
+        b.setLibraryName("lib");
+        String members = BundledResource.encodeMembers(Arrays.<Resource>asList(a, b));
+        Assert.assertEquals(":a.js,lib:b.js", members);
+
+        List<String[]> decoded = BundledResource.decodeMembers(members);
+        Assert.assertEquals(2, decoded.size());
+        Assert.assertNull(decoded.get(0)[0]);
+        Assert.assertEquals("a.js", decoded.get(0)[1]);
+        Assert.assertEquals("lib", decoded.get(1)[0]);
+        Assert.assertEquals("b.js", decoded.get(1)[1]);
+
+        // Separators in the names cannot be encoded
+        BundleMemberResource c = new BundleMemberResource("c,d.js", "application/javascript", "");
+        Assert.assertNull(BundledResource.encodeMembers(Arrays.<Resource>asList(a, c)));
+
+        Assert.assertNull(BundledResource.decodeMembers(":a.js"));
+        Assert.assertNull(BundledResource.decodeMembers("a.js,:b.js"));
+        Assert.assertNull(BundledResource.decodeMembers(":a.js,:"));
+        Assert.assertNull(BundledResource.decodeMembers(":a.js,,:b.js"));
+
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i <= BundledResource.MAX_MEMBERS; i++)
+        {
+            sb.append(i > 0 ? "," : "").append(":r").append(i).append(".js");
+        }
+        Assert.assertNull(BundledResource.decodeMembers(sb.toString()));
+    }
+
+    private static class MemberResourceHandler extends ResourceHandlerImpl
+    {
+        private final Map<String, Resource> members = new HashMap<String, Resource>();
+        private final List<String> requested = new ArrayList<String>();
+
+        @Override
+        protected Resource createBundleMemberResource(String libraryName, String resourceName)
+        {
+            requested.add(resourceName);
+            return libraryName == null ? members.get(resourceName) : null;
+        }
+    }
+
+    private static String read(Resource resource) throws IOException
+    {
+        InputStream in = resource.getInputStream();
+        try
+        {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            int b;
+            while ((b = in.read()) >= 0)
+            {
+                out.write(b);
+            }
+            return new String(out.toByteArray(), "UTF-8");
+        }
+        finally
+        {
+            in.close();
+        }
+    }
+
+    private static class BundleMemberResource extends Resource
+    {
+        private final String content;
+
+        BundleMemberResource(String resourceName, String contentType, String content)
+        {
+            setResourceName(resourceName);
+            setContentType(contentType);
+            this.content = content;
+        }
+
+        @Override
+        public InputStream getInputStream() throws IOException
+        {
+            return new ByteArrayInputStream(content.getBytes("UTF-8"));
+        }
+
+        @Override
+        public Map<String, String> getResponseHeaders()
+        {
+            return Collections.emptyMap();
+        }
+
+        @Override
+        public String getRequestPath()
+        {
+            return "/javax.faces.resource/" + getResourceName();
+        }
+
+        @Override
+        public URL getURL()
+        {
+            return null;
+        }
+
+        @Override
+        public boolean userAgentNeedsUpdate(FacesContext context)
+        {
+            return true;
+        }
+    }
 }
@@ -18,6 +18,9 @@
  */
 package org.apache.myfaces.application;
 
+import java.io.IOException;
+import java.io.StringWriter;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
@@ -25,6 +28,7 @@ import java.util.List;
 import java.util.Map;
 
 import javax.faces.FactoryFinder;
+import javax.faces.application.StateManagerWrapper;
 import javax.faces.component.UIComponent;
 import javax.faces.component.UIPanel;
 import javax.faces.component.UIViewParameter;
@@ -39,6 +43,7 @@ import org.apache.myfaces.test.base.junit4.AbstractJsfTestCase;
 import org.apache.myfaces.test.el.MockValueExpression;
 import org.apache.myfaces.view.ViewDeclarationLanguageFactoryImpl;
 import org.apache.myfaces.view.facelets.FaceletViewDeclarationLanguage;
+import org.apache.myfaces.view.facelets.StateWriter;
 import org.apache.myfaces.view.facelets.impl.FaceletCacheFactoryImpl;
 import org.junit.After;
 import org.junit.Before;
@@ -177,6 +182,52 @@ public class ViewHandlerImplTest extends AbstractJsfTestCase
         Assert.assertTrue(url.contains("myparam=paramvalue"));
     }
     
+    /**
+     * With org.apache.myfaces.SAVE_STATE_ON_FIRST_FORM the state is saved by the first form and
+     * the same state is written on every form, without writing the state marker.
+     */
+    @Test
+    public void testWriteStateSavesStateOnFirstForm() throws IOException
+    {
+        final Object savedState = new Object();
+        final List<Object> writtenStates = new ArrayList<Object>();
+        final int[] saveViewCount = new int[1];
+        facesContext.getApplication().setStateManager(
+                new StateManagerWrapper(facesContext.getApplication().getStateManager())
+        {
+            @Override
+            public Object saveView(FacesContext context)
+            {
+                saveViewCount[0]++;
+                return savedState;
+            }
+
+            @Override
+            public void writeState(FacesContext context, Object state) throws IOException
+            {
+                writtenStates.add(state);
+            }
+        });
+
+        StringWriter out = new StringWriter();
+        StateWriter stateWriter = new StateWriter(out, 1024, facesContext);
+        stateWriter.setSaveStateOnFirstForm(true);
+        facesContext.setResponseWriter(facesContext.getRenderKit().createResponseWriter(stateWriter, null, null));
+        Assert.assertFalse(stateWriter.isStateSaved());
+
+        _viewHandler.writeState(facesContext);
+        Assert.assertTrue(stateWriter.isStateSaved());
+        Assert.assertSame(savedState, stateWriter.getSavedState());
+        Assert.assertTrue(stateWriter.isStateWrittenWithoutWrapper());
+
+        // The second form writes the state saved by the first one
+        _viewHandler.writeState(facesContext);
+        Assert.assertEquals(1, saveViewCount[0]);
+        Assert.assertEquals(Arrays.asList(savedState, savedState), writtenStates);
+        Assert.assertFalse(out.toString().contains(ViewHandlerImpl.FORM_STATE_MARKER));
+        stateWriter.release(facesContext);
+    }
+
     /**
      * A ViewHandler implementation that extends the default implementation
      * and returns a TestFaceletViewDeclarationLanguage in getVDL() for test purposes.
@@ -0,0 +1,89 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.myfaces.application.viewstate;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.nio.file.Files;
+import javax.servlet.http.HttpSessionBindingEvent;
+import org.apache.myfaces.test.base.junit4.AbstractJsfTestCase;
+import org.junit.Test;
+import org.testng.Assert;
+
+/**
+ *
+ */
+public class ExternalSerializedViewCollectionTestCase extends AbstractJsfTestCase
+{
+
+    @Test
+    public void testDiscardAllWithoutFacesContext() throws Exception
+    {
+        File directory = Files.createTempDirectory("oam-viewstate-test").toFile();
+        SegmentLogViewStateStore store = new SegmentLogViewStateStore(directory, 4096, 4, 50);
+        try
+        {
+            externalContext.getApplicationMap().put(ExternalServerSideStateCacheImpl.VIEW_STATE_STORE_ATTR, store);
+            SerializedViewCollection collection = new ExternalSerializedViewCollection(store);
+            String viewId = "/test.xhtml";
+            collection.put(facesContext, new byte[100], new IntIntSerializedViewKey(viewId.hashCode(), 1), null);
+            collection.put(facesContext, new byte[100], new IntIntSerializedViewKey(viewId.hashCode(), 2), null);
+            Assert.assertEquals(store.getEntryCount(), 2);
+
+            ByteArrayOutputStream baos = new ByteArrayOutputStream();
+            ObjectOutputStream oos = new ObjectOutputStream(baos);
+            oos.writeObject(collection);
+            oos.close();
+            ObjectInputStream ois = new ObjectInputStream(new ByteArrayInputStream(baos.toByteArray()));
+            final ExternalSerializedViewCollection restored = (ExternalSerializedViewCollection) ois.readObject();
+            ois.close();
+
+            // The session expires out of a request, so there is no FacesContext in the thread
+            final HttpSessionBindingEvent event = new HttpSessionBindingEvent(session, "views");
+            Thread thread = new Thread()
+            {
+                @Override
+                public void run()
+                {
+                    restored.valueUnbound(event);
+                }
+            };
+            thread.start();
+            thread.join();
+
+            Assert.assertEquals(store.getEntryCount(), 0);
+        }
+        finally
+        {
+            store.close();
+            File[] files = directory.listFiles();
+            if (files != null)
+            {
+                for (File file : files)
+                {
+                    file.delete();
+                }
+            }
+            directory.delete();
+        }
+    }
+}
@@ -0,0 +1,257 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.myfaces.application.viewstate;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.Arrays;
+import org.apache.myfaces.test.base.junit4.AbstractJsfTestCase;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ *
+ */
+public class OffHeapSerializedViewCollectionTestCase extends AbstractJsfTestCase
+{
+
+    private static byte[] createState(int length, int seed)
+    {
+        byte[] state = new byte[length];
+        for (int i = 0; i < length; i++)
+        {
+            state[i] = (byte) (seed + i);
+        }
+        return state;
+    }
+
+    @Test
+    public void testStoreAndLoad()
+    {
+        OffHeapViewStateStore store = new OffHeapViewStateStore(1024, 64);
+        try
+        {
+            byte[] state1 = createState(10, 1);
+            byte[] state2 = createState(200, 2);
+            byte[] state3 = new byte[0];
+            long id1 = store.store(this, state1);
+            long id2 = store.store(this, state2);
+            long id3 = store.store(this, state3);
+            Assert.assertTrue(Arrays.equals(state1, store.load(id1)));
+            Assert.assertTrue(Arrays.equals(state2, store.load(id2)));
+            Assert.assertTrue(Arrays.equals(state3, store.load(id3)));
+            Assert.assertEquals(6 * 64, store.getUsedBytes());
+
+            store.release(id2);
+            Assert.assertNull(store.load(id2));
+            Assert.assertEquals(2 * 64, store.getUsedBytes());
+
+            // Does not fit in the store
+            Assert.assertEquals(-1, store.store(this, createState(2048, 3)));
+        }
+        finally
+        {
+            store.close();
+        }
+    }
+
+    @Test
+    public void testEvictOldestWhenFull()
+    {
+        OffHeapViewStateStore store = new OffHeapViewStateStore(256, 64);
+        try
+        {
+            long id1 = store.store(this, createState(128, 1));
+            long id2 = store.store(this, createState(128, 2));
+            long id3 = store.store(this, createState(64, 3));
+            Assert.assertNull(store.load(id1));
+            Assert.assertNotNull(store.load(id2));
+            Assert.assertNotNull(store.load(id3));
+            Assert.assertEquals(1, store.getEvictionCount());
+        }
+        finally
+        {
+            store.close();
+        }
+    }
+
+    @Test
+    public void testEvictKeepsLastViewOfEachOwner()
+    {
+        OffHeapViewStateStore store = new OffHeapViewStateStore(256, 64);
+        try
+        {
+            Object session1 = new Object();
+            Object session2 = new Object();
+            long id1 = store.store(session1, createState(64, 1));
+            long id2 = store.store(session2, createState(64, 2));
+            long id3 = store.store(session2, createState(64, 3));
+            long id4 = store.store(session2, createState(64, 4));
+
+            // The oldest view belongs to a session with only one view, the oldest of session2 goes
+            long id5 = store.store(session2, createState(64, 5));
+            Assert.assertNotNull(store.load(id1));
+            Assert.assertNull(store.load(id2));
+            Assert.assertNotNull(store.load(id3));
+            Assert.assertNotNull(store.load(id4));
+            Assert.assertNotNull(store.load(id5));
+
+            store.release(id3);
+            store.release(id4);
+
+            // Every session has one view, so the oldest one is evicted
+            long id6 = store.store(new Object(), createState(128, 6));
+            long id7 = store.store(new Object(), createState(64, 7));
+            Assert.assertNull(store.load(id1));
+            Assert.assertNotNull(store.load(id5));
+            Assert.assertNotNull(store.load(id6));
+            Assert.assertNotNull(store.load(id7));
+            Assert.assertEquals(2, store.getEvictionCount());
+        }
+        finally
+        {
+            store.close();
+        }
+    }
+
+    @Test
+    public void testStripes()
+    {
+        // 2 stripes of 4 blocks
+        OffHeapViewStateStore store = new OffHeapViewStateStore(512, 64, null, 2);
+        try
+        {
+            long[] ids = new long[40];
+            for (int i = 0; i < ids.length; i++)
+            {
+                ids[i] = store.store(new Object(), createState(64, i));
+            }
+            Assert.assertEquals(8, store.getEntryCount());
+            Assert.assertEquals(32, store.getEvictionCount());
+            for (int i = 0; i < ids.length; i++)
+            {
+                byte[] state = store.load(ids[i]);
+                Assert.assertTrue(state == null || Arrays.equals(createState(64, i), state));
+            }
+
+            // A state bigger than a stripe is not stored
+            Assert.assertEquals(-1, store.store(this, createState(5 * 64, 0)));
+
+            for (int i = 0; i < ids.length; i++)
+            {
+                store.release(ids[i]);
+            }
+            Assert.assertEquals(0, store.getEntryCount());
+            Assert.assertEquals(0, store.getUsedBytes());
+        }
+        finally
+        {
+            store.close();
+        }
+    }
+
+    @Test
+    public void testDestroyClosesStore()
+    {
+        OffHeapViewStateStore store = new OffHeapViewStateStore(1024, 64);
+        externalContext.getApplicationMap().put(
+                ServerSideStateCacheImpl.class.getName() + ".OFF_HEAP_VIEW_STATE_STORE", store);
+        long id = store.store(this, createState(10, 1));
+        Assert.assertSame(ServerSideStateCacheImpl.getOffHeapViewStateStore(facesContext), store);
+
+        StateCacheUtils.destroy(externalContext);
+
+        Assert.assertNull(ServerSideStateCacheImpl.getOffHeapViewStateStore(facesContext));
+        Assert.assertNull(store.load(id));
+        Assert.assertEquals(-1, store.store(this, createState(10, 2)));
+    }
+
+    @Test
+    public void testDiscardedViewsAreReleased()
+    {
+        servletContext.addInitParameter(ServerSideStateCacheImpl.NUMBER_OF_VIEWS_IN_SESSION_PARAM, "2");
+
+        OffHeapViewStateStore store = new OffHeapViewStateStore(4096, 64);
+        try
+        {
+            SerializedViewCollection collection = new OffHeapSerializedViewCollection(store);
+            String viewId = "/test.xhtml";
+            SerializedViewKey key1 = new IntIntSerializedViewKey(viewId.hashCode(), 1);
+            SerializedViewKey key2 = new IntIntSerializedViewKey(viewId.hashCode(), 2);
+            SerializedViewKey key3 = new IntIntSerializedViewKey(viewId.hashCode(), 3);
+            byte[] state1 = createState(100, 1);
+            byte[] state2 = createState(100, 2);
+            byte[] state3 = createState(100, 3);
+
+            collection.put(facesContext, state1, key1, null);
+            collection.put(facesContext, state2, key2, null);
+            Assert.assertTrue(Arrays.equals(state1, (byte[]) collection.get(key1)));
+            Assert.assertTrue(Arrays.equals(state2, (byte[]) collection.get(key2)));
+            Assert.assertEquals(2, store.getEntryCount());
+
+            collection.put(facesContext, state3, key3, null);
+            Assert.assertNull(collection.get(key1));
+            Assert.assertTrue(Arrays.equals(state3, (byte[]) collection.get(key3)));
+            Assert.assertEquals(2, store.getEntryCount());
+
+            // Update an existing view
+            collection.put(facesContext, state1, key3, null);
+            Assert.assertTrue(Arrays.equals(state1, (byte[]) collection.get(key3)));
+            Assert.assertEquals(2, store.getEntryCount());
+
+            collection.discardAll();
+            Assert.assertEquals(0, store.getEntryCount());
+        }
+        finally
+        {
+            store.close();
+        }
+    }
+
+    @Test
+    public void testSerializeCollection() throws Exception
+    {
+        OffHeapViewStateStore store = new OffHeapViewStateStore(4096, 64);
+        try
+        {
+            SerializedViewCollection collection = new OffHeapSerializedViewCollection(store);
+            SerializedViewKey key1 = new IntIntSerializedViewKey("/test.xhtml".hashCode(), 1);
+            byte[] state1 = createState(300, 1);
+            collection.put(facesContext, state1, key1, null);
+
+            ByteArrayOutputStream baos = new ByteArrayOutputStream();
+            ObjectOutputStream oos = new ObjectOutputStream(baos);
+            oos.writeObject(collection);
+            oos.close();
+
+            ObjectInputStream ois = new ObjectInputStream(new ByteArrayInputStream(baos.toByteArray()));
+            SerializedViewCollection restored = (SerializedViewCollection) ois.readObject();
+            ois.close();
+
+            // The bytes travel with the handle, so the view can be restored without the store
+            Assert.assertTrue(Arrays.equals(state1, (byte[]) restored.get(key1)));
+        }
+        finally
+        {
+            store.close();
+        }
+    }
+}
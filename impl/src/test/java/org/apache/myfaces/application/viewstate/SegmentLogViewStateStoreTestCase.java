@@ -0,0 +1,260 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.myfaces.application.viewstate;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.testng.Assert;
+
+/**
+ *
+ */
+public class SegmentLogViewStateStoreTestCase
+{
+    private File directory;
+
+    @Before
+    public void setUp() throws Exception
+    {
+        directory = Files.createTempDirectory("oam-viewstate-test").toFile();
+    }
+
+    @After
+    public void tearDown()
+    {
+        delete(directory);
+    }
+
+    private static void delete(File file)
+    {
+        File[] files = file.listFiles();
+        if (files != null)
+        {
+            for (File child : files)
+            {
+                delete(child);
+            }
+        }
+        file.delete();
+    }
+
+    private static byte[] createState(int length, int seed)
+    {
+        byte[] state = new byte[length];
+        for (int i = 0; i < length; i++)
+        {
+            state[i] = (byte) (seed + i);
+        }
+        return state;
+    }
+
+    @Test
+    public void testStoreLoadAndRemove() throws Exception
+    {
+        SegmentLogViewStateStore store = new SegmentLogViewStateStore(directory, 4096, 4, 50);
+        byte[] state1 = createState(10, 1);
+        byte[] state2 = createState(200, 2);
+        String id1 = store.store(null, state1);
+        String id2 = store.store(null, state2);
+        Assert.assertFalse(id1.equals(id2));
+        Assert.assertTrue(Arrays.equals(state1, store.load(null, id1)));
+        Assert.assertTrue(Arrays.equals(state2, store.load(null, id2)));
+
+        store.remove(null, id1);
+        Assert.assertNull(store.load(null, id1));
+        Assert.assertTrue(Arrays.equals(state2, store.load(null, id2)));
+        // Removing twice or an unknown id does nothing
+        store.remove(null, id1);
+        store.remove(null, "unknown");
+        Assert.assertNull(store.load(null, "unknown"));
+
+        // Does not fit in a segment
+        Assert.assertNull(store.store(null, createState(8192, 3)));
+    }
+
+    @Test
+    public void testRecoverFromFiles() throws Exception
+    {
+        SegmentLogViewStateStore store = new SegmentLogViewStateStore(directory, 4096, 8, 0);
+        List<String> ids = new ArrayList<String>();
+        for (int i = 0; i < 40; i++)
+        {
+            ids.add(store.store(null, createState(300, i)));
+        }
+        for (int i = 0; i < 40; i += 2)
+        {
+            store.remove(null, ids.get(i));
+        }
+
+        SegmentLogViewStateStore recovered = new SegmentLogViewStateStore(directory, 4096, 8, 0);
+        Assert.assertEquals(recovered.getEntryCount(), 20);
+        for (int i = 0; i < 40; i++)
+        {
+            byte[] state = recovered.load(null, ids.get(i));
+            if (i % 2 == 0)
+            {
+                Assert.assertNull(state);
+            }
+            else
+            {
+                Assert.assertTrue(Arrays.equals(createState(300, i), state));
+            }
+        }
+        // Ids are not reused
+        Assert.assertFalse(ids.contains(recovered.store(null, createState(10, 0))));
+    }
+
+    @Test
+    public void testEmptyStateIsNotStored() throws Exception
+    {
+        SegmentLogViewStateStore store = new SegmentLogViewStateStore(directory, 4096, 4, 50);
+        String first = store.store(null, createState(100, 1));
+        // A record of length 0 would be read as the end of the segment
+        Assert.assertNull(store.store(null, new byte[0]));
+        String last = store.store(null, createState(100, 2));
+
+        SegmentLogViewStateStore recovered = new SegmentLogViewStateStore(directory, 4096, 4, 50);
+        Assert.assertEquals(recovered.getEntryCount(), 2);
+        Assert.assertTrue(Arrays.equals(createState(100, 1), recovered.load(null, first)));
+        Assert.assertTrue(Arrays.equals(createState(100, 2), recovered.load(null, last)));
+    }
+
+    @Test
+    public void testCompaction() throws Exception
+    {
+        SegmentLogViewStateStore store = new SegmentLogViewStateStore(directory, 4096, 8, 50);
+        List<String> ids = new ArrayList<String>();
+        for (int i = 0; i < 200; i++)
+        {
+            ids.add(store.store(null, createState(300, i)));
+            if (ids.size() > 5)
+            {
+                store.remove(null, ids.remove(0));
+            }
+        }
+        Assert.assertTrue(store.getCompactionCount() > 0);
+        Assert.assertEquals(store.getEvictionCount(), 0);
+        Assert.assertTrue(store.getSegmentCount() <= 3);
+        Assert.assertEquals(directory.list().length, store.getSegmentCount());
+        for (int i = 0; i < ids.size(); i++)
+        {
+            Assert.assertTrue(Arrays.equals(createState(300, 195 + i), store.load(null, ids.get(i))));
+        }
+
+        SegmentLogViewStateStore recovered = new SegmentLogViewStateStore(directory, 4096, 8, 50);
+        Assert.assertEquals(recovered.getEntryCount(), 5);
+    }
+
+    @Test
+    public void testEvictOldestSegment() throws Exception
+    {
+        SegmentLogViewStateStore store = new SegmentLogViewStateStore(directory, 4096, 2, 50);
+        List<String> ids = new ArrayList<String>();
+        for (int i = 0; i < 40; i++)
+        {
+            ids.add(store.store(null, createState(300, i)));
+        }
+        Assert.assertEquals(store.getSegmentCount(), 2);
+        Assert.assertTrue(store.getEvictionCount() > 0);
+        Assert.assertNull(store.load(null, ids.get(0)));
+        Assert.assertTrue(Arrays.equals(createState(300, 39), store.load(null, ids.get(39))));
+    }
+
+    @Test
+    public void testClose() throws Exception
+    {
+        SegmentLogViewStateStore store = new SegmentLogViewStateStore(directory, 4096, 4, 50);
+        String id1 = store.store(null, createState(100, 1));
+        store.close();
+        Assert.assertNull(store.load(null, id1));
+        Assert.assertNull(store.store(null, createState(100, 2)));
+        store.remove(null, id1);
+        store.close();
+
+        // The files are kept for the next start
+        SegmentLogViewStateStore recovered = new SegmentLogViewStateStore(directory, 4096, 4, 50);
+        Assert.assertTrue(Arrays.equals(createState(100, 1), recovered.load(null, id1)));
+    }
+
+    @Test
+    public void testStripes() throws Exception
+    {
+        final SegmentLogViewStateStore[] stripes = new SegmentLogViewStateStore[3];
+        for (int i = 0; i < stripes.length; i++)
+        {
+            stripes[i] = new SegmentLogViewStateStore(new File(directory, Integer.toString(i)), 4096, 4, 50);
+        }
+        final StripedViewStateStore store = new StripedViewStateStore(stripes);
+
+        final List<Throwable> errors = new ArrayList<Throwable>();
+        Thread[] threads = new Thread[6];
+        for (int i = 0; i < threads.length; i++)
+        {
+            final int seed = i;
+            threads[i] = new Thread()
+            {
+                @Override
+                public void run()
+                {
+                    try
+                    {
+                        for (int j = 0; j < 100; j++)
+                        {
+                            byte[] state = createState(100, seed + j);
+                            String id = store.store(null, state);
+                            Assert.assertTrue(Arrays.equals(state, store.load(null, id)));
+                            store.remove(null, id);
+                            Assert.assertNull(store.load(null, id));
+                        }
+                    }
+                    catch (Throwable e)
+                    {
+                        synchronized (errors)
+                        {
+                            errors.add(e);
+                        }
+                    }
+                }
+            };
+            threads[i].start();
+        }
+        for (Thread thread : threads)
+        {
+            thread.join();
+        }
+        Assert.assertTrue(errors.isEmpty(), errors.toString());
+
+        // The stripe is part of the id
+        String id = store.store(null, createState(10, 1));
+        int stripe = Integer.parseInt(id.substring(0, id.indexOf('.')), Character.MAX_RADIX);
+        Assert.assertEquals(stripes[stripe].getEntryCount(), 1);
+        Assert.assertNull(store.load(null, "9" + id.substring(id.indexOf('.'))));
+        Assert.assertNull(store.load(null, "unknown"));
+        store.remove(null, "x.y");
+
+        store.close();
+        Assert.assertNull(store.load(null, id));
+    }
+}
@@ -16,7 +16,11 @@
 
 package org.apache.myfaces.application.viewstate;
 
+import java.util.Collections;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
 import javax.faces.context.FacesContext;
 import org.apache.myfaces.spi.ViewScopeProvider;
 import org.apache.myfaces.test.base.junit4.AbstractJsfTestCase;
@@ -267,6 +271,88 @@ public class SerializedViewCollectionTestCase extends AbstractJsfTestCase
         Assert.assertEquals(provider.getDestroyCount(), 5);
     }
     
+    @Test
+    public void testSerializedViewCollectionConcurrentPut() throws Exception
+    {
+        servletContext.addInitParameter(ServerSideStateCacheImpl.NUMBER_OF_VIEWS_IN_SESSION_PARAM, "10");
+        servletContext.addInitParameter(ServerSideStateCacheImpl.NUMBER_OF_SEQUENTIAL_VIEWS_IN_SESSION_PARAM, "3");
+        
+        final SerializedViewCollection collection = new SerializedViewCollection();
+        final String viewId = "/test.xhtml";
+        final AtomicInteger destroyCount = new AtomicInteger();
+        final Set<String> destroyed = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+        final TestViewScopeProvider provider = new TestViewScopeProvider()
+        {
+            @Override
+            public void destroyViewScopeMap(FacesContext facesContext, String viewScopeId)
+            {
+                destroyCount.incrementAndGet();
+                destroyed.add(viewScopeId);
+            }
+        };
+        final int threads = 4;
+        final int views = 2000;
+        
+        SerializedViewKey first = new IntIntSerializedViewKey(viewId.hashCode(), -1);
+        collection.put(facesContext, new Object[]{null,null,2}, first, null, provider, "-1");
+        
+        final Throwable[] error = new Throwable[1];
+        Thread[] workers = new Thread[threads];
+        for (int t = 0; t < threads; t++)
+        {
+            final int offset = t * views;
+            workers[t] = new Thread(new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    try
+                    {
+                        SerializedViewKey previous = null;
+                        for (int i = offset; i < offset + views; i++)
+                        {
+                            SerializedViewKey key = new IntIntSerializedViewKey(viewId.hashCode(), i);
+                            collection.put(facesContext, new Object[]{null,null,2}, key, previous,
+                                    provider, Integer.toString(i));
+                            collection.get(key);
+                            // Post back to the same view from time to time
+                            if (i % 5 == 0)
+                            {
+                                collection.put(facesContext, new Object[]{null,null,2}, key, previous,
+                                        provider, Integer.toString(i));
+                            }
+                            previous = key;
+                        }
+                    }
+                    catch (Throwable e)
+                    {
+                        error[0] = e;
+                    }
+                }
+            });
+            workers[t].start();
+        }
+        for (Thread worker : workers)
+        {
+            worker.join();
+        }
+        Assert.assertNull(error[0]);
+        
+        int stored = 0;
+        for (int i = -1; i < threads * views; i++)
+        {
+            if (collection.get(new IntIntSerializedViewKey(viewId.hashCode(), i)) != null)
+            {
+                stored++;
+            }
+        }
+        Assert.assertTrue(stored > 0 && stored <= 10);
+        // Every discarded view scope is destroyed once, even if a view evicted by other thread just
+        // before the post back is stored again.
+        Assert.assertEquals(destroyCount.get(), destroyed.size());
+        Assert.assertTrue(destroyCount.get() >= threads * views + 1 - stored);
+    }
+    
     private static class TestViewScopeProvider extends ViewScopeProvider
     {
         private int destroyCount = 0;
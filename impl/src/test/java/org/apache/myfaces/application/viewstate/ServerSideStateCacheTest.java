@@ -22,9 +22,14 @@ import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import javax.faces.application.ProjectStage;
 import javax.faces.application.StateManager;
+import javax.faces.context.FacesContext;
 
 import org.apache.myfaces.application.StateCache;
 import org.apache.myfaces.test.base.junit4.AbstractJsfConfigurableMultipleRequestsTestCase;
@@ -110,6 +115,115 @@ public class ServerSideStateCacheTest extends AbstractJsfConfigurableMultipleReq
         }
     }
     
+    private static Object[] createPartialState(String value)
+    {
+        Map<String, Object> states = new HashMap<String, Object>();
+        for (int i = 0; i < 10; i++)
+        {
+            states.put("form:input" + i, new Object[]{"value", "text" + i});
+        }
+        states.put("form:changed", new Object[]{"value", value});
+        return new Object[]{null, states};
+    }
+
+    private static void assertPartialStateEquals(Object[] expected, Object[] actual)
+    {
+        Assert.assertEquals(expected.length, actual.length);
+        Map<?, ?> expectedStates = (Map<?, ?>) expected[1];
+        Map<?, ?> actualStates = (Map<?, ?>) actual[1];
+        Assert.assertEquals(expectedStates.keySet(), actualStates.keySet());
+        for (Object clientId : expectedStates.keySet())
+        {
+            Assert.assertTrue(Arrays.deepEquals((Object[]) expectedStates.get(clientId),
+                    (Object[]) actualStates.get(clientId)));
+        }
+    }
+
+    @Test
+    public void testDeltaState() throws Exception
+    {
+        servletContext.addInitParameter(StateManager.STATE_SAVING_METHOD_PARAM_NAME, StateManager.STATE_SAVING_METHOD_SERVER);
+        servletContext.addInitParameter(StateManager.SERIALIZE_SERVER_STATE_PARAM_NAME, "true");
+        servletContext.addInitParameter(ServerSideStateCacheImpl.SERVER_STATE_DELTA_PARAM, "true");
+
+        final List<Object> storedValues = new ArrayList<Object>();
+
+        // Initialization
+        setupRequest();
+        StateCache stateCache = new ServerSideStateCacheImpl()
+        {
+            @Override
+            protected Object storeView(FacesContext context, Object serializedView)
+            {
+                Object value = super.storeView(context, serializedView);
+                storedValues.add(value);
+                return value;
+            }
+        };
+        tearDownRequest();
+
+        Object firstSavedToken;
+        Object savedToken;
+
+        try
+        {
+            setupRequest();
+
+            facesContext.getViewRoot().setViewId("/view1.xhtml");
+            firstSavedToken = stateCache.saveSerializedView(facesContext, createPartialState("a"));
+        }
+        finally
+        {
+            tearDownRequest();
+        }
+
+        try
+        {
+            setupRequest();
+
+            Object[] value = (Object[]) stateCache.restoreSerializedView(facesContext, "/view1.xhtml", firstSavedToken);
+            assertPartialStateEquals(createPartialState("a"), value);
+
+            Object[] state = createPartialState("b");
+            ((Map) state[1]).remove("form:input0");
+            facesContext.getViewRoot().setViewId("/view1.xhtml");
+            savedToken = stateCache.saveSerializedView(facesContext, state);
+        }
+        finally
+        {
+            tearDownRequest();
+        }
+
+        try
+        {
+            setupRequest();
+
+            Assert.assertTrue(storedValues.get(0) instanceof byte[]);
+            Assert.assertTrue(storedValues.get(1) instanceof DeltaViewState);
+
+            Object[] expected = createPartialState("b");
+            ((Map) expected[1]).remove("form:input0");
+            Object[] value = (Object[]) stateCache.restoreSerializedView(facesContext, "/view1.xhtml", savedToken);
+            assertPartialStateEquals(expected, value);
+        }
+        finally
+        {
+            tearDownRequest();
+        }
+
+        try
+        {
+            setupRequest();
+
+            Object[] value = (Object[]) stateCache.restoreSerializedView(facesContext, "/view1.xhtml", firstSavedToken);
+            assertPartialStateEquals(createPartialState("a"), value);
+        }
+        finally
+        {
+            tearDownRequest();
+        }
+    }
+
     @Test
     public void testSaveRestoreStateWrongViewId() throws Exception
     {
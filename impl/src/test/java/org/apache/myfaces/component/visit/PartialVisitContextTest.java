@@ -0,0 +1,154 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.myfaces.component.visit;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+
+import javax.faces.component.UIComponent;
+import javax.faces.component.UIForm;
+import javax.faces.component.UIOutput;
+import javax.faces.component.UINamingContainer;
+import javax.faces.component.UIViewRoot;
+import javax.faces.component.visit.VisitCallback;
+import javax.faces.component.visit.VisitContext;
+import javax.faces.component.visit.VisitContextWrapper;
+import javax.faces.component.visit.VisitResult;
+
+import org.apache.myfaces.test.base.junit4.AbstractJsfTestCase;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class PartialVisitContextTest extends AbstractJsfTestCase
+{
+    /**
+     * Builds a view of 50 forms, each one with 20 naming containers holding 4 outputs, 5051 components in all.
+     */
+    private UIViewRoot createView()
+    {
+        UIViewRoot root = new UIViewRoot();
+        root.setId("root");
+        for (int f = 0; f < 50; f++)
+        {
+            UIForm form = new UIForm();
+            form.setId("f" + f);
+            root.getChildren().add(form);
+            for (int n = 0; n < 20; n++)
+            {
+                UIComponent container = new UINamingContainer();
+                container.setId("nc" + n);
+                form.getChildren().add(container);
+                for (int o = 0; o < 4; o++)
+                {
+                    UIComponent output = new UIOutput();
+                    output.setId("o" + o);
+                    container.getChildren().add(output);
+                }
+            }
+        }
+        facesContext.setViewRoot(root);
+        return root;
+    }
+
+    @Test
+    public void testSubtreeIdsToVisit()
+    {
+        UIViewRoot root = createView();
+        UIComponent form = root.findComponent("f3");
+        UIComponent container = root.findComponent("f3:nc7");
+
+        PartialVisitContext context = new PartialVisitContext(facesContext,
+                Arrays.asList("f3:nc7:o1", "f3:nc8:o2", "f4"));
+
+        Assert.assertEquals(2, context.getSubtreeIdsToVisit(form).size());
+        Assert.assertEquals(Arrays.asList("f3:nc7:o1"),
+                new ArrayList<String>(context.getSubtreeIdsToVisit(container)));
+        Assert.assertTrue(context.getSubtreeIdsToVisit(root.findComponent("f4")).isEmpty());
+
+        context.getIdsToVisit().remove("f3:nc7:o1");
+        Assert.assertEquals(Arrays.asList("f3:nc8:o2"), new ArrayList<String>(context.getSubtreeIdsToVisit(form)));
+        Assert.assertTrue(context.getSubtreeIdsToVisit(container).isEmpty());
+
+        context.getIdsToVisit().add("f3:nc7:o3");
+        Assert.assertEquals(2, context.getSubtreeIdsToVisit(form).size());
+        Assert.assertEquals(1, context.getSubtreeIdsToVisit(container).size());
+    }
+
+    @Test
+    public void testVisitSkipsSubtreesWithoutIds()
+    {
+        UIViewRoot root = createView();
+        final List<String> visited = new ArrayList<String>();
+        final int[] invocations = new int[1];
+
+        Collection<String> ids = Arrays.asList("f10:nc3:o0", "f42:nc19:o3");
+        VisitContext context = new VisitContextWrapper(new PartialVisitContext(facesContext, ids))
+        {
+            @Override
+            public VisitResult invokeVisitCallback(UIComponent component, VisitCallback callback)
+            {
+                invocations[0]++;
+                return super.invokeVisitCallback(component, callback);
+            }
+        };
+
+        root.visitTree(context, new VisitCallback()
+        {
+            @Override
+            public VisitResult visit(VisitContext context, UIComponent target)
+            {
+                visited.add(target.getClientId(facesContext));
+                return VisitResult.ACCEPT;
+            }
+        });
+
+        Assert.assertEquals(ids, visited);
+        // The root, the forms up to f42, the containers in f10 and f42 and the outputs in f10:nc3 and f42:nc19
+        Assert.assertEquals(1 + 43 + 40 + 8, invocations[0]);
+    }
+
+    @Test
+    public void testVisitFormWithoutPrependId()
+    {
+        UIViewRoot root = createView();
+        UIForm form = new UIForm();
+        form.setId("plain");
+        form.setPrependId(false);
+        root.getChildren().add(0, form);
+        UIComponent output = new UIOutput();
+        output.setId("out");
+        form.getChildren().add(output);
+
+        final List<UIComponent> visited = new ArrayList<UIComponent>();
+        root.visitTree(new PartialVisitContext(facesContext, Arrays.asList("out")), new VisitCallback()
+        {
+            @Override
+            public VisitResult visit(VisitContext context, UIComponent target)
+            {
+                visited.add(target);
+                return VisitResult.ACCEPT;
+            }
+        });
+
+        Assert.assertEquals(1, visited.size());
+        Assert.assertSame(output, visited.get(0));
+    }
+}
@@ -0,0 +1,131 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.myfaces.lifecycle;
+
+import java.io.IOException;
+
+import javax.faces.component.UIComponent;
+import javax.faces.component.UIInput;
+import javax.faces.component.UIOutput;
+import javax.faces.context.FacesContext;
+import javax.faces.event.PhaseId;
+import javax.faces.render.Renderer;
+
+import org.apache.myfaces.test.base.junit4.AbstractJsfTestCase;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class LifecycleProfilerTest extends AbstractJsfTestCase
+{
+    @Test
+    public void testSelfTime() throws Exception
+    {
+        LifecycleProfiler profiler = new LifecycleProfiler();
+        facesContext.getViewRoot().setViewId("/test.xhtml");
+        facesContext.setCurrentPhaseId(PhaseId.RENDER_RESPONSE);
+
+        profiler.enterPhase(facesContext);
+        profiler.enter(facesContext);
+        profiler.enter(facesContext);
+        Thread.sleep(20);
+        profiler.exit(facesContext, new UIInput());
+        profiler.exit(facesContext, new UIOutput());
+        profiler.exitPhase(facesContext, PhaseId.RENDER_RESPONSE);
+
+        LifecycleProfiler.Statistics output = getComponentStatistics(profiler, UIOutput.class);
+        LifecycleProfiler.Statistics input = getComponentStatistics(profiler, UIInput.class);
+        Assert.assertEquals(1, output.count.sum());
+        Assert.assertEquals(1, input.count.sum());
+        Assert.assertTrue(input.totalNanos.sum() >= 20000000L);
+        Assert.assertTrue(output.totalNanos.sum() >= input.totalNanos.sum());
+        // The time of the nested component is not part of the self time
+        Assert.assertTrue(output.selfNanos.sum() < input.selfNanos.sum());
+        Assert.assertEquals(1, profiler.getRequestCount());
+
+        String dump = profiler.dump();
+        Assert.assertTrue(dump.contains(UIOutput.class.getName()));
+        Assert.assertTrue(dump.contains("/test.xhtml"));
+
+        profiler.reset();
+        Assert.assertEquals(0, profiler.getRequestCount());
+        Assert.assertFalse(profiler.dump().contains(UIOutput.class.getName()));
+    }
+
+    @Test
+    public void testUnbalancedMeasures() throws Exception
+    {
+        LifecycleProfiler profiler = new LifecycleProfiler();
+        facesContext.setCurrentPhaseId(PhaseId.RENDER_RESPONSE);
+
+        // An exception left a measure open, it is discarded when the next phase starts
+        profiler.enterPhase(facesContext);
+        profiler.enter(facesContext);
+        profiler.exitPhase(facesContext, PhaseId.RENDER_RESPONSE);
+
+        profiler.enterPhase(facesContext);
+        profiler.enter(facesContext);
+        profiler.exit(facesContext, new UIOutput());
+        profiler.exitPhase(facesContext, PhaseId.RENDER_RESPONSE);
+
+        // Without a phase nothing is recorded
+        profiler.exit(facesContext, new UIInput());
+
+        Assert.assertEquals(1, getComponentStatistics(profiler, UIOutput.class).count.sum());
+        Assert.assertFalse(profiler.dump().contains(UIInput.class.getName()));
+    }
+
+    @Test
+    public void testEncodeBeginFailure() throws Exception
+    {
+        LifecycleProfiler profiler = new LifecycleProfiler();
+        facesContext.setCurrentPhaseId(PhaseId.RENDER_RESPONSE);
+        Renderer renderer = new LifecycleProfiler.ProfilingRenderer(new Renderer()
+        {
+            @Override
+            public void encodeBegin(FacesContext context, UIComponent component) throws IOException
+            {
+                throw new IOException("encodeBegin");
+            }
+        }, profiler);
+
+        profiler.enterPhase(facesContext);
+        try
+        {
+            renderer.encodeBegin(facesContext, new UIOutput());
+            Assert.fail("Should have thrown IOException");
+        }
+        catch (IOException e)
+        {
+            Assert.assertEquals("encodeBegin", e.getMessage());
+        }
+        // The measure of the failed component is closed, so this exit has nothing to end
+        profiler.exit(facesContext, new UIInput());
+        profiler.exitPhase(facesContext, PhaseId.RENDER_RESPONSE);
+
+        Assert.assertEquals(1, getComponentStatistics(profiler, UIOutput.class).count.sum());
+        Assert.assertFalse(profiler.dump().contains(UIInput.class.getName()));
+    }
+
+    private static LifecycleProfiler.Statistics getComponentStatistics(LifecycleProfiler profiler, Class<?> type)
+    {
+        String dump = profiler.dump();
+        Assert.assertTrue(dump, dump.contains(type.getName()));
+        return profiler.getComponentStatistics(PhaseId.RENDER_RESPONSE, type);
+    }
+}
@@ -0,0 +1,98 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.myfaces.renderkit.html;
+
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.faces.application.StateManager;
+import javax.faces.context.ExternalContext;
+import javax.faces.context.ExternalContextWrapper;
+import javax.faces.context.FacesContext;
+import javax.faces.context.FacesContextWrapper;
+
+import org.apache.myfaces.test.base.junit4.AbstractJsfTestCase;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class EarlyFlushHtmlResponseWriterImplTest extends AbstractJsfTestCase
+{
+    private List<Boolean> sessionRequests = new ArrayList<Boolean>();
+
+    private void flushAfterHead() throws Exception
+    {
+        final ExternalContext context = new ExternalContextWrapper(externalContext)
+        {
+            @Override
+            public Object getSession(boolean create)
+            {
+                sessionRequests.add(create);
+                return super.getSession(create);
+            }
+        };
+        final FacesContext wrapper = new FacesContextWrapper(facesContext)
+        {
+            @Override
+            public ExternalContext getExternalContext()
+            {
+                return context;
+            }
+        };
+        StringWriter out = new StringWriter();
+        EarlyFlushHtmlResponseWriterImpl writer = new EarlyFlushHtmlResponseWriterImpl(out, "text/html", "UTF-8")
+        {
+            @Override
+            protected FacesContext getFacesContext()
+            {
+                return wrapper;
+            }
+        };
+        writer.startElement("head", null);
+        writer.endElement("head");
+        writer.flush();
+        // The content is written to the underlying writer
+        Assert.assertTrue(out.toString().contains("</head>"));
+    }
+
+    @Test
+    public void testSessionCreatedBeforeFlush() throws Exception
+    {
+        flushAfterHead();
+        Assert.assertEquals(1, sessionRequests.size());
+        Assert.assertTrue(sessionRequests.get(0));
+    }
+
+    @Test
+    public void testNoSessionWithClientSideStateSaving() throws Exception
+    {
+        servletContext.addInitParameter(StateManager.STATE_SAVING_METHOD_PARAM_NAME,
+                StateManager.STATE_SAVING_METHOD_CLIENT);
+        flushAfterHead();
+        Assert.assertTrue(sessionRequests.isEmpty());
+    }
+
+    @Test
+    public void testNoSessionForTransientView() throws Exception
+    {
+        facesContext.getViewRoot().setTransient(true);
+        flushAfterHead();
+        Assert.assertTrue(sessionRequests.isEmpty());
+    }
+}
@@ -18,13 +18,28 @@
  */
 package org.apache.myfaces.renderkit.html;
 
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
 import java.io.StringWriter;
+import java.net.URL;
+import java.util.Collections;
+import java.util.Map;
 
+import javax.faces.application.ProjectStage;
+import javax.faces.application.Resource;
+import javax.faces.component.UIComponent;
+import javax.faces.component.UIOutput;
 import javax.faces.component.html.HtmlHead;
+import javax.faces.context.FacesContext;
+import javax.faces.render.Renderer;
 
 import junit.framework.Test;
 import junit.framework.TestSuite;
 
+import org.apache.myfaces.application.ResourceHandlerImpl;
+import org.apache.myfaces.shared.config.MyfacesConfig;
+import org.apache.myfaces.shared.renderkit.html.util.ResourceUtils;
 import org.apache.myfaces.test.base.AbstractJsfTestCase;
 import org.apache.myfaces.test.mock.MockRenderKitFactory;
 import org.apache.myfaces.test.mock.MockResponseWriter;
@@ -87,4 +102,148 @@ public class HtmlHeadRendererTest extends AbstractJsfTestCase
             fail(HtmlCheckAttributesUtil.constructErrorMessage(attrs, writer.getWriter().toString()));
         }
     }
+
+    public void testBundleScripts() throws Exception
+    {
+        setUpBundling(ProjectStage.Production);
+        addResource("a.js", ResourceUtils.DEFAULT_SCRIPT_RENDERER_TYPE);
+        addResource("b.js", ResourceUtils.DEFAULT_SCRIPT_RENDERER_TYPE);
+        addResource("c.css", ResourceUtils.DEFAULT_STYLESHEET_RENDERER_TYPE);
+        addResource("d.css", ResourceUtils.DEFAULT_STYLESHEET_RENDERER_TYPE);
+
+        head.encodeAll(facesContext);
+
+        String output = writer.getWriter().toString();
+        assertEquals(1, count(output, "<script"));
+        assertEquals(1, count(output, "<link"));
+        assertEquals(2, count(output, ResourceHandlerImpl.BUNDLE_LIBRARY_NAME));
+        assertEquals(0, count(output, "<rendered"));
+    }
+
+    public void testNotBundleableResourceSplitsGroup() throws Exception
+    {
+        setUpBundling(ProjectStage.Production);
+        addResource("a.js", ResourceUtils.DEFAULT_SCRIPT_RENDERER_TYPE);
+        // A script with content is rendered by its renderer and ends the group
+        UIOutput content = new UIOutput();
+        content.setRendererType(null);
+        addResource("b.js", ResourceUtils.DEFAULT_SCRIPT_RENDERER_TYPE).getChildren().add(content);
+        addResource("c.js", ResourceUtils.DEFAULT_SCRIPT_RENDERER_TYPE);
+        addResource("d.css", ResourceUtils.DEFAULT_STYLESHEET_RENDERER_TYPE);
+        addResource("e.css", ResourceUtils.DEFAULT_STYLESHEET_RENDERER_TYPE).getAttributes().put("media", "print");
+        addResource("f.css", ResourceUtils.DEFAULT_STYLESHEET_RENDERER_TYPE);
+        addResource("g.css", ResourceUtils.DEFAULT_STYLESHEET_RENDERER_TYPE);
+
+        head.encodeAll(facesContext);
+
+        // Only f.css and g.css are bundled, the groups of one resource are rendered as usual
+        String output = writer.getWriter().toString();
+        assertEquals(5, count(output, "<rendered"));
+        assertEquals(0, count(output, "<script"));
+        assertEquals(1, count(output, "<link"));
+        assertTrue(output.indexOf("name=\"e.css\"") < output.indexOf("<link"));
+    }
+
+    public void testNoBundlesInDevelopment() throws Exception
+    {
+        setUpBundling(ProjectStage.Development);
+        addResource("a.js", ResourceUtils.DEFAULT_SCRIPT_RENDERER_TYPE);
+        addResource("b.js", ResourceUtils.DEFAULT_SCRIPT_RENDERER_TYPE);
+
+        head.encodeAll(facesContext);
+
+        String output = writer.getWriter().toString();
+        assertEquals(2, count(output, "<rendered"));
+        assertEquals(0, count(output, ResourceHandlerImpl.BUNDLE_LIBRARY_NAME));
+    }
+
+    private void setUpBundling(ProjectStage projectStage)
+    {
+        servletContext.addInitParameter(ProjectStage.PROJECT_STAGE_PARAM_NAME, projectStage.toString());
+        request.setPathElements("/ctx", "/faces", "/test.xhtml", null);
+        MyfacesConfig config = new MyfacesConfig();
+        config.setResourceBundlingEnabled(true);
+        facesContext.getExternalContext().getApplicationMap().put(MyfacesConfig.class.getName(), config);
+        application.setResourceHandler(new ResourceHandlerImpl()
+        {
+            @Override
+            public Resource createResource(String resourceName)
+            {
+                return new MemberResource(resourceName);
+            }
+        });
+
+        Renderer renderer = new Renderer()
+        {
+            @Override
+            public void encodeEnd(FacesContext context, UIComponent component) throws IOException
+            {
+                context.getResponseWriter().startElement("rendered", component);
+                context.getResponseWriter().writeAttribute("name", component.getAttributes().get("name"), null);
+                context.getResponseWriter().endElement("rendered");
+            }
+        };
+        facesContext.getRenderKit().addRenderer(UIOutput.COMPONENT_FAMILY,
+                ResourceUtils.DEFAULT_SCRIPT_RENDERER_TYPE, renderer);
+        facesContext.getRenderKit().addRenderer(UIOutput.COMPONENT_FAMILY,
+                ResourceUtils.DEFAULT_STYLESHEET_RENDERER_TYPE, renderer);
+    }
+
+    private UIComponent addResource(String name, String rendererType)
+    {
+        UIOutput resource = new UIOutput();
+        resource.setRendererType(rendererType);
+        resource.getAttributes().put("name", name);
+        facesContext.getViewRoot().addComponentResource(facesContext, resource, "head");
+        return resource;
+    }
+
+    private static int count(String output, String text)
+    {
+        int count = 0;
+        for (int i = output.indexOf(text); i >= 0; i = output.indexOf(text, i + 1))
+        {
+            count++;
+        }
+        return count;
+    }
+
+    private static class MemberResource extends Resource
+    {
+        MemberResource(String resourceName)
+        {
+            setResourceName(resourceName);
+            setContentType(resourceName.endsWith(".js") ? "application/javascript" : "text/css");
+        }
+
+        @Override
+        public InputStream getInputStream() throws IOException
+        {
+            return new ByteArrayInputStream(("/* " + getResourceName() + " */").getBytes("UTF-8"));
+        }
+
+        @Override
+        public Map<String, String> getResponseHeaders()
+        {
+            return Collections.emptyMap();
+        }
+
+        @Override
+        public String getRequestPath()
+        {
+            return "/javax.faces.resource/" + getResourceName();
+        }
+
+        @Override
+        public URL getURL()
+        {
+            return null;
+        }
+
+        @Override
+        public boolean userAgentNeedsUpdate(FacesContext context)
+        {
+            return true;
+        }
+    }
 }
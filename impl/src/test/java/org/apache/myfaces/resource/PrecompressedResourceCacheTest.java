@@ -0,0 +1,212 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.myfaces.resource;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.zip.GZIPInputStream;
+import javax.faces.application.Resource;
+import javax.faces.context.FacesContext;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class PrecompressedResourceCacheTest
+{
+    private File dir;
+
+    @Before
+    public void setUp() throws Exception
+    {
+        dir = File.createTempFile("oam-rh-compressed", "");
+        dir.delete();
+        dir.mkdirs();
+    }
+
+    @After
+    public void tearDown() throws Exception
+    {
+        File[] files = dir.listFiles();
+        for (int i = 0; files != null && i < files.length; i++)
+        {
+            files[i].delete();
+        }
+        dir.delete();
+    }
+
+    @Test
+    public void testNegotiate() throws Exception
+    {
+        PrecompressedResourceCache cache = new PrecompressedResourceCache(dir, 1024);
+        PrecompressedResourceCache.Entry entry = cache.getEntry("css", new TestResource(content()), 0);
+
+        Assert.assertEquals("gzip", PrecompressedResourceCache.negotiate("gzip, deflate", entry));
+        Assert.assertEquals("deflate", PrecompressedResourceCache.negotiate("gzip;q=0, deflate", entry));
+        Assert.assertEquals("identity", PrecompressedResourceCache.negotiate("br", entry));
+        Assert.assertEquals("identity", PrecompressedResourceCache.negotiate(null, entry));
+        Assert.assertEquals("gzip", PrecompressedResourceCache.negotiate("*", entry));
+
+        // An explicit entry takes precedence over the wildcard
+        Assert.assertEquals("deflate", PrecompressedResourceCache.negotiate("gzip;q=0, *", entry));
+        Assert.assertEquals("deflate", PrecompressedResourceCache.negotiate("*, gzip;q=0", entry));
+        Assert.assertEquals("identity", PrecompressedResourceCache.negotiate("gzip;q=0, deflate;q=0, *", entry));
+        Assert.assertEquals("identity", PrecompressedResourceCache.negotiate("*;q=0", entry));
+        Assert.assertEquals("gzip", PrecompressedResourceCache.negotiate("gzip;level=1;q=0.5, *;q=0", entry));
+    }
+
+    @Test
+    public void testStoredVersions() throws Exception
+    {
+        byte[] content = content();
+        PrecompressedResourceCache cache = new PrecompressedResourceCache(dir, 1024);
+        PrecompressedResourceCache.Entry entry = cache.getEntry("css", new TestResource(content), 0);
+
+        Assert.assertArrayEquals(content, read(new FileInputStream(entry.getFile("identity"))));
+        Assert.assertArrayEquals(content,
+                read(new GZIPInputStream(new FileInputStream(entry.getFile("gzip")))));
+        Assert.assertTrue(entry.getFile("gzip").length() < content.length);
+
+        Assert.assertNotEquals(entry.getETag("identity"), entry.getETag("gzip"));
+        Assert.assertTrue(entry.matches(entry.getETag("gzip")));
+        Assert.assertFalse(entry.matches("\"other\""));
+
+        // Same lastModified, the stored entry is used
+        Assert.assertSame(entry, cache.getEntry("css", new TestResource(new byte[0]), 0));
+
+        // Changed resource
+        PrecompressedResourceCache.Entry changed = cache.getEntry("css", new TestResource("b".getBytes("UTF-8")), 1);
+        Assert.assertNotEquals(entry.getETag("identity"), changed.getETag("identity"));
+        Assert.assertNull(changed.getFile("gzip"));
+    }
+
+    @Test
+    public void testTooBigResourceIsNotReadAgain() throws Exception
+    {
+        PrecompressedResourceCache cache = new PrecompressedResourceCache(dir, 1024);
+        TestResource resource = new TestResource(new byte[4 * 1024 * 1024 + 1]);
+
+        Assert.assertNull(cache.getEntry("big", resource, 0));
+        Assert.assertNull(cache.getEntry("big", resource, 0));
+        Assert.assertEquals(1, resource.reads);
+        Assert.assertEquals(0, dir.listFiles().length);
+
+        // Changed resource
+        Assert.assertNotNull(cache.getEntry("big", new TestResource(content()), 1));
+    }
+
+    @Test
+    public void testSend() throws Exception
+    {
+        byte[] content = content();
+        PrecompressedResourceCache cache = new PrecompressedResourceCache(dir, 1024);
+        PrecompressedResourceCache.Entry entry = cache.getEntry("css", new TestResource(content), 0);
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        PrecompressedResourceCache.send(entry.getFile("identity"), new HashMap<String, Object>(), out);
+        Assert.assertArrayEquals(content, out.toByteArray());
+
+        Map<String, Object> requestMap = new HashMap<String, Object>();
+        requestMap.put("org.apache.tomcat.sendfile.support", Boolean.TRUE);
+        out.reset();
+        PrecompressedResourceCache.send(entry.getFile("gzip"), requestMap, out);
+        Assert.assertEquals(0, out.size());
+        Assert.assertEquals(entry.getFile("gzip").getAbsolutePath(),
+                requestMap.get("org.apache.tomcat.sendfile.filename"));
+    }
+
+    private static byte[] content() throws IOException
+    {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 200; i++)
+        {
+            sb.append(".style").append(i).append(" { color: red; }\n");
+        }
+        return sb.toString().getBytes("UTF-8");
+    }
+
+    private static byte[] read(InputStream in) throws IOException
+    {
+        try
+        {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buffer = new byte[1024];
+            int length;
+            while ((length = in.read(buffer)) >= 0)
+            {
+                out.write(buffer, 0, length);
+            }
+            return out.toByteArray();
+        }
+        finally
+        {
+            in.close();
+        }
+    }
+
+    private static class TestResource extends Resource
+    {
+        private final byte[] content;
+        private int reads;
+
+        TestResource(byte[] content)
+        {
+            this.content = content;
+        }
+
+        @Override
+        public InputStream getInputStream() throws IOException
+        {
+            reads++;
+            return new ByteArrayInputStream(content);
+        }
+
+        @Override
+        public Map<String, String> getResponseHeaders()
+        {
+            return Collections.emptyMap();
+        }
+
+        @Override
+        public String getRequestPath()
+        {
+            return null;
+        }
+
+        @Override
+        public URL getURL()
+        {
+            return null;
+        }
+
+        @Override
+        public boolean userAgentNeedsUpdate(FacesContext context)
+        {
+            return true;
+        }
+    }
+}
@@ -0,0 +1,136 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.myfaces.resource;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class ResourceContentCacheTest
+{
+    @Test
+    public void testGet() throws Exception
+    {
+        ResourceContentCache cache = new ResourceContentCache(100, 50);
+        byte[] content = new byte[10];
+        cache.put("a", content, 1);
+
+        Assert.assertSame(content, cache.get("a", 1).getContent());
+        Assert.assertNull(cache.get("b", 1));
+        Assert.assertEquals(10, cache.getSize());
+
+        // Modified resource
+        Assert.assertNull(cache.get("a", 2));
+        Assert.assertNull(cache.get("a", 1));
+        Assert.assertEquals(0, cache.getSize());
+    }
+
+    @Test
+    public void testMaxResourceSize() throws Exception
+    {
+        ResourceContentCache cache = new ResourceContentCache(100, 50);
+        cache.put("a", new byte[51], 0);
+
+        ResourceContentCache.Entry entry = cache.get("a", 0);
+        Assert.assertNotNull(entry);
+        Assert.assertNull(entry.getContent());
+        Assert.assertEquals(0, cache.getSize());
+    }
+
+    @Test
+    public void testEviction() throws Exception
+    {
+        ResourceContentCache cache = new ResourceContentCache(100, 50);
+        cache.put("a", new byte[40], 0);
+        cache.put("b", new byte[40], 0);
+
+        // "a" is now the most recently used
+        Assert.assertNotNull(cache.get("a", 0));
+        cache.put("c", new byte[40], 0);
+
+        Assert.assertNotNull(cache.get("a", 0));
+        Assert.assertNull(cache.get("b", 0));
+        Assert.assertNotNull(cache.get("c", 0));
+        Assert.assertEquals(80, cache.getSize());
+
+        // Replacing an entry updates the size
+        cache.put("c", new byte[10], 0);
+        Assert.assertEquals(50, cache.getSize());
+    }
+
+    @Test
+    public void testConcurrentAccess() throws Exception
+    {
+        final ResourceContentCache cache = new ResourceContentCache(1000, 100);
+        final CountDownLatch start = new CountDownLatch(1);
+        final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+        Thread[] threads = new Thread[8];
+        for (int t = 0; t < threads.length; t++)
+        {
+            final int seed = t;
+            threads[t] = new Thread()
+            {
+                @Override
+                public void run()
+                {
+                    try
+                    {
+                        start.await();
+                        for (int i = 0; i < 2000; i++)
+                        {
+                            String key = "r" + ((i * 7 + seed) % 40);
+                            // the resources are modified three times while they are read
+                            long lastModified = i / 500;
+                            if (cache.get(key, lastModified) == null)
+                            {
+                                cache.put(key, new byte[(i + seed) % 90], lastModified);
+                            }
+                        }
+                    }
+                    catch (Throwable e)
+                    {
+                        failure.set(e);
+                    }
+                }
+            };
+            threads[t].start();
+        }
+        start.countDown();
+        for (Thread thread : threads)
+        {
+            thread.join();
+        }
+        Assert.assertNull(failure.get());
+
+        // The size is the sum of the stored entries, and it is within the limit
+        long size = 0;
+        for (int i = 0; i < 40; i++)
+        {
+            ResourceContentCache.Entry entry = cache.get("r" + i, 3);
+            if (entry != null)
+            {
+                size += entry.getContent().length;
+            }
+        }
+        Assert.assertEquals(size, cache.getSize());
+        Assert.assertTrue(cache.getSize() <= 1000);
+    }
+}
@@ -0,0 +1,109 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.myfaces.util;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.atomic.AtomicReference;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.apache.myfaces.shared.util.ConcurrentLRUCache;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class MetricsRegistryTest
+{
+    @Test
+    public void testCacheMetrics()
+    {
+        CacheMetrics metrics = new CacheMetrics();
+        Assert.assertEquals(0, metrics.getHitRatio(), 0);
+        metrics.hit();
+        metrics.hit();
+        metrics.hit();
+        metrics.miss();
+        metrics.put();
+        metrics.evict(2);
+        Assert.assertEquals(3, metrics.getHitCount());
+        Assert.assertEquals(1, metrics.getMissCount());
+        Assert.assertEquals(0.75, metrics.getHitRatio(), 0);
+        Assert.assertEquals(1, metrics.getPutCount());
+        Assert.assertEquals(2, metrics.getEvictionCount());
+        Assert.assertEquals(-1, metrics.getSize());
+        Assert.assertEquals(-1, metrics.getEstimatedMemory());
+    }
+
+    @Test
+    public void testConcurrentLRUCacheMetrics()
+    {
+        AtomicReference<ConcurrentLRUCache<String, String>> reference =
+                new AtomicReference<ConcurrentLRUCache<String, String>>();
+        CacheMetrics metrics = CacheMetrics.of(reference::get);
+        Assert.assertEquals(0, metrics.getSize());
+        Assert.assertEquals(-1, metrics.getMaxSize());
+
+        ConcurrentLRUCache<String, String> cache = new ConcurrentLRUCache<String, String>(8, 6);
+        reference.set(cache);
+        cache.put("a", "1");
+        cache.put("b", "2");
+        cache.get("a");
+        cache.get("c");
+        Assert.assertEquals(1, metrics.getHitCount());
+        Assert.assertEquals(1, metrics.getMissCount());
+        Assert.assertEquals(2, metrics.getPutCount());
+        Assert.assertEquals(2, metrics.getSize());
+        Assert.assertEquals(8, metrics.getMaxSize());
+    }
+
+    @Test
+    public void testJmx() throws Exception
+    {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        ObjectName before = new ObjectName("org.apache.myfaces:type=CacheMetrics,context=\"/test\",name=\"before\"");
+        ObjectName after = new ObjectName("org.apache.myfaces:type=CacheMetrics,context=\"/test\",name=\"after\"");
+
+        MetricsRegistry registry = new MetricsRegistry();
+        CacheMetrics metrics = new CacheMetrics();
+        metrics.hit();
+        registry.register("before", metrics);
+        Assert.assertFalse(server.isRegistered(before));
+
+        registry.startJmx("/test");
+        try
+        {
+            registry.register("after", new CacheMetrics());
+            Assert.assertTrue(server.isRegistered(before));
+            Assert.assertTrue(server.isRegistered(after));
+            Assert.assertEquals(1L, server.getAttribute(before, "HitCount"));
+
+            CacheMetrics replacement = new CacheMetrics();
+            registry.register("before", replacement);
+            Assert.assertSame(replacement, registry.getMetrics("before"));
+            Assert.assertEquals(0L, server.getAttribute(before, "HitCount"));
+        }
+        finally
+        {
+            registry.stopJmx();
+        }
+        Assert.assertFalse(server.isRegistered(before));
+        Assert.assertFalse(server.isRegistered(after));
+        Assert.assertEquals(2, registry.getMetrics().size());
+    }
+}
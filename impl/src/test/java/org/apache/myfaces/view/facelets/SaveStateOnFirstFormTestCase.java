@@ -0,0 +1,102 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.myfaces.view.facelets;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import javax.faces.application.StateManager;
+import javax.faces.application.StateManagerWrapper;
+import javax.faces.context.FacesContext;
+
+import org.apache.myfaces.application.ViewHandlerImpl;
+import org.apache.myfaces.mc.test.core.AbstractMyFacesRequestTestCase;
+import org.apache.myfaces.mc.test.core.annotation.DeclareFacesConfig;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Test cases for org.apache.myfaces.SAVE_STATE_ON_FIRST_FORM.
+ */
+@DeclareFacesConfig("/saveStateOnFirstForm-faces-config.xml")
+public class SaveStateOnFirstFormTestCase extends AbstractMyFacesRequestTestCase
+{
+    private static final String SAVE_VIEW_COUNT = "SaveStateOnFirstFormTestCase.SAVE_VIEW_COUNT";
+
+    private static final Pattern VIEW_STATE = Pattern.compile(
+            "name=\"javax.faces.ViewState\"[^>]*value=\"([^\"]*)\"");
+
+    @Override
+    protected void setUpWebConfigParams() throws Exception
+    {
+        super.setUpWebConfigParams();
+        servletContext.addInitParameter(StateManager.STATE_SAVING_METHOD_PARAM_NAME,
+                StateManager.STATE_SAVING_METHOD_CLIENT);
+        servletContext.addInitParameter(FaceletViewDeclarationLanguage.PARAM_SAVE_STATE_ON_FIRST_FORM, "true");
+    }
+
+    @Test
+    public void testSaveStateOnFirstForm() throws Exception
+    {
+        startViewRequest("/saveStateOnFirstForm.xhtml");
+        processLifecycleExecuteAndRender();
+
+        // Saved by the first form, not again after the view is rendered
+        Assert.assertEquals(1, facesContext.getAttributes().get(SAVE_VIEW_COUNT));
+
+        String text = getRenderedContent(facesContext);
+        Assert.assertFalse(text.contains(ViewHandlerImpl.FORM_STATE_MARKER));
+        List<String> states = new ArrayList<String>();
+        Matcher matcher = VIEW_STATE.matcher(text);
+        while (matcher.find())
+        {
+            states.add(matcher.group(1));
+        }
+        Assert.assertEquals(2, states.size());
+        Assert.assertEquals(states.get(0), states.get(1));
+
+        // The state written on the second form restores the view
+        client.submit("form2:submit");
+        processLifecycleExecute();
+        Assert.assertTrue(facesContext.isPostback());
+        Assert.assertNotNull(facesContext.getViewRoot().findComponent("form2:submit"));
+        endRequest();
+    }
+
+    /**
+     * Counts the calls to saveView in the current request.
+     */
+    public static class CountingStateManager extends StateManagerWrapper
+    {
+        public CountingStateManager(StateManager delegate)
+        {
+            super(delegate);
+        }
+
+        @Override
+        public Object saveView(FacesContext context)
+        {
+            Integer count = (Integer) context.getAttributes().get(SAVE_VIEW_COUNT);
+            context.getAttributes().put(SAVE_VIEW_COUNT, count == null ? 1 : count + 1);
+            return super.saveView(context);
+        }
+    }
+}
@@ -0,0 +1,158 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.myfaces.view.facelets.compiler;
+
+import java.io.File;
+import java.net.URL;
+import java.nio.file.Files;
+
+import javax.faces.component.UIComponent;
+import javax.faces.component.UIForm;
+import javax.faces.component.UIOutput;
+import javax.faces.component.UISelectItem;
+import javax.faces.component.UISelectOne;
+import javax.faces.component.UIViewRoot;
+import javax.faces.component.html.HtmlOutputText;
+import javax.faces.component.html.HtmlSelectOneMenu;
+
+import org.apache.myfaces.renderkit.html.HtmlFormRenderer;
+import org.apache.myfaces.renderkit.html.HtmlMenuRenderer;
+import org.apache.myfaces.renderkit.html.HtmlTextRenderer;
+import org.apache.myfaces.view.facelets.FaceletTestCase;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class CompiledFaceletCacheTestCase extends FaceletTestCase
+{
+    private File directory;
+
+    private UIComponent target;
+
+    @Override
+    protected void setUpServletObjects() throws Exception
+    {
+        super.setUpServletObjects();
+        directory = Files.createTempDirectory("oam-facelets").toFile();
+        servletContext.addInitParameter(FaceletsCompilerSupport.FACELETS_COMPILED_CACHE, "true");
+        servletContext.addInitParameter(FaceletsCompilerSupport.FACELETS_COMPILED_CACHE_DIRECTORY,
+                directory.getAbsolutePath());
+    }
+
+    @Override
+    public void tearDown() throws Exception
+    {
+        File[] files = directory.listFiles();
+        if (files != null)
+        {
+            for (File file : files)
+            {
+                file.delete();
+            }
+        }
+        directory.delete();
+        super.tearDown();
+    }
+
+    @Override
+    protected void setupComponents() throws Exception
+    {
+        application.addComponent(UIViewRoot.COMPONENT_TYPE, UIViewRoot.class.getName());
+        application.addComponent(HtmlSelectOneMenu.COMPONENT_TYPE, HtmlSelectOneMenu.class.getName());
+        application.addComponent(UISelectItem.COMPONENT_TYPE, UISelectItem.class.getName()); 
+        application.addComponent(HtmlOutputText.COMPONENT_TYPE, HtmlOutputText.class.getName());
+    }
+
+    @Override
+    protected void setupConvertersAndValidators() throws Exception
+    {
+    }
+
+    @Override
+    protected void setupRenderers() throws Exception
+    {
+        renderKit.addRenderer(UIForm.COMPONENT_FAMILY, "javax.faces.Form", new HtmlFormRenderer());
+        renderKit.addRenderer(UIOutput.COMPONENT_FAMILY, "javax.faces.Text", new HtmlTextRenderer());
+        renderKit.addRenderer(UISelectOne.COMPONENT_FAMILY, "javax.faces.Menu", new HtmlMenuRenderer());
+    }
+
+    @Test
+    public void testStoreAndReplay() throws Exception
+    {
+        request.setAttribute("test", this);
+
+        UIViewRoot root = facesContext.getViewRoot();
+        vdl.buildView(facesContext, root, "selectOne.xml");
+        Assert.assertNotNull("target binding", target);
+        Assert.assertEquals("children", 2, this.target.getChildCount());
+
+        Compiler compiler = vdl.createCompiler(facesContext);
+        CompiledFaceletCache cache = compiler.getCompiledFaceletCache();
+        Assert.assertNotNull(cache);
+
+        URL url = getLocalFile("selectOne.xml");
+        FaceletsProcessingInstructions instructions 
+                = ((SAXCompiler) compiler).getFaceletsProcessingInstructions(url, "selectOne.xml");
+        CompilationRecord stored = cache.load(url, CompiledFaceletCache.VIEW, instructions);
+        Assert.assertNotNull("stored record", stored);
+
+        // A new parse must record exactly the same events
+        RecordingCompilationManager mngr = new RecordingCompilationManager("selectOne.xml", compiler, instructions);
+        stored.replay(mngr, "selectOne.xml");
+        Assert.assertArrayEquals(stored.getEvents(), mngr.getRecord().getEvents());
+
+        // Build again from the cached events
+        root = new UIViewRoot();
+        facesContext.setViewRoot(root);
+        target = null;
+        vdl.buildView(facesContext, root, "selectOne.xml");
+        Assert.assertNotNull("target binding", target);
+        Assert.assertEquals("children", 2, this.target.getChildCount());
+    }
+
+    @Test
+    public void testModifiedDocumentIsParsedAgain() throws Exception
+    {
+        URL url = getLocalFile("selectOne.xml");
+        Compiler compiler = vdl.createCompiler(facesContext);
+        CompiledFaceletCache cache = compiler.getCompiledFaceletCache();
+        FaceletsProcessingInstructions instructions 
+                = ((SAXCompiler) compiler).getFaceletsProcessingInstructions(url, "selectOne.xml");
+
+        File copy = new File(directory, "copy.xhtml");
+        Files.copy(new File(url.toURI()).toPath(), copy.toPath());
+        URL copyUrl = copy.toURI().toURL();
+        copy.setLastModified(1000000L);
+
+        compiler.compile(copyUrl, "copy.xhtml");
+        Assert.assertNotNull(cache.load(copyUrl, CompiledFaceletCache.VIEW, instructions));
+
+        copy.setLastModified(2000000L);
+        Assert.assertNull(cache.load(copyUrl, CompiledFaceletCache.VIEW, instructions));
+    }
+
+    public UIComponent getTarget()
+    {
+        return target;
+    }
+
+    public void setTarget(UIComponent target)
+    {
+        this.target = target;
+    }
+}
@@ -0,0 +1,115 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.myfaces.view.facelets.compiler;
+
+import javax.faces.context.ResponseWriter;
+import org.apache.myfaces.view.facelets.FaceletTestCase;
+import org.apache.myfaces.view.facelets.util.FastWriter;
+import org.junit.Test;
+import org.testng.Assert;
+
+public class LiteralMarkupInstructionTestCase extends FaceletTestCase
+{
+    private Instruction[] createInstructions()
+    {
+        return new Instruction[] {
+            new LiteralTextInstruction(" "),
+            new StartElementInstruction("div"),
+            new LiteralAttributeInstruction("class", "a<b"),
+            new StartElementInstruction("br"),
+            new EndElementInstruction("br"),
+            new StartElementInstruction("span"),
+            new LiteralTextInstruction("x & y \u00fc"),
+            new EndElementInstruction("span"),
+            new EndElementInstruction("div"),
+            new LiteralTextInstruction(" text "),
+            new StartElementInstruction("script"),
+            new LiteralNonExcapedTextInstruction("var a = 1 < 2;"),
+            new EndElementInstruction("script"),
+            new StartElementInstruction("p"),
+            new LiteralTextInstruction("open")
+        };
+    }
+
+    private String render(Instruction[] instructions) throws Exception
+    {
+        FastWriter fw = new FastWriter();
+        ResponseWriter rw = facesContext.getResponseWriter();
+        ResponseWriter clone = rw.cloneWithWriter(fw);
+        facesContext.setResponseWriter(clone);
+        try
+        {
+            for (Instruction i : instructions)
+            {
+                i.write(facesContext);
+            }
+            clone.flush();
+        }
+        finally
+        {
+            facesContext.setResponseWriter(rw);
+        }
+        return fw.toString();
+    }
+
+    @Test
+    public void testMerge() throws Exception
+    {
+        Instruction[] merged = LiteralMarkupInstruction.merge(createInstructions());
+
+        // text, div...text, script, text, /script, p, text
+        Assert.assertEquals(merged.length, 7);
+        Assert.assertTrue(merged[0] instanceof LiteralTextInstruction);
+        Assert.assertTrue(merged[1] instanceof LiteralMarkupInstruction);
+        Assert.assertTrue(merged[2] instanceof StartElementInstruction);
+        Assert.assertTrue(merged[5] instanceof StartElementInstruction);
+    }
+
+    @Test
+    public void testSameOutput() throws Exception
+    {
+        String expected = render(createInstructions());
+        Instruction[] merged = LiteralMarkupInstruction.merge(createInstructions());
+
+        // The first time the markup is rendered in advance, then it is reused
+        Assert.assertEquals(render(merged), expected);
+        Assert.assertEquals(render(merged), expected);
+    }
+
+    @Test
+    public void testInsideTextarea() throws Exception
+    {
+        Instruction[] instructions = new Instruction[] {
+            new StartElementInstruction("textarea"),
+            new StartElementInstruction("b"),
+            new LiteralTextInstruction("a  b"),
+            new EndElementInstruction("b"),
+            new EndElementInstruction("textarea")
+        };
+        String expected = render(instructions);
+        Instruction[] inner = new Instruction[] {
+            instructions[0],
+            LiteralMarkupInstruction.merge(new Instruction[] {
+                instructions[1], instructions[2], instructions[3]})[0],
+            instructions[4]
+        };
+        Assert.assertTrue(inner[1] instanceof LiteralMarkupInstruction);
+        Assert.assertEquals(render(inner), expected);
+    }
+}
@@ -0,0 +1,129 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.myfaces.view.facelets.impl;
+
+import java.io.IOException;
+import java.net.URL;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.faces.view.facelets.FaceletCache;
+
+import org.junit.Test;
+import org.testng.Assert;
+
+public class CompiledFaceletMapTest
+{
+    @Test
+    public void testConcurrentGetCompilesOnce() throws Exception
+    {
+        final CompiledFaceletMap<Object> facelets = new CompiledFaceletMap<Object>();
+        final URL url = new URL("file:/test.xhtml");
+        final AtomicInteger compilations = new AtomicInteger();
+        final CountDownLatch start = new CountDownLatch(1);
+        final FaceletCache.MemberFactory<Object> factory = new FaceletCache.MemberFactory<Object>()
+        {
+            public Object newInstance(URL key) throws IOException
+            {
+                compilations.incrementAndGet();
+                try
+                {
+                    Thread.sleep(50);
+                }
+                catch (InterruptedException e)
+                {
+                    Thread.currentThread().interrupt();
+                }
+                return new Object();
+            }
+        };
+
+        final Object[] results = new Object[8];
+        Thread[] threads = new Thread[results.length];
+        for (int i = 0; i < threads.length; i++)
+        {
+            final int index = i;
+            threads[i] = new Thread(new Runnable()
+            {
+                public void run()
+                {
+                    try
+                    {
+                        start.await();
+                        results[index] = facelets.get(url, factory);
+                    }
+                    catch (Exception e)
+                    {
+                        results[index] = e;
+                    }
+                }
+            });
+            threads[i].start();
+        }
+        start.countDown();
+        for (Thread thread : threads)
+        {
+            thread.join();
+        }
+
+        Assert.assertEquals(compilations.get(), 1);
+        for (Object result : results)
+        {
+            Assert.assertSame(result, results[0]);
+        }
+        Assert.assertTrue(facelets.containsKey(url));
+
+        // Refresh compiles again only if the facelet is still the stale one
+        Object refreshed = facelets.refresh(url, results[0], factory);
+        Assert.assertNotSame(refreshed, results[0]);
+        Assert.assertSame(facelets.refresh(url, results[0], factory), refreshed);
+        Assert.assertEquals(compilations.get(), 2);
+    }
+
+    @Test
+    public void testFailedCompilationIsNotCached() throws Exception
+    {
+        CompiledFaceletMap<Object> facelets = new CompiledFaceletMap<Object>();
+        URL url = new URL("file:/broken.xhtml");
+        final AtomicInteger compilations = new AtomicInteger();
+        FaceletCache.MemberFactory<Object> factory = new FaceletCache.MemberFactory<Object>()
+        {
+            public Object newInstance(URL key) throws IOException
+            {
+                if (compilations.incrementAndGet() == 1)
+                {
+                    throw new IOException("broken");
+                }
+                return "fixed";
+            }
+        };
+
+        try
+        {
+            facelets.get(url, factory);
+            Assert.fail();
+        }
+        catch (IOException e)
+        {
+            // expected
+        }
+        Assert.assertFalse(facelets.containsKey(url));
+        Assert.assertEquals(facelets.get(url, factory), "fixed");
+    }
+}
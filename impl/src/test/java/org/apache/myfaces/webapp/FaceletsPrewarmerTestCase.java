@@ -0,0 +1,193 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.myfaces.webapp;
+
+import java.io.IOException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.faces.context.FacesContext;
+import javax.faces.view.facelets.Facelet;
+import javax.faces.view.facelets.FaceletContext;
+
+import org.apache.myfaces.mc.test.core.AbstractMyFacesRequestTestCase;
+import org.apache.myfaces.view.facelets.FaceletFactory;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Test cases for FaceletsPrewarmer.
+ */
+public class FaceletsPrewarmerTestCase extends AbstractMyFacesRequestTestCase
+{
+    @Override
+    protected void setUpWebConfigParams() throws Exception
+    {
+        super.setUpWebConfigParams();
+        servletContext.addInitParameter(FaceletsPrewarmer.INIT_PARAM_FACELETS_PREWARM, "true");
+        servletContext.addInitParameter(FaceletsPrewarmer.INIT_PARAM_FACELETS_PREWARM_THREADS, "2");
+    }
+
+    @Test
+    public void testCollectTasks() throws Exception
+    {
+        startViewRequest("/prewarm.xhtml");
+
+        FaceletsPrewarmer prewarmer = new FaceletsPrewarmer(createFacesInitializer(), servletContext,
+                Thread.currentThread().getContextClassLoader());
+        Map<String, FaceletsPrewarmer.Task> tasks = new HashMap<String, FaceletsPrewarmer.Task>();
+        for (FaceletsPrewarmer.Task task : prewarmer.collectTasks(facesContext))
+        {
+            tasks.put(task.path, task);
+        }
+
+        FaceletsPrewarmer.Task view = tasks.get("/prewarm.xhtml");
+        Assert.assertNotNull(view);
+        Assert.assertFalse(view.compositeComponent);
+        Assert.assertNotNull(view.url);
+
+        FaceletsPrewarmer.Task composite = tasks.get("/resources/prewarm/box.xhtml");
+        Assert.assertNotNull(composite);
+        Assert.assertTrue(composite.compositeComponent);
+        Assert.assertNotNull(composite.url);
+
+        endRequest();
+    }
+
+    @Test
+    public void testCompile() throws Exception
+    {
+        CountingFaceletFactory factory = new CountingFaceletFactory();
+        FaceletsPrewarmer prewarmer = new FaceletsPrewarmer(createFacesInitializer(), servletContext,
+                Thread.currentThread().getContextClassLoader());
+
+        List<FaceletsPrewarmer.Task> tasks = new ArrayList<FaceletsPrewarmer.Task>();
+        tasks.add(prewarmer.new Task("/a.xhtml", factory, new URL("file:/a.xhtml"), false));
+        tasks.add(prewarmer.new Task("/broken.xhtml", factory, new URL("file:/broken.xhtml"), false));
+        tasks.add(prewarmer.new Task("/b.xhtml", factory, new URL("file:/b.xhtml"), false));
+        tasks.add(prewarmer.new Task("/resources/lib/c.xhtml", factory,
+                new URL("file:/resources/lib/c.xhtml"), true));
+        prewarmer.start(tasks, 2);
+
+        Assert.assertTrue(prewarmer.awaitTermination(10, TimeUnit.SECONDS));
+
+        // A document that cannot be compiled does not stop the others
+        Assert.assertEquals(4, factory.facelets.get());
+        Assert.assertEquals(2, factory.viewMetadataFacelets.get());
+        Assert.assertEquals(1, factory.compositeComponentMetadataFacelets.get());
+        Assert.assertEquals(0, factory.withoutFacesContext.get());
+    }
+
+    @Test
+    public void testDestroy() throws Exception
+    {
+        startViewRequest("/prewarm.xhtml");
+
+        // Started when the application has been initialized
+        FaceletsPrewarmer prewarmer = (FaceletsPrewarmer) externalContext.getApplicationMap().get(
+                FaceletsPrewarmer.INSTANCE);
+        Assert.assertNotNull(prewarmer);
+
+        FaceletsPrewarmer.destroy(externalContext);
+
+        Assert.assertNull(externalContext.getApplicationMap().get(FaceletsPrewarmer.INSTANCE));
+        Assert.assertTrue(prewarmer.awaitTermination(0, TimeUnit.SECONDS));
+
+        endRequest();
+    }
+
+    private static class CountingFaceletFactory extends FaceletFactory
+    {
+        private final AtomicInteger facelets = new AtomicInteger();
+        private final AtomicInteger viewMetadataFacelets = new AtomicInteger();
+        private final AtomicInteger compositeComponentMetadataFacelets = new AtomicInteger();
+        private final AtomicInteger withoutFacesContext = new AtomicInteger();
+
+        @Override
+        public Facelet getFacelet(FacesContext context, String uri) throws IOException
+        {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public Facelet getFacelet(URL url) throws IOException
+        {
+            checkContext();
+            facelets.incrementAndGet();
+            if (url.getPath().contains("broken"))
+            {
+                throw new IOException("broken");
+            }
+            return null;
+        }
+
+        @Override
+        public Facelet getFacelet(FaceletContext ctx, URL url) throws IOException
+        {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public Facelet getViewMetadataFacelet(FacesContext context, String uri) throws IOException
+        {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public Facelet getViewMetadataFacelet(URL url) throws IOException
+        {
+            checkContext();
+            viewMetadataFacelets.incrementAndGet();
+            return null;
+        }
+
+        @Override
+        public Facelet getCompositeComponentMetadataFacelet(FacesContext context, String uri) throws IOException
+        {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public Facelet getCompositeComponentMetadataFacelet(URL url) throws IOException
+        {
+            checkContext();
+            compositeComponentMetadataFacelets.incrementAndGet();
+            return null;
+        }
+
+        @Override
+        public Facelet compileComponentFacelet(String taglibURI, String tagName, Map<String, Object> attributes)
+        {
+            throw new UnsupportedOperationException();
+        }
+
+        private void checkContext()
+        {
+            // The documents are compiled with a startup FacesContext and this factory as the current one
+            if (FacesContext.getCurrentInstance() == null || FaceletFactory.getInstance() != this)
+            {
+                withoutFacesContext.incrementAndGet();
+            }
+        }
+    }
+}
@@ -536,6 +536,25 @@ public class MyfacesConfig
             "org.apache.myfaces.STRICT_JSF_2_ORIGIN_HEADER_APP_PATH";
     public final static boolean STRICT_JSF_2_ORIGIN_HEADER_APP_PATH_DEFAULT = false;
 
+    /**
+     * Bundle the consecutive h:outputScript and h:outputStylesheet resources rendered in h:head into one
+     * resource. The bundle is named by the hash of its content and sent with far-future expiration headers.
+     * Only active when the project stage is Production.
+     *
+     * <p>Resources with child content, query params, pass through attributes or a media attribute are not
+     * bundled. Stylesheets with @import or relative url() references are not bundled either, because
+     * they would be resolved against the bundle path; use #{resource[...]} expressions instead.</p>
+     *
+     * <p>The bundles are kept in memory. The url of a bundle lists its members, so a node that has not
+     * rendered the page, or has evicted or restarted since, builds the bundle again from them. The url
+     * only returns content while the members produce the content hash in its name.</p>
+     */
+    @JSFWebConfigParam(since = "2.3.3", defaultValue = "false", expectedValues = "true,false",
+            group = "resources", tags = "performance")
+    public static final String INIT_PARAM_RESOURCE_BUNDLING_ENABLED =
+            "org.apache.myfaces.RESOURCE_BUNDLING_ENABLED";
+    public final static boolean INIT_PARAM_RESOURCE_BUNDLING_ENABLED_DEFAULT = false;
+
     private boolean _prettyHtml;
     private boolean _detectJavascript;
     private boolean _allowJavascript;
@@ -578,6 +597,7 @@ public class MyfacesConfig
     private Integer _numberOfFacesFlowClientWindowIdsInSession;
     private boolean _supportEL3ImportHandler;
     private boolean _strictJsf2OriginHeaderAppPath;
+    private boolean _resourceBundlingEnabled;
 
     private static final boolean TOMAHAWK_AVAILABLE;
     private static final boolean MYFACES_IMPL_AVAILABLE;
@@ -680,6 +700,7 @@ public class MyfacesConfig
         setGaeJsfAnnotationsJarFiles(INIT_PARAM_GAE_JSF_ANNOTATIONS_JAR_FILES_DEFAULT);
         setStrictJsf2ViewNotFound(INIT_PARAM_STRICT_JSF_2_VIEW_NOT_FOUND_DEFAULT);
         setEarlyFlushEnabled(INIT_PARAM_EARLY_FLUSH_ENABLED_DEFAULT);
+        setResourceBundlingEnabled(INIT_PARAM_RESOURCE_BUNDLING_ENABLED_DEFAULT);
         setStrictJsf2FaceletsCompatibility(INIT_PARAM_STRICT_JSF_2_FACELETS_COMPATIBILITY_DEFAULT);
         setRenderFormViewStateAtBegin(INIT_PARAM_RENDER_FORM_VIEW_STATE_AT_BEGIN_DEFAULT);
         setFlashScopeDisabled(INIT_PARAM_FLASH_SCOPE_DISABLED_DEFAULT);
@@ -803,6 +824,9 @@ public class MyfacesConfig
         myfacesConfig.setEarlyFlushEnabled(WebConfigParamUtils.getBooleanInitParameter(extCtx,
                 INIT_PARAM_EARLY_FLUSH_ENABLED, INIT_PARAM_EARLY_FLUSH_ENABLED_DEFAULT));
 
+        myfacesConfig.setResourceBundlingEnabled(WebConfigParamUtils.getBooleanInitParameter(extCtx,
+                INIT_PARAM_RESOURCE_BUNDLING_ENABLED, INIT_PARAM_RESOURCE_BUNDLING_ENABLED_DEFAULT));
+
 
         myfacesConfig.setStrictJsf2FaceletsCompatibility(WebConfigParamUtils.getBooleanInitParameter(extCtx, 
                 INIT_PARAM_STRICT_JSF_2_FACELETS_COMPATIBILITY, 
@@ -1544,4 +1568,14 @@ public class MyfacesConfig
     {
         this._strictJsf2OriginHeaderAppPath = strictJsf2OriginHeaderAppPath;
     }
+
+    public boolean isResourceBundlingEnabled()
+    {
+        return _resourceBundlingEnabled;
+    }
+
+    public void setResourceBundlingEnabled(boolean resourceBundlingEnabled)
+    {
+        this._resourceBundlingEnabled = resourceBundlingEnabled;
+    }
 }
@@ -0,0 +1,327 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.myfaces.shared.model;
+
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+
+import javax.faces.FacesException;
+import javax.faces.model.DataModel;
+import javax.faces.model.DataModelEvent;
+import javax.faces.model.DataModelListener;
+
+/**
+ * DataModel that loads its rows on demand, in windows of consecutive rows, instead of requiring the whole
+ * collection in memory. Subclasses provide the number of rows and the rows of a window, for example with a
+ * count query and a query using offset and limit.
+ * <p>
+ * Only the last used windows are kept. When an executor is given, the window after the one being read is
+ * loaded in advance on it, so {@link #loadRows(int, int)} must not depend on the FacesContext or any other
+ * state bound to the request thread.
+ * </p>
+ * <p>
+ * The table renderer and ui:repeat call {@link #setWindow(int, int)} with their first and rows (offset and
+ * size) attributes, so a page is loaded at once and rows outside the rendered range are never loaded. The
+ * wrapped data is not used by this class: it is kept as is, and setting it discards the loaded rows, so it can
+ * hold the criteria of the query.
+ * </p>
+ */
+public abstract class WindowedDataModel<E> extends DataModel<E>
+{
+    public static final int DEFAULT_WINDOW_SIZE = 50;
+
+    public static final int DEFAULT_MAX_CACHED_WINDOWS = 3;
+
+    private final int _maxCachedWindows;
+
+    private final Executor _prefetchExecutor;
+
+    // Loaded windows by the index of their first row, in access order
+    private final Map<Integer, Future<List<E>>> _windows;
+
+    private int _windowSize;
+
+    // Index of a row a window starts with, windows are aligned to it
+    private int _windowOffset;
+
+    private int _rowIndex = -1;
+
+    private Integer _rowCount;
+
+    private Object _wrappedData;
+
+    public WindowedDataModel()
+    {
+        this(DEFAULT_WINDOW_SIZE, DEFAULT_MAX_CACHED_WINDOWS, null);
+    }
+
+    /**
+     * @param windowSize number of rows loaded at once, until {@link #setWindow(int, int)} is called
+     * @param maxCachedWindows number of windows kept in memory, including the one prefetched
+     * @param prefetchExecutor executor loading the next window in advance, or null to load windows only when a
+     * row inside them is requested
+     */
+    public WindowedDataModel(int windowSize, int maxCachedWindows, Executor prefetchExecutor)
+    {
+        if (windowSize <= 0)
+        {
+            throw new IllegalArgumentException("illegal windowSize " + windowSize);
+        }
+        if (maxCachedWindows <= 0)
+        {
+            throw new IllegalArgumentException("illegal maxCachedWindows " + maxCachedWindows);
+        }
+        _windowSize = windowSize;
+        _maxCachedWindows = maxCachedWindows;
+        _prefetchExecutor = maxCachedWindows > 1 ? prefetchExecutor : null;
+        _windows = new LinkedHashMap<Integer, Future<List<E>>>(maxCachedWindows * 2, 0.75f, true);
+    }
+
+    /**
+     * Returns the total number of rows, or -1 if it is unknown. Called once until {@link #refresh()}.
+     */
+    protected abstract int countRows();
+
+    /**
+     * Returns the rows from first (included) on, at most maxRows of them. Fewer rows are returned only at the end
+     * of the data.
+     */
+    protected abstract List<E> loadRows(int first, int maxRows);
+
+    /**
+     * Aligns the windows to the range of rows being displayed, so each page of a table is loaded at once. The
+     * loaded rows are discarded if the windows change.
+     * 
+     * @param first index of the first row displayed
+     * @param size number of rows displayed, 0 or less to keep the current window size
+     */
+    public void setWindow(int first, int size)
+    {
+        if (size <= 0)
+        {
+            return;
+        }
+        int offset = Math.max(first, 0) % size;
+        if (size != _windowSize || offset != _windowOffset)
+        {
+            _windowSize = size;
+            _windowOffset = offset;
+            clearWindows();
+        }
+    }
+
+    public int getWindowSize()
+    {
+        return _windowSize;
+    }
+
+    /**
+     * Discards the loaded rows and the row count, so they are loaded again when needed.
+     */
+    public void refresh()
+    {
+        _rowCount = null;
+        clearWindows();
+    }
+
+    @Override
+    public int getRowCount()
+    {
+        if (_rowCount == null)
+        {
+            _rowCount = countRows();
+        }
+        return _rowCount;
+    }
+
+    @Override
+    public boolean isRowAvailable()
+    {
+        if (_rowIndex < 0)
+        {
+            return false;
+        }
+        int rowCount = getRowCount();
+        if (rowCount >= 0 && _rowIndex >= rowCount)
+        {
+            return false;
+        }
+        int first = getWindowFirst(_rowIndex);
+        return _rowIndex - first < getWindow(first).size();
+    }
+
+    @Override
+    public E getRowData()
+    {
+        if (_rowIndex == -1)
+        {
+            return null;
+        }
+        if (!isRowAvailable())
+        {
+            throw new IllegalArgumentException("row is unavailable");
+        }
+        int first = getWindowFirst(_rowIndex);
+        return getWindow(first).get(_rowIndex - first);
+    }
+
+    @Override
+    public int getRowIndex()
+    {
+        return _rowIndex;
+    }
+
+    @Override
+    public void setRowIndex(int rowIndex)
+    {
+        if (rowIndex < -1)
+        {
+            throw new IllegalArgumentException("illegal rowIndex " + rowIndex);
+        }
+        int oldRowIndex = _rowIndex;
+        _rowIndex = rowIndex;
+        if (oldRowIndex != _rowIndex)
+        {
+            DataModelListener[] listeners = getDataModelListeners();
+            if (listeners.length > 0)
+            {
+                E data = isRowAvailable() ? getRowData() : null;
+                DataModelEvent event = new DataModelEvent(this, _rowIndex, data);
+                for (int i = 0; i < listeners.length; i++)
+                {
+                    listeners[i].rowSelected(event);
+                }
+            }
+        }
+    }
+
+    @Override
+    public Object getWrappedData()
+    {
+        return _wrappedData;
+    }
+
+    @Override
+    public void setWrappedData(Object data)
+    {
+        _wrappedData = data;
+        refresh();
+        _rowIndex = -1;
+    }
+
+    private int getWindowFirst(int rowIndex)
+    {
+        if (rowIndex < _windowOffset)
+        {
+            return 0;
+        }
+        return rowIndex - (rowIndex - _windowOffset) % _windowSize;
+    }
+
+    private int getWindowRows(int first)
+    {
+        return first < _windowOffset ? _windowOffset - first : _windowSize;
+    }
+
+    private List<E> getWindow(int first)
+    {
+        Future<List<E>> window = _windows.get(first);
+        if (window == null)
+        {
+            FutureTask<List<E>> task = createLoadTask(first, getWindowRows(first));
+            putWindow(first, task);
+            task.run();
+            window = task;
+        }
+        prefetch(first + getWindowRows(first));
+
+        try
+        {
+            List<E> rows = window.get();
+            return rows == null ? Collections.<E>emptyList() : rows;
+        }
+        catch (ExecutionException e)
+        {
+            _windows.remove(first);
+            Throwable cause = e.getCause();
+            throw cause instanceof RuntimeException ? (RuntimeException) cause : new FacesException(cause);
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            throw new FacesException(e);
+        }
+    }
+
+    private void prefetch(int first)
+    {
+        if (_prefetchExecutor == null || _windows.containsKey(first))
+        {
+            return;
+        }
+        int rowCount = getRowCount();
+        if (rowCount >= 0 && first >= rowCount)
+        {
+            return;
+        }
+        FutureTask<List<E>> task = createLoadTask(first, getWindowRows(first));
+        try
+        {
+            _prefetchExecutor.execute(task);
+            putWindow(first, task);
+        }
+        catch (RejectedExecutionException e)
+        {
+            // The window is loaded when needed
+        }
+    }
+
+    private FutureTask<List<E>> createLoadTask(final int first, final int maxRows)
+    {
+        return new FutureTask<List<E>>(() -> loadRows(first, maxRows));
+    }
+
+    private void putWindow(int first, Future<List<E>> window)
+    {
+        _windows.put(first, window);
+        if (_windows.size() > _maxCachedWindows)
+        {
+            Iterator<Future<List<E>>> it = _windows.values().iterator();
+            it.next().cancel(false);
+            it.remove();
+        }
+    }
+
+    private void clearWindows()
+    {
+        for (Future<List<E>> window : _windows.values())
+        {
+            window.cancel(false);
+        }
+        _windows.clear();
+    }
+}
@@ -38,6 +38,7 @@ import org.apache.myfaces.shared.config.MyfacesConfig;
 import org.apache.myfaces.shared.renderkit.ContentTypeUtils;
 import org.apache.myfaces.shared.renderkit.RendererUtils;
 import org.apache.myfaces.shared.renderkit.html.util.UnicodeEncoder;
+import org.apache.myfaces.shared.util.CharChunkPool;
 import org.apache.myfaces.shared.util.CommentUtils;
 import org.apache.myfaces.shared.util.StreamCharBuffer;
 
@@ -1085,6 +1086,27 @@ public class HtmlResponseWriterImpl
         }
     }
 
+    /**
+     * Writes markup rendered in advance by a writer created with cloneWithWriter(), containing only 
+     * complete elements and text. The markup is not written if the current element changes the way
+     * the content is written (script, style, textarea or CDATA section).
+     * 
+     * @return true if the markup has been written, false if it must be written using the other methods
+     * @since 2.3.3
+     */
+    public boolean writePreRendered(char[] markup, int off, int len) throws IOException
+    {
+        if (_cdataOpen || isScriptOrStyle() || isTextarea() || _currentWriter != _outputWriter)
+        {
+            return false;
+        }
+        closeStartTagIfNecessary();
+        _currentWriter.write(markup, off, len);
+        // The markup ends with a closed element, like after endElement()
+        resetStartedElement();
+        return true;
+    }
+
     public ResponseWriter cloneWithWriter(Writer writer)
     {
         HtmlResponseWriterImpl newWriter
@@ -1191,7 +1213,9 @@ public class HtmlResponseWriterImpl
     {
         if (_buffer == null)
         {
-            _buffer = new StreamCharBuffer(256, 100);
+            CharChunkPool.Lease lease = CharChunkPool.getInstance().getLease(getFacesContext());
+            _buffer = lease == null ? new StreamCharBuffer(256, 100) :
+                    new StreamCharBuffer(lease.getChunkSize(), 100, 1024 * 1024, lease);
         }
         else if (reset)
         {
@@ -33,6 +33,7 @@ import javax.faces.component.html.HtmlDataTable;
 import javax.faces.context.FacesContext;
 import javax.faces.context.ResponseWriter;
 
+import org.apache.myfaces.shared.model.WindowedDataModel;
 import org.apache.myfaces.shared.renderkit.JSFAttr;
 import org.apache.myfaces.shared.renderkit.RendererUtils;
 import org.apache.myfaces.shared.renderkit.html.util.ResourceUtils;
@@ -350,6 +351,13 @@ public class HtmlTableRendererBase extends HtmlRenderer
         UIData uiData = (UIData) component;
         ResponseWriter writer = facesContext.getResponseWriter();
 
+        Object value = uiData.getValue();
+        if (value instanceof WindowedDataModel)
+        {
+            // load the rows of the page at once
+            ((WindowedDataModel<?>) value).setWindow(uiData.getFirst(), uiData.getRows());
+        }
+
         int rowCount = uiData.getRowCount();
 
         int newspaperColumns = getNewspaperColumns(component);
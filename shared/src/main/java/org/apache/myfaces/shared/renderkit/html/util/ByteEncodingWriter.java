@@ -0,0 +1,374 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.myfaces.shared.renderkit.html.util;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Writer that encodes the characters to UTF-8 or ISO-8859-1 bytes on its own buffer and write
+ * them to an OutputStream, so the markup written by the ResponseWriter is encoded just once,
+ * instead of going through the Writer of the servlet container and its CharsetEncoder.
+ * 
+ * The buffers are taken from a small pool shared by all instances and returned to it when
+ * {@link #close()} is called. Closing this writer does not close the underlying OutputStream.
+ * 
+ * Characters that cannot be encoded are written as '?', like the servlet container does. 
+ * 
+ * @since 2.3.3
+ */
+public final class ByteEncodingWriter extends Writer
+{
+    private static final int BUFFER_SIZE = 8192;
+    
+    private static final int MAX_POOLED_BUFFERS = 64;
+    
+    private static final Queue<byte[]> POOL = new ConcurrentLinkedQueue<byte[]>();
+    
+    private static final AtomicInteger POOLED = new AtomicInteger();
+    
+    private final OutputStream _out;
+    
+    private final boolean _utf8;
+    
+    private byte[] _buffer;
+    
+    private int _count;
+    
+    /**
+     * High surrogate written at the end of the previous call, waiting for its low surrogate.
+     */
+    private char _highSurrogate;
+
+    public ByteEncodingWriter(OutputStream out, String characterEncoding)
+    {
+        if (!isSupported(characterEncoding))
+        {
+            throw new IllegalArgumentException("Unsupported encoding: " + characterEncoding);
+        }
+        _out = out;
+        _utf8 = StandardCharsets.UTF_8.equals(Charset.forName(characterEncoding));
+        _buffer = acquireBuffer();
+    }
+
+    /**
+     * Indicates if the encoding can be written by this class: UTF-8 or ISO-8859-1.
+     */
+    public static boolean isSupported(String characterEncoding)
+    {
+        if (characterEncoding == null)
+        {
+            return false;
+        }
+        try
+        {
+            Charset charset = Charset.forName(characterEncoding);
+            return StandardCharsets.UTF_8.equals(charset) || StandardCharsets.ISO_8859_1.equals(charset);
+        }
+        catch (IllegalArgumentException e)
+        {
+            return false;
+        }
+    }
+
+    @Override
+    public void write(int c) throws IOException
+    {
+        ensureOpen();
+        if (c < 0x80 && _highSurrogate == 0)
+        {
+            if (_count == _buffer.length)
+            {
+                flushBuffer();
+            }
+            _buffer[_count++] = (byte) c;
+        }
+        else
+        {
+            writeChar((char) c);
+        }
+    }
+
+    @Override
+    public void write(char[] cbuf, int off, int len) throws IOException
+    {
+        ensureOpen();
+        int end = off + len;
+        int i = off;
+        while (i < end)
+        {
+            if (_highSurrogate != 0)
+            {
+                writeChar(cbuf[i++]);
+                continue;
+            }
+            if (_count == _buffer.length)
+            {
+                flushBuffer();
+            }
+            byte[] buffer = _buffer;
+            int count = _count;
+            int limit = Math.min(end, i + (buffer.length - count));
+            char c;
+            // ASCII, one byte per char
+            while (i < limit && (c = cbuf[i]) < 0x80)
+            {
+                buffer[count++] = (byte) c;
+                i++;
+            }
+            _count = count;
+            if (i < limit)
+            {
+                writeChar(cbuf[i++]);
+            }
+        }
+    }
+
+    @Override
+    public void write(String str, int off, int len) throws IOException
+    {
+        ensureOpen();
+        int end = off + len;
+        int i = off;
+        while (i < end)
+        {
+            if (_highSurrogate != 0)
+            {
+                writeChar(str.charAt(i++));
+                continue;
+            }
+            if (_count == _buffer.length)
+            {
+                flushBuffer();
+            }
+            byte[] buffer = _buffer;
+            int count = _count;
+            int limit = Math.min(end, i + (buffer.length - count));
+            char c;
+            // ASCII, one byte per char
+            while (i < limit && (c = str.charAt(i)) < 0x80)
+            {
+                buffer[count++] = (byte) c;
+                i++;
+            }
+            _count = count;
+            if (i < limit)
+            {
+                writeChar(str.charAt(i++));
+            }
+        }
+    }
+
+    @Override
+    public void write(String str) throws IOException
+    {
+        write(str, 0, str.length());
+    }
+
+    /**
+     * Writes bytes that are already encoded with the encoding of this writer.
+     */
+    public void writeBytes(byte[] bytes, int off, int len) throws IOException
+    {
+        ensureOpen();
+        if (_highSurrogate != 0)
+        {
+            _highSurrogate = 0;
+            writeByte('?');
+        }
+        if (len > _buffer.length - _count)
+        {
+            flushBuffer();
+            if (len > _buffer.length)
+            {
+                _out.write(bytes, off, len);
+                return;
+            }
+        }
+        System.arraycopy(bytes, off, _buffer, _count, len);
+        _count += len;
+    }
+
+    public boolean isUTF8()
+    {
+        return _utf8;
+    }
+
+    /**
+     * Writes the buffered bytes to the OutputStream, without flushing it, so the response is not
+     * committed.
+     */
+    public void flushBuffer() throws IOException
+    {
+        if (_count > 0)
+        {
+            _out.write(_buffer, 0, _count);
+            _count = 0;
+        }
+    }
+
+    @Override
+    public void flush() throws IOException
+    {
+        ensureOpen();
+        flushBuffer();
+        _out.flush();
+    }
+
+    /**
+     * Writes the buffered bytes and returns the buffer to the pool. The OutputStream is not closed.
+     */
+    @Override
+    public void close() throws IOException
+    {
+        if (_buffer == null)
+        {
+            return;
+        }
+        try
+        {
+            if (_highSurrogate != 0)
+            {
+                _highSurrogate = 0;
+                writeByte('?');
+            }
+            flushBuffer();
+        }
+        finally
+        {
+            releaseBuffer(_buffer);
+            _buffer = null;
+        }
+    }
+
+    private void writeChar(char c) throws IOException
+    {
+        if (_highSurrogate != 0)
+        {
+            char high = _highSurrogate;
+            _highSurrogate = 0;
+            if (Character.isLowSurrogate(c))
+            {
+                if (_utf8)
+                {
+                    writeCodePoint(Character.toCodePoint(high, c));
+                }
+                else
+                {
+                    writeByte('?');
+                }
+                return;
+            }
+            writeByte('?');
+        }
+
+        if (c < 0x80)
+        {
+            writeByte(c);
+        }
+        else if (Character.isHighSurrogate(c))
+        {
+            _highSurrogate = c;
+        }
+        else if (Character.isLowSurrogate(c))
+        {
+            writeByte('?');
+        }
+        else if (!_utf8)
+        {
+            writeByte(c <= 0xFF ? c : '?');
+        }
+        else if (c < 0x800)
+        {
+            ensureCapacity(2);
+            _buffer[_count++] = (byte) (0xC0 | (c >> 6));
+            _buffer[_count++] = (byte) (0x80 | (c & 0x3F));
+        }
+        else
+        {
+            ensureCapacity(3);
+            _buffer[_count++] = (byte) (0xE0 | (c >> 12));
+            _buffer[_count++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+            _buffer[_count++] = (byte) (0x80 | (c & 0x3F));
+        }
+    }
+
+    private void writeCodePoint(int codePoint) throws IOException
+    {
+        ensureCapacity(4);
+        _buffer[_count++] = (byte) (0xF0 | (codePoint >> 18));
+        _buffer[_count++] = (byte) (0x80 | ((codePoint >> 12) & 0x3F));
+        _buffer[_count++] = (byte) (0x80 | ((codePoint >> 6) & 0x3F));
+        _buffer[_count++] = (byte) (0x80 | (codePoint & 0x3F));
+    }
+
+    private void writeByte(int b) throws IOException
+    {
+        if (_count == _buffer.length)
+        {
+            flushBuffer();
+        }
+        _buffer[_count++] = (byte) b;
+    }
+
+    private void ensureCapacity(int len) throws IOException
+    {
+        if (_buffer.length - _count < len)
+        {
+            flushBuffer();
+        }
+    }
+
+    private void ensureOpen() throws IOException
+    {
+        if (_buffer == null)
+        {
+            throw new IOException("Writer closed");
+        }
+    }
+
+    private static byte[] acquireBuffer()
+    {
+        byte[] buffer = POOL.poll();
+        if (buffer == null)
+        {
+            return new byte[BUFFER_SIZE];
+        }
+        POOLED.decrementAndGet();
+        return buffer;
+    }
+
+    private static void releaseBuffer(byte[] buffer)
+    {
+        if (POOLED.incrementAndGet() <= MAX_POOLED_BUFFERS)
+        {
+            POOL.offer(buffer);
+        }
+        else
+        {
+            POOLED.decrementAndGet();
+        }
+    }
+}
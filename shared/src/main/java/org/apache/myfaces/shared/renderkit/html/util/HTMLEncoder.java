@@ -58,6 +58,7 @@ public abstract class HTMLEncoder
      * @param encodeNewline if true newline characters are converted to &lt;br&gt;'s
      * @param encodeSubsequentBlanksToNbsp if true subsequent blanks are converted to &amp;nbsp;'s
      * @param encodeNonLatin if true encode non-latin characters as numeric character references
+     * @return the same string if nothing needs to be encoded
      */
     public static String encode (String string,
                                  boolean encodeNewline,
@@ -70,91 +71,26 @@ public abstract class HTMLEncoder
         }
 
         StringBuilder sb = null;    //create later on demand
-        String app;
-        char c = ' ';
-        char prevC;
+        int start = 0;
         int length = string.length();
         for (int i = 0; i < length; ++i)
         {
-            app = null;
-            prevC = c;
-            c = string.charAt(i);
-            
-            // All characters before letters
-            if ((int)c < 0x41)
+            char c = string.charAt(i);
+            if (isPlain(c, encodeNonLatin))
             {
-                switch (c)
-                {
-                    case '"': app = "&quot;"; break;    //"
-                    case '&': app = "&amp;"; break;     //&
-                    case '<': app = "&lt;"; break;      //<
-                    case '>': app = "&gt;"; break;      //>
-                    case ' ':
-                        if (encodeSubsequentBlanksToNbsp &&
-                                prevC == ' ')
-                        {
-                            //Space at beginning or after another space
-                            app = "&#160;";
-                        }
-                        break;
-                    case '\n':
-                        if (encodeNewline)
-                        {
-                            app = "<br/>";
-                        }
-                        break;
-                    default:
-                        break;
-                }
-                // http://www.w3.org/MarkUp/html3/specialchars.html
-                // From C0 extension U+0000-U+001F only U+0009, U+000A and
-                // U+000D are valid control characters
-                if (c <= 0x1F && c != 0x09 && c != 0x0A && c != 0x0D)
-                {
-                    // Ignore escape character
-                    app = "";
-                }
-            }
-            else if (encodeNonLatin && (int)c > 0x80)
-            {
-                 switch(c)
-                 {
-                    //german umlauts
-                    case '\u00E4' : app = "&auml;";  break;
-                    case '\u00C4' : app = "&Auml;";  break;
-                    case '\u00F6' : app = "&ouml;";  break;
-                    case '\u00D6' : app = "&Ouml;";  break;
-                    case '\u00FC' : app = "&uuml;";  break;
-                    case '\u00DC' : app = "&Uuml;";  break;
-                    case '\u00DF' : app = "&szlig;"; break;
-
-                    //misc
-                    //case 0x80: app = "&euro;"; break;  sometimes euro symbol is ascii 128, should we suport it?
-                    case '\u20AC': app = "&euro;";  break;
-                    case '\u00AB': app = "&laquo;"; break;
-                    case '\u00BB': app = "&raquo;"; break;
-                    case '\u00A0': app = "&#160;"; break;
-
-                    default :
-                        //encode all non basic latin characters
-                        app = "&#" + ((int)c) + ";";
-                    break;
-                }
+                continue;
             }
+            String app = escape(c, i == 0 ? ' ' : string.charAt(i - 1),
+                    encodeNewline, encodeSubsequentBlanksToNbsp);
             if (app != null)
             {
                 if (sb == null)
                 {
-                    sb = new StringBuilder(string.substring(0, i));
+                    sb = new StringBuilder(length + 16);
                 }
+                sb.append(string, start, i);
                 sb.append(app);
-            }
-            else
-            {
-                if (sb != null)
-                {
-                    sb.append(c);
-                }
+                start = i + 1;
             }
         }
 
@@ -162,10 +98,8 @@ public abstract class HTMLEncoder
         {
             return string;
         }
-        else
-        {
-            return sb.toString();
-        }
+        sb.append(string, start, length);
+        return sb.toString();
     }
     
     /**
@@ -204,84 +138,18 @@ public abstract class HTMLEncoder
         }
 
         int start = 0;
-        String app;
-        char c = ' ';
-        char prevC;
         int length = string.length();
         for (int i = 0; i < length; ++i)
         {
-            app = null;
-            prevC = c;
-            c = string.charAt(i);
-            
-            // All characters before letters
-            if ((int)c < 0x41)
+            char c = string.charAt(i);
+            if (isPlain(c, encodeNonLatin))
             {
-                switch (c)
-                {
-                    case '"': app = "&quot;"; break;    //"
-                    case '&': app = "&amp;"; break;     //&
-                    case '<': app = "&lt;"; break;      //<
-                    case '>': app = "&gt;"; break;      //>
-                    case ' ':
-                        if (encodeSubsequentBlanksToNbsp &&
-                                prevC == ' ')
-                        {
-                            //Space at beginning or after another space
-                            app = "&#160;";
-                        }
-                        break;
-                    case '\n':
-                        if (encodeNewline)
-                        {
-                            app = "<br/>";
-                        }
-                        break;
-                    default:
-                        break;
-                }
-                // http://www.w3.org/MarkUp/html3/specialchars.html
-                // From C0 extension U+0000-U+001F only U+0009, U+000A and
-                // U+000D are valid control characters
-                if (c <= 0x1F && c != 0x09 && c != 0x0A && c != 0x0D)
-                {
-                    // Ignore escape character
-                    app = "";
-                }
-            }
-            else if (encodeNonLatin && (int)c > 0x80)
-            {
-                 switch(c)
-                 {
-                    //german umlauts
-                    case '\u00E4' : app = "&auml;";  break;
-                    case '\u00C4' : app = "&Auml;";  break;
-                    case '\u00F6' : app = "&ouml;";  break;
-                    case '\u00D6' : app = "&Ouml;";  break;
-                    case '\u00FC' : app = "&uuml;";  break;
-                    case '\u00DC' : app = "&Uuml;";  break;
-                    case '\u00DF' : app = "&szlig;"; break;
-
-                    //misc
-                    //case 0x80: app = "&euro;"; break;  sometimes euro symbol is ascii 128, should we suport it?
-                    case '\u20AC': app = "&euro;";  break;
-                    case '\u00AB': app = "&laquo;"; break;
-                    case '\u00BB': app = "&raquo;"; break;
-                    case '\u00A0': app = "&#160;"; break;
-
-                    default :
-                        //encode all non basic latin characters
-                        app = "&#" + ((int)c) + ";";
-                    break;
-                }
+                continue;
             }
+            String app = escape(c, i == 0 ? ' ' : string.charAt(i - 1),
+                    encodeNewline, encodeSubsequentBlanksToNbsp);
             if (app != null)
             {
-                //if (sb == null)
-                //{
-                //    sb = new StringBuilder(string.substring(0, i));
-                //}
-                //sb.append(app);
                 if (start < i)
                 {
                     writer.write(string, start, i-start);
@@ -289,23 +157,8 @@ public abstract class HTMLEncoder
                 start = i+1;
                 writer.write(app);
             }
-            //else
-            //{
-            //    if (sb != null)
-            //    {
-            //        sb.append(c);
-            //    }
-            //}
         }
 
-        //if (sb == null)
-        //{
-        //    return string;
-        //}
-        //else
-        //{
-        //    return sb.toString();
-        //}
         if (start == 0)
         {
             writer.write(string);
@@ -363,87 +216,19 @@ public abstract class HTMLEncoder
         offset = Math.max(0, offset);
         int realLength = Math.min(length, string.length - offset);
 
-        //StringBuilder sb = null;    //create later on demand
-        String app;
-        char c = ' ';
-        char prevC;
         int start = offset;
-        
-        for (int i = offset; i < offset + realLength; ++i)
+        int end = offset + realLength;
+        for (int i = offset; i < end; ++i)
         {
-            app = null;
-            prevC = c;
-            c = string[i];
-
-            // All characters before letters
-            if ((int)c < 0x41)
+            char c = string[i];
+            if (isPlain(c, encodeNonLatin))
             {
-                switch (c)
-                {
-                    case '"': app = "&quot;"; break;    //"
-                    case '&': app = "&amp;"; break;     //&
-                    case '<': app = "&lt;"; break;      //<
-                    case '>': app = "&gt;"; break;      //>
-                    case ' ':
-                        if (encodeSubsequentBlanksToNbsp &&
-                                prevC == ' ')
-                        {
-                            //Space at beginning or after another space
-                            app = "&#160;";
-                        }
-                        break;
-                    case '\n':
-                        if (encodeNewline)
-                        {
-                            app = "<br/>";
-                        }
-                        break;
-                    default:
-                        break;
-                }
-                // http://www.w3.org/MarkUp/html3/specialchars.html
-                // From C0 extension U+0000-U+001F only U+0009, U+000A and
-                // U+000D are valid control characters
-                if (c <= 0x1F && c != 0x09 && c != 0x0A && c != 0x0D)
-                {
-                    // Ignore escape character
-                    app = "";
-                }
-            }
-            else if (encodeNonLatin && (int)c > 0x80)
-            {
-                 switch(c)
-                 {
-                    //german umlauts
-                    case '\u00E4' : app = "&auml;";  break;
-                    case '\u00C4' : app = "&Auml;";  break;
-                    case '\u00F6' : app = "&ouml;";  break;
-                    case '\u00D6' : app = "&Ouml;";  break;
-                    case '\u00FC' : app = "&uuml;";  break;
-                    case '\u00DC' : app = "&Uuml;";  break;
-                    case '\u00DF' : app = "&szlig;"; break;
-
-                    //misc
-                    //case 0x80: app = "&euro;"; break;  sometimes euro symbol is ascii 128, should we suport it?
-                    case '\u20AC': app = "&euro;";  break;
-                    case '\u00AB': app = "&laquo;"; break;
-                    case '\u00BB': app = "&raquo;"; break;
-                    case '\u00A0': app = "&#160;"; break;
-
-                    default :
-                        //encode all non basic latin characters
-                        app = "&#" + ((int)c) + ";";
-                    break;
-                }
+                continue;
             }
+            String app = escape(c, i == offset ? ' ' : string[i - 1],
+                    encodeNewline, encodeSubsequentBlanksToNbsp);
             if (app != null)
             {
-                //if (sb == null)
-                //{
-                //    sb = new StringBuilder(realLength*2);
-                //    sb.append(string, offset, i - offset);
-                //}
-                //sb.append(app);
                 if (start < i)
                 {
                     writer.write(string, start, i-start);
@@ -451,34 +236,123 @@ public abstract class HTMLEncoder
                 start = i+1;
                 writer.write(app);
             }
-            /*
-            else
-            {
-                if (sb != null)
-                {
-                    sb.append(c);
-                }
-            }*/
         }
 
-        //if (sb == null)
-        //{
-        //    writer.write(string, offset, realLength);
-        //}
-        //else
-        //{
-        //    writer.write(sb.toString());
-        //}
         if (start == offset)
         {
             writer.write(string, offset, realLength);
         }
-        else if (start < offset+realLength)
+        else if (start < end)
         {
-            writer.write(string,start,offset+realLength-start);
+            writer.write(string,start,end-start);
         }
     }
     
+    // How each character below 0x80 is handled when encoding html text or attributes
+    private static final byte NONE = 0;
+    private static final byte ESCAPE = 1;
+    private static final byte SKIP = 2;
+    private static final byte BLANK = 3;
+    private static final byte NEWLINE = 4;
+
+    private static final byte[] HTML_CHARS = new byte[0x80];
+    private static final String[] HTML_ESCAPES = new String[0x80];
+
+    // Characters below 0x80 that are percent encoded in an URI
+    private static final boolean[] URI_PERCENT_ENCODED = new boolean[0x80];
+
+    static
+    {
+        // http://www.w3.org/MarkUp/html3/specialchars.html
+        // From C0 extension U+0000-U+001F only U+0009, U+000A and
+        // U+000D are valid control characters
+        for (int i = 0; i <= 0x1F; i++)
+        {
+            HTML_CHARS[i] = SKIP;
+        }
+        HTML_CHARS[0x09] = NONE;
+        HTML_CHARS[0x0D] = NONE;
+        HTML_CHARS['\n'] = NEWLINE;
+        HTML_CHARS[' '] = BLANK;
+        HTML_CHARS['"'] = ESCAPE;
+        HTML_ESCAPES['"'] = "&quot;";
+        HTML_CHARS['&'] = ESCAPE;
+        HTML_ESCAPES['&'] = "&amp;";
+        HTML_CHARS['<'] = ESCAPE;
+        HTML_ESCAPES['<'] = "&lt;";
+        HTML_CHARS['>'] = ESCAPE;
+        HTML_ESCAPES['>'] = "&gt;";
+
+        for (int i = 0; i <= 0x20; i++)
+        {
+            URI_PERCENT_ENCODED[i] = true;
+        }
+        URI_PERCENT_ENCODED[0x7F] = true;
+        for (char c : "\"<>\\^`{|}".toCharArray())
+        {
+            URI_PERCENT_ENCODED[c] = true;
+        }
+    }
+
+    /**
+     * Returns true if the char is written as is, without calling {@link #escape}.
+     */
+    private static boolean isPlain(char c, boolean encodeNonLatin)
+    {
+        if (c < 0x80)
+        {
+            return HTML_CHARS[c] == NONE;
+        }
+        return !encodeNonLatin || c == 0x80;
+    }
+
+    /**
+     * Returns the replacement of the char, or null if it must be written as is.
+     */
+    private static String escape(char c, char prevC, boolean encodeNewline, boolean encodeSubsequentBlanksToNbsp)
+    {
+        if (c < 0x80)
+        {
+            switch (HTML_CHARS[c])
+            {
+                case ESCAPE:
+                    return HTML_ESCAPES[c];
+                case SKIP:
+                    // Ignore escape character
+                    return "";
+                case BLANK:
+                    //Space at beginning or after another space
+                    return encodeSubsequentBlanksToNbsp && prevC == ' ' ? "&#160;" : null;
+                case NEWLINE:
+                    return encodeNewline ? "<br/>" : null;
+                default:
+                    return null;
+            }
+        }
+        switch(c)
+        {
+            //german umlauts
+            case '\u00E4' : return "&auml;";
+            case '\u00C4' : return "&Auml;";
+            case '\u00F6' : return "&ouml;";
+            case '\u00D6' : return "&Ouml;";
+            case '\u00FC' : return "&uuml;";
+            case '\u00DC' : return "&Uuml;";
+            case '\u00DF' : return "&szlig;";
+
+            //misc
+            //case 0x80: app = "&euro;"; break;  sometimes euro symbol is ascii 128, should we suport it?
+            case '\u20AC': return "&euro;";
+            case '\u00AB': return "&laquo;";
+            case '\u00BB': return "&raquo;";
+            case '\u00A0': return "&#160;";
+
+            default :
+                //encode all non basic latin characters
+                return "&#" + ((int)c) + ";";
+        }
+    }
+
     private static final String HEX_CHARSET = "0123456789ABCDEF";
     
     private static final String UTF8 = "UTF-8";
@@ -626,10 +500,7 @@ public abstract class HTMLEncoder
             // "&" should be encoded as "&amp;" because this link is inside an html page, and 
             // put only & is invalid in this context.
 
-            if (   (c <= (char)0x20) || (c >= (char)0x7F) || 
-                    c == '"' || c == '<' ||
-                    c == '>' || c == '\\' || c == '^' || c == '`' ||
-                    c == '{' || c == '|' || c == '}')
+            if (c >= (char)0x7F || URI_PERCENT_ENCODED[c])
             {
                 // The percent encoding on this part should be done using UTF-8 charset
                 // as RFC 3986 Section 3.2.2 says.
@@ -790,10 +661,7 @@ public abstract class HTMLEncoder
             // "&" should be encoded as "&amp;" because this link is inside an html page, and 
             // put & is invalid in this context   
             
-            if (   (c <= (char)0x20) || (c >= (char)0x7F) || 
-                    c == '"' || c == '<' ||
-                    c == '>' || c == '\\' || c == '^' || c == '`' ||
-                    c == '{' || c == '|' || c == '}')
+            if (c >= (char)0x7F || URI_PERCENT_ENCODED[c])
             {
                 // The percent encoding on this part should be done using UTF-8 charset
                 // as RFC 3986 Section 3.2.2 says
@@ -1020,10 +888,7 @@ public abstract class HTMLEncoder
             // "&" should be encoded as "&amp;" because this link is inside an html page, and 
             // put only & is invalid in this context.
 
-            if (   (c <= (char)0x20) || (c >= (char)0x7F) || 
-                    c == '"' || c == '<' ||
-                    c == '>' || c == '\\' || c == '^' || c == '`' ||
-                    c == '{' || c == '|' || c == '}')
+            if (c >= (char)0x7F || URI_PERCENT_ENCODED[c])
             {
                 // The percent encoding on this part should be done using UTF-8 charset
                 // as RFC 3986 Section 3.2.2 says.
@@ -1232,10 +1097,7 @@ public abstract class HTMLEncoder
             // "&" should be encoded as "&amp;" because this link is inside an html page, and 
             // put & is invalid in this context   
             
-            if (   (c <= (char)0x20) || (c >= (char)0x7F) || 
-                    c == '"' || c == '<' ||
-                    c == '>' || c == '\\' || c == '^' || c == '`' ||
-                    c == '{' || c == '|' || c == '}')
+            if (c >= (char)0x7F || URI_PERCENT_ENCODED[c])
             {
                 // The percent encoding on this part should be done using UTF-8 charset
                 // as RFC 3986 Section 3.2.2 says
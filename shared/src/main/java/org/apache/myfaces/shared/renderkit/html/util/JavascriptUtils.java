@@ -195,46 +195,35 @@ public final class JavascriptUtils
             return "";
         }
         StringBuilder sb = null;    //create later on demand
-        String app;
-        char c;
-        for (int i = 0; i < string.length (); ++i)
+        int start = 0;
+        int length = string.length();
+        for (int i = 0; i < length; ++i)
         {
-            app = null;
-            c = string.charAt(i);
-            switch (c)
+            String app;
+            switch (string.charAt(i))
             {
                 case '\\' : app = "\\\\";  break;
                 case '"' : app = "\\\"";  break;
                 case '\'' : app = "\\'";  break;
                 case '\n' : app = "\\n";  break;
                 case '\r' : app = "\\r";  break;
-                default:
+                default: continue;
             }
-            if (app != null)
+            if (sb == null)
             {
-                if (sb == null)
-                {
-                    sb = new StringBuilder(string.substring(0, i));
-                }
-                sb.append(app);
-            }
-            else
-            {
-                if (sb != null)
-                {
-                    sb.append(c);
-                }
+                sb = new StringBuilder(length + 16);
             }
+            sb.append(string, start, i);
+            sb.append(app);
+            start = i + 1;
         }
 
         if (sb == null)
         {
             return string;
         }
-        else
-        {
-            return sb.toString();
-        }
+        sb.append(string, start, length);
+        return sb.toString();
     }
     
     public static boolean isRenderClearJavascriptOnButton(ExternalContext externalContext)
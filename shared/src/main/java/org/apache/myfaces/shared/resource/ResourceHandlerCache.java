@@ -18,6 +18,8 @@
  */
 package org.apache.myfaces.shared.resource;
 
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -40,6 +42,12 @@ public class ResourceHandlerCache
     private volatile ConcurrentLRUCache<Object, ResourceValue> _viewResourceCacheMap = null;
     
     private volatile ConcurrentLRUCache<Object, Boolean> _libraryExistsCacheMap = null;
+
+    private volatile ConcurrentLRUCache<Object, BundledResourceValue> _bundledResourceCacheMap = null;
+
+    // The members of each bundle by bundle name. It is never evicted, so a bundle evicted from
+    // _bundledResourceCacheMap can be built again when its url is requested.
+    private final Map<String, String> _bundleMembersMap = new ConcurrentHashMap<String, String>();
     
     /**
      * Controls the size of the cache used to check if a resource exists or not. 
@@ -378,6 +386,96 @@ public class ResourceHandlerCache
         _libraryExistsCacheMap.put(libraryName, Boolean.FALSE);
     }    
 
+    /**
+     * Returns the bundle stored with the key. Bundles are looked up both by the name of the bundle
+     * and by the key built from their members.
+     */
+    public BundledResourceValue getBundledResource(String key)
+    {
+        if (_bundledResourceCacheMap == null)
+        {
+            return null;
+        }
+        return _bundledResourceCacheMap.get(key);
+    }
+
+    /**
+     * Bundles are only referenced by a content hash, so once rendered in a page they must be available
+     * to serve them. That's the reason they are stored even if the resource cache is disabled.
+     */
+    public void putBundledResource(String key, BundledResourceValue value)
+    {
+        if (log.isLoggable(Level.FINE))
+        {
+            log.log(Level.FINE, "Attemping to put bundled resource to cache for " + key);
+        }
+
+        if (_bundledResourceCacheMap == null)
+        {
+            synchronized (this)
+            {
+                if (_bundledResourceCacheMap == null)
+                {
+                    int maxSize = getMaxSize();
+                    _bundledResourceCacheMap = new ConcurrentLRUCache<Object, BundledResourceValue>(
+                            (maxSize * 4 + 3) / 3, maxSize);
+                }
+            }
+        }
+
+        _bundledResourceCacheMap.put(key, value);
+    }
+
+    /**
+     * The cache of resources, or null if nothing has been stored yet.
+     */
+    public ConcurrentLRUCache<Object, ResourceValue> getResourceCache()
+    {
+        return _resourceCacheMap;
+    }
+
+    /**
+     * The cache of view resources, or null if nothing has been stored yet.
+     */
+    public ConcurrentLRUCache<Object, ResourceValue> getViewResourceCache()
+    {
+        return _viewResourceCacheMap;
+    }
+
+    /**
+     * The cache of libraries known to exist or not, or null if nothing has been stored yet.
+     */
+    public ConcurrentLRUCache<Object, Boolean> getLibraryExistsCache()
+    {
+        return _libraryExistsCacheMap;
+    }
+
+    /**
+     * Returns the members of the bundle with the name, as they were given to putBundleMembers,
+     * or null if the bundle has not been created.
+     */
+    public String getBundleMembers(String bundleName)
+    {
+        return _bundleMembersMap.get(bundleName);
+    }
+
+    /**
+     * Registers the members of a bundle. Unlike the bundles, the members are never evicted: there is
+     * one entry for each group of resources rendered as a bundle.
+     */
+    public void putBundleMembers(String bundleName, String members)
+    {
+        _bundleMembersMap.put(bundleName, members);
+    }
+
+    /**
+     * The cache of bundles, or null if nothing has been stored yet.
+     */
+    public ConcurrentLRUCache<Object, BundledResourceValue> getBundledResourceCache()
+    {
+        return _bundledResourceCacheMap;
+    }
+
     private boolean isResourceCachingEnabled()
     {
         if (_resourceCacheEnabled == null)
@@ -535,5 +633,52 @@ public class ResourceHandlerCache
             return info;
         }
     }
-        
+
+    /**
+     * The content of a bundle of resources. If the content is null, the resources cannot be bundled
+     * and are rendered as usual.
+     */
+    public static class BundledResourceValue
+    {
+        private final String name;
+
+        private final String contentType;
+
+        private final byte[] content;
+
+        private final long lastModified;
+
+        public BundledResourceValue(String name, String contentType, byte[] content, long lastModified)
+        {
+            this.name = name;
+            this.contentType = contentType;
+            this.content = content;
+            this.lastModified = lastModified;
+        }
+
+        public String getName()
+        {
+            return name;
+        }
+
+        public String getContentType()
+        {
+            return contentType;
+        }
+
+        public byte[] getContent()
+        {
+            return content;
+        }
+
+        public long getLastModified()
+        {
+            return lastModified;
+        }
+
+        public boolean isBundled()
+        {
+            return content != null;
+        }
+    }
 }
@@ -0,0 +1,214 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.myfaces.shared.util;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.faces.context.FacesContext;
+
+/**
+ * Bounded pool of char arrays of a fixed size, shared by the buffers used to render a response
+ * (FastWriter, StreamCharBuffer). The arrays are taken through a {@link Lease} bound to the
+ * current request, and all of them are given back to the pool together when the FacesContext
+ * is released, so the buffers using them must not be kept after the request.
+ * <p>
+ * The size of the arrays and the maximum number of chars retained by the pool can be set with
+ * the "oam.charchunkpool.chunksize" and "oam.charchunkpool.maxretainedchars" system properties.
+ * A value of 0 for the maximum disables the pool.
+ * </p>
+ */
+public final class CharChunkPool
+{
+    public static final int DEFAULT_CHUNK_SIZE = Integer.getInteger(
+            "oam.charchunkpool.chunksize", 4096);
+    private static final int DEFAULT_MAX_RETAINED_CHARS = Integer.getInteger(
+            "oam.charchunkpool.maxretainedchars", 1024 * 1024);
+
+    private static final String LEASE_KEY = "oam.CHAR_CHUNK_POOL_LEASE";
+
+    private static final CharChunkPool INSTANCE = new CharChunkPool(DEFAULT_CHUNK_SIZE,
+            DEFAULT_MAX_RETAINED_CHARS);
+
+    private final int _chunkSize;
+    private final int _maxRetainedChunks;
+
+    private final Queue<char[]> _chunks = new ConcurrentLinkedQueue<char[]>();
+    private final AtomicInteger _retainedChunks = new AtomicInteger();
+
+    private final AtomicLong _hits = new AtomicLong();
+    private final AtomicLong _misses = new AtomicLong();
+    private final AtomicLong _discarded = new AtomicLong();
+
+    public CharChunkPool(int chunkSize, int maxRetainedChars)
+    {
+        if (chunkSize <= 0)
+        {
+            throw new IllegalArgumentException("chunkSize must be greater than 0");
+        }
+        _chunkSize = chunkSize;
+        _maxRetainedChunks = Math.max(0, maxRetainedChars / chunkSize);
+    }
+
+    public static CharChunkPool getInstance()
+    {
+        return INSTANCE;
+    }
+
+    /**
+     * Returns the lease of the current request, creating it if necessary, or null if there is no
+     * FacesContext or the pool is disabled.
+     */
+    public Lease getLease(FacesContext facesContext)
+    {
+        if (facesContext == null || _maxRetainedChunks == 0)
+        {
+            return null;
+        }
+        Map<Object, Object> attributes = facesContext.getAttributes();
+        Lease lease = (Lease) attributes.get(LEASE_KEY);
+        if (lease == null)
+        {
+            lease = new Lease(this);
+            attributes.put(LEASE_KEY, lease);
+        }
+        return lease;
+    }
+
+    /**
+     * Gives back to the pool the arrays taken on the request. Called when the FacesContext
+     * is released.
+     */
+    public static void release(Map<Object, Object> facesContextAttributes)
+    {
+        Lease lease = (Lease) facesContextAttributes.remove(LEASE_KEY);
+        if (lease != null)
+        {
+            lease.release();
+        }
+    }
+
+    public int getChunkSize()
+    {
+        return _chunkSize;
+    }
+
+    public long getMaxRetainedChars()
+    {
+        return (long) _maxRetainedChunks * _chunkSize;
+    }
+
+    public long getRetainedChars()
+    {
+        return (long) _retainedChunks.get() * _chunkSize;
+    }
+
+    /**
+     * Number of arrays taken from the pool.
+     */
+    public long getHits()
+    {
+        return _hits.get();
+    }
+
+    /**
+     * Number of arrays allocated because the pool was empty.
+     */
+    public long getMisses()
+    {
+        return _misses.get();
+    }
+
+    /**
+     * Number of arrays not retained because the pool was full.
+     */
+    public long getDiscarded()
+    {
+        return _discarded.get();
+    }
+
+    char[] acquire()
+    {
+        char[] chunk = _chunks.poll();
+        if (chunk == null)
+        {
+            _misses.incrementAndGet();
+            return new char[_chunkSize];
+        }
+        _retainedChunks.decrementAndGet();
+        _hits.incrementAndGet();
+        return chunk;
+    }
+
+    void release(char[] chunk)
+    {
+        if (_retainedChunks.incrementAndGet() <= _maxRetainedChunks)
+        {
+            _chunks.offer(chunk);
+        }
+        else
+        {
+            _retainedChunks.decrementAndGet();
+            _discarded.incrementAndGet();
+        }
+    }
+
+    /**
+     * The arrays taken from the pool on a request. Not thread safe, it must only be used by the
+     * thread processing the request.
+     */
+    public static final class Lease
+    {
+        private final CharChunkPool _pool;
+        private final List<char[]> _chunks = new ArrayList<char[]>();
+
+        Lease(CharChunkPool pool)
+        {
+            _pool = pool;
+        }
+
+        public int getChunkSize()
+        {
+            return _pool._chunkSize;
+        }
+
+        /**
+         * Returns an array of {@link #getChunkSize()} chars, valid until the request ends.
+         */
+        public char[] acquire()
+        {
+            char[] chunk = _pool.acquire();
+            _chunks.add(chunk);
+            return chunk;
+        }
+
+        void release()
+        {
+            for (int i = 0, size = _chunks.size(); i < size; i++)
+            {
+                _pool.release(_chunks.get(i));
+            }
+            _chunks.clear();
+        }
+    }
+}
@@ -94,6 +94,14 @@ public class ConcurrentLRUCache<K, V>
                 .ceil(0.75 * size), false, false, null);
     }
 
+    /**
+     * Number of entries above which the cache starts evicting.
+     */
+    public int getUpperWaterMark()
+    {
+        return upperWaterMark;
+    }
+
     public void setAlive(boolean live)
     {
         islive = live;
@@ -0,0 +1,445 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.myfaces.shared.util;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.SecureRandom;
+import java.util.Base64;
+import java.util.concurrent.ArrayBlockingQueue;
+
+import javax.crypto.AEADBadTagException;
+import javax.crypto.Cipher;
+import javax.crypto.Mac;
+import javax.crypto.SecretKey;
+import javax.crypto.spec.GCMParameterSpec;
+import javax.crypto.spec.IvParameterSpec;
+import javax.faces.FacesException;
+import javax.faces.application.ViewExpiredException;
+import javax.faces.context.ExternalContext;
+
+import org.apache.myfaces.shared.util.compress.StateCompressor;
+import org.apache.myfaces.shared.util.compress.StateCompressors;
+import org.apache.myfaces.shared.util.serial.SerialFactory;
+
+/**
+ * Reusable pipeline used by {@link StateUtils#construct(Object, ExternalContext)} and
+ * {@link StateUtils#reconstruct(String, ExternalContext)}.
+ *
+ * <p>It keeps the Cipher and Mac instances and the intermediate buffers, so
+ * encoding or decoding the state does not need to look up the configuration or create them on
+ * each request. Instances are not thread safe, they are taken from a bounded pool stored in
+ * application scope and returned to it after use.</p>
+ *
+ * <p>The output is the same as the one produced by the static methods of StateUtils. If
+ * org.apache.myfaces.ALGORITHM.PARAMETERS uses GCM mode (for example "GCM/NoPadding" with AES),
+ * a random nonce is generated per state and the authentication tag of the cipher replaces the
+ * separate MAC.</p>
+ */
+final class StateCodec
+{
+    private static final String POOL_KEY = StateCodec.class.getName() + ".POOL";
+
+    private static final int POOL_SIZE = Math.max(4, Runtime.getRuntime().availableProcessors() * 2);
+
+    /**
+     * Buffers bigger than this are not kept when the codec is returned to the pool.
+     */
+    private static final int MAX_RETAINED_BUFFER_SIZE = 256 * 1024;
+
+    private static final int GCM_NONCE_LENGTH = 12;
+    private static final int GCM_TAG_LENGTH = 16;
+
+    private final boolean _compress;
+    private final StateCompressor _compressor;
+    private final int _compressionThreshold;
+    private final boolean _secure;
+    private final boolean _aead;
+    private final SerialFactory _serialFactory;
+
+    private final SecretKey _secretKey;
+    private final String _transformation;
+    private final byte[] _iv;
+    private final SecretKey _macSecretKey;
+    private final String _macAlgorithm;
+
+    private Cipher _encryptCipher;
+    private Cipher _decryptCipher;
+    private Mac _mac;
+    private byte[] _macResult;
+    private SecureRandom _random;
+    private byte[] _nonce;
+
+    private Buffer _buffer1 = new Buffer();
+    private Buffer _buffer2 = new Buffer();
+
+    StateCodec(ExternalContext ctx)
+    {
+        _compress = StateUtils.enableCompression(ctx);
+        _compressor = _compress ? StateCompressors.getStateCompressor(ctx,
+                StateUtils.COMPRESSION_CODEC_IN_CLIENT, StateCompressors.GZIP) : null;
+        _compressionThreshold = StateCompressors.getCompressionThreshold(ctx);
+        _secure = StateUtils.isSecure(ctx);
+        _serialFactory = (SerialFactory) ctx.getApplicationMap().get(StateUtils.SERIAL_FACTORY);
+
+        if (_secure)
+        {
+            StateUtils.testConfiguration(ctx);
+            String algorithmParams = StateUtils.findAlgorithmParams(ctx);
+            _aead = StateUtils.isAead(algorithmParams);
+            _secretKey = StateUtils.getSecret(ctx);
+            _transformation = StateUtils.findAlgorithm(ctx) + "/" + algorithmParams;
+            _iv = StateUtils.findInitializationVector(ctx);
+            if (_aead)
+            {
+                _macSecretKey = null;
+                _macAlgorithm = null;
+            }
+            else
+            {
+                _macSecretKey = StateUtils.getMacSecret(ctx);
+                _macAlgorithm = StateUtils.findMacAlgorithm(ctx);
+            }
+        }
+        else
+        {
+            _aead = false;
+            _secretKey = null;
+            _transformation = null;
+            _iv = null;
+            _macSecretKey = null;
+            _macAlgorithm = null;
+        }
+    }
+
+    static StateCodec borrow(ExternalContext ctx)
+    {
+        StateCodec codec = getPool(ctx).poll();
+        if (codec == null)
+        {
+            codec = new StateCodec(ctx);
+        }
+        return codec;
+    }
+
+    static void release(ExternalContext ctx, StateCodec codec)
+    {
+        codec.trim();
+        // If the pool is full, the codec is just discarded
+        getPool(ctx).offer(codec);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static ArrayBlockingQueue<StateCodec> getPool(ExternalContext ctx)
+    {
+        ArrayBlockingQueue<StateCodec> pool = (ArrayBlockingQueue<StateCodec>) ctx.getApplicationMap().get(POOL_KEY);
+        if (pool == null)
+        {
+            pool = new ArrayBlockingQueue<StateCodec>(POOL_SIZE);
+            ctx.getApplicationMap().put(POOL_KEY, pool);
+        }
+        return pool;
+    }
+
+    /**
+     * Serializes, compresses, encrypts and encodes the state in base64.
+     */
+    String encode(Object object)
+    {
+        try
+        {
+            Buffer data = _buffer1;
+            Buffer out = _buffer2;
+
+            if (_serialFactory == null)
+            {
+                throw new NullPointerException("serialFactory");
+            }
+            data.reset();
+            ObjectOutputStream writer = _serialFactory.getObjectOutputStream(data);
+            writer.writeObject(object);
+            writer.close();
+
+            if (_compress)
+            {
+                compress(data, out);
+                Buffer tmp = data;
+                data = out;
+                out = tmp;
+            }
+            if (_secure)
+            {
+                encrypt(data, out);
+                data = out;
+            }
+
+            ByteBuffer encoded = Base64.getEncoder().encode(ByteBuffer.wrap(data.array(), 0, data.size()));
+            return new String(encoded.array(), 0, encoded.limit(), StandardCharsets.ISO_8859_1);
+        }
+        catch (IOException | GeneralSecurityException e)
+        {
+            throw new FacesException(e);
+        }
+    }
+
+    /**
+     * Decodes, decrypts, decompresses and deserializes the state.
+     */
+    Object decode(String string, ExternalContext ctx)
+    {
+        try
+        {
+            Buffer data = _buffer1;
+            Buffer out = _buffer2;
+
+            byte[] bytes = string.getBytes(StandardCharsets.ISO_8859_1);
+            data.reset();
+            data.ensureCapacity(((bytes.length + 3) / 4) * 3);
+            data.setSize(Base64.getDecoder().decode(bytes, data.array()));
+
+            if (_secure)
+            {
+                decrypt(data, out);
+                Buffer tmp = data;
+                data = out;
+                out = tmp;
+            }
+            if (_compress)
+            {
+                decompress(data, out);
+                data = out;
+            }
+            return StateUtils.getAsObject(data.array(), 0, data.size(), ctx);
+        }
+        catch (IOException | GeneralSecurityException e)
+        {
+            throw new FacesException(e);
+        }
+    }
+
+    byte[] encrypt(byte[] insecure) throws GeneralSecurityException
+    {
+        _buffer1.reset();
+        _buffer1.write(insecure, 0, insecure.length);
+        encrypt(_buffer1, _buffer2);
+        return _buffer2.toByteArray();
+    }
+
+    byte[] decrypt(byte[] secure) throws GeneralSecurityException
+    {
+        _buffer1.reset();
+        _buffer1.write(secure, 0, secure.length);
+        decrypt(_buffer1, _buffer2);
+        return _buffer2.toByteArray();
+    }
+
+    /**
+     * Encrypts the bytes, the output has the same format as {@link StateUtils#encrypt(byte[], ExternalContext)}
+     * or, in GCM mode, the nonce followed by the encrypted bytes and the authentication tag.
+     */
+    void encrypt(Buffer data, Buffer out) throws GeneralSecurityException
+    {
+        out.reset();
+        if (_aead)
+        {
+            if (_encryptCipher == null)
+            {
+                _encryptCipher = Cipher.getInstance(_transformation);
+                _random = new SecureRandom();
+                _nonce = new byte[GCM_NONCE_LENGTH];
+            }
+            // A nonce must never be reused with the same key, so the cipher is initialized each time
+            _random.nextBytes(_nonce);
+            _encryptCipher.init(Cipher.ENCRYPT_MODE, _secretKey, new GCMParameterSpec(GCM_TAG_LENGTH * 8, _nonce));
+            out.ensureCapacity(GCM_NONCE_LENGTH + _encryptCipher.getOutputSize(data.size()));
+            System.arraycopy(_nonce, 0, out.array(), 0, GCM_NONCE_LENGTH);
+            int count = _encryptCipher.doFinal(data.array(), 0, data.size(), out.array(), GCM_NONCE_LENGTH);
+            out.setSize(GCM_NONCE_LENGTH + count);
+        }
+        else
+        {
+            if (_encryptCipher == null)
+            {
+                // After doFinal the cipher is reset to the state of the last init call,
+                // so it is only initialized once.
+                _encryptCipher = createCipher(Cipher.ENCRYPT_MODE);
+            }
+            Mac mac = getMac();
+            int macLength = mac.getMacLength();
+            out.ensureCapacity(_encryptCipher.getOutputSize(data.size()) + macLength);
+            //EtM Composition Approach
+            int count = _encryptCipher.doFinal(data.array(), 0, data.size(), out.array(), 0);
+            mac.update(out.array(), 0, count);
+            mac.doFinal(out.array(), count);
+            out.setSize(count + macLength);
+        }
+    }
+
+    void decrypt(Buffer data, Buffer out) throws GeneralSecurityException
+    {
+        out.reset();
+        byte[] secure = data.array();
+        int length = data.size();
+        if (_aead)
+        {
+            if (length < GCM_NONCE_LENGTH + GCM_TAG_LENGTH)
+            {
+                throw new ViewExpiredException();
+            }
+            if (_decryptCipher == null)
+            {
+                _decryptCipher = Cipher.getInstance(_transformation);
+            }
+            _decryptCipher.init(Cipher.DECRYPT_MODE, _secretKey,
+                    new GCMParameterSpec(GCM_TAG_LENGTH * 8, secure, 0, GCM_NONCE_LENGTH));
+            out.ensureCapacity(_decryptCipher.getOutputSize(length - GCM_NONCE_LENGTH));
+            try
+            {
+                out.setSize(_decryptCipher.doFinal(secure, GCM_NONCE_LENGTH, length - GCM_NONCE_LENGTH,
+                        out.array(), 0));
+            }
+            catch (AEADBadTagException e)
+            {
+                throw new ViewExpiredException();
+            }
+        }
+        else
+        {
+            if (_decryptCipher == null)
+            {
+                _decryptCipher = createCipher(Cipher.DECRYPT_MODE);
+            }
+            Mac mac = getMac();
+            int macLength = mac.getMacLength();
+            if (length < macLength)
+            {
+                throw new ViewExpiredException();
+            }
+            //EtM Composition Approach
+            mac.update(secure, 0, length - macLength);
+            mac.doFinal(_macResult, 0);
+
+            // Compare all bytes, to avoid a timing attack
+            int diff = 0;
+            for (int i = 0; i < macLength; i++)
+            {
+                diff |= _macResult[i] ^ secure[length - macLength + i];
+            }
+            if (diff != 0)
+            {
+                throw new ViewExpiredException();
+            }
+
+            out.ensureCapacity(_decryptCipher.getOutputSize(length - macLength));
+            out.setSize(_decryptCipher.doFinal(secure, 0, length - macLength, out.array(), 0));
+        }
+    }
+
+    /**
+     * Compresses the bytes using the configured {@link StateCompressor}.
+     */
+    void compress(Buffer data, Buffer out) throws IOException
+    {
+        out.reset();
+        StateCompressors.compress(_compressor, _compressionThreshold, data.array(), 0, data.size(), out);
+    }
+
+    void decompress(Buffer data, Buffer out) throws IOException
+    {
+        out.reset();
+        StateCompressors.decompress(_compressor, data.array(), 0, data.size(), out);
+    }
+
+    private Cipher createCipher(int mode) throws GeneralSecurityException
+    {
+        Cipher cipher = Cipher.getInstance(_transformation);
+        if (_iv != null)
+        {
+            cipher.init(mode, _secretKey, new IvParameterSpec(_iv));
+        }
+        else
+        {
+            cipher.init(mode, _secretKey);
+        }
+        return cipher;
+    }
+
+    private Mac getMac() throws GeneralSecurityException
+    {
+        if (_mac == null)
+        {
+            _mac = Mac.getInstance(_macAlgorithm);
+            _mac.init(_macSecretKey);
+            _macResult = new byte[_mac.getMacLength()];
+        }
+        return _mac;
+    }
+
+    private void trim()
+    {
+        if (_buffer1.capacity() > MAX_RETAINED_BUFFER_SIZE)
+        {
+            _buffer1 = new Buffer();
+        }
+        if (_buffer2.capacity() > MAX_RETAINED_BUFFER_SIZE)
+        {
+            _buffer2 = new Buffer();
+        }
+    }
+
+    /**
+     * ByteArrayOutputStream that gives access to its internal array.
+     */
+    static final class Buffer extends ByteArrayOutputStream
+    {
+        Buffer()
+        {
+            super(1024);
+        }
+
+        byte[] array()
+        {
+            return buf;
+        }
+
+        int capacity()
+        {
+            return buf.length;
+        }
+
+        void setSize(int size)
+        {
+            count = size;
+        }
+
+        void ensureCapacity(int capacity)
+        {
+            if (capacity > buf.length)
+            {
+                byte[] newBuf = new byte[Math.max(capacity, buf.length << 1)];
+                System.arraycopy(buf, 0, newBuf, 0, count);
+                buf = newBuf;
+            }
+        }
+    }
+}
@@ -25,6 +25,7 @@ import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
 import java.io.UnsupportedEncodingException;
 import java.security.AccessController;
+import java.security.GeneralSecurityException;
 import java.security.NoSuchAlgorithmException;
 import java.security.PrivilegedActionException;
 import java.security.PrivilegedExceptionAction;
@@ -32,7 +33,6 @@ import java.util.Base64;
 import java.util.Random;
 import java.util.logging.Level;
 import java.util.logging.Logger;
-import java.util.zip.GZIPInputStream;
 import java.util.zip.GZIPOutputStream;
 
 import javax.crypto.Cipher;
@@ -47,6 +47,7 @@ import javax.faces.context.ExternalContext;
 import javax.servlet.ServletContext;
 
 import org.apache.myfaces.buildtools.maven2.plugin.builder.annotation.JSFWebConfigParam;
+import org.apache.myfaces.shared.util.compress.StateCompressors;
 import org.apache.myfaces.shared.util.serial.SerialFactory;
 
 /**
@@ -55,7 +56,8 @@ import org.apache.myfaces.shared.util.serial.SerialFactory;
  * 
  * <ul>
  * <li>ISO-8859-1 is the character set used.</li>
- * <li>GZIP is used for all compression/decompression.</li>
+ * <li>GZIP is used for compression by default, see
+ * <i>org.apache.myfaces.STATE_COMPRESSION_CODEC_IN_CLIENT</i></li>
  * <li>Base64 is used for all encoding and decoding.</li>
  * <li>DES is the default encryption algorithm</li>
  * <li>ECB is the default mode</li>
@@ -70,6 +72,10 @@ import org.apache.myfaces.shared.util.serial.SerialFactory;
  * <i>org.apache.myfaces.ALGORITHM.IV</i> parameter</li>
  * <li>The default MAC algorithm can be overridden using the
  * <i>org.apache.myfaces.MAC_ALGORITHM</i> parameter</li>
+ * <li>Authenticated encryption can be used setting <i>org.apache.myfaces.ALGORITHM</i>
+ * to AES and <i>org.apache.myfaces.ALGORITHM.PARAMETERS</i> to GCM/NoPadding. In this
+ * case a random nonce is generated for each state, the MAC parameters and the
+ * initialization vector are not used.</li>
  * </ul>
  *
  * <p>The secret is interpretted as base 64 encoded.  In other
@@ -146,7 +152,15 @@ public final class StateUtils
     /**
      * Defines the factory class name using for serialize/deserialize the view state returned 
      * by state manager into a byte array. The expected class must implement
-     * org.apache.myfaces.shared.util.serial.SerialFactory interface.
+     * org.apache.myfaces.shared.util.serial.SerialFactory interface. Use
+     * org.apache.myfaces.shared.util.serial.CompactSerialFactory for a compact binary format.
+     *
+     * <p>Since 2.3.3 the factory is also used to serialize the state stored in session when
+     * javax.faces.SERIALIZE_SERVER_STATE is true. Before, that state was always written with
+     * java.io.ObjectOutputStream, whatever the factory. A custom factory must be able to write
+     * and read the whole view state. When the factory changes, the views kept in sessions that
+     * were persisted or replicated before the change cannot be restored, and their requests get
+     * a ViewExpiredException.</p>
      */
     @JSFWebConfigParam(name="org.apache.myfaces.SERIAL_FACTORY", since="1.1",group="state",tags="performance")
     public static final String SERIAL_FACTORY = INIT_PREFIX + "SERIAL_FACTORY";
@@ -158,6 +172,17 @@ public final class StateUtils
             expectedValues="true,false",group="state",tags="performance")
     public static final String COMPRESS_STATE_IN_CLIENT = INIT_PREFIX + "COMPRESS_STATE_IN_CLIENT";
 
+    /**
+     * Defines the algorithm used to compress the view state when
+     * org.apache.myfaces.COMPRESS_STATE_IN_CLIENT is true: "gzip", "deflate", "lz" (faster, but
+     * compresses less), "none" or the name of a class implementing
+     * org.apache.myfaces.shared.util.compress.StateCompressor. States written with any of the
+     * built-in algorithms can be read whatever the configured one is.
+     */
+    @JSFWebConfigParam(name="org.apache.myfaces.STATE_COMPRESSION_CODEC_IN_CLIENT", since="2.3.3",
+            defaultValue="gzip", expectedValues="gzip,deflate,lz,none", group="state", tags="performance")
+    public static final String COMPRESSION_CODEC_IN_CLIENT = INIT_PREFIX + "STATE_COMPRESSION_CODEC_IN_CLIENT";
+
     public static final String DEFAULT_MAC_ALGORITHM = "HmacSHA1";
 
     /**
@@ -188,7 +213,7 @@ public final class StateUtils
         //nope
     }
 
-    private static void testConfiguration(ExternalContext ctx)
+    static void testConfiguration(ExternalContext ctx)
     {
 
         String algorithmParams = ctx.getInitParameter(INIT_ALGORITHM_PARAM);
@@ -238,29 +263,29 @@ public final class StateUtils
         return ! "false".equals(ctx.getInitParameter(USE_ENCRYPTION));
     }
 
+    /**
+     * Return true if the configured mode is an authenticated encryption mode (GCM), in
+     * that case the authentication tag of the cipher is used instead of a separate MAC.
+     */
+    static boolean isAead(String algorithmParams)
+    {
+        return algorithmParams != null && algorithmParams.toUpperCase().startsWith("GCM");
+    }
+
     /**
      * This fires during the Render Response phase, saving state.
      */
 
     public static final String construct(Object object, ExternalContext ctx)
     {
-        byte[] bytes = getAsByteArray(object, ctx);
-        if( enableCompression(ctx) )
-        {
-            bytes = compress(bytes);
-        }
-        if(isSecure(ctx))
-        {
-            bytes = encrypt(bytes, ctx);
-        }
-        bytes = encode(bytes);
+        StateCodec codec = StateCodec.borrow(ctx);
         try
         {
-            return new String(bytes, ZIP_CHARSET);
+            return codec.encode(object);
         }
-        catch (UnsupportedEncodingException e)
+        finally
         {
-            throw new FacesException(e);
+            StateCodec.release(ctx, codec);
         }
     }
 
@@ -312,6 +337,23 @@ public final class StateUtils
 
         testConfiguration(ctx);
         
+        if (isAead(findAlgorithmParams(ctx)))
+        {
+            StateCodec codec = StateCodec.borrow(ctx);
+            try
+            {
+                return codec.encrypt(insecure);
+            }
+            catch (GeneralSecurityException e)
+            {
+                throw new FacesException(e);
+            }
+            finally
+            {
+                StateCodec.release(ctx, codec);
+            }
+        }
+
         SecretKey secretKey = (SecretKey) getSecret(ctx);
         String algorithm = findAlgorithm(ctx);
         String algorithmParams = findAlgorithmParams(ctx);
@@ -386,7 +428,6 @@ public final class StateUtils
      */
     public static final Object reconstruct(String string, ExternalContext ctx)
     {
-        byte[] bytes;
         try
         {
             if(log.isLoggable(Level.FINE))
@@ -394,17 +435,15 @@ public final class StateUtils
                 log.fine("Processing state : " + string);
             }
 
-            bytes = string.getBytes(ZIP_CHARSET);
-            bytes = decode(bytes);
-            if(isSecure(ctx))
+            StateCodec codec = StateCodec.borrow(ctx);
+            try
             {
-                bytes = decrypt(bytes, ctx);
+                return codec.decode(string, ctx);
             }
-            if( enableCompression(ctx) )
+            finally
             {
-                bytes = decompress(bytes);
+                StateCodec.release(ctx, codec);
             }
-            return getAsObject(bytes, ctx);
         }
         catch (Throwable e)
         {
@@ -421,6 +460,10 @@ public final class StateUtils
         return Base64.getDecoder().decode(bytes);
     }
 
+    /**
+     * Decompresses bytes written by {@link #compress(byte[])} or by any of the built-in
+     * {@link org.apache.myfaces.shared.util.compress.StateCompressor} implementations.
+     */
     public static final byte[] decompress(byte[] bytes)
     {
         if(bytes == null)
@@ -428,27 +471,11 @@ public final class StateUtils
             throw new NullPointerException("byte[] bytes");
         }
         
-        ByteArrayInputStream bais = new ByteArrayInputStream(bytes);
-        ByteArrayOutputStream baos = new ByteArrayOutputStream();
-        byte[] buffer = new byte[bytes.length];
-        int length;
-
+        ByteArrayOutputStream baos = new ByteArrayOutputStream(bytes.length * 2);
         try
         {
-            GZIPInputStream gis = new GZIPInputStream(bais);
-            while ((length = gis.read(buffer)) != -1)
-            {
-                baos.write(buffer, 0, length);
-            }
-
-            byte[] moreBytes = baos.toByteArray();
-            baos.close();
-            bais.close();
-            gis.close();
-            baos = null;
-            bais = null;
-            gis = null;
-            return moreBytes;
+            StateCompressors.decompress(null, bytes, 0, bytes.length, baos);
+            return baos.toByteArray();
         }
         catch (IOException e)
         {
@@ -465,6 +492,23 @@ public final class StateUtils
 
         testConfiguration(ctx);
                 
+        if (isAead(findAlgorithmParams(ctx)))
+        {
+            StateCodec codec = StateCodec.borrow(ctx);
+            try
+            {
+                return codec.decrypt(secure);
+            }
+            catch (GeneralSecurityException e)
+            {
+                throw new FacesException(e);
+            }
+            finally
+            {
+                StateCodec.release(ctx, codec);
+            }
+        }
+
         SecretKey secretKey = (SecretKey) getSecret(ctx);
         String algorithm = findAlgorithm(ctx);
         String algorithmParams = findAlgorithmParams(ctx);
@@ -537,12 +581,21 @@ public final class StateUtils
      */
     
     public static final Object getAsObject(byte[] bytes, ExternalContext ctx)
+    {
+        return getAsObject(bytes, 0, bytes.length, ctx);
+    }
+
+    /**
+     * Performs deserialization of the given range of bytes with the serialization
+     * provider created from the SerialFactory.
+     */
+    public static final Object getAsObject(byte[] bytes, int offset, int length, ExternalContext ctx)
     {
         ByteArrayInputStream input = null;
 
         try
         {
-            input = new ByteArrayInputStream(bytes);
+            input = new ByteArrayInputStream(bytes, offset, length);
 
             // get the Factory that was instantiated @ startup
             SerialFactory serialFactory = (SerialFactory) ctx.getApplicationMap().get(SERIAL_FACTORY);
@@ -657,7 +710,7 @@ public final class StateUtils
           System.out.println(new String(bytes, ZIP_CHARSET));
     }
 
-    private static byte[] findInitializationVector(ExternalContext ctx)
+    static byte[] findInitializationVector(ExternalContext ctx)
     {
         
         byte[] iv = null;
@@ -676,7 +729,7 @@ public final class StateUtils
         return iv;
     }
 
-    private static String findAlgorithmParams(ExternalContext ctx)
+    static String findAlgorithmParams(ExternalContext ctx)
     {
         
         String algorithmParams = ctx.getInitParameter(INIT_ALGORITHM_PARAM);
@@ -699,7 +752,7 @@ public final class StateUtils
         return algorithmParams;
     }
 
-    private static String findAlgorithm(ExternalContext ctx)
+    static String findAlgorithm(ExternalContext ctx)
     {
         
         String algorithm = ctx.getInitParameter(INIT_ALGORITHM);
@@ -802,7 +855,7 @@ public final class StateUtils
         }
     }
     
-    private static SecretKey getSecret(ExternalContext ctx)
+    static SecretKey getSecret(ExternalContext ctx)
     {
         Object secretKey = (SecretKey) ctx.getApplicationMap().get(INIT_SECRET_KEY_CACHE);
         
@@ -912,7 +965,7 @@ public final class StateUtils
         return bytes;
     }
 
-    private static String findMacAlgorithm(ExternalContext ctx)
+    static String findMacAlgorithm(ExternalContext ctx)
     {
         
         String algorithm = ctx.getInitParameter(INIT_MAC_ALGORITHM);
@@ -957,7 +1010,7 @@ public final class StateUtils
         
     }
     
-    private static SecretKey getMacSecret(ExternalContext ctx)
+    static SecretKey getMacSecret(ExternalContext ctx)
     {
         Object secretKey = (SecretKey) ctx.getApplicationMap().get(INIT_MAC_SECRET_KEY_CACHE);
         
@@ -256,6 +256,7 @@ public class StreamCharBuffer implements /*Writable,*/CharSequence,
 
     boolean preferSubChunkWhenWritingToOtherBuffer = false;
 
+    private final CharChunkPool.Lease lease;
     private AllocatedBuffer allocBuffer;
     private AbstractChunk firstChunk;
     private AbstractChunk lastChunk;
@@ -287,10 +288,21 @@ public class StreamCharBuffer implements /*Writable,*/CharSequence,
     }
 
     public StreamCharBuffer(int chunkSize, int growProcent, int maxChunkSize)
+    {
+        this(chunkSize, growProcent, maxChunkSize, null);
+    }
+
+    /**
+     * Creates a buffer that takes the arrays for chunks up to the pool chunk size from the
+     * given lease. The arrays are reused when the buffer is reset, so this buffer must not be
+     * read by other buffers or kept after the request.
+     */
+    public StreamCharBuffer(int chunkSize, int growProcent, int maxChunkSize, CharChunkPool.Lease lease)
     {
         this.firstChunkSize = chunkSize;
         this.growProcent = growProcent;
         this.maxChunkSize = maxChunkSize;
+        this.lease = lease;
         writer = new StreamCharBufferWriter();
         reset(true);
     }
@@ -336,7 +348,16 @@ public class StreamCharBuffer implements /*Writable,*/CharSequence,
             chunkSize = firstChunkSize;
             totalChunkSize = 0;
         }
-        allocBuffer = new AllocatedBuffer(chunkSize);
+        if (lease != null && allocBuffer != null && readerCount == 0
+                && allocBuffer.chunkSize() >= chunkSize)
+        {
+            // The chunks referencing the pooled array were dropped, so it can be written again
+            allocBuffer = new AllocatedBuffer(allocBuffer.buffer);
+        }
+        else
+        {
+            allocBuffer = new AllocatedBuffer(chunkSize);
+        }
         dynamicChunkMap = new HashMap<StreamCharBufferKey, StreamCharBufferSubChunk>();
     }
 
@@ -1511,8 +1532,21 @@ public class StreamCharBuffer implements /*Writable,*/CharSequence,
 
         public AllocatedBuffer(int size)
         {
-            this.size = size;
-            buffer = new char[size];
+            if (lease != null && size <= lease.getChunkSize())
+            {
+                buffer = lease.acquire();
+            }
+            else
+            {
+                buffer = new char[size];
+            }
+            this.size = buffer.length;
+        }
+
+        AllocatedBuffer(char[] buffer)
+        {
+            this.size = buffer.length;
+            this.buffer = buffer;
         }
 
         public int charsUsed()
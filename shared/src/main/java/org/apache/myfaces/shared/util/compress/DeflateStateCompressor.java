@@ -0,0 +1,241 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.myfaces.shared.util.compress;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.Inflater;
+import java.util.zip.ZipException;
+
+/**
+ * Compresses the state using the deflate algorithm, either in GZIP format, which is the format
+ * used by previous versions, or as a raw deflate stream prefixed by 'D'.
+ *
+ * <p>Deflater and Inflater instances are kept in a bounded pool, because creating them is
+ * expensive.</p>
+ */
+public class DeflateStateCompressor implements StateCompressor
+{
+    public static final int GZIP_ID = 0x1f;
+    public static final int DEFLATE_ID = 'D';
+
+    private static final byte[] GZIP_HEADER = new byte[]{0x1f, (byte) 0x8b, Deflater.DEFLATED, 0, 0, 0, 0, 0, 0, 0};
+    private static final int GZIP_TRAILER_LENGTH = 8;
+    private static final byte[] DUMMY_INPUT = new byte[1];
+
+    private static final int POOL_SIZE = Math.max(4, Runtime.getRuntime().availableProcessors() * 2);
+    private static final int CHUNK_SIZE = 4096;
+
+    private final int _level;
+    private final boolean _gzip;
+    private final ArrayBlockingQueue<Deflater> _deflaters = new ArrayBlockingQueue<Deflater>(POOL_SIZE);
+    private final ArrayBlockingQueue<Inflater> _inflaters = new ArrayBlockingQueue<Inflater>(POOL_SIZE);
+
+    /**
+     * @param level compression level, from 0 to 9 or -1 for the default level
+     * @param gzip true to use the GZIP format
+     */
+    public DeflateStateCompressor(int level, boolean gzip)
+    {
+        if (level < Deflater.DEFAULT_COMPRESSION || level > Deflater.BEST_COMPRESSION)
+        {
+            throw new IllegalArgumentException("Invalid compression level " + level);
+        }
+        _level = level;
+        _gzip = gzip;
+    }
+
+    public int getId()
+    {
+        return _gzip ? GZIP_ID : DEFLATE_ID;
+    }
+
+    public void compress(byte[] bytes, int offset, int length, OutputStream out) throws IOException
+    {
+        if (_gzip)
+        {
+            out.write(GZIP_HEADER);
+        }
+        else
+        {
+            out.write(DEFLATE_ID);
+        }
+
+        Deflater deflater = _deflaters.poll();
+        if (deflater == null)
+        {
+            deflater = new Deflater(_level, true);
+        }
+        try
+        {
+            byte[] chunk = new byte[Math.min(CHUNK_SIZE, Math.max(64, length))];
+            deflater.setInput(bytes, offset, length);
+            deflater.finish();
+            while (!deflater.finished())
+            {
+                int count = deflater.deflate(chunk);
+                out.write(chunk, 0, count);
+            }
+        }
+        finally
+        {
+            deflater.reset();
+            // If the pool is full, let the instance be finalized
+            if (!_deflaters.offer(deflater))
+            {
+                deflater.end();
+            }
+        }
+
+        if (_gzip)
+        {
+            CRC32 crc = new CRC32();
+            crc.update(bytes, offset, length);
+            writeIntLE(out, (int) crc.getValue());
+            writeIntLE(out, length);
+        }
+    }
+
+    public void decompress(byte[] bytes, int offset, int length, OutputStream out) throws IOException
+    {
+        if (bytes[offset] == GZIP_ID)
+        {
+            decompressGZIP(bytes, offset, length, out);
+        }
+        else if (bytes[offset] == DEFLATE_ID)
+        {
+            inflate(bytes, offset + 1, length - 1, out, null);
+        }
+        else
+        {
+            throw new ZipException("Unknown compression format " + bytes[offset]);
+        }
+    }
+
+    private void decompressGZIP(byte[] bytes, int offset, int length, OutputStream out) throws IOException
+    {
+        if (length < GZIP_HEADER.length + GZIP_TRAILER_LENGTH || bytes[offset + 1] != GZIP_HEADER[1]
+                || bytes[offset + 2] != Deflater.DEFLATED)
+        {
+            throw new ZipException("Not in GZIP format");
+        }
+        if (bytes[offset + 3] != 0)
+        {
+            // Optional header fields are never written here, but other GZIP writers can use them.
+            GZIPInputStream gis = new GZIPInputStream(new ByteArrayInputStream(bytes, offset, length));
+            byte[] chunk = new byte[CHUNK_SIZE];
+            int count;
+            while ((count = gis.read(chunk)) != -1)
+            {
+                out.write(chunk, 0, count);
+            }
+            gis.close();
+            return;
+        }
+
+        inflate(bytes, offset + GZIP_HEADER.length, length - GZIP_HEADER.length, out, new CRC32());
+    }
+
+    /**
+     * Inflates a raw deflate stream. If crc is not null, the GZIP trailer that follows the
+     * stream is verified.
+     */
+    private void inflate(byte[] bytes, int offset, int length, OutputStream out, CRC32 crc) throws IOException
+    {
+        Inflater inflater = _inflaters.poll();
+        if (inflater == null)
+        {
+            inflater = new Inflater(true);
+        }
+        try
+        {
+            byte[] chunk = new byte[CHUNK_SIZE];
+            boolean dummyByte = false;
+            inflater.setInput(bytes, offset, length);
+            while (!inflater.finished())
+            {
+                int count = inflater.inflate(chunk);
+                if (count == 0 && inflater.needsInput() && !dummyByte)
+                {
+                    // With nowrap the inflater may need an extra dummy byte to finish the stream
+                    inflater.setInput(DUMMY_INPUT);
+                    dummyByte = true;
+                }
+                else if (count == 0 && (inflater.needsInput() || inflater.needsDictionary()))
+                {
+                    throw new ZipException("Unexpected end of compressed data");
+                }
+                if (crc != null)
+                {
+                    crc.update(chunk, 0, count);
+                }
+                out.write(chunk, 0, count);
+            }
+
+            if (crc != null)
+            {
+                int remaining = dummyByte ? 0 : inflater.getRemaining();
+                int trailer = offset + length - remaining;
+                if (remaining < GZIP_TRAILER_LENGTH)
+                {
+                    throw new ZipException("Missing GZIP trailer");
+                }
+                if (readIntLE(bytes, trailer) != (int) crc.getValue()
+                        || readIntLE(bytes, trailer + 4) != (int) inflater.getBytesWritten())
+                {
+                    throw new ZipException("Corrupt GZIP trailer");
+                }
+            }
+        }
+        catch (DataFormatException e)
+        {
+            ZipException ze = new ZipException(e.getMessage());
+            ze.initCause(e);
+            throw ze;
+        }
+        finally
+        {
+            inflater.reset();
+            if (!_inflaters.offer(inflater))
+            {
+                inflater.end();
+            }
+        }
+    }
+
+    private static void writeIntLE(OutputStream out, int value) throws IOException
+    {
+        out.write(value & 0xFF);
+        out.write((value >>> 8) & 0xFF);
+        out.write((value >>> 16) & 0xFF);
+        out.write((value >>> 24) & 0xFF);
+    }
+
+    private static int readIntLE(byte[] bytes, int offset)
+    {
+        return (bytes[offset] & 0xFF) | ((bytes[offset + 1] & 0xFF) << 8)
+                | ((bytes[offset + 2] & 0xFF) << 16) | ((bytes[offset + 3] & 0xFF) << 24);
+    }
+}
@@ -0,0 +1,267 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.myfaces.shared.util.compress;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.StreamCorruptedException;
+import java.util.Arrays;
+import java.util.concurrent.ArrayBlockingQueue;
+
+/**
+ * Fast compressor of the LZ77 family, similar to LZ4. It compresses less than deflate, but it
+ * is several times faster, which is useful when the CPU time spent compressing the state matters
+ * more than its size.
+ *
+ * <p>Format: 'L', the uncompressed length as a variable length integer and a list of sequences.
+ * Each sequence starts with a token, the high 4 bits are the number of literals and the low
+ * 4 bits the match length minus 4, a value of 15 means more length bytes follow. Then come the
+ * literals, the match offset (2 bytes, little endian) and the extra match length bytes. The last
+ * sequence only contains literals.</p>
+ */
+public class LZStateCompressor implements StateCompressor
+{
+    public static final int ID = 'L';
+
+    private static final int MIN_MATCH = 4;
+    private static final int MAX_OFFSET = 0xFFFF;
+    private static final int HASH_BITS = 12;
+    private static final int POOL_SIZE = Math.max(4, Runtime.getRuntime().availableProcessors() * 2);
+
+    private final ArrayBlockingQueue<int[]> _hashTables = new ArrayBlockingQueue<int[]>(POOL_SIZE);
+
+    public int getId()
+    {
+        return ID;
+    }
+
+    public void compress(byte[] bytes, int offset, int length, OutputStream out) throws IOException
+    {
+        // Worst case: all literals, plus one length byte every 255 literals
+        byte[] dest = new byte[1 + 5 + length + length / 255 + 16];
+        int d = 0;
+        dest[d++] = (byte) ID;
+        d = writeVarInt(dest, d, length);
+
+        int[] table = _hashTables.poll();
+        if (table == null)
+        {
+            table = new int[1 << HASH_BITS];
+        }
+        Arrays.fill(table, -1);
+
+        int end = offset + length;
+        int matchLimit = end - MIN_MATCH;
+        int anchor = offset;
+        int i = offset;
+        while (i <= matchLimit)
+        {
+            int hash = hash(readInt(bytes, i));
+            int candidate = table[hash];
+            table[hash] = i;
+            if (candidate < 0 || i - candidate > MAX_OFFSET || readInt(bytes, candidate) != readInt(bytes, i))
+            {
+                i++;
+                continue;
+            }
+
+            int matchEnd = i + MIN_MATCH;
+            int ref = candidate + MIN_MATCH;
+            while (matchEnd < end && bytes[matchEnd] == bytes[ref])
+            {
+                matchEnd++;
+                ref++;
+            }
+
+            d = writeSequence(bytes, anchor, i - anchor, dest, d, i - candidate, matchEnd - i - MIN_MATCH);
+            i = matchEnd;
+            anchor = i;
+            if (i - 2 > offset && i - 2 <= matchLimit)
+            {
+                table[hash(readInt(bytes, i - 2))] = i - 2;
+            }
+        }
+        _hashTables.offer(table);
+
+        // Last literals
+        int literals = end - anchor;
+        dest[d++] = (byte) (Math.min(literals, 15) << 4);
+        d = writeLength(dest, d, literals);
+        System.arraycopy(bytes, anchor, dest, d, literals);
+        d += literals;
+
+        out.write(dest, 0, d);
+    }
+
+    public void decompress(byte[] bytes, int offset, int length, OutputStream out) throws IOException
+    {
+        int end = offset + length;
+        int s = offset + 1;
+        long size = 0;
+        for (int shift = 0; ; shift += 7)
+        {
+            if (s >= end || shift > 28)
+            {
+                throw new StreamCorruptedException("Invalid length");
+            }
+            int b = bytes[s++];
+            size |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0)
+            {
+                break;
+            }
+        }
+        // A length byte adds at most 255 bytes, so a bigger size can only come from corrupted data
+        if (size > Integer.MAX_VALUE || size > (long) length * 256)
+        {
+            throw new StreamCorruptedException("Invalid length " + size);
+        }
+
+        byte[] dest = new byte[(int) size];
+        int d = 0;
+        while (true)
+        {
+            if (s >= end)
+            {
+                throw new StreamCorruptedException("Unexpected end of compressed data");
+            }
+            int token = bytes[s++] & 0xFF;
+
+            int literals = token >>> 4;
+            if (literals == 15)
+            {
+                int b;
+                do
+                {
+                    if (s >= end)
+                    {
+                        throw new StreamCorruptedException("Unexpected end of compressed data");
+                    }
+                    b = bytes[s++] & 0xFF;
+                    literals += b;
+                }
+                while (b == 255);
+            }
+            if (literals > end - s || literals > dest.length - d)
+            {
+                throw new StreamCorruptedException("Invalid literal length");
+            }
+            System.arraycopy(bytes, s, dest, d, literals);
+            s += literals;
+            d += literals;
+
+            if (d == dest.length)
+            {
+                break;
+            }
+
+            if (s + 2 > end)
+            {
+                throw new StreamCorruptedException("Unexpected end of compressed data");
+            }
+            int matchOffset = (bytes[s] & 0xFF) | ((bytes[s + 1] & 0xFF) << 8);
+            s += 2;
+            int matchLength = token & 0x0F;
+            if (matchLength == 15)
+            {
+                int b;
+                do
+                {
+                    if (s >= end)
+                    {
+                        throw new StreamCorruptedException("Unexpected end of compressed data");
+                    }
+                    b = bytes[s++] & 0xFF;
+                    matchLength += b;
+                }
+                while (b == 255);
+            }
+            matchLength += MIN_MATCH;
+            if (matchOffset == 0 || matchOffset > d || matchLength > dest.length - d)
+            {
+                throw new StreamCorruptedException("Invalid match");
+            }
+
+            int ref = d - matchOffset;
+            if (matchOffset >= matchLength)
+            {
+                System.arraycopy(dest, ref, dest, d, matchLength);
+                d += matchLength;
+            }
+            else
+            {
+                // Overlapping copy, it repeats the last matchOffset bytes
+                for (int k = 0; k < matchLength; k++)
+                {
+                    dest[d++] = dest[ref++];
+                }
+            }
+        }
+        out.write(dest, 0, d);
+    }
+
+    private static int writeSequence(byte[] src, int literalStart, int literals, byte[] dest, int d,
+            int matchOffset, int matchLength)
+    {
+        dest[d++] = (byte) ((Math.min(literals, 15) << 4) | Math.min(matchLength, 15));
+        d = writeLength(dest, d, literals);
+        System.arraycopy(src, literalStart, dest, d, literals);
+        d += literals;
+        dest[d++] = (byte) matchOffset;
+        dest[d++] = (byte) (matchOffset >>> 8);
+        return writeLength(dest, d, matchLength);
+    }
+
+    private static int writeLength(byte[] dest, int d, int length)
+    {
+        if (length >= 15)
+        {
+            length -= 15;
+            while (length >= 255)
+            {
+                dest[d++] = (byte) 255;
+                length -= 255;
+            }
+            dest[d++] = (byte) length;
+        }
+        return d;
+    }
+
+    private static int writeVarInt(byte[] dest, int d, int value)
+    {
+        while ((value & ~0x7F) != 0)
+        {
+            dest[d++] = (byte) ((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        dest[d++] = (byte) value;
+        return d;
+    }
+
+    private static int readInt(byte[] bytes, int i)
+    {
+        return (bytes[i] & 0xFF) | ((bytes[i + 1] & 0xFF) << 8)
+                | ((bytes[i + 2] & 0xFF) << 16) | ((bytes[i + 3] & 0xFF) << 24);
+    }
+
+    private static int hash(int value)
+    {
+        return (value * -1640531535) >>> (32 - HASH_BITS);
+    }
+}
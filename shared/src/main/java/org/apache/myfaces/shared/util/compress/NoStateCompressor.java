@@ -0,0 +1,46 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.myfaces.shared.util.compress;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Stores the bytes as they are. Used for states smaller than the compression threshold.
+ */
+public class NoStateCompressor implements StateCompressor
+{
+    public static final int ID = 0x00;
+
+    public int getId()
+    {
+        return ID;
+    }
+
+    public void compress(byte[] bytes, int offset, int length, OutputStream out) throws IOException
+    {
+        out.write(ID);
+        out.write(bytes, offset, length);
+    }
+
+    public void decompress(byte[] bytes, int offset, int length, OutputStream out) throws IOException
+    {
+        out.write(bytes, offset + 1, length - 1);
+    }
+}
@@ -0,0 +1,45 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.myfaces.shared.util.compress;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Compression algorithm used for the serialized view state.
+ *
+ * <p>The first byte written by {@link #compress(byte[], int, int, OutputStream)} must be the value
+ * returned by {@link #getId()}. It is used to choose the algorithm when the state is read, so the
+ * state can be restored even if the configured algorithm has changed. Implementations must be
+ * thread safe.</p>
+ *
+ * @see StateCompressors
+ */
+public interface StateCompressor
+{
+    /**
+     * Returns the byte that identifies the data written by this compressor. The values 0x00,
+     * 0x1f, 'D' and 'L' are used by the built-in compressors.
+     */
+    int getId();
+
+    void compress(byte[] bytes, int offset, int length, OutputStream out) throws IOException;
+
+    void decompress(byte[] bytes, int offset, int length, OutputStream out) throws IOException;
+}
@@ -0,0 +1,186 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.myfaces.shared.util.compress;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.Deflater;
+import java.util.zip.ZipException;
+
+import javax.faces.context.ExternalContext;
+
+import org.apache.myfaces.buildtools.maven2.plugin.builder.annotation.JSFWebConfigParam;
+import org.apache.myfaces.shared.util.ClassUtils;
+import org.apache.myfaces.shared.util.WebConfigParamUtils;
+
+/**
+ * Creates the configured {@link StateCompressor} and reads compressed states, whatever compressor
+ * was used to write them.
+ */
+public final class StateCompressors
+{
+    private static final Logger log = Logger.getLogger(StateCompressors.class.getName());
+
+    public static final String GZIP = "gzip";
+    public static final String DEFLATE = "deflate";
+    public static final String LZ = "lz";
+    public static final String NONE = "none";
+
+    /**
+     * Compression level used by the "gzip" and "deflate" compressors, from 1 (fastest) to
+     * 9 (smallest). -1 uses the default level of the deflate algorithm.
+     */
+    @JSFWebConfigParam(since="2.3.3", defaultValue="-1", expectedValues="-1,1,2,3,4,5,6,7,8,9",
+            group="state", tags="performance")
+    public static final String COMPRESSION_LEVEL_PARAM = "org.apache.myfaces.STATE_COMPRESSION_LEVEL";
+    public static final int COMPRESSION_LEVEL_PARAM_DEFAULT = Deflater.DEFAULT_COMPRESSION;
+
+    /**
+     * Serialized states smaller than this number of bytes are not compressed. Compressing small
+     * states takes time and saves few or no bytes.
+     */
+    @JSFWebConfigParam(since="2.3.3", defaultValue="0", group="state", tags="performance")
+    public static final String COMPRESSION_THRESHOLD_PARAM = "org.apache.myfaces.STATE_COMPRESSION_THRESHOLD";
+    public static final int COMPRESSION_THRESHOLD_PARAM_DEFAULT = 0;
+
+    private static final String INSTANCE_KEY_PREFIX = StateCompressors.class.getName() + ".";
+
+    private static final StateCompressor NO_COMPRESSOR = new NoStateCompressor();
+    private static final StateCompressor GZIP_COMPRESSOR =
+            new DeflateStateCompressor(Deflater.DEFAULT_COMPRESSION, true);
+    private static final StateCompressor DEFLATE_COMPRESSOR =
+            new DeflateStateCompressor(Deflater.DEFAULT_COMPRESSION, false);
+    private static final StateCompressor LZ_COMPRESSOR = new LZStateCompressor();
+
+    private StateCompressors()
+    {
+    }
+
+    /**
+     * Returns the compressor configured with the given context parameter. The value can be "gzip",
+     * "deflate", "lz", "none" or the name of a class implementing StateCompressor. The instance
+     * is kept in application scope.
+     */
+    public static StateCompressor getStateCompressor(ExternalContext ctx, String paramName, String defaultValue)
+    {
+        String key = INSTANCE_KEY_PREFIX + paramName;
+        StateCompressor compressor = (StateCompressor) ctx.getApplicationMap().get(key);
+        if (compressor == null)
+        {
+            String name = WebConfigParamUtils.getStringInitParameter(ctx, paramName, defaultValue);
+            int level = WebConfigParamUtils.getIntegerInitParameter(ctx, COMPRESSION_LEVEL_PARAM,
+                    COMPRESSION_LEVEL_PARAM_DEFAULT);
+            try
+            {
+                compressor = createStateCompressor(name, level);
+            }
+            catch (RuntimeException e)
+            {
+                log.log(Level.SEVERE, "Cannot create the compressor \"" + name + "\" configured in "
+                        + paramName + ". Fallback to \"" + GZIP + "\"", e);
+                compressor = GZIP_COMPRESSOR;
+            }
+            ctx.getApplicationMap().put(key, compressor);
+        }
+        return compressor;
+    }
+
+    public static StateCompressor createStateCompressor(String name, int level)
+    {
+        if (name == null || GZIP.equals(name))
+        {
+            return level == Deflater.DEFAULT_COMPRESSION ? GZIP_COMPRESSOR : new DeflateStateCompressor(level, true);
+        }
+        else if (DEFLATE.equals(name))
+        {
+            return level == Deflater.DEFAULT_COMPRESSION ? DEFLATE_COMPRESSOR
+                    : new DeflateStateCompressor(level, false);
+        }
+        else if (LZ.equals(name))
+        {
+            return LZ_COMPRESSOR;
+        }
+        else if (NONE.equals(name))
+        {
+            return NO_COMPRESSOR;
+        }
+        return (StateCompressor) ClassUtils.newInstance(name, StateCompressor.class);
+    }
+
+    public static int getCompressionThreshold(ExternalContext ctx)
+    {
+        return WebConfigParamUtils.getIntegerInitParameter(ctx, COMPRESSION_THRESHOLD_PARAM,
+                COMPRESSION_THRESHOLD_PARAM_DEFAULT);
+    }
+
+    /**
+     * Compresses the bytes, or just stores them if there are less than threshold bytes.
+     */
+    public static void compress(StateCompressor compressor, int threshold, byte[] bytes, int offset, int length,
+            OutputStream out) throws IOException
+    {
+        if (length < threshold)
+        {
+            NO_COMPRESSOR.compress(bytes, offset, length, out);
+        }
+        else
+        {
+            compressor.compress(bytes, offset, length, out);
+        }
+    }
+
+    /**
+     * Decompresses bytes written by any of the built-in compressors or by the given one.
+     */
+    public static void decompress(StateCompressor compressor, byte[] bytes, int offset, int length,
+            OutputStream out) throws IOException
+    {
+        if (length < 1)
+        {
+            throw new ZipException("Empty compressed data");
+        }
+        int id = bytes[offset] & 0xFF;
+        if (compressor != null && compressor.getId() == id)
+        {
+            compressor.decompress(bytes, offset, length, out);
+        }
+        else if (id == DeflateStateCompressor.GZIP_ID)
+        {
+            GZIP_COMPRESSOR.decompress(bytes, offset, length, out);
+        }
+        else if (id == DeflateStateCompressor.DEFLATE_ID)
+        {
+            DEFLATE_COMPRESSOR.decompress(bytes, offset, length, out);
+        }
+        else if (id == LZStateCompressor.ID)
+        {
+            LZ_COMPRESSOR.decompress(bytes, offset, length, out);
+        }
+        else if (id == NoStateCompressor.ID)
+        {
+            NO_COMPRESSOR.decompress(bytes, offset, length, out);
+        }
+        else
+        {
+            throw new ZipException("Unknown compression format " + id);
+        }
+    }
+}
@@ -0,0 +1,436 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.myfaces.shared.util.serial;
+
+import java.io.ByteArrayInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InvalidClassException;
+import java.io.ObjectInputStream;
+import java.io.StreamCorruptedException;
+import java.lang.reflect.Array;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+import org.apache.myfaces.shared.util.ClassUtils;
+import org.apache.myfaces.shared.util.MyFacesObjectInputStream;
+
+import static org.apache.myfaces.shared.util.serial.CompactObjectOutputStream.*;
+
+/**
+ * ObjectInputStream that reads objects written by {@link CompactObjectOutputStream}.
+ *
+ * <p>The state comes from the client, so the lengths read are checked before allocating anything:
+ * every element takes at least one byte, so when reading from a ByteArrayInputStream a length
+ * cannot be greater than the bytes remaining. For other streams, it cannot be greater than
+ * MAX_LENGTH.</p>
+ */
+public class CompactObjectInputStream extends ObjectInputStream
+{
+    private static final int MAX_LENGTH = 1 << 24;
+
+    private final InputStream _in;
+    private final boolean _bounded;
+    private byte[] _buffer = new byte[512];
+    private int _position = 0;
+    private int _limit = 0;
+    private boolean _headerRead = false;
+    private final List<String> _strings = new ArrayList<String>();
+    private final HashMap<String, Class<?>> _classes = new HashMap<String, Class<?>>();
+
+    public CompactObjectInputStream(InputStream in) throws IOException
+    {
+        super();
+        _in = in;
+        _bounded = in instanceof ByteArrayInputStream;
+    }
+
+    @Override
+    protected Object readObjectOverride() throws IOException, ClassNotFoundException
+    {
+        if (!_headerRead)
+        {
+            if (readByte0() != MAGIC)
+            {
+                throw new StreamCorruptedException("invalid stream header");
+            }
+            int version = readByte0();
+            if (version != VERSION)
+            {
+                throw new StreamCorruptedException("unsupported stream version " + version);
+            }
+            _headerRead = true;
+        }
+        return readValue();
+    }
+
+    @Override
+    public int read() throws IOException
+    {
+        if (_position < _limit)
+        {
+            return _buffer[_position++] & 0xFF;
+        }
+        return _in.read();
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException
+    {
+        if (_position < _limit)
+        {
+            int count = Math.min(len, _limit - _position);
+            System.arraycopy(_buffer, _position, b, off, count);
+            _position += count;
+            return count;
+        }
+        return _in.read(b, off, len);
+    }
+
+    @Override
+    public int available() throws IOException
+    {
+        return (_limit - _position) + _in.available();
+    }
+
+    @Override
+    public void close() throws IOException
+    {
+        _in.close();
+    }
+
+    private Object readValue() throws IOException, ClassNotFoundException
+    {
+        int tag = readByte0();
+        switch (tag)
+        {
+            case TAG_NULL:
+                return null;
+            case TAG_TRUE:
+                return Boolean.TRUE;
+            case TAG_FALSE:
+                return Boolean.FALSE;
+            case TAG_INT:
+                return (int) unZigZag(readVarLong());
+            case TAG_LONG:
+                return unZigZag(readVarLong());
+            case TAG_STRING:
+            case TAG_STRING_REF:
+                return readString0(tag);
+            case TAG_OBJECT_ARRAY:
+            {
+                Object[] array = new Object[readLength()];
+                for (int i = 0; i < array.length; i++)
+                {
+                    array[i] = readValue();
+                }
+                return array;
+            }
+            case TAG_TYPED_ARRAY:
+            {
+                Class<?> componentType = resolveClass(readString());
+                int length = readLength();
+                Object array = Array.newInstance(componentType, length);
+                for (int i = 0; i < length; i++)
+                {
+                    Array.set(array, i, readValue());
+                }
+                return array;
+            }
+            case TAG_HASH_MAP:
+            {
+                int size = readLength();
+                HashMap<Object, Object> map = new HashMap<Object, Object>(
+                        Math.max((int) (size / .75f) + 1, 16));
+                for (int i = 0; i < size; i++)
+                {
+                    Object key = readValue();
+                    map.put(key, readValue());
+                }
+                return map;
+            }
+            case TAG_ARRAY_LIST:
+            {
+                int size = readLength();
+                ArrayList<Object> list = new ArrayList<Object>(size);
+                for (int i = 0; i < size; i++)
+                {
+                    list.add(readValue());
+                }
+                return list;
+            }
+            case TAG_CLASS:
+                return resolveClass(readString());
+            case TAG_ENUM:
+            {
+                Class enumClass = resolveClass(readString());
+                String name = readString();
+                if (!enumClass.isEnum())
+                {
+                    throw new InvalidClassException(enumClass.getName(), "not an enum");
+                }
+                return Enum.valueOf(enumClass, name);
+            }
+            case TAG_STRUCT:
+                return readStruct(readString());
+            case TAG_SHORT:
+                return (short) unZigZag(readVarLong());
+            case TAG_BYTE:
+                return (byte) readByte0();
+            case TAG_CHAR:
+                return (char) readVarLong();
+            case TAG_DOUBLE:
+                return Double.longBitsToDouble(readFixed(8));
+            case TAG_FLOAT:
+                return Float.intBitsToFloat((int) readFixed(4));
+            case TAG_BYTE_ARRAY:
+            {
+                byte[] bytes = new byte[readLength()];
+                readFully0(bytes);
+                return bytes;
+            }
+            case TAG_SERIALIZED:
+            {
+                byte[] bytes = new byte[readLength()];
+                readFully0(bytes);
+                ObjectInputStream ois = new MyFacesObjectInputStream(new ByteArrayInputStream(bytes));
+                try
+                {
+                    return ois.readObject();
+                }
+                finally
+                {
+                    ois.close();
+                }
+            }
+            default:
+                throw new StreamCorruptedException("invalid type tag " + tag);
+        }
+    }
+
+    private Object readStruct(String className) throws IOException, ClassNotFoundException
+    {
+        if (!CompactSerialFactory.isStructClass(className))
+        {
+            throw new InvalidClassException(className, "not allowed");
+        }
+        Class<?> clazz = resolveClass(className);
+        Object instance;
+        try
+        {
+            Constructor<?> constructor = CompactSerialFactory.getStructConstructor(clazz);
+            Class<?>[] types = constructor.getParameterTypes();
+            Object[] args = new Object[types.length];
+            for (int i = 0; i < types.length; i++)
+            {
+                args[i] = defaultValue(types[i]);
+            }
+            instance = constructor.newInstance(args);
+
+            Field[] fields = CompactSerialFactory.getStructFields(clazz);
+            for (int i = 0; i < fields.length; i++)
+            {
+                fields[i].set(instance, readValue());
+            }
+        }
+        catch (ReflectiveOperationException | IllegalArgumentException e)
+        {
+            InvalidClassException ice = new InvalidClassException(className, e.getMessage());
+            ice.initCause(e);
+            throw ice;
+        }
+        return instance;
+    }
+
+    private static Object defaultValue(Class<?> type)
+    {
+        if (!type.isPrimitive())
+        {
+            return null;
+        }
+        else if (type == Boolean.TYPE)
+        {
+            return Boolean.FALSE;
+        }
+        else if (type == Character.TYPE)
+        {
+            return (char) 0;
+        }
+        else if (type == Long.TYPE)
+        {
+            return 0L;
+        }
+        else if (type == Double.TYPE)
+        {
+            return 0d;
+        }
+        else if (type == Float.TYPE)
+        {
+            return 0f;
+        }
+        else if (type == Short.TYPE)
+        {
+            return (short) 0;
+        }
+        else if (type == Byte.TYPE)
+        {
+            return (byte) 0;
+        }
+        return 0;
+    }
+
+    private Class<?> resolveClass(String name) throws ClassNotFoundException
+    {
+        Class<?> clazz = _classes.get(name);
+        if (clazz == null)
+        {
+            clazz = ClassUtils.classForName(name);
+            _classes.put(name, clazz);
+        }
+        return clazz;
+    }
+
+    private String readString() throws IOException
+    {
+        int tag = readByte0();
+        if (tag != TAG_STRING && tag != TAG_STRING_REF)
+        {
+            throw new StreamCorruptedException("expected string, found tag " + tag);
+        }
+        return readString0(tag);
+    }
+
+    private String readString0(int tag) throws IOException
+    {
+        if (tag == TAG_STRING_REF)
+        {
+            long index = readVarLong();
+            if (index < 0 || index >= _strings.size())
+            {
+                throw new StreamCorruptedException("invalid string reference " + index);
+            }
+            return _strings.get((int) index);
+        }
+
+        int length = readLength();
+        char[] chars = new char[length];
+        for (int i = 0; i < length; i++)
+        {
+            int b = readByte0();
+            if (b < 0x80)
+            {
+                chars[i] = (char) b;
+            }
+            else if ((b & 0xE0) == 0xC0)
+            {
+                chars[i] = (char) (((b & 0x1F) << 6) | (readByte0() & 0x3F));
+            }
+            else
+            {
+                int b2 = readByte0();
+                int b3 = readByte0();
+                chars[i] = (char) (((b & 0x0F) << 12) | ((b2 & 0x3F) << 6) | (b3 & 0x3F));
+            }
+        }
+        String value = new String(chars);
+        _strings.add(value);
+        return value;
+    }
+
+    private static long unZigZag(long value)
+    {
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    private int readLength() throws IOException
+    {
+        long value = readVarLong();
+        if (value < 0 || value > (_bounded ? (_limit - _position) + _in.available() : MAX_LENGTH))
+        {
+            throw new StreamCorruptedException("invalid length " + value);
+        }
+        return (int) value;
+    }
+
+    private long readVarLong() throws IOException
+    {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7)
+        {
+            int b = readByte0();
+            value |= ((long) (b & 0x7F)) << shift;
+            if ((b & 0x80) == 0)
+            {
+                return value;
+            }
+        }
+        throw new StreamCorruptedException("malformed variable length integer");
+    }
+
+    private long readFixed(int bytes) throws IOException
+    {
+        long value = 0;
+        for (int i = 0; i < bytes; i++)
+        {
+            value = (value << 8) | readByte0();
+        }
+        return value;
+    }
+
+    private int readByte0() throws IOException
+    {
+        if (_position == _limit && !fill())
+        {
+            throw new EOFException();
+        }
+        return _buffer[_position++] & 0xFF;
+    }
+
+    private void readFully0(byte[] bytes) throws IOException
+    {
+        int offset = 0;
+        while (offset < bytes.length)
+        {
+            if (_position == _limit && !fill())
+            {
+                throw new EOFException();
+            }
+            int count = Math.min(bytes.length - offset, _limit - _position);
+            System.arraycopy(_buffer, _position, bytes, offset, count);
+            _position += count;
+            offset += count;
+        }
+    }
+
+    private boolean fill() throws IOException
+    {
+        int count = _in.read(_buffer, 0, _buffer.length);
+        if (count <= 0)
+        {
+            return false;
+        }
+        _position = 0;
+        _limit = count;
+        return true;
+    }
+}
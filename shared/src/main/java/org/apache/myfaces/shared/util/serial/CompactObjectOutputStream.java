@@ -0,0 +1,425 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.myfaces.shared.util.serial;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InvalidObjectException;
+import java.io.NotSerializableException;
+import java.io.ObjectOutputStream;
+import java.io.OutputStream;
+import java.io.Serializable;
+import java.lang.reflect.Array;
+import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+/**
+ * ObjectOutputStream that writes objects using the format described in {@link CompactSerialFactory}.
+ *
+ * <p>Only writeObject and the raw write methods are supported. Each call to writeObject is
+ * flushed to the underlying stream, so the bytes are available once it returns.</p>
+ *
+ * <p>Arrays, maps, lists and state wrappers are written by value: an object referenced twice is
+ * read back as two equal copies, and a cycle between them is rejected with an
+ * InvalidObjectException instead of never ending.</p>
+ */
+public class CompactObjectOutputStream extends ObjectOutputStream
+{
+    static final int MAGIC = 0xCF;
+    static final int VERSION = 1;
+
+    static final int TAG_NULL = 0;
+    static final int TAG_TRUE = 1;
+    static final int TAG_FALSE = 2;
+    static final int TAG_INT = 3;
+    static final int TAG_LONG = 4;
+    static final int TAG_STRING = 5;
+    static final int TAG_STRING_REF = 6;
+    static final int TAG_OBJECT_ARRAY = 7;
+    static final int TAG_TYPED_ARRAY = 8;
+    static final int TAG_HASH_MAP = 9;
+    static final int TAG_ARRAY_LIST = 10;
+    static final int TAG_CLASS = 11;
+    static final int TAG_ENUM = 12;
+    static final int TAG_STRUCT = 13;
+    static final int TAG_SHORT = 14;
+    static final int TAG_BYTE = 15;
+    static final int TAG_CHAR = 16;
+    static final int TAG_DOUBLE = 17;
+    static final int TAG_FLOAT = 18;
+    static final int TAG_BYTE_ARRAY = 19;
+    static final int TAG_SERIALIZED = 20;
+
+    private final OutputStream _out;
+    private byte[] _buffer = new byte[512];
+    private int _count = 0;
+    private boolean _headerWritten = false;
+    private final Map<String, Integer> _strings = new HashMap<String, Integer>();
+    private ByteArrayOutputStream _serializedBuffer;
+    private final Map<Object, Object> _writing = new IdentityHashMap<Object, Object>();
+
+    public CompactObjectOutputStream(OutputStream out) throws IOException
+    {
+        super();
+        _out = out;
+    }
+
+    @Override
+    protected void writeObjectOverride(Object obj) throws IOException
+    {
+        if (!_headerWritten)
+        {
+            writeByte0(MAGIC);
+            writeByte0(VERSION);
+            _headerWritten = true;
+        }
+        if (!_writing.isEmpty())
+        {
+            // left by a previous call that failed
+            _writing.clear();
+        }
+        writeValue(obj);
+        flushBuffer();
+    }
+
+    @Override
+    public void write(int b) throws IOException
+    {
+        writeByte0(b);
+        flushBuffer();
+    }
+
+    @Override
+    public void write(byte[] b) throws IOException
+    {
+        write(b, 0, b.length);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException
+    {
+        flushBuffer();
+        _out.write(b, off, len);
+    }
+
+    @Override
+    public void flush() throws IOException
+    {
+        flushBuffer();
+        _out.flush();
+    }
+
+    @Override
+    public void close() throws IOException
+    {
+        flush();
+        _out.close();
+    }
+
+    private void writeValue(Object obj) throws IOException
+    {
+        if (obj == null)
+        {
+            writeByte0(TAG_NULL);
+            return;
+        }
+        Class<?> clazz = obj.getClass();
+        if (clazz == String.class)
+        {
+            writeString0((String) obj);
+        }
+        else if (clazz == Integer.class)
+        {
+            writeByte0(TAG_INT);
+            writeVarLong(zigZag(((Integer) obj).intValue()));
+        }
+        else if (clazz == Boolean.class)
+        {
+            writeByte0(((Boolean) obj).booleanValue() ? TAG_TRUE : TAG_FALSE);
+        }
+        else if (clazz == Object[].class)
+        {
+            Object[] array = (Object[]) obj;
+            enterContainer(obj);
+            writeByte0(TAG_OBJECT_ARRAY);
+            writeVarLong(array.length);
+            for (int i = 0; i < array.length; i++)
+            {
+                writeValue(array[i]);
+            }
+            _writing.remove(obj);
+        }
+        else if (clazz == HashMap.class)
+        {
+            Map<?, ?> map = (Map<?, ?>) obj;
+            enterContainer(obj);
+            writeByte0(TAG_HASH_MAP);
+            writeVarLong(map.size());
+            for (Map.Entry<?, ?> entry : map.entrySet())
+            {
+                writeValue(entry.getKey());
+                writeValue(entry.getValue());
+            }
+            _writing.remove(obj);
+        }
+        else if (clazz == ArrayList.class)
+        {
+            ArrayList<?> list = (ArrayList<?>) obj;
+            int size = list.size();
+            enterContainer(obj);
+            writeByte0(TAG_ARRAY_LIST);
+            writeVarLong(size);
+            for (int i = 0; i < size; i++)
+            {
+                writeValue(list.get(i));
+            }
+            _writing.remove(obj);
+        }
+        else if (clazz == Long.class)
+        {
+            writeByte0(TAG_LONG);
+            writeVarLong(zigZag(((Long) obj).longValue()));
+        }
+        else if (clazz == Class.class)
+        {
+            writeByte0(TAG_CLASS);
+            writeString0(((Class<?>) obj).getName());
+        }
+        else if (obj instanceof Enum)
+        {
+            writeByte0(TAG_ENUM);
+            writeString0(((Enum<?>) obj).getDeclaringClass().getName());
+            writeString0(((Enum<?>) obj).name());
+        }
+        else if (CompactSerialFactory.isStructClass(clazz.getName()))
+        {
+            enterContainer(obj);
+            writeByte0(TAG_STRUCT);
+            writeString0(clazz.getName());
+            Field[] fields = CompactSerialFactory.getStructFields(clazz);
+            for (int i = 0; i < fields.length; i++)
+            {
+                try
+                {
+                    writeValue(fields[i].get(obj));
+                }
+                catch (IllegalAccessException e)
+                {
+                    throw new IOException(e);
+                }
+            }
+            _writing.remove(obj);
+        }
+        else if (clazz == byte[].class)
+        {
+            byte[] bytes = (byte[]) obj;
+            writeByte0(TAG_BYTE_ARRAY);
+            writeVarLong(bytes.length);
+            writeBytes0(bytes, 0, bytes.length);
+        }
+        else if (clazz.isArray() && !clazz.getComponentType().isPrimitive())
+        {
+            int length = Array.getLength(obj);
+            enterContainer(obj);
+            writeByte0(TAG_TYPED_ARRAY);
+            writeString0(clazz.getComponentType().getName());
+            writeVarLong(length);
+            for (int i = 0; i < length; i++)
+            {
+                writeValue(Array.get(obj, i));
+            }
+            _writing.remove(obj);
+        }
+        else if (clazz == Short.class)
+        {
+            writeByte0(TAG_SHORT);
+            writeVarLong(zigZag(((Short) obj).shortValue()));
+        }
+        else if (clazz == Byte.class)
+        {
+            writeByte0(TAG_BYTE);
+            writeByte0(((Byte) obj).byteValue());
+        }
+        else if (clazz == Character.class)
+        {
+            writeByte0(TAG_CHAR);
+            writeVarLong(((Character) obj).charValue());
+        }
+        else if (clazz == Double.class)
+        {
+            writeByte0(TAG_DOUBLE);
+            writeFixedLong(Double.doubleToLongBits(((Double) obj).doubleValue()));
+        }
+        else if (clazz == Float.class)
+        {
+            writeByte0(TAG_FLOAT);
+            writeFixedInt(Float.floatToIntBits(((Float) obj).floatValue()));
+        }
+        else if (obj instanceof Serializable)
+        {
+            writeSerialized(obj);
+        }
+        else
+        {
+            throw new NotSerializableException(clazz.getName());
+        }
+    }
+
+    private void enterContainer(Object obj) throws InvalidObjectException
+    {
+        if (_writing.put(obj, obj) != null)
+        {
+            throw new InvalidObjectException("cyclic reference to " + obj.getClass().getName());
+        }
+    }
+
+    /**
+     * Fallback for unknown types: java serialization, written as a length prefixed block.
+     */
+    private void writeSerialized(Object obj) throws IOException
+    {
+        if (_serializedBuffer == null)
+        {
+            _serializedBuffer = new ByteArrayOutputStream(256);
+        }
+        else
+        {
+            _serializedBuffer.reset();
+        }
+        ObjectOutputStream oos = new ObjectOutputStream(_serializedBuffer);
+        oos.writeObject(obj);
+        oos.close();
+
+        writeByte0(TAG_SERIALIZED);
+        writeVarLong(_serializedBuffer.size());
+        flushBuffer();
+        _serializedBuffer.writeTo(_out);
+    }
+
+    private void writeString0(String value)
+    {
+        Integer index = _strings.get(value);
+        if (index != null)
+        {
+            writeByte0(TAG_STRING_REF);
+            writeVarLong(index.intValue());
+            return;
+        }
+        _strings.put(value, _strings.size());
+
+        int length = value.length();
+        writeByte0(TAG_STRING);
+        writeVarLong(length);
+        // Each char takes at most 3 bytes in utf-8, surrogate pairs take 4 bytes for 2 chars
+        ensureCapacity(length * 3);
+        byte[] buffer = _buffer;
+        int count = _count;
+        for (int i = 0; i < length; i++)
+        {
+            char c = value.charAt(i);
+            if (c < 0x80)
+            {
+                buffer[count++] = (byte) c;
+            }
+            else if (c < 0x800)
+            {
+                buffer[count++] = (byte) (0xC0 | (c >> 6));
+                buffer[count++] = (byte) (0x80 | (c & 0x3F));
+            }
+            else
+            {
+                // Surrogates are written as they are, like modified utf-8 does, so every char
+                // can be restored even if the pair is not valid.
+                buffer[count++] = (byte) (0xE0 | (c >> 12));
+                buffer[count++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+                buffer[count++] = (byte) (0x80 | (c & 0x3F));
+            }
+        }
+        _count = count;
+    }
+
+    private static long zigZag(long value)
+    {
+        return (value << 1) ^ (value >> 63);
+    }
+
+    private void writeVarLong(long value)
+    {
+        ensureCapacity(10);
+        while ((value & ~0x7FL) != 0)
+        {
+            _buffer[_count++] = (byte) ((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        _buffer[_count++] = (byte) value;
+    }
+
+    private void writeFixedLong(long value)
+    {
+        ensureCapacity(8);
+        for (int i = 56; i >= 0; i -= 8)
+        {
+            _buffer[_count++] = (byte) (value >>> i);
+        }
+    }
+
+    private void writeFixedInt(int value)
+    {
+        ensureCapacity(4);
+        for (int i = 24; i >= 0; i -= 8)
+        {
+            _buffer[_count++] = (byte) (value >>> i);
+        }
+    }
+
+    private void writeByte0(int b)
+    {
+        ensureCapacity(1);
+        _buffer[_count++] = (byte) b;
+    }
+
+    private void writeBytes0(byte[] b, int off, int len)
+    {
+        ensureCapacity(len);
+        System.arraycopy(b, off, _buffer, _count, len);
+        _count += len;
+    }
+
+    private void ensureCapacity(int required)
+    {
+        if (_count + required > _buffer.length)
+        {
+            byte[] newBuffer = new byte[Math.max(_buffer.length << 1, _count + required)];
+            System.arraycopy(_buffer, 0, newBuffer, 0, _count);
+            _buffer = newBuffer;
+        }
+    }
+
+    private void flushBuffer() throws IOException
+    {
+        if (_count > 0)
+        {
+            _out.write(_buffer, 0, _count);
+            _count = 0;
+        }
+    }
+}
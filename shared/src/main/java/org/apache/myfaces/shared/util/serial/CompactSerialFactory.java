@@ -0,0 +1,163 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.myfaces.shared.util.serial;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.OutputStream;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * SerialFactory that writes the state using a compact tagged binary format instead of
+ * java serialization.
+ *
+ * <p>The types used by the state saving algorithm (Object[], HashMap, ArrayList, String, boxed
+ * primitives, Class, enums and the MyFaces state wrappers) are written with a one byte tag and
+ * variable length integers. Strings and class names are written once per stream and later
+ * referenced by index, so repeated clientIds and property keys take one or two bytes. Any other
+ * Serializable object is written using java serialization.</p>
+ *
+ * <p>Object identity is only preserved inside objects written with java serialization, which is
+ * enough for the state generated by the state saving algorithm: shared references are read back
+ * as copies, and cycles are rejected when the state is written.</p>
+ *
+ * <p>To use it, set org.apache.myfaces.SERIAL_FACTORY to the name of this class.</p>
+ */
+public class CompactSerialFactory implements SerialFactory
+{
+    /**
+     * Classes written field by field, with the parameter types of the constructor used to create
+     * them when the state is read. They are MyFaces classes used to hold state, so there is
+     * no risk of instantiate arbitrary classes when the state is read.
+     */
+    private static final Map<String, Class<?>[]> STRUCT_CLASSES;
+
+    static
+    {
+        Map<String, Class<?>[]> structClasses = new HashMap<String, Class<?>[]>();
+        Class<?>[] classAndObject = new Class<?>[]{Class.class, Object.class};
+        Class<?>[] classAndList = new Class<?>[]{Class.class, List.class};
+        Class<?>[] list = new Class<?>[]{List.class};
+        structClasses.put("javax.faces.component._AttachedStateWrapper", classAndObject);
+        structClasses.put("javax.faces.component._AttachedDeltaWrapper", classAndObject);
+        structClasses.put("javax.faces.component._AttachedListStateWrapper", list);
+        structClasses.put("javax.faces.component._AttachedCollectionStateWrapper", classAndList);
+        structClasses.put("javax.faces.component.behavior._AttachedStateWrapper", classAndObject);
+        structClasses.put("javax.faces.component.behavior._AttachedDeltaWrapper", classAndObject);
+        structClasses.put("javax.faces.component.behavior._AttachedListStateWrapper", list);
+        structClasses.put("org.apache.myfaces.view.facelets.AttachedFullStateWrapper",
+                new Class<?>[]{Object.class});
+        structClasses.put("org.apache.myfaces.view.facelets.DefaultFaceletsStateManagementStrategy$TreeStructComponent",
+                new Class<?>[]{String.class, String.class});
+        STRUCT_CLASSES = Collections.unmodifiableMap(structClasses);
+    }
+
+    private static final ConcurrentHashMap<Class<?>, Constructor<?>> STRUCT_CONSTRUCTORS =
+            new ConcurrentHashMap<Class<?>, Constructor<?>>();
+
+    private static final ConcurrentHashMap<Class<?>, Field[]> STRUCT_FIELDS =
+            new ConcurrentHashMap<Class<?>, Field[]>();
+
+    public ObjectOutputStream getObjectOutputStream(OutputStream outputStream) throws IOException
+    {
+        return new CompactObjectOutputStream(outputStream);
+    }
+
+    public ObjectInputStream getObjectInputStream(InputStream inputStream) throws IOException
+    {
+        return new CompactObjectInputStream(inputStream);
+    }
+
+    static boolean isStructClass(String className)
+    {
+        return STRUCT_CLASSES.containsKey(className);
+    }
+
+    /**
+     * Returns the constructor used to create the given struct class. The fields are set later, so
+     * it is called with default values.
+     */
+    static Constructor<?> getStructConstructor(Class<?> clazz) throws NoSuchMethodException
+    {
+        Constructor<?> constructor = STRUCT_CONSTRUCTORS.get(clazz);
+        if (constructor == null)
+        {
+            constructor = clazz.getDeclaredConstructor(STRUCT_CLASSES.get(clazz.getName()));
+            constructor.setAccessible(true);
+            STRUCT_CONSTRUCTORS.put(clazz, constructor);
+        }
+        return constructor;
+    }
+
+    /**
+     * Returns the fields written for the given struct class, superclass fields first.
+     */
+    static Field[] getStructFields(Class<?> clazz)
+    {
+        Field[] fields = STRUCT_FIELDS.get(clazz);
+        if (fields == null)
+        {
+            List<Field> list = new ArrayList<Field>();
+            collectFields(clazz, list);
+            fields = list.toArray(new Field[list.size()]);
+            STRUCT_FIELDS.put(clazz, fields);
+        }
+        return fields;
+    }
+
+    private static void collectFields(Class<?> clazz, List<Field> list)
+    {
+        if (clazz == null || clazz == Object.class)
+        {
+            return;
+        }
+        collectFields(clazz.getSuperclass(), list);
+        // getDeclaredFields() does not guarantee any order, sort them so the format does not
+        // depend on the jvm
+        Field[] declaredFields = clazz.getDeclaredFields();
+        Arrays.sort(declaredFields, new Comparator<Field>()
+        {
+            public int compare(Field o1, Field o2)
+            {
+                return o1.getName().compareTo(o2.getName());
+            }
+        });
+        for (Field field : declaredFields)
+        {
+            int modifiers = field.getModifiers();
+            if (!Modifier.isStatic(modifiers) && !Modifier.isTransient(modifiers))
+            {
+                field.setAccessible(true);
+                list.add(field);
+            }
+        }
+    }
+}
@@ -0,0 +1,147 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.myfaces.shared.model;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class WindowedDataModelTest
+{
+    /**
+     * Model of the integers from 0 to rowCount - 1, recording the windows loaded.
+     */
+    private static class IntegerDataModel extends WindowedDataModel<Integer>
+    {
+        private final int rowCount;
+        private final List<String> loads = new ArrayList<String>();
+        private int counts;
+
+        IntegerDataModel(int rowCount, int windowSize, int maxCachedWindows, Executor prefetchExecutor)
+        {
+            super(windowSize, maxCachedWindows, prefetchExecutor);
+            this.rowCount = rowCount;
+        }
+
+        @Override
+        protected int countRows()
+        {
+            counts++;
+            return rowCount;
+        }
+
+        @Override
+        protected List<Integer> loadRows(int first, int maxRows)
+        {
+            loads.add(first + "+" + maxRows);
+            List<Integer> rows = new ArrayList<Integer>();
+            for (int i = first; i < first + maxRows && i < rowCount; i++)
+            {
+                rows.add(i);
+            }
+            return rows;
+        }
+    }
+
+    @Test
+    public void testLoadOnlyRequestedWindows()
+    {
+        IntegerDataModel model = new IntegerDataModel(100000, 10, 2, null);
+
+        assertEquals(100000, model.getRowCount());
+        assertEquals(100000, model.getRowCount());
+        assertEquals(1, model.counts);
+        assertTrue(model.loads.isEmpty());
+
+        model.setWindow(50000, 25);
+        for (int i = 50000; i < 50025; i++)
+        {
+            model.setRowIndex(i);
+            assertTrue(model.isRowAvailable());
+            assertEquals(Integer.valueOf(i), model.getRowData());
+        }
+        assertEquals(1, model.loads.size());
+        assertEquals("50000+25", model.loads.get(0));
+
+        model.setRowIndex(100000);
+        assertFalse(model.isRowAvailable());
+        model.setRowIndex(-1);
+        assertNull(model.getRowData());
+        assertEquals(1, model.loads.size());
+    }
+
+    @Test
+    public void testUnalignedWindows()
+    {
+        IntegerDataModel model = new IntegerDataModel(30, 10, 3, null);
+        model.setWindow(5, 10);
+
+        model.setRowIndex(2);
+        assertEquals(Integer.valueOf(2), model.getRowData());
+        model.setRowIndex(27);
+        assertEquals(Integer.valueOf(27), model.getRowData());
+        assertEquals("0+5", model.loads.get(0));
+        assertEquals("25+10", model.loads.get(1));
+    }
+
+    @Test
+    public void testPrefetchAndEviction()
+    {
+        final List<Runnable> tasks = new ArrayList<Runnable>();
+        IntegerDataModel model = new IntegerDataModel(100, 10, 2, new Executor()
+        {
+            @Override
+            public void execute(Runnable command)
+            {
+                tasks.add(command);
+            }
+        });
+
+        model.setRowIndex(0);
+        assertEquals(Integer.valueOf(0), model.getRowData());
+        assertEquals(1, tasks.size());
+        assertEquals(1, model.loads.size());
+
+        // the next window is loaded by the executor
+        tasks.get(0).run();
+        assertEquals("10+10", model.loads.get(1));
+        model.setRowIndex(10);
+        assertEquals(Integer.valueOf(10), model.getRowData());
+        assertEquals(2, model.loads.size());
+        assertEquals(2, tasks.size());
+
+        // only two windows are kept, so the first one is loaded again
+        tasks.get(1).run();
+        model.setRowIndex(0);
+        assertEquals(Integer.valueOf(0), model.getRowData());
+        assertEquals("0+10", model.loads.get(3));
+
+        model.refresh();
+        model.setRowIndex(0);
+        assertEquals(Integer.valueOf(0), model.getRowData());
+        assertEquals(2, model.counts);
+    }
+}
@@ -0,0 +1,181 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.myfaces.shared.renderkit.html.util;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import javax.faces.context.ResponseWriter;
+
+import org.apache.myfaces.shared.renderkit.html.HtmlResponseWriterImpl;
+import org.apache.myfaces.test.base.AbstractJsfTestCase;
+
+/**
+ * Tests <code>org.apache.myfaces.shared.renderkit.html.util.ByteEncodingWriter</code>.
+ */
+public class ByteEncodingWriterTest extends AbstractJsfTestCase
+{
+    private static final String MIXED = "Hello <b>w\u00F6rld</b> \u20AC 100 \uD83D\uDE00 \u4E2D\u6587 end";
+
+    public ByteEncodingWriterTest(String name)
+    {
+        super(name);
+    }
+
+    public void testIsSupported()
+    {
+        assertTrue(ByteEncodingWriter.isSupported("UTF-8"));
+        assertTrue(ByteEncodingWriter.isSupported("utf-8"));
+        assertTrue(ByteEncodingWriter.isSupported("ISO-8859-1"));
+        assertFalse(ByteEncodingWriter.isSupported("UTF-16"));
+        assertFalse(ByteEncodingWriter.isSupported("unknown-encoding"));
+        assertFalse(ByteEncodingWriter.isSupported(null));
+    }
+
+    public void testWriteStringUTF8() throws IOException
+    {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ByteEncodingWriter writer = new ByteEncodingWriter(out, "UTF-8");
+        writer.write(MIXED);
+        writer.close();
+        assertEquals(MIXED, new String(out.toByteArray(), StandardCharsets.UTF_8));
+    }
+
+    public void testWriteCharsUTF8() throws IOException
+    {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ByteEncodingWriter writer = new ByteEncodingWriter(out, "UTF-8");
+        char[] chars = MIXED.toCharArray();
+        // split the surrogate pair between calls
+        int split = MIXED.indexOf('\uD83D') + 1;
+        writer.write(chars, 0, split);
+        writer.write(chars, split, chars.length - split);
+        writer.close();
+        assertEquals(MIXED, new String(out.toByteArray(), StandardCharsets.UTF_8));
+    }
+
+    public void testWriteSingleChars() throws IOException
+    {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ByteEncodingWriter writer = new ByteEncodingWriter(out, "UTF-8");
+        for (int i = 0; i < MIXED.length(); i++)
+        {
+            writer.write(MIXED.charAt(i));
+        }
+        writer.close();
+        assertEquals(MIXED, new String(out.toByteArray(), StandardCharsets.UTF_8));
+    }
+
+    public void testWriteISO88591() throws IOException
+    {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ByteEncodingWriter writer = new ByteEncodingWriter(out, "ISO-8859-1");
+        writer.write(MIXED);
+        writer.close();
+        assertEquals(new String(MIXED.getBytes(StandardCharsets.ISO_8859_1), StandardCharsets.ISO_8859_1),
+                new String(out.toByteArray(), StandardCharsets.ISO_8859_1));
+    }
+
+    public void testLargeContent() throws IOException
+    {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 5000; i++)
+        {
+            sb.append(i).append(MIXED);
+        }
+        String content = sb.toString();
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ByteEncodingWriter writer = new ByteEncodingWriter(out, "UTF-8");
+        writer.write(content);
+        writer.writeBytes(new byte[20000], 0, 20000);
+        writer.write('x');
+        writer.close();
+
+        byte[] expected = content.getBytes(StandardCharsets.UTF_8);
+        byte[] result = out.toByteArray();
+        assertEquals(expected.length + 20001, result.length);
+        assertEquals(content, new String(result, 0, expected.length, StandardCharsets.UTF_8));
+    }
+
+    public void testFlushBufferDoesNotFlushStream() throws IOException
+    {
+        final boolean[] flushed = new boolean[1];
+        ByteArrayOutputStream out = new ByteArrayOutputStream()
+        {
+            @Override
+            public void flush() throws IOException
+            {
+                flushed[0] = true;
+            }
+        };
+        ByteEncodingWriter writer = new ByteEncodingWriter(out, "UTF-8");
+        writer.write("abc");
+        assertEquals(0, out.size());
+        writer.flushBuffer();
+        assertEquals(3, out.size());
+        assertFalse(flushed[0]);
+        writer.flush();
+        assertTrue(flushed[0]);
+        writer.close();
+    }
+
+    /**
+     * The markup of a big table rendered with the ResponseWriter must be the same using the
+     * Writer of the container or this class.
+     */
+    public void testRenderTable() throws IOException
+    {
+        ByteArrayOutputStream expected = new ByteArrayOutputStream();
+        Writer containerWriter = new OutputStreamWriter(expected, StandardCharsets.UTF_8);
+        renderTable(new HtmlResponseWriterImpl(containerWriter, "text/html", "UTF-8"));
+        containerWriter.flush();
+
+        ByteArrayOutputStream result = new ByteArrayOutputStream();
+        ByteEncodingWriter byteWriter = new ByteEncodingWriter(result, "UTF-8");
+        renderTable(new HtmlResponseWriterImpl(byteWriter, "text/html", "UTF-8"));
+        byteWriter.close();
+
+        assertTrue(Arrays.equals(expected.toByteArray(), result.toByteArray()));
+    }
+
+    private void renderTable(ResponseWriter writer) throws IOException
+    {
+        writer.startElement("table", null);
+        writer.writeAttribute("class", "data", null);
+        for (int row = 0; row < 2000; row++)
+        {
+            writer.startElement("tr", null);
+            for (int col = 0; col < 5; col++)
+            {
+                writer.startElement("td", null);
+                writer.writeAttribute("title", "Cell \"" + row + "-" + col + "\"", null);
+                writer.writeText("Value <" + row + "> & " + MIXED, null);
+                writer.endElement("td");
+            }
+            writer.endElement("tr");
+        }
+        writer.endElement("table");
+        writer.flush();
+    }
+}
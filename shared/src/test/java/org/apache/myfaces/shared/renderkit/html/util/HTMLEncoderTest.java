@@ -57,6 +57,16 @@ public class HTMLEncoderTest extends AbstractJsfTestCase {
     assertEquals(stringNoSpecialCharsEncoded, encodedStr);
   }
 
+  public void testEncodeStringNoSpecialCharsReturnsSameInstance() {
+    String encodedStr = HTMLEncoder.encode(stringNoSpecialChars, true, true, true);
+    assertSame(stringNoSpecialChars, encodedStr);
+  }
+
+  public void testEncodeStringBlanksAndControlChars() {
+    String encodedStr = HTMLEncoder.encode(" a  b\u0001\tc", false, true, true);
+    assertEquals("&#160;a &#160;b\tc", encodedStr);
+  }
+
   public void testEncodeStringSpecialChars1() {
     String encodedStr = HTMLEncoder.encode(stringSpecialChars1);
     assertEquals(stringSpecialChars1Encoded, encodedStr);
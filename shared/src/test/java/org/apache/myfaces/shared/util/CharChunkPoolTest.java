@@ -0,0 +1,87 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.myfaces.shared.util;
+
+import java.io.Writer;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+public class CharChunkPoolTest
+{
+    @Test
+    public void testReuseAfterRelease()
+    {
+        CharChunkPool pool = new CharChunkPool(16, 32);
+
+        CharChunkPool.Lease lease = new CharChunkPool.Lease(pool);
+        char[] first = lease.acquire();
+        char[] second = lease.acquire();
+        char[] third = lease.acquire();
+        assertEquals(16, first.length);
+        assertEquals(3, pool.getMisses());
+
+        // Only two chunks fit in the pool
+        lease.release();
+        assertEquals(32, pool.getRetainedChars());
+        assertEquals(1, pool.getDiscarded());
+
+        CharChunkPool.Lease next = new CharChunkPool.Lease(pool);
+        char[] reused = next.acquire();
+        assertSame(first, reused);
+        assertEquals(1, pool.getHits());
+        assertEquals(16, pool.getRetainedChars());
+        assertNotSame(third, next.acquire());
+    }
+
+    @Test
+    public void testDisabledPool()
+    {
+        CharChunkPool pool = new CharChunkPool(16, 0);
+        assertEquals(null, pool.getLease(null));
+        assertEquals(0, pool.getMaxRetainedChars());
+    }
+
+    @Test
+    public void testPooledStreamCharBuffer() throws Exception
+    {
+        CharChunkPool pool = new CharChunkPool(16, 1024);
+        CharChunkPool.Lease lease = new CharChunkPool.Lease(pool);
+        StreamCharBuffer buffer = new StreamCharBuffer(16, 100, 1024, lease);
+
+        for (int i = 0; i < 3; i++)
+        {
+            StringBuilder expected = new StringBuilder();
+            Writer writer = buffer.getWriter();
+            for (int j = 0; j < 20; j++)
+            {
+                String text = "chunk " + i + " line " + j + "\n";
+                writer.write(text);
+                expected.append(text);
+            }
+            assertEquals(expected.toString(), buffer.toString());
+            buffer.reset();
+        }
+        lease.release();
+        assertEquals(0, pool.getHits());
+    }
+}
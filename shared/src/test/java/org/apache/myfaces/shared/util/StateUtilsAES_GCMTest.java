@@ -0,0 +1,77 @@
+/*
+ * Copyright 2004-2006 The Apache Software Foundation.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.myfaces.shared.util;
+
+import java.util.Arrays;
+
+import junit.framework.Test;
+
+/**
+ * <p>This TestCase uses the Advanced Encryption Standard with
+ * Galois/Counter Mode. The state is authenticated by the cipher, so
+ * no separate MAC is used.</p>
+ * <p/>
+ * <p/>
+ * If you are getting a SecurityException complaining about keysize,
+ * you most likely need to get the unlimited strength jurisdiction
+ * policy files from a place like http://java.sun.com/j2se/1.4.2/download.html .
+ * </p>
+ *
+ * @see pom.xml <excludes>
+ */
+
+public class StateUtilsAES_GCMTest extends AbstractStateUtilsTest
+{
+
+    public StateUtilsAES_GCMTest(String name) {
+        super(name);
+    }
+
+    // No longer necessary using junit 4 to run tests
+    //public static Test suite() {
+    //    return null; // keep this method or maven won't run it
+    //}
+
+    public void setUp() throws Exception
+    {
+        super.setUp();
+
+        servletContext.addInitParameter(StateUtils.INIT_SECRET, BASE64_KEY_SIZE_16);
+        servletContext.addInitParameter(StateUtils.INIT_ALGORITHM, "AES");
+        servletContext.addInitParameter(StateUtils.INIT_ALGORITHM_PARAM, "GCM/NoPadding");
+        servletContext.addInitParameter(StateUtils.INIT_SECRET_KEY_CACHE, "false");
+        StateUtils.initSecret(servletContext);// should do nothing
+
+    }
+
+    public void testNonceIsNotReused()
+    {
+        byte[] sensitiveBytes = sensitiveString.getBytes();
+        byte[] secure1 = StateUtils.encrypt(sensitiveBytes, externalContext);
+        byte[] secure2 = StateUtils.encrypt(sensitiveBytes, externalContext);
+        assertFalse(Arrays.equals(secure1, secure2));
+        assertTrue(Arrays.equals(sensitiveBytes, StateUtils.decrypt(secure2, externalContext)));
+    }
+
+    public void testTamperedStateIsRejected()
+    {
+        String constructed = StateUtils.construct(sensitiveString, externalContext);
+        byte[] secure = StateUtils.decode(constructed.getBytes());
+        secure[secure.length / 2] ^= 1;
+        String tampered = new String(StateUtils.encode(secure));
+        assertNull(StateUtils.reconstruct(tampered, externalContext));
+    }
+}
@@ -0,0 +1,137 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.myfaces.shared.util.compress;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Random;
+
+import org.apache.myfaces.shared.util.StateUtils;
+import org.apache.myfaces.shared.util.serial.DefaultSerialFactory;
+import org.apache.myfaces.test.base.junit4.AbstractJsfTestCase;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class StateCompressorsTest extends AbstractJsfTestCase
+{
+
+    private static byte[] createData()
+    {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 500; i++)
+        {
+            sb.append("form:table:").append(i).append(":input=text").append(i % 7).append(';');
+        }
+        return sb.toString().getBytes();
+    }
+
+    private static byte[] compress(StateCompressor compressor, byte[] bytes) throws IOException
+    {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        compressor.compress(bytes, 0, bytes.length, baos);
+        return baos.toByteArray();
+    }
+
+    private static byte[] decompress(byte[] bytes) throws IOException
+    {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        StateCompressors.decompress(null, bytes, 0, bytes.length, baos);
+        return baos.toByteArray();
+    }
+
+    @Test
+    public void testRoundTrip() throws Exception
+    {
+        byte[] random = new byte[3000];
+        new Random(1).nextBytes(random);
+        byte[][] inputs = new byte[][]{new byte[0], new byte[]{1}, new byte[2049], random, createData()};
+
+        for (String name : new String[]{StateCompressors.GZIP, StateCompressors.DEFLATE,
+            StateCompressors.LZ, StateCompressors.NONE})
+        {
+            StateCompressor compressor = StateCompressors.createStateCompressor(name, 1);
+            for (byte[] input : inputs)
+            {
+                byte[] compressed = compress(compressor, input);
+                Assert.assertEquals(compressor.getId(), compressed[0] & 0xFF);
+                Assert.assertArrayEquals(name, input, decompress(compressed));
+            }
+        }
+    }
+
+    @Test
+    public void testCompressesRepeatedData() throws Exception
+    {
+        byte[] data = createData();
+        Assert.assertTrue(compress(StateCompressors.createStateCompressor(StateCompressors.LZ, -1), data).length
+                < data.length / 2);
+        Assert.assertTrue(compress(StateCompressors.createStateCompressor(StateCompressors.DEFLATE, 9), data).length
+                < data.length / 4);
+    }
+
+    @Test
+    public void testLegacyGZIP() throws Exception
+    {
+        byte[] data = createData();
+        Assert.assertArrayEquals(data, decompress(StateUtils.compress(data)));
+
+        byte[] lz = compress(StateCompressors.createStateCompressor(StateCompressors.LZ, -1), data);
+        Assert.assertArrayEquals(data, StateUtils.decompress(lz));
+    }
+
+    @Test
+    public void testThreshold() throws Exception
+    {
+        StateCompressor compressor = StateCompressors.createStateCompressor(StateCompressors.GZIP, -1);
+        byte[] data = createData();
+
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        StateCompressors.compress(compressor, data.length + 1, data, 0, data.length, baos);
+        Assert.assertEquals(NoStateCompressor.ID, baos.toByteArray()[0]);
+        Assert.assertArrayEquals(data, decompress(baos.toByteArray()));
+
+        baos.reset();
+        StateCompressors.compress(compressor, data.length, data, 0, data.length, baos);
+        Assert.assertEquals(DeflateStateCompressor.GZIP_ID, baos.toByteArray()[0]);
+    }
+
+    @Test(expected = IOException.class)
+    public void testCorruptedLZ() throws Exception
+    {
+        byte[] data = createData();
+        byte[] compressed = compress(StateCompressors.createStateCompressor(StateCompressors.LZ, -1), data);
+        decompress(Arrays.copyOf(compressed, compressed.length / 2));
+    }
+
+    @Test
+    public void testClientState() throws Exception
+    {
+        servletContext.addInitParameter(StateUtils.USE_ENCRYPTION, "false");
+        servletContext.addInitParameter(StateUtils.COMPRESS_STATE_IN_CLIENT, "true");
+        servletContext.addInitParameter(StateUtils.COMPRESSION_CODEC_IN_CLIENT, StateCompressors.LZ);
+        externalContext.getApplicationMap().put(StateUtils.SERIAL_FACTORY, new DefaultSerialFactory());
+
+        String state = new String(createData());
+        String constructed = StateUtils.construct(state, externalContext);
+        byte[] bytes = StateUtils.decode(constructed.getBytes(StateUtils.ZIP_CHARSET));
+        Assert.assertEquals(LZStateCompressor.ID, bytes[0]);
+        Assert.assertEquals(state, StateUtils.reconstruct(constructed, externalContext));
+    }
+}
@@ -0,0 +1,286 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.myfaces.shared.util.serial;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InvalidObjectException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.io.StreamCorruptedException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import javax.faces.application.ProjectStage;
+import javax.faces.component.UIComponentBase;
+import javax.faces.convert.NumberConverter;
+
+import org.apache.myfaces.shared.util.StateUtils;
+import org.apache.myfaces.test.base.junit4.AbstractJsfTestCase;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class CompactSerialFactoryTest extends AbstractJsfTestCase
+{
+
+    private static byte[] write(SerialFactory factory, Object object) throws IOException
+    {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        ObjectOutputStream oos = factory.getObjectOutputStream(baos);
+        oos.writeObject(object);
+        oos.close();
+        return baos.toByteArray();
+    }
+
+    private static Object read(SerialFactory factory, byte[] bytes) throws Exception
+    {
+        ObjectInputStream ois = factory.getObjectInputStream(new ByteArrayInputStream(bytes));
+        try
+        {
+            return ois.readObject();
+        }
+        finally
+        {
+            ois.close();
+        }
+    }
+
+    private static Object roundTrip(Object object) throws Exception
+    {
+        SerialFactory factory = new CompactSerialFactory();
+        return read(factory, write(factory, object));
+    }
+
+    private static Map<String, Object> createStates()
+    {
+        Map<String, Object> states = new HashMap<String, Object>();
+        for (int i = 0; i < 20; i++)
+        {
+            states.put("form:table:" + i + ":input", new Object[]{
+                null, new Object[]{"value", "text" + i, "disabled", Boolean.FALSE, "maxlength", i}});
+        }
+        return states;
+    }
+
+    @Test
+    public void testSimpleValues() throws Exception
+    {
+        Object[] values = new Object[]{
+            null, Boolean.TRUE, Boolean.FALSE, 0, -1, Integer.MAX_VALUE, Integer.MIN_VALUE,
+            Long.MIN_VALUE, Long.MAX_VALUE, (short) -12, (byte) 3, 'x', '\u20ac', 1.25d, Double.NaN,
+            -3.5f, "", "plain", "\u00fc\u00f1\u20ac\ud83d\ude00", String.class, ProjectStage.Development};
+        for (Object value : values)
+        {
+            Assert.assertEquals(value, roundTrip(value));
+        }
+    }
+
+    @Test
+    public void testCollectionsAndArrays() throws Exception
+    {
+        List<Object> list = new ArrayList<Object>();
+        list.add("a");
+        list.add(1);
+        list.add(null);
+        list.add(new String[]{"b", "c"});
+
+        Object result = roundTrip(new Object[]{list, new byte[]{1, 2, 3}, createStates()});
+        Object[] array = (Object[]) result;
+
+        List<?> resultList = (List<?>) array[0];
+        Assert.assertEquals(ArrayList.class, resultList.getClass());
+        Assert.assertEquals("a", resultList.get(0));
+        Assert.assertEquals(1, resultList.get(1));
+        Assert.assertNull(resultList.get(2));
+        Assert.assertArrayEquals(new String[]{"b", "c"}, (String[]) resultList.get(3));
+        Assert.assertArrayEquals(new byte[]{1, 2, 3}, (byte[]) array[1]);
+
+        Map<?, ?> states = (Map<?, ?>) array[2];
+        Assert.assertEquals(HashMap.class, states.getClass());
+        Assert.assertEquals(20, states.size());
+        Object[] state = (Object[]) ((Object[]) states.get("form:table:7:input"))[1];
+        Assert.assertEquals("text7", state[1]);
+        Assert.assertEquals(Boolean.FALSE, state[3]);
+        Assert.assertEquals(7, state[5]);
+    }
+
+    @Test
+    public void testAttachedStateWrapper() throws Exception
+    {
+        NumberConverter converter = new NumberConverter();
+        converter.setPattern("#,##0.00");
+        converter.setMaxFractionDigits(2);
+        Object state = UIComponentBase.saveAttachedState(facesContext, converter);
+
+        Object restoredState = roundTrip(state);
+        Assert.assertEquals(state.getClass(), restoredState.getClass());
+
+        NumberConverter restored = (NumberConverter) UIComponentBase.restoreAttachedState(
+                facesContext, restoredState);
+        Assert.assertEquals("#,##0.00", restored.getPattern());
+        Assert.assertEquals(2, restored.getMaxFractionDigits());
+    }
+
+    @Test
+    public void testFallbackToJavaSerialization() throws Exception
+    {
+        UserValue value = new UserValue("custom");
+        Object[] result = (Object[]) roundTrip(new Object[]{"a", value, "a"});
+        Assert.assertEquals("a", result[0]);
+        Assert.assertEquals(value, result[1]);
+        Assert.assertEquals("a", result[2]);
+    }
+
+    @Test
+    public void testSmallerThanJavaSerialization() throws Exception
+    {
+        Object state = new Object[]{null, createStates(), 3};
+        byte[] compact = write(new CompactSerialFactory(), state);
+        byte[] java = write(new DefaultSerialFactory(), state);
+        Assert.assertTrue(compact.length < java.length);
+    }
+
+    @Test
+    public void testStateUtils() throws Exception
+    {
+        externalContext.getApplicationMap().put(StateUtils.SERIAL_FACTORY, new CompactSerialFactory());
+
+        Object state = new Object[]{null, createStates(), 3};
+        byte[] bytes = StateUtils.getAsByteArray(state, externalContext);
+        Object[] result = (Object[]) StateUtils.getAsObject(bytes, externalContext);
+        Assert.assertEquals(3, result[2]);
+        Assert.assertEquals(20, ((Map<?, ?>) result[1]).size());
+    }
+
+    @Test(expected = StreamCorruptedException.class)
+    public void testJavaSerializedStreamIsRejected() throws Exception
+    {
+        byte[] bytes = write(new DefaultSerialFactory(), "value");
+        read(new CompactSerialFactory(), bytes);
+    }
+
+    @Test
+    public void testMultipleObjectsInStream() throws Exception
+    {
+        SerialFactory factory = new CompactSerialFactory();
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        ObjectOutputStream oos = factory.getObjectOutputStream(baos);
+        oos.writeObject("form:input");
+        oos.writeObject(new Object[]{"form:input", 1});
+        oos.close();
+
+        ObjectInputStream ois = factory.getObjectInputStream(new ByteArrayInputStream(baos.toByteArray()));
+        Assert.assertEquals("form:input", ois.readObject());
+        Object[] second = (Object[]) ois.readObject();
+        Assert.assertTrue(Arrays.equals(new Object[]{"form:input", 1}, second));
+        ois.close();
+    }
+
+    @Test
+    public void testSharedReferencesAreCopied() throws Exception
+    {
+        List<Object> shared = new ArrayList<Object>();
+        shared.add("value");
+        Object[] result = (Object[]) roundTrip(new Object[]{shared, shared});
+        Assert.assertEquals(result[0], result[1]);
+        Assert.assertNotSame(result[0], result[1]);
+    }
+
+    @Test(expected = InvalidObjectException.class)
+    public void testCycleIsRejected() throws Exception
+    {
+        Object[] array = new Object[2];
+        List<Object> list = new ArrayList<Object>();
+        list.add(array);
+        array[1] = list;
+        write(new CompactSerialFactory(), array);
+    }
+
+    @Test
+    public void testLengthLargerThanInputIsRejected() throws Exception
+    {
+        // header, TAG_OBJECT_ARRAY and a length of 2^28 - 1, followed by one element
+        byte[] bytes = new byte[]{(byte) CompactObjectOutputStream.MAGIC, CompactObjectOutputStream.VERSION,
+            CompactObjectOutputStream.TAG_OBJECT_ARRAY, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, 0x7F,
+            CompactObjectOutputStream.TAG_NULL};
+        try
+        {
+            read(new CompactSerialFactory(), bytes);
+            Assert.fail();
+        }
+        catch (StreamCorruptedException e)
+        {
+            // expected
+        }
+
+        // without the length of the input, the length is checked against a maximum
+        SerialFactory factory = new CompactSerialFactory();
+        ObjectInputStream ois = factory.getObjectInputStream(
+                new BufferedInputStream(new ByteArrayInputStream(bytes)));
+        try
+        {
+            ois.readObject();
+            Assert.fail();
+        }
+        catch (StreamCorruptedException e)
+        {
+            // expected
+        }
+        finally
+        {
+            ois.close();
+        }
+    }
+
+    @Test(expected = StreamCorruptedException.class)
+    public void testInvalidStringReferenceIsRejected() throws Exception
+    {
+        byte[] bytes = new byte[]{(byte) CompactObjectOutputStream.MAGIC, CompactObjectOutputStream.VERSION,
+            CompactObjectOutputStream.TAG_STRING_REF, 0x05};
+        read(new CompactSerialFactory(), bytes);
+    }
+
+    private static class UserValue implements Serializable
+    {
+        private static final long serialVersionUID = 1L;
+        private final String value;
+
+        UserValue(String value)
+        {
+            this.value = value;
+        }
+
+        @Override
+        public boolean equals(Object obj)
+        {
+            return obj instanceof UserValue && ((UserValue) obj).value.equals(value);
+        }
+
+        @Override
+        public int hashCode()
+        {
+            return value.hashCode();
+        }
+    }
+}